@@ -21,6 +21,17 @@ public abstract class ClientObject
 	 */
 	public PVector position;
 	
+	/**
+	 * Velocity of this object in pixels a second, if the server sent it, otherwise nothing
+	 */
+	public PVector velocity;
+	
+	/**
+	 * Where the object is drawn, which is its position carried on along its velocity while the
+	 * next snapshot is late. See DeadReckoning
+	 */
+	public PVector drawn;
+	
 	/**
 	 * Parent PApplet to draw to
 	 */
@@ -35,6 +46,8 @@ public abstract class ClientObject
 	public ClientObject(PApplet parent, int x, int y)
 	{
 		this.position = new PVector(x, y);
+		this.velocity = new PVector();
+		this.drawn = new PVector(x, y);
 		this.parent = parent;
 	}
 	
@@ -0,0 +1,82 @@
+/**
+ * A Codec knows how to talk to a particular kind of server - how to tell it which keys we're
+ * pressing and how to make sense of the snapshots it sends back.
+ *
+ * @author Chris Granville <v2t04 at students.keele.ac.uk>
+ * @version 3.0f (12/05/2010)
+ * @copyright 2009 - 2010 Chris Granville. All Rights Reserved.
+ */
+
+public interface Codec
+{
+	/**
+	 * Queue anything that has to be sent before anything else
+	 * @param connection the connection to the server
+	 */
+	void start(Connection connection);
+
+	/**
+	 * Queue the keys we're currently pressing
+	 * @param connection the connection to the server
+	 * @param keys the keys being pressed, as a combination of the <code>Protocol.KEY_</code> bits
+	 */
+	void sendInput(Connection connection, int keys);
+
+	/**
+	 * Deal with some bytes that arrived from the server, decoding the first snapshot they finish
+	 * into <code>table</code> without allocating anything. One read can finish more than one
+	 * snapshot, so once this has returned true it should be called again with no bytes and a
+	 * fresh table until it returns false, so that none of them are lost
+	 * @param data array holding the bytes
+	 * @param offset index of the first byte
+	 * @param length number of bytes, or 0 to carry on with what's left from last time
+	 * @param table where to put the snapshot. Only touched if a whole snapshot was decoded
+	 * @return a boolean indicating whether <code>table</code> now holds a new snapshot
+	 */
+	boolean receive(byte[] data, int offset, int length, EntityTable table);
+
+	/**
+	 * Has it turned out that the server only talks the original text protocol. If so, the
+	 * bytes that were last passed to <code>receive()</code> need handing to a LegacyCodec instead
+	 * @return a boolean indicating whether we need to switch to the LegacyCodec
+	 */
+	boolean serverIsLegacy();
+
+	/**
+	 * Has the server refused to talk to us
+	 * @return a boolean indicating whether the server rejected us
+	 */
+	boolean rejected();
+
+	/**
+	 * Get the decompressor, if the server is compressing what it sends us
+	 * @return the DecompressionStage in use, or null if the stream isn't compressed
+	 */
+	DecompressionStage getDecompression();
+
+	/**
+	 * Get the number of snapshots that were too malformed to use. Read from the animation
+	 * thread, so it might be a little out of date
+	 * @return the number of snapshots thrown away
+	 */
+	int getMalformed();
+
+	/**
+	 * Get the round trip time to the server, as the server last told us
+	 * @return the round trip time in milliseconds, or 0 if we don't know it
+	 */
+	float getRtt();
+
+	/**
+	 * Get how many frames a second the server runs at, which is how far apart in time its
+	 * snapshot sequence numbers are
+	 * @return the tick rate, or 0 if the server's snapshots don't have sequence numbers
+	 */
+	float getTickRate();
+
+	/**
+	 * Get the events the server has told us about, waiting to be shown
+	 * @return the EventQueue, or null if this kind of server doesn't send events
+	 */
+	EventQueue getEvents();
+}
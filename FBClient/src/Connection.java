@@ -0,0 +1,59 @@
+/**
+ * Connection is the client's end of whatever carries bytes to and from the server: a TCP
+ * socket normally, or a shared memory ring when the server is on the same machine. The
+ * Codecs and FBClient only ever talk to the server through this.
+ *
+ * <p>Nothing is written straight away. Everything queued during a frame is held until
+ * <code>flush()</code> sends it in one go.</p>
+ *
+ * @author Chris Granville <v2t04 at students.keele.ac.uk>
+ * @version 3.0f (12/05/2010)
+ * @copyright 2009 - 2010 Chris Granville. All Rights Reserved.
+ */
+
+public interface Connection
+{
+	/**
+	 * Is the connection still usable
+	 * @return a boolean indicating if the connection is still open
+	 */
+	boolean active();
+
+	/**
+	 * Get the number of bytes waiting to be read
+	 * @return the number of bytes that can be read without blocking
+	 */
+	int available();
+
+	/**
+	 * Read as much of what is waiting as will fit into <code>buffer</code>, without blocking
+	 * @param buffer where to put the bytes
+	 * @return the number of bytes read
+	 */
+	int read(byte[] buffer);
+
+	/**
+	 * Add a message to the outbound buffer, to be sent at the next <code>flush()</code>
+	 * @param message the message to send
+	 */
+	void queue(String message);
+
+	/**
+	 * Add raw bytes to the outbound buffer, to be sent at the next <code>flush()</code>
+	 * @param data array holding the bytes to send
+	 * @param offset index of the first byte to send
+	 * @param length number of bytes to send
+	 */
+	void queue(byte[] data, int offset, int length);
+
+	/**
+	 * Send everything that has been queued since the last flush in one go
+	 * @return the number of bytes sent
+	 */
+	int flush();
+
+	/**
+	 * Close the connection
+	 */
+	void close();
+}
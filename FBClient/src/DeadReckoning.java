@@ -0,0 +1,179 @@
+import processing.core.PApplet;
+
+/**
+ * DeadReckoning keeps Ships and Shots moving when a snapshot is late. Instead of drawing the
+ * last positions the server sent until the next ones turn up, and then jumping, everything is
+ * carried on along the velocity the server sent with it for a short while. When the real
+ * positions arrive, anything that has drifted from them is eased back over a few frames
+ * rather than snapped.
+ *
+ * <p>Only the animation thread uses this. It works out <code>drawn</code> for everything in the
+ * table about to be drawn, and remembers where things were drawn so it can tell how far they
+ * have drifted when the next table turns up. The server doesn't tell us which Ship is which,
+ * so entries are matched up by their place in the table, and anything that has moved too far
+ * to be the same thing is just snapped to where it is.</p>
+ *
+ * @author Chris Granville <v2t04 at students.keele.ac.uk>
+ * @version 3.0f (12/05/2010)
+ * @copyright 2009 - 2010 Chris Granville. All Rights Reserved.
+ */
+
+public class DeadReckoning
+{
+	/**
+	 * Longest we carry things on for after a snapshot is due, in nanoseconds. After that they
+	 * stop where they are, as the server has probably gone away and guessing any further just
+	 * means a bigger jump when it comes back
+	 */
+	private static final long MAX_EXTRAPOLATION = 250000000L;
+
+	/**
+	 * How long drift is eased out over once the real positions arrive, in nanoseconds
+	 */
+	private static final long BLEND_TIME = 100000000L;
+
+	/**
+	 * Drift further than this, in pixels, and it isn't drift: it's a different Ship or Shot in
+	 * that place in the table, or one that has just gone off the edge of the screen
+	 */
+	private static final float MAX_CORRECTION = 40;
+
+	/**
+	 * Parent PApplet, for the size of the screen
+	 */
+	private PApplet parent;
+
+	/**
+	 * The table we last worked on. A different table, or the same one with a different arrival
+	 * time, means a new snapshot
+	 */
+	private EntityTable current;
+
+	/**
+	 * When <code>current</code> arrived
+	 */
+	private long current_received;
+
+	/**
+	 * When the drift started being eased out, from System.nanoTime()
+	 */
+	private long blend_start;
+
+	/**
+	 * How far each Ship and Shot was from its real position when its snapshot arrived, in pixels
+	 */
+	private float[] ship_drift = new float[32], shot_drift = new float[32];
+
+	/**
+	 * Where each Ship and Shot was last drawn, x and y in turn
+	 */
+	private float[] ship_drawn = new float[32], shot_drawn = new float[32];
+
+	/**
+	 * Number of Ships and Shots last drawn
+	 */
+	private int ship_count, shot_count;
+
+	/**
+	 * Constructor for DeadReckoning
+	 * @param parent the parent PApplet, for the size of the screen
+	 */
+	DeadReckoning(PApplet parent)
+	{
+		this.parent = parent;
+	}
+
+	/**
+	 * Work out where everything in the table should be drawn this frame
+	 * @param table the table about to be drawn
+	 * @param now the time, from System.nanoTime()
+	 */
+	void update(EntityTable table, long now)
+	{
+		boolean arrived = table != current || table.received != current_received;
+		if(arrived)
+		{
+			current = table;
+			current_received = table.received;
+			blend_start = now;
+		}
+
+		// Positions are as of when the snapshot was due to be shown, which is when it arrived unless it was held back
+		float elapsed = Math.min(Math.max(now - table.due, 0), MAX_EXTRAPOLATION) / 1000000000.0f;
+		float blend = table.moving ? Math.max(1.0f - (float) (now - blend_start) / BLEND_TIME, 0) : 0;
+
+		if(ship_drawn.length < table.ship_count * 2)
+		{
+			ship_drawn = grow(ship_drawn, table.ship_count * 2);
+			ship_drift = grow(ship_drift, table.ship_count * 2);
+		}
+		for(int i = 0; i < table.ship_count; i++) place(table.ships[i], i, elapsed, blend, arrived, ship_count, ship_drawn, ship_drift);
+		ship_count = table.ship_count;
+
+		if(shot_drawn.length < table.shot_count * 2)
+		{
+			shot_drawn = grow(shot_drawn, table.shot_count * 2);
+			shot_drift = grow(shot_drift, table.shot_count * 2);
+		}
+		for(int i = 0; i < table.shot_count; i++) place(table.shots[i], i, elapsed, blend, arrived, shot_count, shot_drawn, shot_drift);
+		shot_count = table.shot_count;
+	}
+
+	/**
+	 * Work out where one Ship or Shot should be drawn
+	 * @param object the Ship or Shot
+	 * @param index its place in the table
+	 * @param elapsed how long to carry it on for, in seconds
+	 * @param blend how much of its drift is left, from 1 just after it arrived to 0
+	 * @param arrived has its snapshot only just arrived
+	 * @param last_count number of the same kind of thing last drawn
+	 * @param drawn where each of that kind was last drawn
+	 * @param drift how far each of that kind had drifted
+	 */
+	private void place(ClientObject object, int index, float elapsed, float blend, boolean arrived, int last_count, float[] drawn, float[] drift)
+	{
+		float x = wrap(object.position.x + object.velocity.x * elapsed, parent.width);
+		float y = wrap(object.position.y + object.velocity.y * elapsed, parent.height);
+		int i = index * 2;
+		if(arrived)
+		{
+			// Whatever was drawn here last frame, if it's close enough to be the same thing
+			float dx = drawn[i] - x, dy = drawn[i + 1] - y;
+			boolean same = index < last_count && dx * dx + dy * dy <= MAX_CORRECTION * MAX_CORRECTION;
+			drift[i] = same ? dx : 0;
+			drift[i + 1] = same ? dy : 0;
+		}
+		x += drift[i] * blend;
+		y += drift[i + 1] * blend;
+		object.drawn.x = x;
+		object.drawn.y = y;
+		drawn[i] = x;
+		drawn[i + 1] = y;
+	}
+
+	/**
+	 * Bring a coordinate back onto the screen the same way the server does
+	 * @param value the coordinate
+	 * @param size the width or height of the screen
+	 * @return the coordinate on the screen
+	 */
+	private static float wrap(float value, float size)
+	{
+		if(value > size) value -= size;
+		if(value < 0) value += size;
+		return value;
+	}
+
+	/**
+	 * Make an array bigger, keeping what's in it
+	 * @param array the array
+	 * @param length how long it needs to be, at least
+	 * @return the bigger array
+	 */
+	private static float[] grow(float[] array, int length)
+	{
+		float[] bigger = new float[Math.max(array.length * 2, length)];
+		System.arraycopy(array, 0, bigger, 0, array.length);
+		return bigger;
+	}
+}
@@ -0,0 +1,201 @@
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * DecompressionStage undoes the server's <code>CompressionStage</code>. It is given the raw
+ * bytes from the server as they arrive, picks the compressed blocks out of them and
+ * decompresses each one with a single long-lived Inflater primed with
+ * <code>Protocol.DICTIONARY</code>.
+ *
+ * <p>Like the server side, it keeps count of how well compression is doing and how long it
+ * takes us to undo it.</p>
+ *
+ * @author Chris Granville <v2t04 at students.keele.ac.uk>
+ * @version 3.0f (12/05/2010)
+ * @copyright 2009 - 2010 Chris Granville. All Rights Reserved.
+ */
+
+public class DecompressionStage
+{
+	/**
+	 * The decompressor, kept for the lifetime of the connection
+	 */
+	private Inflater inflater;
+
+	/**
+	 * Bytes received that haven't made a complete block yet
+	 */
+	private byte[] pending = new byte[Protocol.MAX_FRAME_SIZE + Protocol.COMPRESSED_HEADER_SIZE];
+
+	/**
+	 * Number of bytes in <code>pending</code>
+	 */
+	private int pending_count;
+
+	/**
+	 * Everything that came out of the last call to <code>decompress()</code>
+	 */
+	private byte[] output = new byte[4096];
+
+	/**
+	 * Number of bytes in <code>output</code>
+	 */
+	private int output_length;
+
+	/**
+	 * Number of blocks decompressed so far
+	 */
+	private long messages;
+
+	/**
+	 * Total compressed bytes received, not including block headers
+	 */
+	private long compressed_bytes;
+
+	/**
+	 * Total bytes that came out of the decompressor
+	 */
+	private long raw_bytes;
+
+	/**
+	 * Total time spent decompressing in nanoseconds
+	 */
+	private long total_nanos;
+
+	/**
+	 * Has the stream been corrupted. There's no recovering from that with a shared dictionary
+	 */
+	private boolean failed;
+
+	/**
+	 * Constructor for DecompressionStage
+	 */
+	DecompressionStage()
+	{
+		inflater = new Inflater(true);
+		inflater.setDictionary(Protocol.DICTIONARY);
+	}
+
+	/**
+	 * Take some bytes from the server and decompress whatever complete blocks they finish.
+	 * What came out can be got at with <code>getOutput()</code> and <code>getOutputLength()</code>
+	 * until the next call
+	 * @param data array holding the bytes
+	 * @param offset index of the first byte
+	 * @param length number of bytes
+	 */
+	public void decompress(byte[] data, int offset, int length)
+	{
+		output_length = 0;
+		while(length > 0 && !failed)
+		{
+			int space = Math.min(length, pending.length - pending_count);
+			System.arraycopy(data, offset, pending, pending_count, space);
+			pending_count += space;
+			offset += space;
+			length -= space;
+			drainBlocks();
+		}
+	}
+
+	/**
+	 * Decompress every complete block in <code>pending</code> and shuffle anything left over
+	 * down to the front
+	 */
+	private void drainBlocks()
+	{
+		int position = 0;
+		while(pending_count - position >= Protocol.COMPRESSED_HEADER_SIZE)
+		{
+			int block_length = ((pending[position] & 0xff) << 8) | (pending[position + 1] & 0xff);
+			if(pending_count - position - Protocol.COMPRESSED_HEADER_SIZE < block_length) break;
+
+			long start = System.nanoTime();
+			inflater.setInput(pending, position + Protocol.COMPRESSED_HEADER_SIZE, block_length);
+			try
+			{
+				int produced;
+				do
+				{
+					if(output_length == output.length)
+					{
+						byte[] bigger = new byte[output.length * 2];
+						System.arraycopy(output, 0, bigger, 0, output_length);
+						output = bigger;
+					}
+					produced = inflater.inflate(output, output_length, output.length - output_length);
+					output_length += produced;
+					raw_bytes += produced;
+				}
+				while(produced > 0);
+			}
+			catch (DataFormatException e)
+			{
+				System.err.println("Compressed stream is corrupt: " + e.getMessage());
+				failed = true;
+				return;
+			}
+			total_nanos += System.nanoTime() - start;
+			compressed_bytes += block_length;
+			messages++;
+			position += Protocol.COMPRESSED_HEADER_SIZE + block_length;
+		}
+		System.arraycopy(pending, position, pending, 0, pending_count - position);
+		pending_count -= position;
+	}
+
+	/**
+	 * Get the buffer holding what came out of the last call to <code>decompress()</code>
+	 * @return byte array whose first <code>getOutputLength()</code> bytes are the output
+	 */
+	public byte[] getOutput()
+	{
+		return output;
+	}
+
+	/**
+	 * Get the number of bytes that came out of the last call to <code>decompress()</code>
+	 * @return number of bytes
+	 */
+	public int getOutputLength()
+	{
+		return output_length;
+	}
+
+	/**
+	 * Get the overall compression ratio since the connection started
+	 * @return compressed size divided by raw size, so smaller is better
+	 */
+	public float getRatio()
+	{
+		if(raw_bytes == 0) return 1.0f;
+		return (float) compressed_bytes / raw_bytes;
+	}
+
+	/**
+	 * Get the average time taken to decompress a block
+	 * @return average time in nanoseconds
+	 */
+	public long getAverageNanos()
+	{
+		if(messages == 0) return 0;
+		return total_nanos / messages;
+	}
+
+	/**
+	 * Has the stream been corrupted
+	 * @return a boolean indicating whether we've given up on the stream
+	 */
+	public boolean failed()
+	{
+		return failed;
+	}
+
+	/**
+	 * Free the native memory held by the Inflater. It can't be used after this
+	 */
+	public void end()
+	{
+		inflater.end();
+	}
+}
@@ -0,0 +1,201 @@
+import processing.core.PApplet;
+import processing.core.PGraphics;
+
+/**
+ * EntityTable holds one frame's worth of positions from the server: every Ship and every Shot.
+ * The Ships and Shots are made once and then updated in place from each new snapshot, rather
+ * than thrown away and made again, so that once the table has grown to the size of the game
+ * nothing is allocated while playing and the garbage collector has nothing to do.
+ *
+ * <p>The NetworkThread decodes into tables from a JitterBuffer, which hands them to the
+ * animation thread to draw when they're due.</p>
+ *
+ * @author Chris Granville <v2t04 at students.keele.ac.uk>
+ * @version 3.0f (12/05/2010)
+ * @copyright 2009 - 2010 Chris Granville. All Rights Reserved.
+ */
+
+public class EntityTable
+{
+	/**
+	 * The Ships. Only the first <code>ship_count</code> are in use
+	 */
+	public Ship[] ships;
+
+	/**
+	 * Number of entries in <code>ships</code> that are in use
+	 */
+	public int ship_count;
+
+	/**
+	 * The Shots. Only the first <code>shot_count</code> are in use
+	 */
+	public Shot[] shots;
+
+	/**
+	 * Number of entries in <code>shots</code> that are in use
+	 */
+	public int shot_count;
+
+	/**
+	 * The server's sequence number for the snapshot in the table, or -1 if it didn't give us one
+	 */
+	public int sequence = -1;
+
+	/**
+	 * Did the snapshot carry the velocity of every Ship and Shot
+	 */
+	public boolean moving;
+
+	/**
+	 * Index of our own Ship in <code>ships</code>, or -1 if we haven't got one or the server didn't say
+	 */
+	public int own = -1;
+
+	/**
+	 * When the snapshot arrived, from System.nanoTime()
+	 */
+	public long received;
+
+	/**
+	 * When the snapshot should be shown, from System.nanoTime(). See JitterBuffer
+	 */
+	public long due;
+
+	/**
+	 * Parent PApplet for the Ships and Shots
+	 */
+	private PApplet parent;
+
+	/**
+	 * Constructor for EntityTable. Makes all the Ships and Shots up front
+	 * @param parent the parent PApplet for the Ships and Shots
+	 * @param ship_capacity how many Ships to make room for to start with
+	 * @param shot_capacity how many Shots to make room for to start with
+	 */
+	EntityTable(PApplet parent, int ship_capacity, int shot_capacity)
+	{
+		this.parent = parent;
+		ships = new Ship[0];
+		shots = new Shot[0];
+		growShips(ship_capacity);
+		growShots(shot_capacity);
+	}
+
+	/**
+	 * Empty the table, ready for the next snapshot. The Ships and Shots are kept for reuse
+	 */
+	void clear()
+	{
+		ship_count = 0;
+		shot_count = 0;
+		sequence = -1;
+		moving = false;
+		own = -1;
+	}
+
+	/**
+	 * Add a Ship to the table, reusing one if there's one spare
+	 * @param x x position
+	 * @param y y position
+	 * @param angle the angle of the ship
+	 * @param shield_strength current shield strength
+	 * @param shield_color current shield color
+	 */
+	void addShip(int x, int y, float angle, float shield_strength, float shield_color)
+	{
+		if(ship_count == ships.length) growShips(ships.length * 2);
+		ships[ship_count++].set(x, y, angle, shield_strength, shield_color);
+	}
+
+	/**
+	 * Add a moving Ship to the table, reusing one if there's one spare
+	 * @param x x position
+	 * @param y y position
+	 * @param velocity_x x velocity, in pixels a second
+	 * @param velocity_y y velocity, in pixels a second
+	 * @param angle the angle of the ship
+	 * @param shield_strength current shield strength
+	 * @param shield_color current shield color
+	 */
+	void addShip(int x, int y, float velocity_x, float velocity_y, float angle, float shield_strength, float shield_color)
+	{
+		addShip(x, y, angle, shield_strength, shield_color);
+		ships[ship_count - 1].velocity.set(velocity_x, velocity_y, 0);
+	}
+
+	/**
+	 * Add a Shot to the table, reusing one if there's one spare
+	 * @param x x position
+	 * @param y y position
+	 */
+	void addShot(int x, int y)
+	{
+		if(shot_count == shots.length) growShots(shots.length * 2);
+		shots[shot_count++].set(x, y);
+	}
+
+	/**
+	 * Add a moving Shot to the table, reusing one if there's one spare
+	 * @param x x position
+	 * @param y y position
+	 * @param velocity_x x velocity, in pixels a second
+	 * @param velocity_y y velocity, in pixels a second
+	 */
+	void addShot(int x, int y, float velocity_x, float velocity_y)
+	{
+		addShot(x, y);
+		shots[shot_count - 1].velocity.set(velocity_x, velocity_y, 0);
+	}
+
+	/**
+	 * Make room for more Ships. Only happens when there are more than ever before
+	 * @param capacity how many there should be room for, at least one
+	 */
+	private void growShips(int capacity)
+	{
+		Ship[] bigger = new Ship[Math.max(capacity, 1)];
+		System.arraycopy(ships, 0, bigger, 0, ships.length);
+		for(int i = ships.length; i < bigger.length; i++) bigger[i] = new Ship(parent, 0, 0, 0, 0, 0);
+		ships = bigger;
+	}
+
+	/**
+	 * Make room for more Shots. Only happens when there are more than ever before
+	 * @param capacity how many there should be room for, at least one
+	 */
+	private void growShots(int capacity)
+	{
+		Shot[] bigger = new Shot[Math.max(capacity, 1)];
+		System.arraycopy(shots, 0, bigger, 0, shots.length);
+		for(int i = shots.length; i < bigger.length; i++) bigger[i] = new Shot(parent, 0, 0);
+		shots = bigger;
+	}
+
+	/**
+	 * Draw every Ship and Shot in the table. Without sprites the Ships are drawn a kind at a
+	 * time, all the hulls and then all the shields, so the style is only set once for each
+	 * @param sprites sprites to draw the Ships with, or null to draw them from shapes
+	 * @param shapes the shapes to draw Shots, and Ships without sprites, with
+	 */
+	void draw(SpriteCache sprites, ShapeBatch shapes)
+	{
+		PGraphics g = parent.g;
+		if(sprites != null)
+		{
+			for(int i = 0; i < ship_count; i++) ships[i].draw(sprites);
+		}
+		else
+		{
+			shapes.beginHulls(g);
+			for(int i = 0; i < ship_count; i++) ships[i].drawHull(shapes);
+			shapes.beginShields(g);
+			for(int i = 0; i < ship_count; i++) ships[i].drawShield(shapes);
+			shapes.endShields(g);
+		}
+		
+		shapes.beginShots(g);
+		for(int i = 0; i < shot_count; i++) shots[i].draw(shapes);
+		shapes.endShots(g);
+	}
+}
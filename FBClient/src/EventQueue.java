@@ -0,0 +1,182 @@
+/**
+ * EventQueue carries the events the server sends (see <code>Protocol.FRAME_EVENTS</code>) from
+ * the NetworkThread, which decodes them, to the animation thread, which shows them. Like the
+ * JitterBuffer it's a ring that only one thread writes into and only the other reads out of, so
+ * neither ever waits, and nothing is allocated once it's made.
+ *
+ * <p>Each event remembers when it arrived, so it can be held back by the same playout delay as
+ * the snapshots and be shown at the same moment as the positions it goes with. If the animation
+ * thread falls so far behind that the ring fills up, new events are dropped.</p>
+ *
+ * @author Chris Granville <v2t04 at students.keele.ac.uk>
+ * @version 3.0f (12/05/2010)
+ * @copyright 2009 - 2010 Chris Granville. All Rights Reserved.
+ */
+
+public class EventQueue
+{
+	/**
+	 * The type of each event, one of the <code>Protocol.EVENT_</code> constants
+	 */
+	private int[] types;
+
+	/**
+	 * Index of the Ship each event happened to, or -1 if none
+	 */
+	private int[] ships;
+
+	/**
+	 * Where each event happened, x
+	 */
+	private int[] xs;
+
+	/**
+	 * Where each event happened, y
+	 */
+	private int[] ys;
+
+	/**
+	 * When each event arrived, from System.nanoTime()
+	 */
+	private long[] arrivals;
+
+	/**
+	 * Number of events written so far. Only the NetworkThread changes it
+	 */
+	private volatile long write;
+
+	/**
+	 * Number of events read so far. Only the animation thread changes it
+	 */
+	private volatile long read;
+
+	/**
+	 * Number of events dropped because the ring was full
+	 */
+	private volatile long dropped;
+
+	/**
+	 * The type of the event last returned by <code>next()</code>
+	 */
+	private int type;
+
+	/**
+	 * Index of the Ship the event last returned by <code>next()</code> happened to, or -1
+	 */
+	private int ship;
+
+	/**
+	 * Where the event last returned by <code>next()</code> happened, x
+	 */
+	private int x;
+
+	/**
+	 * Where the event last returned by <code>next()</code> happened, y
+	 */
+	private int y;
+
+	/**
+	 * Constructor for EventQueue
+	 * @param capacity most events to hold at once
+	 */
+	EventQueue(int capacity)
+	{
+		types = new int[capacity];
+		ships = new int[capacity];
+		xs = new int[capacity];
+		ys = new int[capacity];
+		arrivals = new long[capacity];
+	}
+
+	/**
+	 * Add an event. Only the NetworkThread calls this
+	 * @param event_type what happened, one of the <code>Protocol.EVENT_</code> constants
+	 * @param event_ship index of the Ship it happened to, or -1 if none
+	 * @param event_x where it happened, x
+	 * @param event_y where it happened, y
+	 * @param now when it arrived, from System.nanoTime()
+	 * @return false if there was no room for it
+	 */
+	boolean offer(int event_type, int event_ship, int event_x, int event_y, long now)
+	{
+		long position = write;
+		if(position - read >= types.length)
+		{
+			dropped++;
+			return false;
+		}
+		int index = (int) (position % types.length);
+		types[index] = event_type;
+		ships[index] = event_ship;
+		xs[index] = event_x;
+		ys[index] = event_y;
+		arrivals[index] = now;
+		write = position + 1;
+		return true;
+	}
+
+	/**
+	 * Move on to the next event, if it arrived early enough to be shown. Its details can then
+	 * be had from <code>getType()</code> and friends. Only the animation thread calls this
+	 * @param before only take an event that arrived before this, from System.nanoTime()
+	 * @return a boolean indicating whether there was one
+	 */
+	boolean next(long before)
+	{
+		long position = read;
+		if(position == write) return false;
+		int index = (int) (position % types.length);
+		if(arrivals[index] > before) return false;
+		type = types[index];
+		ship = ships[index];
+		x = xs[index];
+		y = ys[index];
+		read = position + 1;
+		return true;
+	}
+
+	/**
+	 * Get the type of the current event
+	 * @return one of the <code>Protocol.EVENT_</code> constants
+	 */
+	int getType()
+	{
+		return type;
+	}
+
+	/**
+	 * Get the index of the Ship the current event happened to, in the snapshot of the same frame
+	 * @return the index, or -1 if it didn't happen to a Ship
+	 */
+	int getShip()
+	{
+		return ship;
+	}
+
+	/**
+	 * Get where the current event happened, x
+	 * @return the x position
+	 */
+	int getX()
+	{
+		return x;
+	}
+
+	/**
+	 * Get where the current event happened, y
+	 * @return the y position
+	 */
+	int getY()
+	{
+		return y;
+	}
+
+	/**
+	 * Get the number of events dropped because the animation thread wasn't keeping up
+	 * @return the number of events
+	 */
+	public long getDropped()
+	{
+		return dropped;
+	}
+}
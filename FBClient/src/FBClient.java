@@ -1,6 +1,6 @@
 import processing.core.*;
-import processing.net.*;
 import ddf.minim.*;
+import java.io.File;
 import javax.swing.JOptionPane;
 
 /**
@@ -36,6 +36,47 @@ public class FBClient extends PApplet
 	 */
 	private final String VERSION = "3.0.34f";
 	
+	/**
+	 * Set TCP_NODELAY so our key presses aren't held back by Nagle's algorithm?
+	 */
+	private final boolean LOW_LATENCY = true;
+	
+	/**
+	 * Try the framed protocol first? If the server doesn't understand it we fall back to text anyway
+	 */
+	private final boolean FRAMED = true;
+	
+	/**
+	 * Protocol capabilities to ask the server for. Compression saves bandwidth at the cost of some CPU on both ends, velocities cost 4 bytes a ship or shot but keep things moving when a snapshot is late, events give us sparks and explosions
+	 */
+	private final int CAPABILITIES = Protocol.CAP_BINARY | Protocol.CAP_DEFLATE | Protocol.CAP_VELOCITY | Protocol.CAP_EVENTS;
+	
+	/**
+	 * Write the numbers behind the performance display to TELEMETRY_FILE once a second?
+	 */
+	private final boolean TELEMETRY_LOG = false;
+	
+	/**
+	 * CSV file the performance numbers are written to, next to the sketch
+	 */
+	private final String TELEMETRY_FILE = "telemetry.csv";
+	
+	/**
+	 * Give this as the server's address to connect through shared memory instead of TCP, when the
+	 * server is on the same machine. "shm:/some/directory" uses a directory other than the default
+	 */
+	private final String SHM_ADDRESS = "shm";
+	
+	/**
+	 * Where the server looks for shared memory clients, unless we're told otherwise
+	 */
+	private final String SHM_DIRECTORY = "/dev/shm";
+	
+	/**
+	 * Most ship sprites to keep drawn in advance, at 16KB each. 0 draws every ship from scratch every frame
+	 */
+	private final int MAX_SPRITES = 512;
+	
 	/**
 	 * Array of booleans used to store key presses
 	 */
@@ -52,9 +93,64 @@ public class FBClient extends PApplet
 	private PFont font = loadFont("SansSerif-10.vlw");
 	
 	/**
-	 * Instance of the Client class used to connected to a server
+	 * Connection to the server
+	 */
+	private Connection client;
+	
+	/**
+	 * Does all the talking to the server, in the background
+	 */
+	private NetworkThread network;
+	
+	/**
+	 * Ships already drawn at various angles and shield levels, or null if we're not using sprites
+	 */
+	private SpriteCache sprites;
+	
+	/**
+	 * Shapes of ships and shots, for drawing them without sprites
+	 */
+	private ShapeBatch shapes = new ShapeBatch();
+	
+	/**
+	 * Keeps things moving between snapshots, and smooths them back when one arrives
+	 */
+	private DeadReckoning reckoning = new DeadReckoning(this);
+	
+	/**
+	 * Sparks, explosions and exhaust
+	 */
+	private ParticleSystem particles = new ParticleSystem();
+	
+	/**
+	 * Times frames, drawing and decoding, and counts what goes to and from the server
+	 */
+	private Telemetry telemetry;
+	
+	/**
+	 * Should the performance numbers be shown. Toggled with T
+	 */
+	private boolean show_telemetry;
+	
+	/**
+	 * The text showing how the sprite cache is doing, made again once a second
+	 */
+	private String sprite_text;
+	
+	/**
+	 * The frame rate as last shown, so the text only has to be made again when it changes
+	 */
+	private int shown_fps = -1;
+	
+	/**
+	 * The text showing the frame rate
+	 */
+	private String fps_text;
+	
+	/**
+	 * The text showing how well compression is doing, made again once a second
 	 */
-	private Client client;
+	private String compression_text;
 	
 	/**
 	 * Sound class
@@ -62,9 +158,9 @@ public class FBClient extends PApplet
 	private Minim minim;
 	
 	/**
-	 * The AudioSample for the shooting audio
+	 * Plays the shots, hits and explosions
 	 */
-	private AudioSample shoot;
+	private GameAudio audio;
 	
 	/**
 	 * Set the client up - set fonts, connect to the server, load sounds, etc
@@ -76,6 +172,8 @@ public class FBClient extends PApplet
 		frameRate(30);
 		textFont(font);
 		smooth();
+		if(MAX_SPRITES > 0) sprites = new SpriteCache(this, MAX_SPRITES);
+		telemetry = new Telemetry(this, TELEMETRY_LOG ? TELEMETRY_FILE : null);
 		
 		println("---------------------------------------------------------");
 		println("Celestia Client v" + VERSION);
@@ -83,22 +181,22 @@ public class FBClient extends PApplet
 		println("---------------------------------------------------------");
 		
 		minim = new Minim(this);
-		shoot = minim.loadSample("shoot.wav");
-		if(shoot == null) println("Could not load one or more sfx");
+		audio = new GameAudio(this, minim);
 		
 		address = JOptionPane.showInputDialog(null, "IP of server:");
 		port = Integer.parseInt(JOptionPane.showInputDialog(null, "Port:"));
 		//server_address = "127.0.0.1";
 		
 		JOptionPane.showMessageDialog(frame, "Welcome to Celestia! Don't forget to open port " + port + " and forward it if required." +
-				"\n\nControls:\nUp: thrust\nLeft/right: rotate\nSpace: fire");
+				"\n\nControls:\nUp: thrust\nLeft/right: rotate\nSpace: fire\nT: performance stats");
 		
 		connect();
 	}
 	
 	/**
-	 * Draw the <code>Ship</code>s and <code>Shot</code>s every <code>frameRate</code> times/second
-	 * Also sends/receives data from the server
+	 * Draw the <code>Ship</code>s and <code>Shot</code>s every <code>frameRate</code> times/second.
+	 * Sending and receiving happens on the NetworkThread, so all we do here is pick up the
+	 * newest positions it has
 	 * @see processing.core.PApplet#draw()
 	 */
 	public void draw()
@@ -106,88 +204,80 @@ public class FBClient extends PApplet
 		background(0);
 		fill(255);
 		text("Celestia Client v" + VERSION, 10, 25);
-		text(round(frameRate) + "fps", 10, 35);
-		
-		// Send the data
-		String transmission = keys[0] + ":" + keys[1] + ":" + keys[2] + ":" + keys[3];
-		client.write(transmission);
 		
-		// Receive the data
-		String temp[] = null, temp_ships[], temp_shots[] = null;
-		boolean weHaveShots = false;
-		
-		if(client.available() > 0)
+		// Only make new Strings for the text when it changes, so nothing is allocated most frames
+		if(round(frameRate) != shown_fps)
+		{
+			shown_fps = round(frameRate);
+			fps_text = shown_fps + "fps";
+		}
+		text(fps_text, 10, 35);
+		if(connected && network.getDecompression() != null)
 		{
-			String returned = client.readString();
-			//println("frame " + frameCount + ", message: " + returned);
-			temp = returned.split("//");		// At this point, all ships => 0, all shots => 1
-			
-			if(temp.length == 2)
+			DecompressionStage stage = network.getDecompression();
+			if(compression_text == null || frameCount % 30 == 0)
 			{
-				if(!temp[1].equals("false"))
-				{
-					temp_shots = temp[1].split(";");
-					weHaveShots = true;
-				}
-				
-				// Create arrays of Ships and Shots
-				temp_ships = temp[0].split(";");
-				Ship ships[] = new Ship[temp_ships.length];
-				Shot shots[] = null;
-				if(weHaveShots) shots = new Shot[temp_shots.length];
-				
-				// Extract information for each ship from <code>temp_ships</code>
-				for(int i = 0; i < temp_ships.length; i++)
-				{
-					int x = 0, y = 0;
-					float angle = 0.0f, shield_strength = 0.0f, shield_color = 0.0f;
-					
-					String details[] = temp_ships[i].split(",");
-					
-					try
-					{
-						x = Integer.parseInt(details[0]);
-						y = Integer.parseInt(details[1]);
-						angle = Float.parseFloat(details[2]);
-						shield_color = Float.parseFloat(details[3]);
-						shield_strength = Float.parseFloat(details[4]);
-						
-						ships[i] = new Ship(this, x, y, angle, shield_strength, shield_color);
-						ships[i].draw();
-					}
-					catch (Exception excep)	// Just catch every exception as we always want to do the same thing
-					{
-						println("[" + frameCount + "] ship transmission malfored, skipping");
-						//excep.printStackTrace();
-					}
-				}
-				
-				// And now the Shots...
-				if(weHaveShots)
-				{
-					for(int i = 0; i < temp_shots.length; i++)
-					{
-						int x = 0, y = 0;
-						
-						String details[] = temp_shots[i].split(",");
-						
-						try
-						{
-							x = Integer.parseInt(details[0]);
-							y = Integer.parseInt(details[1]);
-							
-							shots[i] = new Shot(this, x, y);
-							shots[i].draw();
-						}
-						catch (Exception excep)		// Catch all exceptions, just in case
-						{
-							println("[" + frameCount + "] shot transmission malfored, skipping");
-							//excep.printStackTrace();
-						}
-					}
-				}
+				compression_text = "Compression: " + nf(stage.getRatio(), 1, 2) + ", " + (stage.getAverageNanos() / 1000) + "us/msg";
 			}
+			text(compression_text, 10, 45);
+		}
+		if(sprites != null && sprites.size() > 0)
+		{
+			if(sprite_text == null || frameCount % 30 == 0)
+			{
+				sprite_text = "Sprites: " + sprites.size() + ", " + round(sprites.getHitRate() * 100) + "% hits";
+			}
+			text(sprite_text, 10, 55);
+		}
+		
+		if(show_telemetry) telemetry.draw(10, 65);
+		
+		if(!connected)
+		{
+			telemetry.frame(System.nanoTime(), 0, null, null);
+			return;
+		}
+		
+		if(!network.isRunning())
+		{
+			println(network.getFailure());
+			disconnect();
+			return;
 		}
+		
+		// Draw the newest positions we have, carried on to now if they're getting old
+		long start = System.nanoTime();
+		EntityTable latest = network.getLatest();
+		reckoning.update(latest, start);
+		latest.draw(sprites, shapes);
+		
+		// Then whatever has happened, held back as long as the positions are so they line up
+		particles.update(start);
+		EventQueue events = network.getEvents();
+		long before = start - (long) (network.getBuffer().getDelay() * 1000000);
+		while(events != null && events.next(before))
+		{
+			particles.event(events.getType(), events.getX(), events.getY());
+			audio.event(events.getType(), events.getShip(), events.getX(), events.getY(), latest, start);
+		}
+		particles.thrust(latest, keys[0]);
+		particles.draw(g);
+		long now = System.nanoTime();
+		telemetry.frame(now, now - start, latest, network);
+	}
+	
+	/**
+	 * Get the keys being pressed in the form the codecs want them
+	 * @return the keys being pressed, as a combination of the <code>Protocol.KEY_</code> bits
+	 */
+	private int getKeys()
+	{
+		int result = 0;
+		if(keys[0]) result |= Protocol.KEY_UP;
+		if(keys[1]) result |= Protocol.KEY_LEFT;
+		if(keys[2]) result |= Protocol.KEY_RIGHT;
+		if(keys[3]) result |= Protocol.KEY_FIRE;
+		return result;
 	}
 	
 	/**
@@ -209,10 +299,16 @@ public class FBClient extends PApplet
 		// Space is not a CODED key, so we need to add additional logic here
 		if(key == ' ')
 		{
-			shoot.trigger();
+			audio.fire(System.nanoTime());
 			keys[3] = true;
 		}
 		
+		// Let the network thread send them straight away, rather than waiting for the next frame
+		if(connected) network.setKeys(getKeys());
+		
+		// Show or hide the performance numbers
+		if(key == 't' || key == 'T') show_telemetry = !show_telemetry;
+		
 		// Disconnect from the server
 		if(key == 'd' || key == 'D') disconnect();
 		
@@ -238,6 +334,8 @@ public class FBClient extends PApplet
 		
 		// Space is not a CODED key, so we need to add additional logic here
 		if(key == ' ') keys[3] = false;
+		
+		if(connected) network.setKeys(getKeys());
 	}
 	
 	/**
@@ -246,8 +344,23 @@ public class FBClient extends PApplet
 	private void connect()
 	{
 		println("Connecting to " + address + " on port " + port);
-		client = new Client(this, address, port);
-		connected = true; 
+		try
+		{
+			if(address.equals(SHM_ADDRESS)) client = new ShmConnection(new File(SHM_DIRECTORY), port);
+			else if(address.startsWith(SHM_ADDRESS + ":")) client = new ShmConnection(new File(address.substring(SHM_ADDRESS.length() + 1)), port);
+			else client = new TcpConnection(address, port, LOW_LATENCY);
+			Codec codec = FRAMED ? new FramedCodec(this, CAPABILITIES) : new LegacyCodec(this);
+			codec.start(client);
+			network = new NetworkThread(this, client, codec);
+			network.setKeys(getKeys());
+			network.start();
+			connected = true;
+		}
+		catch (Exception e)
+		{
+			println("Could not connect to " + address + " on port " + port + ": " + e.getMessage());
+			connected = false;
+		}
 	}
 	
 	/**
@@ -256,7 +369,9 @@ public class FBClient extends PApplet
 	private void disconnect()
 	{
 		println("Disconnecting from server");
-		client.stop();
+		if(network != null) network.shutdown();
+		network = null;
+		if(client != null) client.close();
 		client = null;
 		connected = false;
 		noLoop();
@@ -268,8 +383,9 @@ public class FBClient extends PApplet
 	 */
 	public void stop()
 	{
-		shoot.close();
+		audio.close();
 		minim.stop();
+		telemetry.close();
 		super.stop();
 	}
 
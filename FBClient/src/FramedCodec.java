@@ -0,0 +1,495 @@
+import processing.core.PApplet;
+
+/**
+ * FramedCodec talks the framed protocol described in <code>Protocol</code>. It says hello
+ * with the version and capabilities we'd like, waits for the server's welcome, and from then
+ * on sends input frames and reads snapshot and event frames, decompressing them first if the
+ * server agreed to compress.
+ *
+ * <p>If the first thing the server sends isn't a welcome, it's an old server that doesn't
+ * understand hello and is just sending text snapshots, so we say so and FBClient switches to
+ * the LegacyCodec.</p>
+ *
+ * @author Chris Granville <v2t04 at students.keele.ac.uk>
+ * @version 3.0f (12/05/2010)
+ * @copyright 2009 - 2010 Chris Granville. All Rights Reserved.
+ */
+
+public class FramedCodec implements Codec
+{
+	/**
+	 * Most events waiting to be shown at once. Several seconds of a very busy fight
+	 */
+	private static final int EVENT_CAPACITY = 1024;
+
+	/**
+	 * Parent PApplet, for the frame count in error messages. Null when there is no window
+	 */
+	private PApplet parent;
+
+	/**
+	 * Parses text snapshots, for servers that won't send binary
+	 */
+	private LegacyCodec text;
+
+	/**
+	 * The capabilities we'd like to use
+	 */
+	private int wanted;
+
+	/**
+	 * Have we had the server's welcome
+	 */
+	private boolean welcomed;
+
+	/**
+	 * Did the server reply with something other than a welcome
+	 */
+	private boolean legacy_server;
+
+	/**
+	 * Did the server refuse to talk to us
+	 */
+	private boolean rejected;
+
+	/**
+	 * The version of the protocol that was agreed
+	 */
+	private int version;
+
+	/**
+	 * The capabilities that were agreed
+	 */
+	private int capabilities;
+
+	/**
+	 * How many frames a second the server runs at
+	 */
+	private volatile float tick_rate = Protocol.DEFAULT_TICK_RATE;
+
+	/**
+	 * The welcome line, as much of it as we've had
+	 */
+	private StringBuilder line = new StringBuilder(Protocol.MAX_LINE_LENGTH);
+
+	/**
+	 * Decompressor, if compression was agreed
+	 */
+	private DecompressionStage decompression;
+
+	/**
+	 * Bytes received that haven't made a complete frame yet
+	 */
+	private byte[] pending = new byte[1024];
+
+	/**
+	 * Number of bytes in <code>pending</code>
+	 */
+	private int pending_count;
+
+	/**
+	 * Sequence number of the last snapshot we received, which we send back with our input
+	 */
+	private int last_sequence;
+
+	/**
+	 * Scratch space for building input frames
+	 */
+	private byte[] input_frame = new byte[Protocol.MESSAGE_HEADER_SIZE + 3];
+
+	/**
+	 * Scratch space for building pongs
+	 */
+	private byte[] pong_frame = new byte[Protocol.MESSAGE_HEADER_SIZE + Protocol.PING_SIZE];
+
+	/**
+	 * Number of snapshots that couldn't be used at all
+	 */
+	private volatile int malformed_snapshots;
+
+	/**
+	 * Round trip time the server last told us, in milliseconds
+	 */
+	private volatile float rtt;
+
+	/**
+	 * Index of our own Ship in the snapshots, as the server last told us, or -1 if we haven't got one
+	 */
+	private int own_ship = -1;
+
+	/**
+	 * Events from the server, waiting to be shown
+	 */
+	private EventQueue events = new EventQueue(EVENT_CAPACITY);
+
+	/**
+	 * The connection to the server, for answering pings on
+	 */
+	private Connection connection;
+
+	/**
+	 * Constructor for FramedCodec
+	 * @param parent the parent PApplet, for the frame count in error messages
+	 * @param wanted the capabilities we'd like to use, if the server will let us
+	 */
+	FramedCodec(PApplet parent, int wanted)
+	{
+		this.parent = parent;
+		text = new LegacyCodec(parent);
+		this.wanted = wanted;
+	}
+
+	/**
+	 * Say hello
+	 * @see Codec#start(Connection)
+	 */
+	public void start(Connection connection)
+	{
+		this.connection = connection;
+		connection.queue(Protocol.HELLO + " " + Protocol.VERSION + " " + wanted + "\n");
+	}
+
+	/**
+	 * Nothing is sent until the server has welcomed us, as we don't yet know whether it
+	 * will understand frames
+	 * @see Codec#sendInput(Connection, int)
+	 */
+	public void sendInput(Connection connection, int keys)
+	{
+		if(!welcomed) return;
+		input_frame[0] = (byte) Protocol.FRAME_INPUT;
+		input_frame[1] = 0;
+		input_frame[2] = 3;
+		input_frame[3] = (byte) keys;
+		input_frame[4] = (byte) (last_sequence >> 8);
+		input_frame[5] = (byte) last_sequence;
+		connection.queue(input_frame, 0, input_frame.length);
+	}
+
+	/**
+	 * @see Codec#receive(byte[], int, int, EntityTable)
+	 */
+	public boolean receive(byte[] data, int offset, int length, EntityTable table)
+	{
+		if(legacy_server || rejected) return false;
+		int end = offset + length;
+		if(!welcomed)
+		{
+			offset = readWelcome(data, offset, end);
+			if(!welcomed) return false;
+		}
+		// Nothing new, but there may be frames left over from last time
+		if(offset >= end) return readFrames(data, offset, 0, table);
+
+		if(decompression != null)
+		{
+			decompression.decompress(data, offset, end - offset);
+			return readFrames(decompression.getOutput(), 0, decompression.getOutputLength(), table);
+		}
+		return readFrames(data, offset, end - offset, table);
+	}
+
+	/**
+	 * Read the welcome line from the start of what the server sent us
+	 * @param data array holding the bytes
+	 * @param offset index of the first byte
+	 * @param end index after the last byte
+	 * @return the index of the first byte after the welcome line
+	 */
+	private int readWelcome(byte[] data, int offset, int end)
+	{
+		if(line.length() == 0 && offset < end && data[offset] != Protocol.WELCOME.charAt(0))
+		{
+			// Old servers just start sending text snapshots
+			legacy_server = true;
+			return end;
+		}
+		while(offset < end)
+		{
+			char c = (char) (data[offset++] & 0xff);
+			if(c != '\n')
+			{
+				line.append(c);
+				if(line.length() > Protocol.MAX_LINE_LENGTH) rejected = true;
+				continue;
+			}
+
+			String parts[] = line.toString().split(" ");
+			if(parts.length >= 3 && parts[0].equals(Protocol.WELCOME))
+			{
+				try
+				{
+					version = Integer.parseInt(parts[1]);
+					capabilities = Integer.parseInt(parts[2]);
+					float server_tick_rate = (parts.length >= 4) ? Float.parseFloat(parts[3]) : 0;
+					if(server_tick_rate > 0) tick_rate = server_tick_rate;
+					welcomed = true;
+				}
+				catch (NumberFormatException e)
+				{
+					rejected = true;
+				}
+			}
+			else rejected = true;
+
+			if(welcomed)
+			{
+				System.out.println("Server speaks protocol version " + version + " with capabilities " + capabilities + " at " + tick_rate + " frames a second");
+				if((capabilities & Protocol.CAP_DEFLATE) != 0) decompression = new DecompressionStage();
+			}
+			break;
+		}
+		return offset;
+	}
+
+	/**
+	 * Read complete frames up to and including the first snapshot, keeping anything after it
+	 * for next time so that every snapshot gets a table of its own
+	 * @param data array holding the bytes
+	 * @param offset index of the first byte
+	 * @param length number of bytes
+	 * @param table where to put the snapshot
+	 * @return a boolean indicating whether there was a snapshot in the frames
+	 */
+	private boolean readFrames(byte[] data, int offset, int length, EntityTable table)
+	{
+		if(pending_count + length > pending.length)
+		{
+			byte[] bigger = new byte[Math.max(pending.length * 2, pending_count + length)];
+			System.arraycopy(pending, 0, bigger, 0, pending_count);
+			pending = bigger;
+		}
+		System.arraycopy(data, offset, pending, pending_count, length);
+		pending_count += length;
+
+		boolean decoded = false;
+		int position = 0;
+		while(!decoded && pending_count - position >= Protocol.MESSAGE_HEADER_SIZE)
+		{
+			int type = pending[position] & 0xff;
+			int frame_length = ((pending[position + 1] & 0xff) << 8) | (pending[position + 2] & 0xff);
+			if(pending_count - position - Protocol.MESSAGE_HEADER_SIZE < frame_length) break;
+			int payload = position + Protocol.MESSAGE_HEADER_SIZE;
+			position = payload + frame_length;
+
+			switch(type)
+			{
+				case Protocol.FRAME_SNAPSHOT_BINARY:
+				case Protocol.FRAME_SNAPSHOT_TEXT:
+					if(readSnapshot(type, pending, payload, frame_length, table))
+					{
+						table.own = own_ship;
+						decoded = true;
+					}
+					else malformed_snapshots++;
+					break;
+				case Protocol.FRAME_PING:
+					// Straight back, so the server can see how long the round trip takes
+					if(frame_length < Protocol.PING_SIZE) break;
+					pong_frame[0] = (byte) Protocol.FRAME_PONG;
+					pong_frame[1] = 0;
+					pong_frame[2] = (byte) Protocol.PING_SIZE;
+					System.arraycopy(pending, payload, pong_frame, Protocol.MESSAGE_HEADER_SIZE, Protocol.PING_SIZE);
+					connection.queue(pong_frame, 0, pong_frame.length);
+					if(frame_length >= Protocol.PING_SIZE + Protocol.PING_RTT_SIZE) rtt = getShort(pending, payload + Protocol.PING_SIZE);
+					break;
+				case Protocol.FRAME_OWN_SHIP:
+					if(frame_length < 1) break;
+					own_ship = ((pending[payload] & 0xff) == 255) ? -1 : (pending[payload] & 0xff);
+					break;
+				case Protocol.FRAME_EVENTS:
+					readEvents(pending, payload, frame_length);
+					break;
+				default:
+					// Something from a newer server that we don't understand, so skip it
+					break;
+			}
+		}
+
+		System.arraycopy(pending, position, pending, 0, pending_count - position);
+		pending_count -= position;
+		return decoded;
+	}
+
+	/**
+	 * Decode a snapshot of either kind into the table, timing it for Java Flight Recorder
+	 * @param type <code>Protocol.FRAME_SNAPSHOT_BINARY</code> or <code>FRAME_SNAPSHOT_TEXT</code>
+	 * @param data array holding the snapshot
+	 * @param offset index of the first byte
+	 * @param length number of bytes
+	 * @param table where to put the Ships and Shots
+	 * @return false if it was malformed
+	 */
+	private boolean readSnapshot(int type, byte[] data, int offset, int length, EntityTable table)
+	{
+		SnapshotDecodeEvent event = new SnapshotDecodeEvent();
+		event.begin();
+		boolean binary = type == Protocol.FRAME_SNAPSHOT_BINARY;
+		boolean ok = binary ? readBinarySnapshot(data, offset, length, table) : text.parse(data, offset, length, table);
+		event.end();
+		if(event.shouldCommit())
+		{
+			event.format = binary ? "binary" : "text";
+			event.bytes = length;
+			event.malformed = !ok;
+			event.ships = table.ship_count;
+			event.shots = table.shot_count;
+			event.commit();
+		}
+		return ok;
+	}
+
+	/**
+	 * Decode a binary snapshot into the table. The whole thing is checked before the table is
+	 * touched, so a malformed one leaves it as it was
+	 * @param data array holding the snapshot
+	 * @param offset index of the first byte
+	 * @param length number of bytes
+	 * @param table where to put the Ships and Shots
+	 * @return false if it was malformed
+	 */
+	private boolean readBinarySnapshot(byte[] data, int offset, int length, EntityTable table)
+	{
+		int end = offset + length;
+		if(length < 4) return false;
+		int sequence = getShort(data, offset);
+		int ship_count = data[offset + 2] & 0xff;
+		int position = offset + 3;
+		boolean moving = (capabilities & Protocol.CAP_VELOCITY) != 0;
+		int ship_size = moving ? 12 : 8;
+		int shot_size = moving ? 8 : 4;
+		if(position + ship_count * ship_size + 1 > end)
+		{
+			System.out.println("[" + frame() + "] ship transmission malfored, skipping");
+			return false;
+		}
+		int shot_count = data[position + ship_count * ship_size] & 0xff;
+		if(position + ship_count * ship_size + 1 + shot_count * shot_size > end)
+		{
+			System.out.println("[" + frame() + "] shot transmission malfored, skipping");
+			return false;
+		}
+
+		table.clear();
+		table.sequence = sequence;
+		table.moving = moving;
+		for(int i = 0; i < ship_count; i++)
+		{
+			int x = (short) getShort(data, position);
+			int y = (short) getShort(data, position + 2);
+			float angle = getShort(data, position + 4);
+			float shield_color = data[position + 6] & 0xff;
+			float shield_strength = data[position + 7];
+			if(moving) table.addShip(x, y, (short) getShort(data, position + 8), (short) getShort(data, position + 10), angle, shield_strength, shield_color);
+			else table.addShip(x, y, angle, shield_strength, shield_color);
+			position += ship_size;
+		}
+		position++;
+		for(int i = 0; i < shot_count; i++)
+		{
+			int x = (short) getShort(data, position);
+			int y = (short) getShort(data, position + 2);
+			if(moving) table.addShot(x, y, (short) getShort(data, position + 4), (short) getShort(data, position + 6));
+			else table.addShot(x, y);
+			position += shot_size;
+		}
+		last_sequence = sequence;
+		return true;
+	}
+
+	/**
+	 * Queue the events from an events frame, as many as there are whole ones of
+	 * @param data array holding the events
+	 * @param offset index of the first byte
+	 * @param length number of bytes
+	 */
+	private void readEvents(byte[] data, int offset, int length)
+	{
+		if(length < 1) return;
+		int count = Math.min(data[offset] & 0xff, (length - 1) / Protocol.EVENT_SIZE);
+		long now = System.nanoTime();
+		int position = offset + 1;
+		for(int i = 0; i < count; i++)
+		{
+			int ship = data[position + 1] & 0xff;
+			events.offer(data[position] & 0xff, (ship == 255) ? -1 : ship, (short) getShort(data, position + 2), (short) getShort(data, position + 4), now);
+			position += Protocol.EVENT_SIZE;
+		}
+	}
+
+	/**
+	 * Read two bytes, big end first
+	 * @param data array holding the bytes
+	 * @param position index of the first byte
+	 * @return the value, from 0 to 65535
+	 */
+	private static int getShort(byte[] data, int position)
+	{
+		return ((data[position] & 0xff) << 8) | (data[position + 1] & 0xff);
+	}
+
+	/**
+	 * @see Codec#serverIsLegacy()
+	 */
+	public boolean serverIsLegacy()
+	{
+		return legacy_server;
+	}
+
+	/**
+	 * @see Codec#rejected()
+	 */
+	public boolean rejected()
+	{
+		return rejected || (decompression != null && decompression.failed());
+	}
+
+	/**
+	 * @see Codec#getDecompression()
+	 */
+	public DecompressionStage getDecompression()
+	{
+		return decompression;
+	}
+
+	/**
+	 * @see Codec#getMalformed()
+	 */
+	public int getMalformed()
+	{
+		return malformed_snapshots;
+	}
+
+	/**
+	 * @see Codec#getRtt()
+	 */
+	public float getRtt()
+	{
+		return rtt;
+	}
+
+	/**
+	 * @see Codec#getTickRate()
+	 */
+	public float getTickRate()
+	{
+		return tick_rate;
+	}
+
+	/**
+	 * @see Codec#getEvents()
+	 */
+	public EventQueue getEvents()
+	{
+		return events;
+	}
+
+	/**
+	 * Get the frame number for error messages
+	 * @return the parent's frame count, or 0 if there is no window (see HeadlessClient)
+	 */
+	private int frame()
+	{
+		return (parent == null) ? 0 : parent.frameCount;
+	}
+}
@@ -0,0 +1,183 @@
+import java.util.Random;
+import javax.sound.sampled.AudioFormat;
+import ddf.minim.AudioSample;
+import ddf.minim.Minim;
+import processing.core.PApplet;
+
+/**
+ * GameAudio plays the sounds of the game: shots, hits and ships being destroyed, whoever they
+ * happen to, from the server's events. Each sound is quieter the further away it happens from
+ * our own Ship (or the middle of the screen if we haven't got one) and comes from the left or
+ * right depending on which side of it it happened.
+ *
+ * <p>Every sound has a VoicePool with a fixed number of voices, so however much is going on
+ * no more than that many are ever playing. Our own shots are played the moment we press fire,
+ * as they always have been, rather than waiting for the server to tell us about them.</p>
+ *
+ * <p>There are no recordings for hits and explosions, so they're made up from noise when
+ * we start.</p>
+ *
+ * @author Chris Granville <v2t04 at students.keele.ac.uk>
+ * @version 3.0f (12/05/2010)
+ * @copyright 2009 - 2010 Chris Granville. All Rights Reserved.
+ */
+
+public class GameAudio
+{
+	/**
+	 * Voices for shots, hits and explosions
+	 */
+	private static final int SHOT_VOICES = 4, HIT_VOICES = 4, EXPLOSION_VOICES = 2;
+
+	/**
+	 * Sounds closer than this, in pixels, are played at full volume
+	 */
+	private static final float NEAR = 100;
+
+	/**
+	 * Sounds further away than this, in pixels, aren't played at all
+	 */
+	private static final float FAR = 1200;
+
+	/**
+	 * How far to one side, in pixels, a sound has to be to come entirely from that side
+	 */
+	private static final float PAN_WIDTH = 400;
+
+	/**
+	 * How much quieter other ships' shots are than ours, in decibels, so ours stand out
+	 */
+	private static final float OTHER_SHOT_GAIN = -6;
+
+	/**
+	 * Sample rate of the sounds we make up
+	 */
+	private static final float SAMPLE_RATE = 44100;
+
+	/**
+	 * Parent PApplet, for the size of the screen
+	 */
+	private PApplet parent;
+
+	/**
+	 * Voices for each sound
+	 */
+	private VoicePool shots, hits, explosions;
+
+	/**
+	 * Constructor for GameAudio. Loads and makes every voice
+	 * @param parent the parent PApplet
+	 * @param minim the sound system
+	 */
+	GameAudio(PApplet parent, Minim minim)
+	{
+		this.parent = parent;
+		AudioSample[] voices = new AudioSample[SHOT_VOICES];
+		for(int i = 0; i < voices.length; i++) voices[i] = minim.loadSample("shoot.wav");
+		shots = new VoicePool(voices);
+		if(voices[0] == null) PApplet.println("Could not load one or more sfx");
+
+		AudioFormat format = new AudioFormat(SAMPLE_RATE, 16, 1, true, true);
+		Random random = new Random(1);
+		float[] hit = makeHit(random), explosion = makeExplosion(random);
+		voices = new AudioSample[HIT_VOICES];
+		for(int i = 0; i < voices.length; i++) voices[i] = minim.createSample(hit, format);
+		hits = new VoicePool(voices);
+		voices = new AudioSample[EXPLOSION_VOICES];
+		for(int i = 0; i < voices.length; i++) voices[i] = minim.createSample(explosion, format);
+		explosions = new VoicePool(voices);
+	}
+
+	/**
+	 * Make the sound of a hit: a short crack of noise with a ring to it
+	 * @param random where the noise comes from
+	 * @return the samples
+	 */
+	private static float[] makeHit(Random random)
+	{
+		float[] samples = new float[(int) (SAMPLE_RATE * 0.15f)];
+		for(int i = 0; i < samples.length; i++)
+		{
+			float t = i / SAMPLE_RATE;
+			float noise = random.nextFloat() * 2 - 1;
+			float ring = (float) Math.sin(PApplet.TWO_PI * 900 * t);
+			samples[i] = (0.5f * noise + 0.3f * ring) * (float) Math.exp(-t / 0.03f);
+		}
+		return samples;
+	}
+
+	/**
+	 * Make the sound of an explosion: a long rumble of muffled noise
+	 * @param random where the noise comes from
+	 * @return the samples
+	 */
+	private static float[] makeExplosion(Random random)
+	{
+		float[] samples = new float[(int) (SAMPLE_RATE * 1.2f)];
+		float muffled = 0;
+		for(int i = 0; i < samples.length; i++)
+		{
+			float t = i / SAMPLE_RATE;
+			muffled += (random.nextFloat() * 2 - 1 - muffled) * 0.04f;
+			samples[i] = PApplet.constrain(4 * muffled * (float) Math.exp(-t / 0.35f), -1, 1);
+		}
+		return samples;
+	}
+
+	/**
+	 * Play our own shot, straight away and in the middle
+	 * @param now the time, from System.nanoTime()
+	 */
+	void fire(long now)
+	{
+		shots.play(0, 0, now);
+	}
+
+	/**
+	 * Play the sound for an event from the server
+	 * @param type what happened, one of the <code>Protocol.EVENT_</code> constants
+	 * @param ship index of the Ship it happened to, or -1
+	 * @param x where it happened, x
+	 * @param y where it happened, y
+	 * @param table the positions being drawn, to find our own Ship in
+	 * @param now the time, from System.nanoTime()
+	 */
+	void event(int type, int ship, float x, float y, EntityTable table, long now)
+	{
+		boolean own = table.own >= 0 && table.own < table.ship_count;
+		// We played our own shot when we pressed fire
+		if(type == Protocol.EVENT_SHOT && own && ship == table.own) return;
+
+		float listener_x = own ? table.ships[table.own].drawn.x : parent.width / 2;
+		float listener_y = own ? table.ships[table.own].drawn.y : parent.height / 2;
+		float dx = x - listener_x, dy = y - listener_y;
+		float distance = (float) Math.sqrt(dx * dx + dy * dy);
+		if(distance > FAR) return;
+		// Half as loud (6dB down) every time the distance doubles
+		float gain = -20 * (float) Math.log10(Math.max(distance, NEAR) / NEAR);
+		float pan = PApplet.constrain(dx / PAN_WIDTH, -1, 1);
+
+		switch(type)
+		{
+			case Protocol.EVENT_SHOT:
+				shots.play(gain + OTHER_SHOT_GAIN, pan, now);
+				break;
+			case Protocol.EVENT_HIT:
+				hits.play(gain, pan, now);
+				break;
+			case Protocol.EVENT_DESTROYED:
+				explosions.play(gain, pan, now);
+				break;
+		}
+	}
+
+	/**
+	 * Close every voice, so the sound system can have them back
+	 */
+	void close()
+	{
+		shots.close();
+		hits.close();
+		explosions.close();
+	}
+}
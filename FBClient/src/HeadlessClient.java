@@ -0,0 +1,238 @@
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * HeadlessClient is FBClient without the window, the sound or the dialogs, for bots and for
+ * load and latency testing from machines that don't have a screen. It talks to the server in
+ * exactly the same way, through the same Connections, Codecs and NetworkThread, but its keys
+ * come from an InputScript and instead of drawing it prints a line of statistics every so often.
+ *
+ * <p>It has to be its own program rather than an option to FBClient, because just loading a
+ * PApplet needs a display. Nothing here, or in anything it uses, touches PApplet.</p>
+ *
+ * <pre>
+ * java HeadlessClient &lt;address&gt; &lt;port&gt; [--behaviour=idle|spin|random] [--script=file]
+ *     [--seed=n] [--duration=seconds] [--report=seconds] [--legacy] [--no-compression]
+ * </pre>
+ *
+ * <p>The address can be <code>shm</code> or <code>shm:/some/directory</code> to connect through
+ * shared memory, the same as FBClient. It runs until the duration is up, or forever if there
+ * isn't one, and exits with 1 if the server goes away or won't talk to us.</p>
+ *
+ * @author Chris Granville <v2t04 at students.keele.ac.uk>
+ * @version 3.0f (12/05/2010)
+ * @copyright 2009 - 2010 Chris Granville. All Rights Reserved.
+ */
+
+public class HeadlessClient
+{
+	/**
+	 * Protocol capabilities to ask the server for, the same as FBClient
+	 */
+	private static final int CAPABILITIES = Protocol.CAP_BINARY | Protocol.CAP_DEFLATE | Protocol.CAP_VELOCITY | Protocol.CAP_EVENTS;
+
+	/**
+	 * Give this as the address to connect through shared memory, the same as FBClient
+	 */
+	private static final String SHM_ADDRESS = "shm";
+
+	/**
+	 * Where the server looks for shared memory clients, unless told otherwise
+	 */
+	private static final String SHM_DIRECTORY = "/dev/shm";
+
+	/**
+	 * How often we pick up the newest snapshot and change keys, in milliseconds. The same as
+	 * FBClient's frame rate, so snapshots are dropped the way they would be by a real player
+	 */
+	private static final long FRAME_INTERVAL = 33;
+
+	/**
+	 * The connection to the server
+	 */
+	private Connection connection;
+
+	/**
+	 * Does the talking to the server
+	 */
+	private NetworkThread network;
+
+	/**
+	 * Decides which keys we press
+	 */
+	private InputScript script;
+
+	/**
+	 * When we started, from System.nanoTime()
+	 */
+	private long start;
+
+	/**
+	 * Number of new snapshots picked up since the last report
+	 */
+	private int snapshots;
+
+	/**
+	 * When the last snapshot we picked up arrived, so we can tell a new one from the same one again
+	 */
+	private long last_received;
+
+	/**
+	 * Number of events from the server since the last report
+	 */
+	private int events_seen;
+
+	/**
+	 * Oldest a snapshot was when it was picked up since the last report, in nanoseconds
+	 */
+	private long worst_age;
+
+	/**
+	 * Bytes in and out as of the last report
+	 */
+	private long last_in, last_out;
+
+	/**
+	 * Constructor for HeadlessClient. Connects and starts talking straight away
+	 * @param address the server's address, or <code>shm</code>
+	 * @param port the server's port
+	 * @param script decides which keys we press
+	 * @param framed talk the framed protocol, rather than the original text one
+	 * @param capabilities the capabilities to ask for, if framed
+	 * @throws IOException if we can't connect
+	 */
+	HeadlessClient(String address, int port, InputScript script, boolean framed, int capabilities) throws IOException
+	{
+		this.script = script;
+		if(address.equals(SHM_ADDRESS)) connection = new ShmConnection(new File(SHM_DIRECTORY), port);
+		else if(address.startsWith(SHM_ADDRESS + ":")) connection = new ShmConnection(new File(address.substring(SHM_ADDRESS.length() + 1)), port);
+		else connection = new TcpConnection(address, port, true);
+		Codec codec = framed ? new FramedCodec(null, capabilities) : new LegacyCodec(null);
+		codec.start(connection);
+		network = new NetworkThread(null, connection, codec);
+		start = System.nanoTime();
+		network.setKeys(script.keysAt(0));
+		network.start();
+	}
+
+	/**
+	 * Play until the time is up or the server goes away, reporting as we go
+	 * @param duration how long to play for, in milliseconds, or 0 for ever
+	 * @param report how often to print statistics, in milliseconds
+	 * @return a boolean indicating whether we stopped because the time was up
+	 */
+	boolean run(long duration, long report)
+	{
+		long next_report = report;
+		while(network.isRunning())
+		{
+			long elapsed = (System.nanoTime() - start) / 1000000L;
+			if(duration > 0 && elapsed >= duration) break;
+			network.setKeys(script.keysAt(elapsed));
+
+			EntityTable latest = network.getLatest();
+			if(latest.received != last_received)
+			{
+				snapshots++;
+				last_received = latest.received;
+				worst_age = Math.max(worst_age, System.nanoTime() - latest.received);
+			}
+			EventQueue events = network.getEvents();
+			if(events != null) while(events.next(Long.MAX_VALUE)) events_seen++;
+			if(elapsed >= next_report)
+			{
+				report(elapsed, report, latest);
+				next_report += report;
+			}
+
+			try
+			{
+				Thread.sleep(FRAME_INTERVAL);
+			}
+			catch (InterruptedException e)
+			{
+				break;
+			}
+		}
+		boolean finished = network.isRunning();
+		if(!finished) System.out.println(network.getFailure());
+		network.shutdown();
+		connection.close();
+		return finished;
+	}
+
+	/**
+	 * Print a line of statistics for the last interval
+	 * @param elapsed milliseconds since we started
+	 * @param interval milliseconds since the last report
+	 * @param latest the newest snapshot
+	 */
+	private void report(long elapsed, long interval, EntityTable latest)
+	{
+		float seconds = interval / 1000.0f;
+		long in = network.getBytesIn(), out = network.getBytesOut();
+		DecompressionStage decompression = network.getDecompression();
+		JitterBuffer buffer = network.getBuffer();
+		System.out.println(String.format("t=%ds snapshots=%.1f/s ships=%d shots=%d in=%.0fB/s out=%.0fB/s rtt=%.0fms age=%.0fms dropped=%d malformed=%d " +
+				"delay=%.1fms jitter=%.1fms underruns=%d late=%d events=%d%s",
+				elapsed / 1000, snapshots / seconds, latest.ship_count, latest.shot_count, (in - last_in) / seconds, (out - last_out) / seconds,
+				network.getRtt(), worst_age / 1000000.0f, network.getDropped(), network.getMalformed(),
+				buffer.getDelay(), buffer.getJitter(), buffer.getUnderruns(), buffer.getLate(), events_seen,
+				(decompression == null) ? "" : String.format(" compression=%.2f", decompression.getRatio())));
+		last_in = in;
+		last_out = out;
+		snapshots = 0;
+		events_seen = 0;
+		worst_age = 0;
+	}
+
+	/**
+	 * Run a headless client from the command line
+	 * @param args the address and port, then any options
+	 */
+	public static void main(String args[])
+	{
+		if(args.length < 2)
+		{
+			System.out.println("Usage: HeadlessClient <address> <port> [--behaviour=idle|spin|random] [--script=file] [--seed=n]");
+			System.out.println("       [--duration=seconds] [--report=seconds] [--legacy] [--no-compression]");
+			System.exit(2);
+		}
+		String behaviour = "random", script_file = null;
+		long seed = System.nanoTime(), duration = 0, report = 5000;
+		boolean framed = true;
+		int capabilities = CAPABILITIES;
+		try
+		{
+			for(int i = 2; i < args.length; i++)
+			{
+				String arg = args[i];
+				String value = arg.substring(arg.indexOf('=') + 1);
+				if(arg.startsWith("--behaviour=")) behaviour = value;
+				else if(arg.startsWith("--script=")) script_file = value;
+				else if(arg.startsWith("--seed=")) seed = Long.parseLong(value);
+				else if(arg.startsWith("--duration=")) duration = Math.round(Double.parseDouble(value) * 1000);
+				else if(arg.startsWith("--report=")) report = Math.max(Math.round(Double.parseDouble(value) * 1000), FRAME_INTERVAL);
+				else if(arg.equals("--legacy")) framed = false;
+				else if(arg.equals("--no-compression")) capabilities &= ~Protocol.CAP_DEFLATE;
+				else throw new IllegalArgumentException("Unknown option " + arg);
+			}
+			InputScript script = (script_file != null) ? InputScript.load(script_file) : InputScript.behaviour(behaviour, seed);
+			if(script == null) throw new IllegalArgumentException("Unknown behaviour " + behaviour);
+
+			System.out.println("Connecting to " + args[0] + " on port " + args[1] + ((script_file != null) ? " with script " + script_file : " as " + behaviour + ", seed " + seed));
+			HeadlessClient client = new HeadlessClient(args[0], Integer.parseInt(args[1]), script, framed, capabilities);
+			System.exit(client.run(duration, report) ? 0 : 1);
+		}
+		catch (IllegalArgumentException e)
+		{
+			System.out.println(e.getMessage());
+			System.exit(2);
+		}
+		catch (IOException e)
+		{
+			System.out.println("Could not connect to " + args[0] + " on port " + args[1] + ": " + e.getMessage());
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,202 @@
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * InputScript decides which keys a HeadlessClient is pressing at any moment, either from a
+ * script file or from one of a few built in behaviours.
+ *
+ * <p>A script is one step per line: the time in milliseconds from the start, then the keys to
+ * hold from then on, as any of <code>up</code>, <code>left</code>, <code>right</code> and
+ * <code>fire</code> joined with a <code>+</code>, or <code>-</code> for none. A line saying
+ * <code>loop &lt;milliseconds&gt;</code> makes the whole script start again after that long.
+ * Blank lines and anything after a <code>#</code> are ignored. For example:</p>
+ *
+ * <pre>
+ * 0     up
+ * 400   up+left+fire
+ * 900   -
+ * loop  1500
+ * </pre>
+ *
+ * <p>The behaviours are <code>idle</code> (no keys), <code>spin</code> (left and fire held
+ * down) and <code>random</code> (a new random set of keys every so often, which plays about as
+ * badly as a real person and moves about as much).</p>
+ *
+ * @author Chris Granville <v2t04 at students.keele.ac.uk>
+ * @version 3.0f (12/05/2010)
+ * @copyright 2009 - 2010 Chris Granville. All Rights Reserved.
+ */
+
+public class InputScript
+{
+	/**
+	 * Shortest and longest time the random behaviour holds a set of keys for, in milliseconds
+	 */
+	private static final int RANDOM_MIN_HOLD = 150, RANDOM_MAX_HOLD = 1200;
+
+	/**
+	 * When each step starts, in milliseconds from the start, in order
+	 */
+	private long[] times = new long[16];
+
+	/**
+	 * The keys held during each step, as a combination of the <code>Protocol.KEY_</code> bits
+	 */
+	private int[] keys = new int[16];
+
+	/**
+	 * Number of steps
+	 */
+	private int count;
+
+	/**
+	 * How long until the script starts again, in milliseconds, or 0 if it doesn't
+	 */
+	private long loop;
+
+	/**
+	 * Picks keys for the random behaviour, or null if this isn't it
+	 */
+	private Random random;
+
+	/**
+	 * Keys the random behaviour is holding
+	 */
+	private int random_keys;
+
+	/**
+	 * When the random behaviour next changes its keys, in milliseconds from the start
+	 */
+	private long random_until;
+
+	/**
+	 * Not to be instantiated other than through <code>load()</code> and <code>behaviour()</code>
+	 */
+	private InputScript()
+	{
+	}
+
+	/**
+	 * Read a script file
+	 * @param file the name of the file
+	 * @return the script
+	 * @throws IOException if the file can't be read
+	 * @throws IllegalArgumentException if a line doesn't make sense
+	 */
+	static InputScript load(String file) throws IOException
+	{
+		InputScript script = new InputScript();
+		BufferedReader reader = new BufferedReader(new FileReader(file));
+		try
+		{
+			String line;
+			int number = 0;
+			while((line = reader.readLine()) != null)
+			{
+				number++;
+				int comment = line.indexOf('#');
+				if(comment >= 0) line = line.substring(0, comment);
+				String parts[] = line.trim().split("\\s+");
+				if(parts[0].length() == 0) continue;
+				try
+				{
+					if(parts.length != 2) throw new IllegalArgumentException("expected two things");
+					if(parts[0].equals("loop")) script.loop = Long.parseLong(parts[1]);
+					else script.add(Long.parseLong(parts[0]), parseKeys(parts[1]));
+				}
+				catch (IllegalArgumentException e)
+				{
+					throw new IllegalArgumentException(file + " line " + number + ": " + e.getMessage());
+				}
+			}
+		}
+		finally
+		{
+			reader.close();
+		}
+		return script;
+	}
+
+	/**
+	 * Make one of the built in behaviours
+	 * @param name <code>idle</code>, <code>spin</code> or <code>random</code>
+	 * @param seed seed for the random behaviour, so a run can be repeated
+	 * @return the behaviour, or null if there isn't one by that name
+	 */
+	static InputScript behaviour(String name, long seed)
+	{
+		InputScript script = new InputScript();
+		if(name.equals("idle")) script.add(0, 0);
+		else if(name.equals("spin")) script.add(0, Protocol.KEY_LEFT | Protocol.KEY_FIRE);
+		else if(name.equals("random")) script.random = new Random(seed);
+		else return null;
+		return script;
+	}
+
+	/**
+	 * Turn something like <code>up+fire</code> into key bits
+	 * @param text the keys, or <code>-</code> for none
+	 * @return the keys, as a combination of the <code>Protocol.KEY_</code> bits
+	 */
+	private static int parseKeys(String text)
+	{
+		if(text.equals("-")) return 0;
+		int result = 0;
+		String names[] = text.split("\\+");
+		for(int i = 0; i < names.length; i++)
+		{
+			if(names[i].equals("up")) result |= Protocol.KEY_UP;
+			else if(names[i].equals("left")) result |= Protocol.KEY_LEFT;
+			else if(names[i].equals("right")) result |= Protocol.KEY_RIGHT;
+			else if(names[i].equals("fire")) result |= Protocol.KEY_FIRE;
+			else throw new IllegalArgumentException("unknown key \"" + names[i] + "\"");
+		}
+		return result;
+	}
+
+	/**
+	 * Add a step to the end of the script
+	 * @param time when it starts, in milliseconds from the start
+	 * @param step_keys the keys held during it
+	 */
+	private void add(long time, int step_keys)
+	{
+		if(count > 0 && time < times[count - 1]) throw new IllegalArgumentException("steps must be in order");
+		if(count == times.length)
+		{
+			long[] bigger_times = new long[count * 2];
+			int[] bigger_keys = new int[count * 2];
+			System.arraycopy(times, 0, bigger_times, 0, count);
+			System.arraycopy(keys, 0, bigger_keys, 0, count);
+			times = bigger_times;
+			keys = bigger_keys;
+		}
+		times[count] = time;
+		keys[count] = step_keys;
+		count++;
+	}
+
+	/**
+	 * Get the keys to hold at a given time
+	 * @param millis milliseconds from the start
+	 * @return the keys, as a combination of the <code>Protocol.KEY_</code> bits
+	 */
+	int keysAt(long millis)
+	{
+		if(random != null)
+		{
+			if(millis >= random_until)
+			{
+				random_keys = random.nextInt(16);
+				random_until = millis + RANDOM_MIN_HOLD + random.nextInt(RANDOM_MAX_HOLD - RANDOM_MIN_HOLD);
+			}
+			return random_keys;
+		}
+		if(loop > 0) millis %= loop;
+		int result = 0;
+		for(int i = 0; i < count && times[i] <= millis; i++) result = keys[i];
+		return result;
+	}
+}
@@ -0,0 +1,372 @@
+import java.util.Arrays;
+import processing.core.PApplet;
+
+/**
+ * JitterBuffer holds decoded snapshots between the NetworkThread and the animation thread, and
+ * decides when each one should be shown. Snapshots leave the server evenly spaced but don't
+ * arrive that way, and showing each one the moment it turns up passes every wobble in the
+ * network straight through to the screen. Instead each snapshot is held until a fixed time
+ * after the server sent it - the playout delay - so they come out as evenly as they went in.
+ *
+ * <p>The delay is just long enough that only about <code>target_late</code> of snapshots turn
+ * up after they should have been shown. The server's sequence numbers, one per frame, tell us
+ * when each snapshot was sent by its own clock. How much longer each one took to get here than
+ * the quickest recent one is how late the network made it, and the delay is set to the right
+ * percentile of that over the last few seconds. It goes up quickly when the network gets
+ * worse and comes back down slowly. Snapshots without sequence numbers (the text protocol) are
+ * shown as soon as they arrive, as before.</p>
+ *
+ * <p>The tables live in a ring that only the NetworkThread writes into and only the animation
+ * thread reads out of, so handing one over is just moving an index and neither side ever waits
+ * for the other. The table being shown is never written into.</p>
+ *
+ * @author Chris Granville <v2t04 at students.keele.ac.uk>
+ * @version 3.0f (12/05/2010)
+ * @copyright 2009 - 2010 Chris Granville. All Rights Reserved.
+ */
+
+public class JitterBuffer
+{
+	/**
+	 * Number of recent snapshots the delay is worked out from
+	 */
+	private static final int WINDOW = 64;
+
+	/**
+	 * Longest the delay is allowed to get, in nanoseconds. Past this the link is too bad for
+	 * waiting to help
+	 */
+	private static final long MAX_DELAY = 250000000L;
+
+	/**
+	 * How much of the way to a longer delay, and to a shorter one, the delay moves with each snapshot
+	 */
+	private static final float RISE_GAIN = 0.5f, FALL_GAIN = 0.02f;
+
+	/**
+	 * Weight given to each new difference in the jitter estimate, as in RTP
+	 */
+	private static final float JITTER_GAIN = 1.0f / 16;
+
+	/**
+	 * The tables. The one at <code>read</code> is being shown, the ones after it up to
+	 * <code>write</code> are waiting and the rest are free
+	 */
+	private EntityTable[] tables;
+
+	/**
+	 * Where to put a snapshot that arrives when every table is full, so it can be thrown away
+	 */
+	private EntityTable overflow;
+
+	/**
+	 * The table last handed to the NetworkThread to decode into
+	 */
+	private EntityTable writing;
+
+	/**
+	 * Number of tables written so far. The next one goes at <code>write % tables.length</code>.
+	 * Only the NetworkThread changes it
+	 */
+	private volatile long write = 1;
+
+	/**
+	 * Number of the table being shown. Only the animation thread changes it
+	 */
+	private volatile long read;
+
+	/**
+	 * What fraction of snapshots we're happy to have turn up too late to be shown on time
+	 */
+	private float target_late;
+
+	/**
+	 * Fewest snapshots needed before we trust our own measure of how long a server frame is
+	 * over what the server says
+	 */
+	private static final int MIN_FIT = 8;
+
+	/**
+	 * Server frame number of each recent snapshot
+	 */
+	private long[] frames = new long[WINDOW];
+
+	/**
+	 * When each recent snapshot arrived, in nanoseconds after the first one
+	 */
+	private long[] arrivals = new long[WINDOW];
+
+	/**
+	 * Number of snapshots that have been through <code>schedule()</code>, which says where the next one goes
+	 */
+	private int count;
+
+	/**
+	 * How late each recent snapshot was, for sorting to find the delay
+	 */
+	private double[] sorted = new double[WINDOW];
+
+	/**
+	 * When the first snapshot arrived, from System.nanoTime()
+	 */
+	private long origin;
+
+	/**
+	 * The last sequence number, or -1 before the first
+	 */
+	private int last_sequence = -1;
+
+	/**
+	 * Number of server frames from the first snapshot to the last, which keeps counting when
+	 * the sequence number wraps round
+	 */
+	private long server_frames;
+
+	/**
+	 * When the last snapshot arrived, from System.nanoTime()
+	 */
+	private long last_arrival;
+
+	/**
+	 * The playout delay, in nanoseconds
+	 */
+	private volatile long delay;
+
+	/**
+	 * Estimated jitter, in nanoseconds
+	 */
+	private volatile float jitter;
+
+	/**
+	 * Usual time between snapshots, in nanoseconds
+	 */
+	private volatile long interval;
+
+	/**
+	 * Number of snapshots that turned up after they should have been shown
+	 */
+	private volatile long late;
+
+	/**
+	 * Number of snapshots thrown away because there was nowhere to put them. Only the NetworkThread changes it
+	 */
+	private volatile long overflowed;
+
+	/**
+	 * Number of snapshots never shown because a newer one was due first. Only the animation thread changes it
+	 */
+	private volatile long skipped;
+
+	/**
+	 * Number of times the animation thread ran out of snapshots to show
+	 */
+	private volatile long underruns;
+
+	/**
+	 * Has the animation thread run out, so one underrun isn't counted every frame
+	 */
+	private boolean starved;
+
+	/**
+	 * Constructor for JitterBuffer
+	 * @param parent the parent PApplet for the tables' Ships and Shots
+	 * @param capacity most snapshots to hold at once, including the one being shown
+	 * @param target_late the fraction of snapshots we're happy to have arrive too late, such as 0.02
+	 */
+	JitterBuffer(PApplet parent, int capacity, float target_late)
+	{
+		tables = new EntityTable[Math.max(capacity, 2)];
+		for(int i = 0; i < tables.length; i++) tables[i] = new EntityTable(parent, 16, 16);
+		overflow = new EntityTable(parent, 16, 16);
+		this.target_late = target_late;
+	}
+
+	/**
+	 * Get the table for the NetworkThread to decode the next snapshot into. It stays the same
+	 * table until <code>publish()</code> is called
+	 * @return the table
+	 */
+	EntityTable writable()
+	{
+		writing = (write - read >= tables.length) ? overflow : tables[(int) (write % tables.length)];
+		return writing;
+	}
+
+	/**
+	 * Hand over the snapshot that was decoded into the last table from <code>writable()</code>,
+	 * working out when it should be shown. Only the NetworkThread calls this
+	 * @param now when it arrived, from System.nanoTime()
+	 * @param tick_rate how many frames a second the server runs at, or 0 if it doesn't number its snapshots
+	 */
+	void publish(long now, float tick_rate)
+	{
+		EntityTable table = writing;
+		if(table == null || table == overflow)
+		{
+			overflowed++;
+			return;
+		}
+		writing = null;
+		table.received = now;
+		table.due = (table.sequence < 0 || tick_rate <= 0) ? now : schedule(table.sequence, now, tick_rate);
+		write++;
+	}
+
+	/**
+	 * Work out when a numbered snapshot should be shown, and update the delay.
+	 *
+	 * <p>The server never runs at exactly the frame rate it says, so rather than take its word
+	 * for when each snapshot was sent, a straight line is fitted through the frame numbers and
+	 * arrival times of recent snapshots. The line's slope is how long a server frame really is
+	 * by our clock, and how far above the line each snapshot is says how much the network held
+	 * it up, compared with the snapshot it held up least.</p>
+	 * @param sequence its sequence number
+	 * @param now when it arrived, from System.nanoTime()
+	 * @param tick_rate how many frames a second the server says it runs at
+	 * @return when to show it, from System.nanoTime()
+	 */
+	private long schedule(int sequence, long now, float tick_rate)
+	{
+		if(last_sequence < 0) origin = now;
+		else server_frames += (sequence - last_sequence) & 0xffff;
+		long frame_gap = (last_sequence < 0) ? 0 : ((sequence - last_sequence) & 0xffff);
+		last_sequence = sequence;
+		frames[count % WINDOW] = server_frames;
+		arrivals[count % WINDOW] = now - origin;
+		count++;
+		int samples = Math.min(count, WINDOW);
+
+		// Fit arrival = intercept + slope * frame through the recent snapshots
+		double nominal = 1000000000.0 / tick_rate;
+		double mean_frame = 0, mean_arrival = 0;
+		for(int i = 0; i < samples; i++)
+		{
+			mean_frame += frames[i];
+			mean_arrival += arrivals[i];
+		}
+		mean_frame /= samples;
+		mean_arrival /= samples;
+		double covariance = 0, variance = 0;
+		for(int i = 0; i < samples; i++)
+		{
+			covariance += (frames[i] - mean_frame) * (arrivals[i] - mean_arrival);
+			variance += (frames[i] - mean_frame) * (frames[i] - mean_frame);
+		}
+		double slope = (samples >= MIN_FIT && variance > 0) ? covariance / variance : nominal;
+		// Anything very far out is a burst of bad luck rather than the server's real speed
+		slope = Math.min(Math.max(slope, nominal * 0.9), nominal * 1.1);
+		double intercept = mean_arrival - slope * mean_frame;
+
+		// How far above the line each one is, measured from the one furthest below it
+		double lowest = Double.MAX_VALUE;
+		for(int i = 0; i < samples; i++)
+		{
+			sorted[i] = arrivals[i] - (intercept + slope * frames[i]);
+			lowest = Math.min(lowest, sorted[i]);
+		}
+		Arrays.sort(sorted, 0, samples);
+		int index = Math.min(Math.max((int) Math.ceil((1 - target_late) * samples) - 1, 0), samples - 1);
+		long wanted = Math.min((long) (sorted[index] - lowest), MAX_DELAY);
+		delay += (long) ((wanted - delay) * ((wanted > delay) ? RISE_GAIN : FALL_GAIN));
+
+		if(frame_gap > 0)
+		{
+			// As in RTP: how much the gap between arrivals differs from the gap between sends
+			double difference = (now - last_arrival) - slope * frame_gap;
+			jitter += (float) ((Math.abs(difference) - jitter) * JITTER_GAIN);
+			long gap = (long) (slope * frame_gap);
+			interval = (interval == 0) ? gap : interval + (gap - interval) / 8;
+		}
+		last_arrival = now;
+
+		long due = origin + (long) (intercept + slope * server_frames + lowest) + delay;
+		if(now > due)
+		{
+			late++;
+			return now;
+		}
+		return due;
+	}
+
+	/**
+	 * Get the newest snapshot that is due to be shown, letting go of any older ones. The table
+	 * returned belongs to the animation thread until the next time this is called
+	 * @param now the time, from System.nanoTime()
+	 * @return the table to show
+	 */
+	EntityTable poll(long now)
+	{
+		long shown = read;
+		long waiting = write;
+		long next = shown + 1;
+		while(next < waiting && tables[(int) (next % tables.length)].due <= now) next++;
+		if(next - 1 != shown)
+		{
+			skipped += next - 2 - shown;
+			read = next - 1;
+			starved = false;
+		}
+		else if(next == waiting && interval > 0 && !starved && now > tables[(int) (shown % tables.length)].due + interval + interval / 2)
+		{
+			// Nothing to show, and the next one should have been here by now
+			underruns++;
+			starved = true;
+		}
+		return tables[(int) (read % tables.length)];
+	}
+
+	/**
+	 * Get the playout delay
+	 * @return the delay in milliseconds
+	 */
+	public float getDelay()
+	{
+		return delay / 1000000.0f;
+	}
+
+	/**
+	 * Get the estimated jitter: how much the time between snapshots arriving differs from the
+	 * time between them being sent, on average
+	 * @return the jitter in milliseconds
+	 */
+	public float getJitter()
+	{
+		return jitter / 1000000.0f;
+	}
+
+	/**
+	 * Get the number of snapshots that turned up after they should have been shown
+	 * @return the number of snapshots
+	 */
+	public long getLate()
+	{
+		return late;
+	}
+
+	/**
+	 * Get the number of snapshots that were never shown
+	 * @return the number of snapshots
+	 */
+	public long getDropped()
+	{
+		return overflowed + skipped;
+	}
+
+	/**
+	 * Get the number of times there was nothing new to show when there should have been
+	 * @return the number of underruns
+	 */
+	public long getUnderruns()
+	{
+		return underruns;
+	}
+
+	/**
+	 * Get the number of snapshots waiting to be shown
+	 * @return the number waiting
+	 */
+	public int getDepth()
+	{
+		return (int) (write - read - 1);
+	}
+}
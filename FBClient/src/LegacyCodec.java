@@ -0,0 +1,278 @@
+import processing.core.PApplet;
+
+/**
+ * LegacyCodec talks the original text protocol: colon-separated booleans for the keys, and
+ * a text snapshot back. It's used for servers that don't reply to our hello, and the text
+ * parsing is also used by FramedCodec for servers that won't send binary snapshots.
+ *
+ * <p>The snapshot is parsed straight from the bytes into an EntityTable. We used to split it
+ * into Strings and parse those, which made dozens of objects every frame for the garbage
+ * collector to clear up.</p>
+ *
+ * @author Chris Granville <v2t04 at students.keele.ac.uk>
+ * @version 3.0f (12/05/2010)
+ * @copyright 2009 - 2010 Chris Granville. All Rights Reserved.
+ */
+
+public class LegacyCodec implements Codec
+{
+	/**
+	 * Parent PApplet, for the frame count in error messages. Null when there is no window
+	 */
+	private PApplet parent;
+
+	/**
+	 * Where we've got to in the bytes being parsed
+	 */
+	private int position;
+
+	/**
+	 * Has anything gone wrong parsing the current ship or shot
+	 */
+	private boolean malformed;
+
+	/**
+	 * Number of snapshots that couldn't be used at all
+	 */
+	private volatile int malformed_snapshots;
+
+	/**
+	 * Constructor for LegacyCodec
+	 * @param parent the parent PApplet, for the frame count in error messages
+	 */
+	LegacyCodec(PApplet parent)
+	{
+		this.parent = parent;
+	}
+
+	/**
+	 * Nothing needs to be sent first in the original protocol
+	 * @see Codec#start(Connection)
+	 */
+	public void start(Connection connection)
+	{
+	}
+
+	/**
+	 * @see Codec#sendInput(Connection, int)
+	 */
+	public void sendInput(Connection connection, int keys)
+	{
+		String transmission = ((keys & Protocol.KEY_UP) != 0) + ":" + ((keys & Protocol.KEY_LEFT) != 0) + ":" +
+				((keys & Protocol.KEY_RIGHT) != 0) + ":" + ((keys & Protocol.KEY_FIRE) != 0);
+		connection.queue(transmission);
+	}
+
+	/**
+	 * @see Codec#receive(byte[], int, int, EntityTable)
+	 */
+	public boolean receive(byte[] data, int offset, int length, EntityTable table)
+	{
+		// Every read is a snapshot of its own, so there's never anything left over
+		if(length == 0) return false;
+		if(parse(data, offset, length, table)) return true;
+		malformed_snapshots++;
+		return false;
+	}
+
+	/**
+	 * Parse a text snapshot into an EntityTable. The Ships come first, separated by semicolons,
+	 * then a double slash, then the Shots or "false" if there aren't any. Ships or Shots that
+	 * don't make sense are skipped, as they always were
+	 * @param data array holding the text
+	 * @param offset index of the first byte
+	 * @param length number of bytes
+	 * @param table where to put the Ships and Shots
+	 * @return false if it was too malformed to use at all, in which case the table is untouched
+	 */
+	boolean parse(byte[] data, int offset, int length, EntityTable table)
+	{
+		int end = offset + length;
+		int divider = -1;		// At this point, all ships are before the divider and all shots after
+		for(int i = offset; i < end - 1; i++)
+		{
+			if(data[i] == '/' && data[i + 1] == '/')
+			{
+				divider = i;
+				break;
+			}
+		}
+		if(divider < 0) return false;
+		for(int i = divider + 2; i < end - 1; i++)
+		{
+			// More than one snapshot run together, which we never could make sense of
+			if(data[i] == '/' && data[i + 1] == '/') return false;
+		}
+		table.clear();
+
+		// Each ship is x,y,angle,shield color,shield strength
+		position = offset;
+		while(position < divider)
+		{
+			int entry_end = find(data, ';', position, divider);
+			malformed = false;
+			int x = (int) readNumber(data, entry_end);
+			int y = (int) readNumber(data, entry_end);
+			float angle = readNumber(data, entry_end);
+			float shield_color = readNumber(data, entry_end);
+			float shield_strength = readNumber(data, entry_end);
+			if(malformed) System.out.println("[" + frame() + "] ship transmission malfored, skipping");
+			else table.addShip(x, y, angle, shield_strength, shield_color);
+			position = entry_end + 1;
+		}
+
+		// And now the Shots, which are just x,y
+		position = divider + 2;
+		if(end - position == 5 && data[position] == 'f') return true;	// "false", no shots
+		while(position < end)
+		{
+			int entry_end = find(data, ';', position, end);
+			malformed = false;
+			int x = (int) readNumber(data, entry_end);
+			int y = (int) readNumber(data, entry_end);
+			if(malformed) System.out.println("[" + frame() + "] shot transmission malfored, skipping");
+			else table.addShot(x, y);
+			position = entry_end + 1;
+		}
+		return true;
+	}
+
+	/**
+	 * Find the next occurrence of a character
+	 * @param data array to look in
+	 * @param c the character to look for
+	 * @param from index to start looking at
+	 * @param to index to stop looking at
+	 * @return the index of the character, or <code>to</code> if it isn't there
+	 */
+	private static int find(byte[] data, char c, int from, int to)
+	{
+		for(int i = from; i < to; i++) if(data[i] == c) return i;
+		return to;
+	}
+
+	/**
+	 * Read a number, in whatever form Java printed it in (which could be something like 1.0E-4),
+	 * from <code>position</code> up to the next comma, and move past the comma. Sets
+	 * <code>malformed</code> if there isn't a number there
+	 * @param data array holding the text
+	 * @param limit index to stop reading at
+	 * @return the number, or 0 if there wasn't one
+	 */
+	private float readNumber(byte[] data, int limit)
+	{
+		int field_end = find(data, ',', position, limit);
+		int i = position;
+		position = Math.min(field_end + 1, limit);
+
+		boolean negative = false;
+		if(i < field_end && (data[i] == '-' || data[i] == '+')) negative = (data[i++] == '-');
+		double value = 0;
+		int digits = 0;
+		while(i < field_end && data[i] >= '0' && data[i] <= '9')
+		{
+			value = value * 10 + (data[i++] - '0');
+			digits++;
+		}
+		if(i < field_end && data[i] == '.')
+		{
+			i++;
+			double scale = 0.1;
+			while(i < field_end && data[i] >= '0' && data[i] <= '9')
+			{
+				value += (data[i++] - '0') * scale;
+				scale *= 0.1;
+				digits++;
+			}
+		}
+		if(digits > 0 && i < field_end && (data[i] == 'E' || data[i] == 'e'))
+		{
+			i++;
+			boolean negative_exponent = false;
+			if(i < field_end && (data[i] == '-' || data[i] == '+')) negative_exponent = (data[i++] == '-');
+			int exponent = 0, exponent_digits = 0;
+			while(i < field_end && data[i] >= '0' && data[i] <= '9')
+			{
+				exponent = exponent * 10 + (data[i++] - '0');
+				exponent_digits++;
+			}
+			if(exponent_digits == 0) digits = 0;
+			value *= Math.pow(10, negative_exponent ? -exponent : exponent);
+		}
+		if(digits == 0 || i != field_end)
+		{
+			malformed = true;
+			return 0;
+		}
+		return (float) (negative ? -value : value);
+	}
+
+	/**
+	 * @see Codec#serverIsLegacy()
+	 */
+	public boolean serverIsLegacy()
+	{
+		return false;
+	}
+
+	/**
+	 * @see Codec#rejected()
+	 */
+	public boolean rejected()
+	{
+		return false;
+	}
+
+	/**
+	 * The original protocol is never compressed
+	 * @see Codec#getDecompression()
+	 */
+	public DecompressionStage getDecompression()
+	{
+		return null;
+	}
+
+	/**
+	 * @see Codec#getMalformed()
+	 */
+	public int getMalformed()
+	{
+		return malformed_snapshots;
+	}
+
+	/**
+	 * The original protocol never measures it
+	 * @see Codec#getRtt()
+	 */
+	public float getRtt()
+	{
+		return 0;
+	}
+
+	/**
+	 * Text snapshots don't have sequence numbers
+	 * @see Codec#getTickRate()
+	 */
+	public float getTickRate()
+	{
+		return 0;
+	}
+
+	/**
+	 * Old servers don't send events
+	 * @see Codec#getEvents()
+	 */
+	public EventQueue getEvents()
+	{
+		return null;
+	}
+
+	/**
+	 * Get the frame number for error messages
+	 * @return the parent's frame count, or 0 if there is no window (see HeadlessClient)
+	 */
+	private int frame()
+	{
+		return (parent == null) ? 0 : parent.frameCount;
+	}
+}
@@ -0,0 +1,340 @@
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import processing.core.PApplet;
+
+/**
+ * NetworkThread does all the talking to the server, so that drawing never has to wait for it
+ * and a burst of data from the server never holds up a frame. It reads and decodes snapshots
+ * as soon as they arrive and sends our keys the moment they change, rather than once a frame.
+ *
+ * <p>Decoded snapshots are handed over through a JitterBuffer, which holds each one back just
+ * long enough to smooth out the network's wobbles. Neither side ever waits for the other and
+ * nothing is copied.</p>
+ *
+ * @author Chris Granville <v2t04 at students.keele.ac.uk>
+ * @version 3.0f (12/05/2010)
+ * @copyright 2009 - 2010 Chris Granville. All Rights Reserved.
+ */
+
+public class NetworkThread extends Thread
+{
+	/**
+	 * How long to sleep when there's nothing to read, in nanoseconds. Changed keys wake us up early
+	 */
+	private static final long POLL_INTERVAL = 1000000L;
+
+	/**
+	 * Longest we go without sending our keys, in nanoseconds, even if they haven't changed. The
+	 * server relies on them to know which snapshots we've had
+	 */
+	private static final long INPUT_INTERVAL = 33000000L;
+
+	/**
+	 * Most snapshots the JitterBuffer can hold. A second's worth, far more than it should ever need
+	 */
+	private static final int BUFFERED_SNAPSHOTS = 32;
+
+	/**
+	 * Fraction of snapshots the JitterBuffer lets arrive too late to be shown on time, in
+	 * exchange for keeping its delay short
+	 */
+	private static final float TARGET_LATE = 0.02f;
+
+	/**
+	 * Parent PApplet, for the frame count in error messages. Null when there is no window
+	 */
+	private PApplet parent;
+
+	/**
+	 * Connection to the server
+	 */
+	private Connection connection;
+
+	/**
+	 * How we talk to the server. Might be swapped for a LegacyCodec, but only by this thread
+	 */
+	private volatile Codec codec;
+
+	/**
+	 * Where snapshots are decoded into and handed over from
+	 */
+	private JitterBuffer buffer;
+
+	/**
+	 * The keys currently being pressed, as a combination of the <code>Protocol.KEY_</code> bits
+	 */
+	private AtomicInteger keys = new AtomicInteger();
+
+	/**
+	 * Somewhere to read what the server sends us into
+	 */
+	private byte[] in_buffer = new byte[4096];
+
+	/**
+	 * Bytes read from and written to the server so far
+	 */
+	private volatile long bytes_in, bytes_out;
+
+	/**
+	 * Time spent decoding what the server sent us so far, in nanoseconds
+	 */
+	private volatile long decode_nanos;
+
+	/**
+	 * Number of snapshots decoded so far
+	 */
+	private volatile long decoded_count;
+
+	/**
+	 * Should we keep going
+	 */
+	private volatile boolean running = true;
+
+	/**
+	 * Why we stopped, if it wasn't because we were asked to
+	 */
+	private volatile String failure;
+
+	/**
+	 * Constructor for NetworkThread. Call <code>start()</code> to get it going
+	 * @param parent the parent PApplet for the tables' Ships and Shots
+	 * @param connection the connection to the server
+	 * @param codec how to talk to the server, already started
+	 */
+	NetworkThread(PApplet parent, Connection connection, Codec codec)
+	{
+		super("Celestia network");
+		setDaemon(true);
+		this.parent = parent;
+		this.connection = connection;
+		this.codec = codec;
+		buffer = new JitterBuffer(parent, BUFFERED_SNAPSHOTS, TARGET_LATE);
+	}
+
+	/**
+	 * Read, decode and send until told to stop or the connection goes
+	 * @see java.lang.Thread#run()
+	 */
+	public void run()
+	{
+		int sent_keys = -1;
+		long last_sent = 0;
+		while(running)
+		{
+			// Keys first, as soon as they change
+			int current = keys.get();
+			long now = System.nanoTime();
+			if(current != sent_keys || now - last_sent >= INPUT_INTERVAL)
+			{
+				codec.sendInput(connection, current);
+				sent_keys = current;
+				last_sent = now;
+			}
+
+			boolean received = receive();
+			if(!running) break;
+
+			// Send the keys, plus anything the Codec queued in reply to what we received, in one write
+			bytes_out += connection.flush();
+			if(!connection.active())
+			{
+				failure = "Lost connection to the server";
+				break;
+			}
+			if(!received) LockSupport.parkNanos(this, POLL_INTERVAL);
+		}
+		running = false;
+	}
+
+	/**
+	 * Read everything waiting and decode it. If the server turns out not to understand the
+	 * framed protocol, switch to the text one
+	 * @return a boolean indicating whether anything was read
+	 */
+	private boolean receive()
+	{
+		boolean received = false;
+		while(connection.available() > 0)
+		{
+			int read = connection.read(in_buffer);
+			if(read <= 0) break;
+			received = true;
+			bytes_in += read;
+
+			long start = System.nanoTime();
+			EntityTable table = buffer.writable();
+			boolean decoded = codec.receive(in_buffer, 0, read, table);
+			if(codec.serverIsLegacy())
+			{
+				System.out.println("Server doesn't understand hello, using the original protocol");
+				codec = new LegacyCodec(parent);
+				decoded = codec.receive(in_buffer, 0, read, table);
+			}
+			if(codec.rejected())
+			{
+				failure = "Server refused to talk to us, it probably needs upgrading";
+				running = false;
+				return received;
+			}
+			long now = System.nanoTime();
+			decode_nanos += now - start;
+			// One read can hold several snapshots, and each gets its own table
+			while(decoded)
+			{
+				decoded_count++;
+				buffer.publish(now, codec.getTickRate());
+				start = System.nanoTime();
+				decoded = codec.receive(in_buffer, 0, 0, buffer.writable());
+				now = System.nanoTime();
+				decode_nanos += now - start;
+			}
+		}
+		return received;
+	}
+
+	/**
+	 * Get the newest snapshot that is due to be drawn. The table returned belongs to the
+	 * animation thread until the next time this is called
+	 * @return the table to draw
+	 */
+	public EntityTable getLatest()
+	{
+		return buffer.poll(System.nanoTime());
+	}
+
+	/**
+	 * Get the events the server has told us about, waiting to be shown
+	 * @return the EventQueue, or null if the server doesn't send events
+	 */
+	public EventQueue getEvents()
+	{
+		return codec.getEvents();
+	}
+
+	/**
+	 * Get the JitterBuffer, for its statistics
+	 * @return the JitterBuffer
+	 */
+	public JitterBuffer getBuffer()
+	{
+		return buffer;
+	}
+
+	/**
+	 * Tell the thread which keys are being pressed. If they've changed it wakes up and sends
+	 * them straight away
+	 * @param current the keys being pressed, as a combination of the <code>Protocol.KEY_</code> bits
+	 */
+	public void setKeys(int current)
+	{
+		if(keys.getAndSet(current) != current) LockSupport.unpark(this);
+	}
+
+	/**
+	 * Stop the thread and wait for it to finish, so the connection can be closed safely
+	 */
+	public void shutdown()
+	{
+		running = false;
+		LockSupport.unpark(this);
+		try
+		{
+			join(1000);
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Is the thread still going
+	 * @return a boolean indicating whether it's still talking to the server
+	 */
+	public boolean isRunning()
+	{
+		return running;
+	}
+
+	/**
+	 * Get the reason the thread stopped on its own
+	 * @return the reason, or null if it hasn't stopped or was asked to
+	 */
+	public String getFailure()
+	{
+		return failure;
+	}
+
+	/**
+	 * Get the decompressor, if the server is compressing what it sends us. Only for showing
+	 * statistics, which might be a frame out of date when read from another thread
+	 * @return the DecompressionStage in use, or null if the stream isn't compressed
+	 */
+	public DecompressionStage getDecompression()
+	{
+		return codec.getDecompression();
+	}
+
+	/**
+	 * Get the number of bytes read from the server so far
+	 * @return the number of bytes
+	 */
+	public long getBytesIn()
+	{
+		return bytes_in;
+	}
+
+	/**
+	 * Get the number of bytes written to the server so far
+	 * @return the number of bytes
+	 */
+	public long getBytesOut()
+	{
+		return bytes_out;
+	}
+
+	/**
+	 * Get the time spent decoding what the server sent us so far
+	 * @return the time in nanoseconds
+	 */
+	public long getDecodeNanos()
+	{
+		return decode_nanos;
+	}
+
+	/**
+	 * Get the number of snapshots decoded so far
+	 * @return the number of snapshots
+	 */
+	public long getDecoded()
+	{
+		return decoded_count;
+	}
+
+	/**
+	 * Get the number of snapshots that were never drawn
+	 * @return the number of snapshots
+	 */
+	public long getDropped()
+	{
+		return buffer.getDropped();
+	}
+
+	/**
+	 * Get the number of snapshots that were too malformed to use
+	 * @return the number of snapshots
+	 */
+	public int getMalformed()
+	{
+		return codec.getMalformed();
+	}
+
+	/**
+	 * Get the round trip time to the server, as the server last told us
+	 * @return the round trip time in milliseconds, or 0 if we don't know it
+	 */
+	public float getRtt()
+	{
+		return codec.getRtt();
+	}
+}
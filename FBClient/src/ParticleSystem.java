@@ -0,0 +1,302 @@
+import java.util.Random;
+import processing.core.PApplet;
+import processing.core.PGraphics;
+
+/**
+ * ParticleSystem draws the sparks when a Ship is hit, the explosion when one is destroyed
+ * and the exhaust behind our own Ship while it's thrusting. Hits and explosions come from the
+ * server's events, and the exhaust from the keys we're pressing.
+ *
+ * <p>A big fight could easily want thousands of particles a second, so there are no particle
+ * objects at all: every particle is an index into a handful of arrays made once at the start,
+ * and a particle that dies has the last one moved into its place. There's a fixed number of
+ * them, and a fixed number that can be started each frame, so however much is going on the
+ * frame costs about the same and nothing is ever left for the garbage collector. When either
+ * limit is reached new particles are simply not started.</p>
+ *
+ * @author Chris Granville <v2t04 at students.keele.ac.uk>
+ * @version 3.0f (12/05/2010)
+ * @copyright 2009 - 2010 Chris Granville. All Rights Reserved.
+ */
+
+public class ParticleSystem
+{
+	/**
+	 * Most particles alive at once
+	 */
+	private static final int MAX_PARTICLES = 2048;
+
+	/**
+	 * Most particles started in one frame
+	 */
+	private static final int MAX_SPAWN = 256;
+
+	/**
+	 * Particles in the sparks from a hit
+	 */
+	private static final int HIT_PARTICLES = 16;
+
+	/**
+	 * Particles in the explosion when a Ship is destroyed
+	 */
+	private static final int EXPLOSION_PARTICLES = 120;
+
+	/**
+	 * Particles of exhaust each frame while thrusting
+	 */
+	private static final int THRUST_PARTICLES = 3;
+
+	/**
+	 * How far behind the middle of a Ship its exhaust comes out, about where the back of the hull is
+	 */
+	private static final float EXHAUST_OFFSET = 12;
+
+	/**
+	 * How much of a particle's speed it loses a second
+	 */
+	private static final float DRAG = 1.5f;
+
+	/**
+	 * Sparks: white going to yellow, fast and short lived
+	 */
+	private static final int HIT_COLOR = 0xffffee88;
+
+	/**
+	 * Explosions: orange, with some yellow and red mixed in
+	 */
+	private static final int[] EXPLOSION_COLORS = { 0xffff8800, 0xffffcc33, 0xffff3300, 0xffffffff };
+
+	/**
+	 * Exhaust: pale blue
+	 */
+	private static final int THRUST_COLOR = 0xff88bbff;
+
+	/**
+	 * Position of each particle, x
+	 */
+	private float[] x = new float[MAX_PARTICLES];
+
+	/**
+	 * Position of each particle, y
+	 */
+	private float[] y = new float[MAX_PARTICLES];
+
+	/**
+	 * Velocity of each particle, x, in pixels a second
+	 */
+	private float[] velocity_x = new float[MAX_PARTICLES];
+
+	/**
+	 * Velocity of each particle, y, in pixels a second
+	 */
+	private float[] velocity_y = new float[MAX_PARTICLES];
+
+	/**
+	 * How long each particle has left, in seconds
+	 */
+	private float[] life = new float[MAX_PARTICLES];
+
+	/**
+	 * How long each particle lived for to start with, in seconds, for fading it out
+	 */
+	private float[] lifetime = new float[MAX_PARTICLES];
+
+	/**
+	 * Colour of each particle, as ARGB with the alpha at full
+	 */
+	private int[] colors = new int[MAX_PARTICLES];
+
+	/**
+	 * Number of particles alive. They're the first <code>count</code> in the arrays
+	 */
+	private int count;
+
+	/**
+	 * Number of particles that can still be started this frame
+	 */
+	private int budget = MAX_SPAWN;
+
+	/**
+	 * Number of particles that weren't started because of one limit or the other
+	 */
+	private long refused;
+
+	/**
+	 * When the particles were last moved, from System.nanoTime()
+	 */
+	private long last_update;
+
+	/**
+	 * For scattering particles about
+	 */
+	private Random random = new Random();
+
+	/**
+	 * Start the effect for an event from the server
+	 * @param type what happened, one of the <code>Protocol.EVENT_</code> constants
+	 * @param event_x where it happened, x
+	 * @param event_y where it happened, y
+	 */
+	void event(int type, float event_x, float event_y)
+	{
+		switch(type)
+		{
+			case Protocol.EVENT_HIT:
+				burst(event_x, event_y, HIT_PARTICLES, 60, 220, 0.15f, 0.4f, HIT_COLOR);
+				break;
+			case Protocol.EVENT_DESTROYED:
+				for(int i = 0; i < EXPLOSION_COLORS.length; i++)
+				{
+					burst(event_x, event_y, EXPLOSION_PARTICLES / EXPLOSION_COLORS.length, 20, 200, 0.5f, 1.6f, EXPLOSION_COLORS[i]);
+				}
+				break;
+		}
+	}
+
+	/**
+	 * Blow exhaust out of the back of our own Ship, if we're thrusting and know which one it is
+	 * @param table the positions being drawn
+	 * @param thrusting is the thrust key held down
+	 */
+	void thrust(EntityTable table, boolean thrusting)
+	{
+		if(!thrusting || table.own < 0 || table.own >= table.ship_count) return;
+		Ship ship = table.ships[table.own];
+		float theta = PApplet.radians(ship.getAngle());
+		float back_x = -PApplet.cos(theta), back_y = -PApplet.sin(theta);
+		for(int i = 0; i < THRUST_PARTICLES; i++)
+		{
+			float spread = (random.nextFloat() - 0.5f) * 0.6f;
+			float speed = 80 + random.nextFloat() * 60;
+			spawn(ship.drawn.x + back_x * EXHAUST_OFFSET, ship.drawn.y + back_y * EXHAUST_OFFSET,
+					ship.velocity.x + speed * (back_x - spread * back_y), ship.velocity.y + speed * (back_y + spread * back_x),
+					0.2f + random.nextFloat() * 0.2f, THRUST_COLOR);
+		}
+	}
+
+	/**
+	 * Start a number of particles flying out from a point in every direction
+	 * @param origin_x where from, x
+	 * @param origin_y where from, y
+	 * @param number how many particles
+	 * @param min_speed slowest a particle goes, in pixels a second
+	 * @param max_speed fastest a particle goes, in pixels a second
+	 * @param min_life shortest a particle lives, in seconds
+	 * @param max_life longest a particle lives, in seconds
+	 * @param color colour of the particles
+	 */
+	private void burst(float origin_x, float origin_y, int number, float min_speed, float max_speed, float min_life, float max_life, int color)
+	{
+		for(int i = 0; i < number; i++)
+		{
+			float direction = random.nextFloat() * PApplet.TWO_PI;
+			float speed = min_speed + random.nextFloat() * (max_speed - min_speed);
+			if(!spawn(origin_x, origin_y, speed * PApplet.cos(direction), speed * PApplet.sin(direction), min_life + random.nextFloat() * (max_life - min_life), color))
+			{
+				refused += number - i - 1;
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Start a particle, if neither limit has been reached
+	 * @param start_x where it starts, x
+	 * @param start_y where it starts, y
+	 * @param start_velocity_x its velocity, x, in pixels a second
+	 * @param start_velocity_y its velocity, y, in pixels a second
+	 * @param seconds how long it lives
+	 * @param color its colour
+	 * @return false if it wasn't started
+	 */
+	private boolean spawn(float start_x, float start_y, float start_velocity_x, float start_velocity_y, float seconds, int color)
+	{
+		if(count == MAX_PARTICLES || budget == 0)
+		{
+			refused++;
+			return false;
+		}
+		x[count] = start_x;
+		y[count] = start_y;
+		velocity_x[count] = start_velocity_x;
+		velocity_y[count] = start_velocity_y;
+		life[count] = seconds;
+		lifetime[count] = seconds;
+		colors[count] = color;
+		count++;
+		budget--;
+		return true;
+	}
+
+	/**
+	 * Move every particle on to now and let go of the ones that have died. Call once a frame,
+	 * which also lets the next frame start its share of particles
+	 * @param now the time, from System.nanoTime()
+	 */
+	void update(long now)
+	{
+		budget = MAX_SPAWN;
+		float seconds = (last_update == 0) ? 0 : Math.min((now - last_update) / 1000000000.0f, 0.1f);
+		last_update = now;
+		float slow = Math.max(1 - DRAG * seconds, 0);
+		int i = 0;
+		while(i < count)
+		{
+			life[i] -= seconds;
+			if(life[i] <= 0)
+			{
+				// Move the last one into its place, rather than shuffling everything down
+				count--;
+				x[i] = x[count];
+				y[i] = y[count];
+				velocity_x[i] = velocity_x[count];
+				velocity_y[i] = velocity_y[count];
+				life[i] = life[count];
+				lifetime[i] = lifetime[count];
+				colors[i] = colors[count];
+				continue;
+			}
+			x[i] += velocity_x[i] * seconds;
+			y[i] += velocity_y[i] * seconds;
+			velocity_x[i] *= slow;
+			velocity_y[i] *= slow;
+			i++;
+		}
+	}
+
+	/**
+	 * Draw every particle as a dot, fading out as it dies
+	 * @param g what to draw onto
+	 */
+	void draw(PGraphics g)
+	{
+		if(count == 0) return;
+		g.strokeWeight(2);
+		for(int i = 0; i < count; i++)
+		{
+			int alpha = (int) (255 * life[i] / lifetime[i]);
+			if(alpha <= 0) continue;
+			g.stroke((alpha << 24) | (colors[i] & 0xffffff));
+			g.point(x[i], y[i]);
+		}
+		g.strokeWeight(1);
+	}
+
+	/**
+	 * Get the number of particles alive
+	 * @return the number of particles
+	 */
+	public int size()
+	{
+		return count;
+	}
+
+	/**
+	 * Get the number of particles that weren't started because there were already too many
+	 * @return the number of particles
+	 */
+	public long getRefused()
+	{
+		return refused;
+	}
+}
@@ -1,5 +1,5 @@
 import processing.core.PApplet;
-import processing.core.PVector;
+import processing.core.PGraphics;
 
 /**
  * Ship represents a player (technically a client could have many Ships, but this would
@@ -18,14 +18,12 @@ import processing.core.PVector;
  * @see <a href="http://goo.gl/VOIb">Fireball: Multiplayer Asteroids</a>
  */
 
-@SuppressWarnings("static-access")
-
 public class Ship extends ClientObject
 {
 	/**
 	 * Size of the ship
 	 */
-	private int size = 10;
+	private static final int SIZE = 10;
 	
 	/**
 	 * Angle of the ship
@@ -42,11 +40,6 @@ public class Ship extends ClientObject
 	 */
 	private float shield_color;
 	
-	/**
-	 * Array of PVectors for the points
-	 */
-	private PVector[] points = new PVector[3];
-	
 	/**
 	 * Constructor for the Ship class
 	 * @param parent the parent PApplet to draw to
@@ -65,33 +58,111 @@ public class Ship extends ClientObject
 	}
 	
 	/**
-	 * Update the points, and draw the ship
+	 * Move the ship and update its details from a new snapshot, so the same Ship can be used
+	 * from one frame to the next
+	 * @param x new x position
+	 * @param y new y position
+	 * @param angle the angle of the ship
+	 * @param shield_strength current shield strength
+	 * @param shield_color current shield color
+	 */
+	void set(int x, int y, float angle, float shield_strength, float shield_color)
+	{
+		position.x = x;
+		position.y = y;
+		drawn.set(x, y, 0);
+		velocity.set(0, 0, 0);
+		this.angle = angle;
+		this.shield_strength = shield_strength;
+		this.shield_color = shield_color;
+	}
+	
+	/**
+	 * Get the angle of the ship
+	 * @return the angle in degrees
+	 */
+	float getAngle()
+	{
+		return angle;
+	}
+
+	/**
+	 * Draw the ship straight onto the screen
 	 * @see ClientObject#draw()
 	 */
 	void draw()
 	{
+		render(parent.g, drawn.x, drawn.y, angle, shield_strength, shield_color);
+	}
+	
+	/**
+	 * Draw the ship as a sprite from the cache, which is a lot quicker than drawing it from
+	 * scratch once the sprite has been made
+	 * @param sprites the sprite cache, or null to draw from scratch
+	 */
+	void draw(SpriteCache sprites)
+	{
+		if(sprites == null) draw();
+		else sprites.draw(drawn.x, drawn.y, angle, shield_strength, shield_color);
+	}
+	
+	/**
+	 * Draw just the hull of the ship. Call <code>shapes.beginHulls()</code> first
+	 * @param shapes the shapes to draw with
+	 */
+	void drawHull(ShapeBatch shapes)
+	{
+		shapes.drawHull(parent.g, drawn.x, drawn.y, angle);
+	}
+	
+	/**
+	 * Draw just the shield of the ship. Call <code>shapes.beginShields()</code> first
+	 * @param shapes the shapes to draw with
+	 */
+	void drawShield(ShapeBatch shapes)
+	{
+		shapes.drawShield(parent.g, drawn.x, drawn.y, shield_color, shield_strength);
+	}
+	
+	/**
+	 * Work out the points and draw a ship and its shield. Used both for drawing straight onto
+	 * the screen and for making sprites
+	 * @param g what to draw onto
+	 * @param x x position of the ship
+	 * @param y y position of the ship
+	 * @param angle the angle of the ship
+	 * @param shield_strength shield strength
+	 * @param shield_color shield color
+	 */
+	static void render(PGraphics g, float x, float y, float angle, float shield_strength, float shield_color)
+	{
+		// Work the points out straight into floats, there's no need to make PVectors for them every frame
+		float theta = PApplet.radians(angle);
 		// nose
-		points[0] = new PVector(position.x + size * parent.cos(parent.radians(angle)), position.y + size * parent.sin(parent.radians(angle)));
+		float nose_x = x + SIZE * PApplet.cos(theta);
+		float nose_y = y + SIZE * PApplet.sin(theta);
 		// bottom left
-		points[1] = new PVector(position.x + 1.7f * size * parent.cos(parent.radians(angle) + (parent.PI + 0.7f)), position.y + 1.7f * size * parent.sin(parent.radians(angle) + (parent.PI + 0.7f)));
+		float left_x = x + 1.7f * SIZE * PApplet.cos(theta + (PApplet.PI + 0.7f));
+		float left_y = y + 1.7f * SIZE * PApplet.sin(theta + (PApplet.PI + 0.7f));
 		// bottom right
-		points[2] = new PVector(position.x + 1.7f * size * parent.cos(parent.radians(angle) + (parent.PI - 0.7f)), position.y + 1.7f * size * parent.sin(parent.radians(angle) + (parent.PI - 0.7f)));
+		float right_x = x + 1.7f * SIZE * PApplet.cos(theta + (PApplet.PI - 0.7f));
+		float right_y = y + 1.7f * SIZE * PApplet.sin(theta + (PApplet.PI - 0.7f));
 		
 		// The actual ship
-		parent.strokeWeight(1);
-		parent.stroke(255);
-		parent.fill(0);
-		parent.triangle(points[0].x, points[0].y, points[1].x, points[1].y, points[2].x, points[2].y);
+		g.strokeWeight(1);
+		g.stroke(255);
+		g.fill(0);
+		g.triangle(nose_x, nose_y, left_x, left_y, right_x, right_y);
 		
 		// The shield
-		parent.colorMode(parent.HSB);
-		parent.strokeWeight(5.0f);
-		parent.stroke(shield_color, 1000f, shield_strength);
-		parent.noFill();
-		parent.ellipseMode(parent.RADIUS);
-		parent.ellipse(position.x, position.y + 5, 25, 25);
+		g.colorMode(PApplet.HSB);
+		g.strokeWeight(5.0f);
+		g.stroke(shield_color, 1000f, shield_strength);
+		g.noFill();
+		g.ellipseMode(PApplet.RADIUS);
+		g.ellipse(x, y + 5, 25, 25);
 		
-		parent.colorMode(parent.RGB);
-		parent.strokeWeight(1.0f);
+		g.colorMode(PApplet.RGB);
+		g.strokeWeight(1.0f);
 	}
 }
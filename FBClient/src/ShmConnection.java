@@ -0,0 +1,157 @@
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * ShmConnection connects to a server on the same machine through a <code>SharedRing</code> in a
+ * memory-mapped file, which is a lot cheaper than going through loopback TCP when there are
+ * hundreds of bots running next to the server. We create the file, named after the server's
+ * port, and the server picks it up next time it looks.
+ *
+ * <p>Anything we send before the server has picked us up just waits in the ring, so there's no
+ * need to wait for it before saying hello.</p>
+ *
+ * @author Chris Granville <v2t04 at students.keele.ac.uk>
+ * @version 3.0f (12/05/2010)
+ * @copyright 2009 - 2010 Chris Granville. All Rights Reserved.
+ */
+
+public class ShmConnection implements Connection
+{
+	/**
+	 * Start of the name of every ring file, before the port. Must match the server's ShmListener
+	 */
+	public static final String PREFIX = "celestia-";
+
+	/**
+	 * Size of each direction's ring. Holds a few hundred snapshots, so we'd have to stop reading
+	 * for a good while before the server gives up on us
+	 */
+	private static final int CAPACITY = 64 * 1024;
+
+	/**
+	 * Starting size of the outbound buffer
+	 */
+	private static final int BUFFER_SIZE = 256;
+
+	/**
+	 * The file the ring lives in
+	 */
+	private File file;
+
+	/**
+	 * The ring shared with the server
+	 */
+	private SharedRing ring;
+
+	/**
+	 * Bytes queued since the last flush
+	 */
+	private byte[] out_buffer = new byte[BUFFER_SIZE];
+
+	/**
+	 * Number of bytes in <code>out_buffer</code> waiting to be written
+	 */
+	private int out_count;
+
+	/**
+	 * Is the connection still usable, as far as we're concerned
+	 */
+	private boolean active;
+
+	/**
+	 * Constructor for ShmConnection. Creates the ring file straight away
+	 * @param directory the server's shared memory directory, normally /dev/shm
+	 * @param port port the server is running on
+	 * @throws IOException if the file can't be created
+	 */
+	ShmConnection(File directory, int port) throws IOException
+	{
+		String name = PREFIX + port + "-" + Long.toHexString(System.nanoTime()) + Integer.toHexString(System.identityHashCode(this));
+		file = new File(directory, name);
+		ring = SharedRing.create(file, CAPACITY);
+		active = true;
+	}
+
+	/**
+	 * @see Connection#active()
+	 */
+	public boolean active()
+	{
+		if(active && ring.getState() == SharedRing.STATE_CLOSED) close();
+		return active;
+	}
+
+	/**
+	 * @see Connection#available()
+	 */
+	public int available()
+	{
+		return active() ? ring.available() : 0;
+	}
+
+	/**
+	 * @see Connection#read(byte[])
+	 */
+	public int read(byte[] buffer)
+	{
+		return active ? ring.read(buffer, 0, buffer.length) : 0;
+	}
+
+	/**
+	 * @see Connection#queue(String)
+	 */
+	public void queue(String message)
+	{
+		int length = message.length();
+		ensureCapacity(length);
+		for(int i = 0; i < length; i++) out_buffer[out_count++] = (byte) message.charAt(i);
+	}
+
+	/**
+	 * @see Connection#queue(byte[], int, int)
+	 */
+	public void queue(byte[] data, int offset, int length)
+	{
+		ensureCapacity(length);
+		System.arraycopy(data, offset, out_buffer, out_count, length);
+		out_count += length;
+	}
+
+	/**
+	 * If the server has stopped reading and there isn't room, what we had is dropped. It's only
+	 * ever our keys, which we send again next frame anyway
+	 * @see Connection#flush()
+	 */
+	public int flush()
+	{
+		int written = out_count;
+		if(written == 0 || !active) return 0;
+		out_count = 0;
+		return ring.write(out_buffer, 0, written) ? written : 0;
+	}
+
+	/**
+	 * Tell the server we've gone and get rid of the file
+	 * @see Connection#close()
+	 */
+	public void close()
+	{
+		out_count = 0;
+		if(!active) return;
+		active = false;
+		ring.setState(SharedRing.STATE_CLOSED);
+		file.delete();
+	}
+
+	/**
+	 * Make sure there's space in the outbound buffer for <code>length</code> more bytes
+	 * @param length the number of bytes about to be added
+	 */
+	private void ensureCapacity(int length)
+	{
+		if(out_count + length <= out_buffer.length) return;
+		byte[] bigger = new byte[Math.max(out_buffer.length * 2, out_count + length)];
+		System.arraycopy(out_buffer, 0, bigger, 0, out_count);
+		out_buffer = bigger;
+	}
+}
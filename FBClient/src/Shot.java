@@ -33,6 +33,20 @@ public class Shot extends ClientObject
 		super(parent, x, y);
 	}
 
+	/**
+	 * Move the shot to where a new snapshot says it is, so the same Shot can be used from one
+	 * frame to the next
+	 * @param x new x position
+	 * @param y new y position
+	 */
+	void set(int x, int y)
+	{
+		position.x = x;
+		position.y = y;
+		drawn.set(x, y, 0);
+		velocity.set(0, 0, 0);
+	}
+
 	/**
 	 * Draw the object at [position.x, position.y]
 	 * @see ClientObject#draw()
@@ -41,7 +55,16 @@ public class Shot extends ClientObject
 		parent.fill(255);
 		parent.stroke(255);
 		parent.strokeWeight(5);
-		parent.ellipse(position.x, position.y, SHOT_SIZE, SHOT_SIZE);
+		parent.ellipse(drawn.x, drawn.y, SHOT_SIZE, SHOT_SIZE);
 		parent.strokeWeight(1);
 	}
+
+	/**
+	 * Draw the shot with the shared shape. Call <code>shapes.beginShots()</code> first
+	 * @param shapes the shapes to draw with
+	 */
+	void draw(ShapeBatch shapes)
+	{
+		shapes.drawShot(parent.g, drawn.x, drawn.y);
+	}
 }
@@ -0,0 +1,54 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * SnapshotDecodeEvent is a Java Flight Recorder event covering the decoding of one snapshot
+ * from the server, on the network thread. Record a session with
+ * <code>-XX:StartFlightRecording</code> to line up stutters with garbage collections and
+ * everything else the JVM records.
+ *
+ * @author Chris Granville <v2t04 at students.keele.ac.uk>
+ * @version 3.0f (12/05/2010)
+ * @copyright 2009 - 2010 Chris Granville. All Rights Reserved.
+ */
+
+@Name("celestia.SnapshotDecode")
+@Label("Snapshot Decode")
+@Category({ "Celestia", "Client", "Network" })
+@Description("Decoding the positions of everything sent by the server")
+class SnapshotDecodeEvent extends jdk.jfr.Event
+{
+	/**
+	 * Which format: "text" or "binary"
+	 */
+	@Label("Format")
+	String format;
+
+	/**
+	 * Size of the snapshot, after decompression
+	 */
+	@Label("Size")
+	@DataAmount
+	int bytes;
+
+	/**
+	 * Was it malformed, so thrown away
+	 */
+	@Label("Malformed")
+	boolean malformed;
+
+	/**
+	 * Number of Ships in the table afterwards
+	 */
+	@Label("Ships")
+	int ships;
+
+	/**
+	 * Number of Shots in the table afterwards
+	 */
+	@Label("Shots")
+	int shots;
+}
@@ -0,0 +1,242 @@
+import processing.core.PApplet;
+import processing.core.PGraphics;
+import processing.core.PImage;
+
+/**
+ * SpriteCache keeps pictures of ships, already drawn, so that drawing a ship is a single
+ * image instead of a triangle, a thick HSB ellipse and two colour mode changes every frame.
+ * Sprites are made the first time they're needed, one for each angle a ship can turn to and
+ * the shield colour and strength rounded into buckets, so there are only so many different ones.
+ *
+ * <p>Only so many are kept at once, and when the cache is full the one that was used longest
+ * ago is thrown out and its pixels reused for the new one. Sprites are found by indexing an
+ * array with the rounded values rather than looking them up in a map, so drawing a ship that
+ * is already in the cache doesn't allocate anything.</p>
+ *
+ * @author Chris Granville <v2t04 at students.keele.ac.uk>
+ * @version 3.0f (12/05/2010)
+ * @copyright 2009 - 2010 Chris Granville. All Rights Reserved.
+ */
+
+public class SpriteCache
+{
+	/**
+	 * Width and height of every sprite. Big enough for the shield and its thick outline
+	 */
+	private static final int SPRITE_SIZE = 64;
+
+	/**
+	 * Where in the sprite the ship's position is. The shield is drawn 5 pixels below it, so
+	 * this puts the shield in the middle
+	 */
+	private static final int ORIGIN_X = SPRITE_SIZE / 2, ORIGIN_Y = SPRITE_SIZE / 2 - 5;
+
+	/**
+	 * Angles are rounded to the nearest this many degrees. Ships only ever turn this far at a
+	 * time, so nothing is lost by the rounding and no sprite goes unused
+	 */
+	private static final int ANGLE_STEP = Protocol.SHIP_TURN;
+
+	/**
+	 * Shield colours (0 to 255) are rounded into buckets this wide
+	 */
+	private static final int COLOR_STEP = 16;
+
+	/**
+	 * Shield strengths are rounded into buckets this wide
+	 */
+	private static final int STRENGTH_STEP = 10;
+
+	/**
+	 * Number of buckets for each of angle, colour and strength. Strengths above the top bucket
+	 * are drawn at full brightness anyway
+	 */
+	private static final int ANGLES = 360 / ANGLE_STEP, COLORS = 256 / COLOR_STEP, STRENGTHS = 256 / STRENGTH_STEP + 1;
+
+	/**
+	 * A cached sprite, which is also its own entry in the list that keeps track of which one
+	 * was used longest ago
+	 */
+	private static class Sprite
+	{
+		/**
+		 * The picture
+		 */
+		PImage image;
+
+		/**
+		 * Index into <code>by_key</code> of this sprite
+		 */
+		int key;
+
+		/**
+		 * Neighbours in the list, more recently used first
+		 */
+		Sprite newer, older;
+	}
+
+	/**
+	 * Parent PApplet to draw to
+	 */
+	private PApplet parent;
+
+	/**
+	 * Most sprites to keep at once
+	 */
+	private int capacity;
+
+	/**
+	 * Number of sprites being kept
+	 */
+	private int count;
+
+	/**
+	 * Every sprite we have, indexed by angle, colour and strength bucket
+	 */
+	private Sprite[] by_key = new Sprite[ANGLES * COLORS * STRENGTHS];
+
+	/**
+	 * Most and least recently used sprites
+	 */
+	private Sprite newest, oldest;
+
+	/**
+	 * Where sprites are drawn before being copied into their own image. Only made once
+	 */
+	private PGraphics canvas;
+
+	/**
+	 * How many ships have been drawn from an existing sprite, and how many sprites have had to be made
+	 */
+	private long hits, misses;
+
+	/**
+	 * Constructor for SpriteCache
+	 * @param parent the parent PApplet to draw to
+	 * @param capacity most sprites to keep at once. Each takes 16KB
+	 */
+	SpriteCache(PApplet parent, int capacity)
+	{
+		this.parent = parent;
+		this.capacity = Math.max(capacity, 1);
+	}
+
+	/**
+	 * Draw a ship, making its sprite first if we don't have it
+	 * @param x x position of the ship
+	 * @param y y position of the ship
+	 * @param angle the angle of the ship
+	 * @param shield_strength shield strength
+	 * @param shield_color shield color
+	 */
+	void draw(float x, float y, float angle, float shield_strength, float shield_color)
+	{
+		int angle_bucket = Math.round(angle / ANGLE_STEP) % ANGLES;
+		if(angle_bucket < 0) angle_bucket += ANGLES;
+		int color_bucket = Math.min(Math.max((int) shield_color, 0), 255) / COLOR_STEP;
+		int strength_bucket = Math.min(Math.max(Math.round(shield_strength / STRENGTH_STEP), 0), STRENGTHS - 1);
+		int key = (angle_bucket * COLORS + color_bucket) * STRENGTHS + strength_bucket;
+
+		Sprite sprite = by_key[key];
+		if(sprite == null)
+		{
+			misses++;
+			sprite = make(key, angle_bucket * ANGLE_STEP, color_bucket * COLOR_STEP + COLOR_STEP / 2, strength_bucket * STRENGTH_STEP);
+		}
+		else
+		{
+			hits++;
+			unlink(sprite);
+		}
+		link(sprite);
+		parent.image(sprite.image, Math.round(x) - ORIGIN_X, Math.round(y) - ORIGIN_Y);
+	}
+
+	/**
+	 * Draw a new sprite. If the cache is full, the least recently used sprite is thrown out and
+	 * its image drawn over
+	 * @param key index into <code>by_key</code> for the new sprite
+	 * @param angle the angle to draw the ship at
+	 * @param shield_color shield color to draw
+	 * @param shield_strength shield strength to draw
+	 * @return the new sprite, not yet in the list
+	 */
+	private Sprite make(int key, float angle, float shield_color, float shield_strength)
+	{
+		if(canvas == null)
+		{
+			canvas = parent.createGraphics(SPRITE_SIZE, SPRITE_SIZE, PApplet.JAVA2D);
+			canvas.smooth();
+		}
+		canvas.beginDraw();
+		canvas.background(0, 0);
+		Ship.render(canvas, ORIGIN_X, ORIGIN_Y, angle, shield_strength, shield_color);
+		canvas.endDraw();
+
+		Sprite sprite;
+		if(count < capacity)
+		{
+			sprite = new Sprite();
+			sprite.image = parent.createImage(SPRITE_SIZE, SPRITE_SIZE, PApplet.ARGB);
+			count++;
+		}
+		else
+		{
+			sprite = oldest;
+			unlink(sprite);
+			by_key[sprite.key] = null;
+		}
+		canvas.loadPixels();
+		sprite.image.loadPixels();
+		System.arraycopy(canvas.pixels, 0, sprite.image.pixels, 0, SPRITE_SIZE * SPRITE_SIZE);
+		sprite.image.updatePixels();
+		sprite.key = key;
+		by_key[key] = sprite;
+		return sprite;
+	}
+
+	/**
+	 * Put a sprite at the front of the list, as the most recently used
+	 * @param sprite the sprite
+	 */
+	private void link(Sprite sprite)
+	{
+		sprite.newer = null;
+		sprite.older = newest;
+		if(newest != null) newest.newer = sprite;
+		newest = sprite;
+		if(oldest == null) oldest = sprite;
+	}
+
+	/**
+	 * Take a sprite out of the list
+	 * @param sprite the sprite
+	 */
+	private void unlink(Sprite sprite)
+	{
+		if(sprite.newer != null) sprite.newer.older = sprite.older;
+		else newest = sprite.older;
+		if(sprite.older != null) sprite.older.newer = sprite.newer;
+		else oldest = sprite.newer;
+		sprite.newer = null;
+		sprite.older = null;
+	}
+
+	/**
+	 * Get the proportion of ships drawn from a sprite we already had
+	 * @return the hit rate, from 0 to 1
+	 */
+	public float getHitRate()
+	{
+		return (hits + misses == 0) ? 0 : (float) hits / (hits + misses);
+	}
+
+	/**
+	 * Get the number of sprites being kept
+	 * @return the number of sprites
+	 */
+	public int size()
+	{
+		return count;
+	}
+}
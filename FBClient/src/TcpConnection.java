@@ -0,0 +1,194 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+/**
+ * TcpConnection is the client's connection to the server. We used to use processing.net's
+ * <code>Client</code> for this, but it doesn't give us the Socket so there's no way to turn
+ * Nagle's algorithm off, and it writes every message as soon as it is given it.
+ *
+ * <p>Here TCP_NODELAY is set before connecting, and anything queued during a frame is held
+ * in one buffer and sent with a single write when the frame is flushed.</p>
+ *
+ * @author Chris Granville <v2t04 at students.keele.ac.uk>
+ * @version 3.0f (12/05/2010)
+ * @copyright 2009 - 2010 Chris Granville. All Rights Reserved.
+ */
+
+public class TcpConnection implements Connection
+{
+	/**
+	 * Starting size of the outbound buffer
+	 */
+	private static final int BUFFER_SIZE = 1024;
+
+	/**
+	 * The socket connected to the server
+	 */
+	private Socket socket;
+
+	/**
+	 * Stream to read from the server
+	 */
+	private InputStream input;
+
+	/**
+	 * Stream to write to the server
+	 */
+	private OutputStream output;
+
+	/**
+	 * Bytes queued since the last flush
+	 */
+	private byte[] out_buffer = new byte[BUFFER_SIZE];
+
+	/**
+	 * Number of bytes in <code>out_buffer</code> waiting to be written
+	 */
+	private int out_count;
+
+	/**
+	 * Is the connection still usable
+	 */
+	private boolean active;
+
+	/**
+	 * Constructor for TcpConnection. Connects to the server straight away
+	 * @param address address of the server
+	 * @param port port the server is running on
+	 * @param low_latency whether to set TCP_NODELAY
+	 * @throws IOException if we can't connect
+	 */
+	TcpConnection(String address, int port, boolean low_latency) throws IOException
+	{
+		socket = new Socket();
+		socket.setTcpNoDelay(low_latency);
+		socket.connect(new InetSocketAddress(address, port));
+		input = socket.getInputStream();
+		output = socket.getOutputStream();
+		active = true;
+	}
+
+	/**
+	 * @see Connection#active()
+	 */
+	public boolean active()
+	{
+		return active;
+	}
+
+	/**
+	 * @see Connection#available()
+	 */
+	public int available()
+	{
+		if(!active) return 0;
+		try
+		{
+			return input.available();
+		}
+		catch (IOException e)
+		{
+			close();
+			return 0;
+		}
+	}
+
+	/**
+	 * @see Connection#read(byte[])
+	 */
+	public int read(byte[] buffer)
+	{
+		int count = Math.min(available(), buffer.length);
+		if(count <= 0) return 0;
+		try
+		{
+			int read = input.read(buffer, 0, count);
+			if(read < 0)
+			{
+				close();
+				return 0;
+			}
+			return read;
+		}
+		catch (IOException e)
+		{
+			close();
+			return 0;
+		}
+	}
+
+	/**
+	 * The protocol is plain ASCII so the characters are copied straight in
+	 * @see Connection#queue(String)
+	 */
+	public void queue(String message)
+	{
+		int length = message.length();
+		ensureCapacity(length);
+		for(int i = 0; i < length; i++) out_buffer[out_count++] = (byte) message.charAt(i);
+	}
+
+	/**
+	 * @see Connection#queue(byte[], int, int)
+	 */
+	public void queue(byte[] data, int offset, int length)
+	{
+		ensureCapacity(length);
+		System.arraycopy(data, offset, out_buffer, out_count, length);
+		out_count += length;
+	}
+
+	/**
+	 * Everything goes out in a single write
+	 * @see Connection#flush()
+	 */
+	public int flush()
+	{
+		int written = out_count;
+		if(written == 0 || !active) return 0;
+		out_count = 0;
+		try
+		{
+			output.write(out_buffer, 0, written);
+			output.flush();
+		}
+		catch (IOException e)
+		{
+			close();
+			return 0;
+		}
+		return written;
+	}
+
+	/**
+	 * @see Connection#close()
+	 */
+	public void close()
+	{
+		active = false;
+		out_count = 0;
+		try
+		{
+			socket.close();
+		}
+		catch (IOException e)
+		{
+			// Nothing we can do about it, and we're done with it anyway
+		}
+	}
+
+	/**
+	 * Make sure there's space in the outbound buffer for <code>length</code> more bytes
+	 * @param length the number of bytes about to be added
+	 */
+	private void ensureCapacity(int length)
+	{
+		if(out_count + length <= out_buffer.length) return;
+		byte[] bigger = new byte[Math.max(out_buffer.length * 2, out_count + length)];
+		System.arraycopy(out_buffer, 0, bigger, 0, out_count);
+		out_buffer = bigger;
+	}
+}
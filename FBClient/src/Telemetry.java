@@ -0,0 +1,216 @@
+import java.io.PrintWriter;
+import java.util.Arrays;
+import processing.core.PApplet;
+
+/**
+ * Telemetry keeps track of how well the client is doing - how long frames take, how long
+ * drawing and decoding take, how much is going to and from the server, how old the positions
+ * being drawn are and how many snapshots went missing - so that "it's laggy" can come with
+ * some numbers attached.
+ *
+ * <p>Every frame is timed, and once a second the numbers are worked out for the last second
+ * and turned into the lines of text FBClient shows when asked, and optionally written as a line
+ * of a CSV file. Nothing is allocated in between.</p>
+ *
+ * @author Chris Granville <v2t04 at students.keele.ac.uk>
+ * @version 3.0f (12/05/2010)
+ * @copyright 2009 - 2010 Chris Granville. All Rights Reserved.
+ */
+
+public class Telemetry
+{
+	/**
+	 * How often the numbers are worked out, in nanoseconds
+	 */
+	private static final long INTERVAL = 1000000000L;
+
+	/**
+	 * Most frame times kept for the percentiles. More than a second's worth at any sensible frame rate
+	 */
+	private static final int HISTORY = 256;
+
+	/**
+	 * The first line of the CSV file
+	 */
+	private static final String CSV_HEADER = "time_ms,fps,frame_p50_ms,frame_p95_ms,frame_p99_ms,render_ms,decode_us," +
+			"bytes_in_per_s,bytes_out_per_s,snapshot_age_ms,rtt_ms,dropped,malformed,playout_delay_ms,jitter_ms,underruns,late";
+
+	/**
+	 * Parent PApplet to draw to
+	 */
+	private PApplet parent;
+
+	/**
+	 * Where to write the CSV, or null if we aren't
+	 */
+	private PrintWriter csv;
+
+	/**
+	 * How long each frame this interval took, in milliseconds
+	 */
+	private float[] frame_times = new float[HISTORY];
+
+	/**
+	 * Somewhere to sort <code>frame_times</code> into
+	 */
+	private float[] sorted = new float[HISTORY];
+
+	/**
+	 * Number of frames this interval, which might be more than <code>HISTORY</code>
+	 */
+	private int frames;
+
+	/**
+	 * Time spent drawing the game this interval, in nanoseconds
+	 */
+	private long render_nanos;
+
+	/**
+	 * Oldest the positions being drawn got this interval, in nanoseconds
+	 */
+	private long worst_age;
+
+	/**
+	 * When the last frame ended, and when the numbers were last worked out, from System.nanoTime()
+	 */
+	private long last_frame, last_summary;
+
+	/**
+	 * NetworkThread's totals when the numbers were last worked out
+	 */
+	private long last_bytes_in, last_bytes_out, last_decode_nanos, last_decoded;
+
+	/**
+	 * The lines shown on the screen, as of the last time the numbers were worked out
+	 */
+	private String[] lines = { "Frame: -", "Render: -", "Network: -", "Snapshots: -", "Jitter buffer: -" };
+
+	/**
+	 * Constructor for Telemetry
+	 * @param parent the parent PApplet to draw to
+	 * @param csv_file the name of the CSV file to write the numbers to, or null not to
+	 */
+	Telemetry(PApplet parent, String csv_file)
+	{
+		this.parent = parent;
+		last_frame = System.nanoTime();
+		last_summary = last_frame;
+		if(csv_file != null)
+		{
+			csv = parent.createWriter(csv_file);
+			csv.println(CSV_HEADER);
+		}
+	}
+
+	/**
+	 * Note the end of a frame, and work the numbers out if it's time
+	 * @param now the time, from System.nanoTime()
+	 * @param render how long drawing the game took this frame, in nanoseconds
+	 * @param latest the table that was drawn, or null if we aren't connected
+	 * @param network the NetworkThread, or null if we aren't connected
+	 */
+	void frame(long now, long render, EntityTable latest, NetworkThread network)
+	{
+		if(frames < HISTORY) frame_times[frames] = (now - last_frame) / 1000000.0f;
+		frames++;
+		last_frame = now;
+		render_nanos += render;
+		if(latest != null && latest.received != 0) worst_age = Math.max(worst_age, now - latest.received);
+		if(now - last_summary >= INTERVAL) summarise(now, network);
+	}
+
+	/**
+	 * Work out the numbers for the interval that has just finished, and start the next one
+	 * @param now the time, from System.nanoTime()
+	 * @param network the NetworkThread, or null if we aren't connected
+	 */
+	private void summarise(long now, NetworkThread network)
+	{
+		float seconds = (now - last_summary) / 1000000000.0f;
+		int kept = Math.min(frames, HISTORY);
+		System.arraycopy(frame_times, 0, sorted, 0, kept);
+		Arrays.sort(sorted, 0, kept);
+		float fps = frames / seconds;
+		float p50 = percentile(kept, 0.50f), p95 = percentile(kept, 0.95f), p99 = percentile(kept, 0.99f);
+		float render = (frames == 0) ? 0 : render_nanos / 1000000.0f / frames;
+
+		float bytes_in = 0, bytes_out = 0, decode = 0, rtt = 0, delay = 0, jitter = 0;
+		long dropped = 0, underruns = 0, late = 0;
+		int malformed = 0;
+		if(network != null)
+		{
+			long total_in = network.getBytesIn(), total_out = network.getBytesOut();
+			long total_decode = network.getDecodeNanos(), total_decoded = network.getDecoded();
+			// A new connection starts counting from nothing again
+			if(total_in < last_bytes_in || total_decoded < last_decoded) last_bytes_in = last_bytes_out = last_decode_nanos = last_decoded = 0;
+			bytes_in = (total_in - last_bytes_in) / seconds;
+			bytes_out = (total_out - last_bytes_out) / seconds;
+			if(total_decoded > last_decoded) decode = (total_decode - last_decode_nanos) / 1000.0f / (total_decoded - last_decoded);
+			rtt = network.getRtt();
+			dropped = network.getDropped();
+			malformed = network.getMalformed();
+			JitterBuffer buffer = network.getBuffer();
+			delay = buffer.getDelay();
+			jitter = buffer.getJitter();
+			underruns = buffer.getUnderruns();
+			late = buffer.getLate();
+			last_bytes_in = total_in;
+			last_bytes_out = total_out;
+			last_decode_nanos = total_decode;
+			last_decoded = total_decoded;
+		}
+		else last_bytes_in = last_bytes_out = last_decode_nanos = last_decoded = 0;
+		float age = worst_age / 1000000.0f;
+
+		lines[0] = "Frame: " + PApplet.nf(p50, 1, 1) + "/" + PApplet.nf(p95, 1, 1) + "/" + PApplet.nf(p99, 1, 1) + "ms (p50/95/99), " + PApplet.round(fps) + "fps";
+		lines[1] = "Render: " + PApplet.nf(render, 1, 2) + "ms, decode: " + PApplet.round(decode) + "us/snapshot";
+		lines[2] = "Network: " + PApplet.round(bytes_in) + "B/s in, " + PApplet.round(bytes_out) + "B/s out, rtt " + ((rtt > 0) ? PApplet.round(rtt) + "ms" : "-");
+		lines[3] = "Snapshots: " + PApplet.round(age) + "ms old at worst, " + dropped + " dropped, " + malformed + " malformed";
+		lines[4] = "Jitter buffer: " + PApplet.nf(delay, 1, 1) + "ms delay, " + PApplet.nf(jitter, 1, 1) + "ms jitter, " + underruns + " underruns, " + late + " late";
+
+		if(csv != null)
+		{
+			csv.println(System.currentTimeMillis() + "," + PApplet.nf(fps, 1, 1) + "," + p50 + "," + p95 + "," + p99 + "," +
+					render + "," + decode + "," + PApplet.round(bytes_in) + "," + PApplet.round(bytes_out) + "," + age + "," + rtt + "," + dropped + "," + malformed + "," +
+					delay + "," + jitter + "," + underruns + "," + late);
+			csv.flush();
+		}
+
+		frames = 0;
+		render_nanos = 0;
+		worst_age = 0;
+		last_summary = now;
+	}
+
+	/**
+	 * Get a percentile of the frame times in <code>sorted</code>
+	 * @param count number of frame times in <code>sorted</code>
+	 * @param fraction the percentile, from 0 to 1
+	 * @return the frame time in milliseconds, or 0 if there aren't any
+	 */
+	private float percentile(int count, float fraction)
+	{
+		if(count == 0) return 0;
+		int index = (int) Math.ceil(fraction * count) - 1;
+		return sorted[Math.min(Math.max(index, 0), count - 1)];
+	}
+
+	/**
+	 * Show the numbers, one line under another, in whatever fill has been set
+	 * @param x x position of the first line
+	 * @param y y position of the first line
+	 */
+	void draw(float x, float y)
+	{
+		for(int i = 0; i < lines.length; i++) parent.text(lines[i], x, y + 10 * i);
+	}
+
+	/**
+	 * Finish the CSV file, if there is one
+	 */
+	void close()
+	{
+		if(csv != null) csv.close();
+		csv = null;
+	}
+}
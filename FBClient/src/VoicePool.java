@@ -0,0 +1,148 @@
+import ddf.minim.AudioSample;
+import ddf.minim.Controller;
+
+/**
+ * VoicePool plays one sound through a fixed number of voices. Each voice is its own copy of
+ * the AudioSample, so each can have its own volume and pan, and Minim keeps every one of them
+ * running whether it's making a noise or not - so what the sound costs is decided when the pool
+ * is made, not by how many times it's played.
+ *
+ * <p>A sound plays on a voice that has finished if there is one. If every voice is busy, the
+ * quietest one is stopped and used instead, as long as it's quieter than the sound that wants
+ * it (the oldest one if there's a tie). Otherwise the new sound isn't played: in a big fight
+ * a shot on the far side of the arena isn't going to be missed.</p>
+ *
+ * @author Chris Granville <v2t04 at students.keele.ac.uk>
+ * @version 3.0f (12/05/2010)
+ * @copyright 2009 - 2010 Chris Granville. All Rights Reserved.
+ */
+
+public class VoicePool
+{
+	/**
+	 * The voices. Any that couldn't be made are left out
+	 */
+	private AudioSample[] voices;
+
+	/**
+	 * When each voice was last started, from System.nanoTime(), or 0 if it never has been
+	 */
+	private long[] started;
+
+	/**
+	 * How loud each voice was started at, in decibels
+	 */
+	private float[] gains;
+
+	/**
+	 * How long the sound lasts, in nanoseconds
+	 */
+	private long length;
+
+	/**
+	 * Can the voices' volume be set
+	 */
+	private boolean has_gain;
+
+	/**
+	 * Can the voices' pan be set. If not, their balance is set instead, if that can be
+	 */
+	private boolean has_pan, has_balance;
+
+	/**
+	 * Number of sounds that stopped another to play
+	 */
+	private long stolen;
+
+	/**
+	 * Number of sounds that weren't played because every voice was busy with something louder
+	 */
+	private long dropped;
+
+	/**
+	 * Constructor for VoicePool
+	 * @param voices the voices, all the same sound. Any that are null are left out
+	 */
+	VoicePool(AudioSample[] voices)
+	{
+		int count = 0;
+		for(int i = 0; i < voices.length; i++) if(voices[i] != null) count++;
+		this.voices = new AudioSample[count];
+		count = 0;
+		for(int i = 0; i < voices.length; i++) if(voices[i] != null) this.voices[count++] = voices[i];
+		started = new long[count];
+		gains = new float[count];
+		if(count == 0) return;
+		length = this.voices[0].length() * 1000000L;
+		has_gain = this.voices[0].hasControl(Controller.GAIN);
+		has_pan = this.voices[0].hasControl(Controller.PAN);
+		has_balance = this.voices[0].hasControl(Controller.BALANCE);
+	}
+
+	/**
+	 * Play the sound
+	 * @param gain how loud, in decibels. 0 is as loud as it was recorded
+	 * @param pan where from, -1 (left) to 1 (right)
+	 * @param now the time, from System.nanoTime()
+	 * @return a boolean indicating whether it was played
+	 */
+	boolean play(float gain, float pan, long now)
+	{
+		if(voices.length == 0) return false;
+		int chosen = -1;
+		for(int i = 0; i < voices.length; i++)
+		{
+			if(started[i] == 0 || now - started[i] >= length)
+			{
+				chosen = i;
+				break;
+			}
+			if(chosen < 0 || gains[i] < gains[chosen] || (gains[i] == gains[chosen] && started[i] < started[chosen])) chosen = i;
+		}
+		if(started[chosen] != 0 && now - started[chosen] < length)
+		{
+			if(gains[chosen] > gain)
+			{
+				dropped++;
+				return false;
+			}
+			voices[chosen].stop();
+			stolen++;
+		}
+
+		AudioSample voice = voices[chosen];
+		if(has_gain) voice.setGain(gain);
+		if(has_pan) voice.setPan(pan);
+		else if(has_balance) voice.setBalance(pan);
+		voice.trigger();
+		started[chosen] = now;
+		gains[chosen] = gain;
+		return true;
+	}
+
+	/**
+	 * Get the number of sounds that stopped another to play
+	 * @return the number of sounds
+	 */
+	public long getStolen()
+	{
+		return stolen;
+	}
+
+	/**
+	 * Get the number of sounds that weren't played because every voice was busy
+	 * @return the number of sounds
+	 */
+	public long getDropped()
+	{
+		return dropped;
+	}
+
+	/**
+	 * Close every voice, so the sound system can have them back
+	 */
+	void close()
+	{
+		for(int i = 0; i < voices.length; i++) voices[i].close();
+	}
+}
@@ -0,0 +1,320 @@
+package processing.app;
+
+import java.io.PrintStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * AsyncLogger takes log messages off the game loop. Writing to the console can take
+ * milliseconds when it's busy (or when it's a slow terminal window), and with debugging on the
+ * server logs something most frames, so instead messages are written into a ring of entries
+ * made up front and a thread of its own prints them.
+ *
+ * <p>An entry's text is a StringBuilder that is kept and reused, so a message can be built
+ * straight into it with <code>begin()</code> and <code>commit()</code> without making any
+ * Strings. Nothing ever waits: if the ring is full the message is dropped and counted, and the
+ * next message that gets through says how many went.</p>
+ *
+ * <p>Each kind of message (its key, such as "collision") may only be logged
+ * <code>BURST</code> times a second. Any more than that are dropped without being built at
+ * all, and once the second is up a line says how many similar messages were suppressed.</p>
+ *
+ * <p>Messages can come from more than one thread - the game loop, and the window's event
+ * thread when a key is pressed - so entries are claimed with a compare and set.</p>
+ *
+ * @author Chris Granville <v2t04 at students.keele.ac.uk>
+ * @version 3.0f (12/05/2010)
+ * @copyright 2009 - 2010 Chris Granville. All Rights Reserved.
+ * @see <a href="http://goo.gl/VOIb">Fireball: Multiplayer Asteroids</a>
+ */
+
+public class AsyncLogger extends Thread
+{
+	/**
+	 * Number of entries in the ring
+	 */
+	private static final int CAPACITY = 512;
+
+	/**
+	 * Most messages of one kind logged in a second
+	 */
+	private static final int BURST = 20;
+
+	/**
+	 * How long a rate limiting window is, in nanoseconds
+	 */
+	private static final long WINDOW = 1000000000L;
+
+	/**
+	 * How long the writer sleeps when there's nothing to write, in nanoseconds
+	 */
+	private static final long POLL_INTERVAL = 2000000L;
+
+	/**
+	 * One message in the ring
+	 */
+	public static class Entry
+	{
+		/**
+		 * The message. Append to it between <code>begin()</code> and <code>commit()</code>
+		 */
+		public final StringBuilder text = new StringBuilder(128);
+
+		/**
+		 * The frame it was logged in
+		 */
+		private int frame;
+
+		/**
+		 * Has it been committed, so it can be written
+		 */
+		private volatile boolean ready;
+
+		/**
+		 * Its position in the ring, as a count of every entry claimed before it
+		 */
+		private long position;
+	}
+
+	/**
+	 * How often one kind of message has been logged this window
+	 */
+	private static class Limit
+	{
+		/**
+		 * When the window started, from System.nanoTime()
+		 */
+		private AtomicLong window_start = new AtomicLong(System.nanoTime());
+
+		/**
+		 * Messages let through this window
+		 */
+		private AtomicInteger allowed = new AtomicInteger();
+
+		/**
+		 * Messages suppressed this window
+		 */
+		private AtomicInteger suppressed = new AtomicInteger();
+	}
+
+	/**
+	 * The ring of entries
+	 */
+	private Entry[] entries = new Entry[CAPACITY];
+
+	/**
+	 * Number of entries claimed so far. The next goes at <code>claimed % CAPACITY</code>
+	 */
+	private AtomicLong claimed = new AtomicLong();
+
+	/**
+	 * Number of entries written so far. Only the writer changes it
+	 */
+	private volatile long written;
+
+	/**
+	 * The rate limit for each kind of message
+	 */
+	private ConcurrentHashMap<String, Limit> limits = new ConcurrentHashMap<String, Limit>();
+
+	/**
+	 * Messages dropped because the ring was full, that haven't been owned up to yet
+	 */
+	private AtomicInteger overflowed = new AtomicInteger();
+
+	/**
+	 * Where messages are written
+	 */
+	private PrintStream out;
+
+	/**
+	 * Records each time the writer writes, when a trace is being taken
+	 */
+	private TraceRecorder trace;
+
+	/**
+	 * Should the writer keep going
+	 */
+	private volatile boolean running = true;
+
+	/**
+	 * Constructor for AsyncLogger. Call <code>start()</code> to get it writing
+	 * @param out where to write messages, such as System.out
+	 * @param trace records each time the writer writes, when a trace is being taken
+	 */
+	AsyncLogger(PrintStream out, TraceRecorder trace)
+	{
+		super("Celestia logger");
+		setDaemon(true);
+		this.out = out;
+		this.trace = trace;
+		for(int i = 0; i < CAPACITY; i++) entries[i] = new Entry();
+	}
+
+	/**
+	 * Start a message, if it isn't over its kind's rate limit and there's room for it
+	 * @param key what kind of message it is, for rate limiting. Should be a constant
+	 * @param frame the frame it's logged in
+	 * @return the entry to append the message to and then <code>commit()</code>, or null if
+	 * the message should be dropped
+	 */
+	public Entry begin(String key, int frame)
+	{
+		if(!allow(key, System.nanoTime())) return null;
+		Entry entry = claim(frame);
+		if(entry == null) return null;
+		int lost = overflowed.getAndSet(0);
+		if(lost > 0) entry.text.append("(dropped ").append(lost).append(" messages, the log couldn't keep up) ");
+		return entry;
+	}
+
+	/**
+	 * Hand a message over to be written
+	 * @param entry the entry from <code>begin()</code>
+	 */
+	public void commit(Entry entry)
+	{
+		entry.ready = true;
+	}
+
+	/**
+	 * Log a message that's already been built
+	 * @param key what kind of message it is, for rate limiting. Should be a constant
+	 * @param frame the frame it's logged in
+	 * @param message the message
+	 */
+	public void log(String key, int frame, String message)
+	{
+		Entry entry = begin(key, frame);
+		if(entry == null) return;
+		entry.text.append(message);
+		commit(entry);
+	}
+
+	/**
+	 * Decide whether a message is within its kind's rate limit, owning up to the ones that
+	 * weren't when a new window starts
+	 * @param key what kind of message it is
+	 * @param now the time, from System.nanoTime()
+	 * @return a boolean indicating whether to log it
+	 */
+	private boolean allow(String key, long now)
+	{
+		Limit limit = limits.get(key);
+		if(limit == null)
+		{
+			limits.putIfAbsent(key, new Limit());
+			limit = limits.get(key);
+		}
+		long start = limit.window_start.get();
+		if(now - start >= WINDOW && limit.window_start.compareAndSet(start, now))
+		{
+			limit.allowed.set(0);
+			reportSuppressed(key, limit);
+		}
+		if(limit.allowed.incrementAndGet() <= BURST) return true;
+		limit.suppressed.incrementAndGet();
+		return false;
+	}
+
+	/**
+	 * Log how many of one kind of message have been suppressed since it was last done, if any
+	 * @param key what kind of message it is
+	 * @param limit its rate limit
+	 */
+	private void reportSuppressed(String key, Limit limit)
+	{
+		int suppressed = limit.suppressed.getAndSet(0);
+		if(suppressed == 0) return;
+		Entry entry = claim(-1);
+		if(entry == null) return;
+		entry.text.append("Suppressed ").append(suppressed).append(" similar \"").append(key).append("\" messages");
+		commit(entry);
+	}
+
+	/**
+	 * Claim the next entry in the ring
+	 * @param frame the frame the message is logged in, or -1 if it isn't from a frame
+	 * @return the entry, emptied, or null if the ring is full
+	 */
+	private Entry claim(int frame)
+	{
+		while(true)
+		{
+			long position = claimed.get();
+			if(position - written >= CAPACITY)
+			{
+				overflowed.incrementAndGet();
+				return null;
+			}
+			if(claimed.compareAndSet(position, position + 1))
+			{
+				Entry entry = entries[(int) (position % CAPACITY)];
+				entry.text.setLength(0);
+				entry.frame = frame;
+				entry.position = position;
+				return entry;
+			}
+		}
+	}
+
+	/**
+	 * Write messages as they're committed, in order, until told to stop
+	 * @see java.lang.Thread#run()
+	 */
+	public void run()
+	{
+		while(running)
+		{
+			if(!writeReady()) LockSupport.parkNanos(this, POLL_INTERVAL);
+		}
+		writeReady();
+	}
+
+	/**
+	 * Write every committed message at the front of the ring
+	 * @return a boolean indicating whether anything was written
+	 */
+	private boolean writeReady()
+	{
+		boolean wrote = false;
+		while(written < claimed.get())
+		{
+			Entry entry = entries[(int) (written % CAPACITY)];
+			if(!entry.ready || entry.position != written) break;
+			if(!wrote) trace.begin("write", "logger");
+			if(entry.frame >= 0) out.print("[f" + entry.frame + "] ");
+			out.println(entry.text);
+			entry.ready = false;
+			written++;
+			wrote = true;
+		}
+		if(wrote)
+		{
+			out.flush();
+			trace.end();
+		}
+		return wrote;
+	}
+
+	/**
+	 * Write whatever is left and stop
+	 */
+	public void shutdown()
+	{
+		for(Map.Entry<String, Limit> limit : limits.entrySet()) reportSuppressed(limit.getKey(), limit.getValue());
+		running = false;
+		LockSupport.unpark(this);
+		try
+		{
+			join(1000);
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,44 @@
+package processing.app;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * ClientIOEvent is a Java Flight Recorder event covering one read from or one write to a
+ * client, so a slow frame can be put down to a client whose socket (or compression) is taking
+ * its time.
+ *
+ * @author Chris Granville <v2t04 at students.keele.ac.uk>
+ * @version 3.0f (12/05/2010)
+ * @copyright 2009 - 2010 Chris Granville. All Rights Reserved.
+ * @see <a href="http://goo.gl/VOIb">Fireball: Multiplayer Asteroids</a>
+ */
+
+@Name("celestia.ClientIO")
+@Label("Client I/O")
+@Category({ "Celestia", "Server", "Network" })
+@Description("A read from or a write to one client")
+class ClientIOEvent extends jdk.jfr.Event
+{
+	/**
+	 * Which client, by IP address (or shared memory name)
+	 */
+	@Label("Client")
+	String client;
+
+	/**
+	 * Was it a "send" or a "receive"
+	 */
+	@Label("Direction")
+	String direction;
+
+	/**
+	 * Number of bytes sent or received, after compression
+	 */
+	@Label("Size")
+	@DataAmount
+	int bytes;
+}
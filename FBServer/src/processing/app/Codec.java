@@ -0,0 +1,46 @@
+package processing.app;
+
+/**
+ * A Codec knows how to talk to a particular kind of client - how to make sense of what it
+ * sends us and how to put a snapshot into a form it understands. Each connection is given one
+ * as soon as it sends us anything, and keeps it until it disconnects.
+ *
+ * @author Chris Granville <v2t04 at students.keele.ac.uk>
+ * @version 3.0f (12/05/2010)
+ * @copyright 2009 - 2010 Chris Granville. All Rights Reserved.
+ * @see <a href="http://goo.gl/VOIb">Fireball: Multiplayer Asteroids</a>
+ */
+
+public interface Codec
+{
+	/**
+	 * Deal with some bytes that arrived from the client
+	 * @param connection the connection they arrived on, in case we need to reply
+	 * @param ship the client's Ship, or null if it doesn't have one (it's just watching)
+	 * @param data array holding the bytes
+	 * @param offset index of the first byte
+	 * @param length number of bytes
+	 * @return null if all was well, otherwise a description of what was wrong with the data
+	 */
+	String receive(Connection connection, Ship ship, byte[] data, int offset, int length);
+
+	/**
+	 * Find out whether the client has been turned away since this was last called, for a reason
+	 * that isn't its data being malformed, such as speaking a version we don't support
+	 * @return why it was turned away, or null if it hasn't been
+	 */
+	String takeRejection();
+
+	/**
+	 * Queue a snapshot for the client in whatever form it wants it
+	 * @param connection the connection to queue it on
+	 * @param snapshot the snapshot for this frame
+	 */
+	void sendSnapshot(Connection connection, Snapshot snapshot);
+
+	/**
+	 * Get whatever decides how often the client gets a snapshot
+	 * @return the RateController in use, or null if the client gets one every frame
+	 */
+	RateController getRateController();
+}
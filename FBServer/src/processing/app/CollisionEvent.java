@@ -0,0 +1,54 @@
+package processing.app;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * CollisionEvent is a Java Flight Recorder event covering one run of the collision checks, with
+ * how many pairs were checked and how many actually touched, since checking every Ship against
+ * every Ship and Shot gets slower with the square of the players.
+ *
+ * @author Chris Granville <v2t04 at students.keele.ac.uk>
+ * @version 3.0f (12/05/2010)
+ * @copyright 2009 - 2010 Chris Granville. All Rights Reserved.
+ * @see <a href="http://goo.gl/VOIb">Fireball: Multiplayer Asteroids</a>
+ */
+
+@Name("celestia.Collisions")
+@Label("Collisions")
+@Category({ "Celestia", "Server" })
+@Description("Collision checks for one server frame")
+class CollisionEvent extends jdk.jfr.Event
+{
+	/**
+	 * Which frame it was
+	 */
+	@Label("Frame")
+	int frame;
+
+	/**
+	 * Number of pairs of Ships checked
+	 */
+	@Label("Ship Pairs")
+	int ship_pairs;
+
+	/**
+	 * Number of pairs of Ships that were touching
+	 */
+	@Label("Ship Collisions")
+	int ship_collisions;
+
+	/**
+	 * Number of Ship and Shot pairs checked
+	 */
+	@Label("Shot Pairs")
+	int shot_pairs;
+
+	/**
+	 * Number of Shots that hit a Ship
+	 */
+	@Label("Hits")
+	int hits;
+}
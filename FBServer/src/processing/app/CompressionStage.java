@@ -0,0 +1,238 @@
+package processing.app;
+
+import java.util.zip.Deflater;
+
+/**
+ * CompressionStage sits between a connection's outbound buffer and the network. Each flush
+ * is compressed with one long-lived Deflater that was primed with
+ * <code>Protocol.DICTIONARY</code>, using a sync flush so that the client can decompress it
+ * as soon as it arrives while still getting the benefit of everything sent before it.
+ *
+ * <p>Each block's length only has two bytes, so anything that compresses to more than
+ * <code>Protocol.MAX_FRAME_SIZE</code> is split over as many blocks as it takes. The client
+ * carries on inflating the same stream from one block to the next, so it doesn't mind where
+ * the splits fall.</p>
+ *
+ * <p>It also keeps track of how well it's doing and how long it takes, so that we can decide
+ * whether bandwidth or CPU is the thing we're shorter of for a given server.</p>
+ *
+ * @author Chris Granville <v2t04 at students.keele.ac.uk>
+ * @version 3.0f (12/05/2010)
+ * @copyright 2009 - 2010 Chris Granville. All Rights Reserved.
+ * @see <a href="http://goo.gl/VOIb">Fireball: Multiplayer Asteroids</a>
+ */
+
+public class CompressionStage
+{
+	/**
+	 * The compressor, kept for the lifetime of the connection
+	 */
+	private Deflater deflater;
+
+	/**
+	 * Output buffer: one or more blocks, each a header followed by the compressed data
+	 */
+	private byte[] frame = new byte[1024];
+
+	/**
+	 * Length of the most recent frame in <code>frame</code>, including the headers
+	 */
+	private int frame_length;
+
+	/**
+	 * Number of messages compressed so far
+	 */
+	private long messages;
+
+	/**
+	 * Total bytes given to us to compress
+	 */
+	private long raw_bytes;
+
+	/**
+	 * Total bytes that came out, not including frame headers
+	 */
+	private long compressed_bytes;
+
+	/**
+	 * Total time spent compressing in nanoseconds
+	 */
+	private long total_nanos;
+
+	/**
+	 * Compression ratio of the last message (compressed / raw)
+	 */
+	private float last_ratio = 1.0f;
+
+	/**
+	 * Time taken to compress the last message in nanoseconds
+	 */
+	private long last_nanos;
+
+	/**
+	 * Constructor for CompressionStage
+	 * @param level the Deflater compression level to use, 1 (fastest) to 9 (smallest)
+	 */
+	CompressionStage(int level)
+	{
+		deflater = new Deflater(level, true);
+		deflater.setDictionary(Protocol.DICTIONARY);
+	}
+
+	/**
+	 * Compress a message into a frame, which can then be got at with <code>getFrame()</code>
+	 * and <code>getFrameLength()</code>
+	 * @param data array holding the message
+	 * @param offset index of the first byte of the message
+	 * @param length number of bytes in the message
+	 */
+	public void compress(byte[] data, int offset, int length)
+	{
+		long start = System.nanoTime();
+		deflater.setInput(data, offset, length);
+		int block = 0;		// Where the header of the block being filled goes
+		int produced = 0;	// Compressed bytes in the block being filled
+		int total = 0;		// Compressed bytes in the blocks before it
+		while(true)
+		{
+			int position = block + Protocol.COMPRESSED_HEADER_SIZE + produced;
+			int room = Math.min(frame.length - position, Protocol.MAX_FRAME_SIZE - produced);
+			int got = deflater.deflate(frame, position, room, Deflater.SYNC_FLUSH);
+			produced += got;
+			// If it had space left over, that's everything
+			if(got < room) break;
+			if(produced == Protocol.MAX_FRAME_SIZE)
+			{
+				// The block is as big as its header can say, so finish it and start another
+				setBlockLength(block, produced);
+				total += produced;
+				block += Protocol.COMPRESSED_HEADER_SIZE + produced;
+				produced = 0;
+			}
+			// If it filled the buffer there may be more to come, so make room and go again
+			if(block + Protocol.COMPRESSED_HEADER_SIZE + produced >= frame.length)
+			{
+				byte[] bigger = new byte[frame.length * 2];
+				System.arraycopy(frame, 0, bigger, 0, frame.length);
+				frame = bigger;
+			}
+		}
+		// Don't bother with an empty block after one that came out exactly full
+		if(produced > 0 || block == 0)
+		{
+			setBlockLength(block, produced);
+			total += produced;
+			block += Protocol.COMPRESSED_HEADER_SIZE + produced;
+		}
+		frame_length = block;
+
+		last_nanos = System.nanoTime() - start;
+		last_ratio = (float) total / length;
+		messages++;
+		raw_bytes += length;
+		compressed_bytes += total;
+		total_nanos += last_nanos;
+	}
+
+	/**
+	 * Write a block's length into its header
+	 * @param block index of the block's header in <code>frame</code>
+	 * @param length number of compressed bytes in the block
+	 */
+	private void setBlockLength(int block, int length)
+	{
+		frame[block] = (byte) (length >>> 8);
+		frame[block + 1] = (byte) length;
+	}
+
+	/**
+	 * Get the buffer holding the last frame
+	 * @return byte array whose first <code>getFrameLength()</code> bytes are the frame
+	 */
+	public byte[] getFrame()
+	{
+		return frame;
+	}
+
+	/**
+	 * Get the length of the last frame, including its headers
+	 * @return number of bytes in the frame
+	 */
+	public int getFrameLength()
+	{
+		return frame_length;
+	}
+
+	/**
+	 * Get the compression ratio of the last message
+	 * @return compressed size divided by raw size, so smaller is better
+	 */
+	public float getLastRatio()
+	{
+		return last_ratio;
+	}
+
+	/**
+	 * Get the time taken to compress the last message
+	 * @return time in nanoseconds
+	 */
+	public long getLastNanos()
+	{
+		return last_nanos;
+	}
+
+	/**
+	 * Get the overall compression ratio since the connection started
+	 * @return compressed size divided by raw size, so smaller is better
+	 */
+	public float getRatio()
+	{
+		if(raw_bytes == 0) return 1.0f;
+		return (float) compressed_bytes / raw_bytes;
+	}
+
+	/**
+	 * Get the average time taken to compress a message
+	 * @return average time in nanoseconds
+	 */
+	public long getAverageNanos()
+	{
+		if(messages == 0) return 0;
+		return total_nanos / messages;
+	}
+
+	/**
+	 * Get the number of messages compressed
+	 * @return number of messages
+	 */
+	public long getMessages()
+	{
+		return messages;
+	}
+
+	/**
+	 * Get the total number of bytes before compression
+	 * @return total raw bytes
+	 */
+	public long getRawBytes()
+	{
+		return raw_bytes;
+	}
+
+	/**
+	 * Get the total number of bytes after compression
+	 * @return total compressed bytes
+	 */
+	public long getCompressedBytes()
+	{
+		return compressed_bytes;
+	}
+
+	/**
+	 * Free the native memory held by the Deflater. It can't be used after this
+	 */
+	public void end()
+	{
+		deflater.end();
+	}
+}
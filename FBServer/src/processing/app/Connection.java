@@ -0,0 +1,108 @@
+package processing.app;
+
+/**
+ * Connection is the server's view of a single connected client, whatever it is that
+ * actually carries the bytes. FBServer only ever talks to clients through this interface
+ * so that the transport (plain processing.net TCP, or something else entirely) can be
+ * swapped without touching the game code.
+ *
+ * <p>Outbound data is never written straight away. Everything that is queued during a
+ * frame is held in a per-connection buffer and goes out in one go when <code>flush()</code>
+ * is called at the end of the frame.</p>
+ *
+ * @author Chris Granville <v2t04 at students.keele.ac.uk>
+ * @version 3.0f (12/05/2010)
+ * @copyright 2009 - 2010 Chris Granville. All Rights Reserved.
+ * @see <a href="http://goo.gl/VOIb">Fireball: Multiplayer Asteroids</a>
+ */
+
+public interface Connection
+{
+	/**
+	 * Get the address of the remote end. Currently doubles as the name of the client's Ship
+	 * @return String with the address of the client
+	 */
+	String ip();
+
+	/**
+	 * Is the connection still usable
+	 * @return a boolean indicating if the connection is still open
+	 */
+	boolean active();
+
+	/**
+	 * Get the number of bytes waiting to be read
+	 * @return the number of bytes that can be read without blocking
+	 */
+	int available();
+
+	/**
+	 * Read as much of what is waiting as will fit into <code>buffer</code>
+	 * @param buffer where to put the bytes
+	 * @return the number of bytes read
+	 */
+	int read(byte[] buffer);
+
+	/**
+	 * Add a message to the outbound buffer, to be sent at the next <code>flush()</code>
+	 * @param message the message to send
+	 */
+	void queue(String message);
+
+	/**
+	 * Add raw bytes to the outbound buffer, to be sent at the next <code>flush()</code>
+	 * @param data array holding the bytes to send
+	 * @param offset index of the first byte to send
+	 * @param length number of bytes to send
+	 */
+	void queue(byte[] data, int offset, int length);
+
+	/**
+	 * Write everything that has been queued since the last flush
+	 * @return the number of bytes written
+	 */
+	int flush();
+
+	/**
+	 * Compress everything sent from now on. Anything already queued is flushed first,
+	 * uncompressed, so the client can tell exactly where compression starts.
+	 * @param stage the compressor to pass each flush through
+	 */
+	void enableCompression(CompressionStage stage);
+
+	/**
+	 * Get the compressor for this connection, if it has one
+	 * @return the CompressionStage in use, or null if the connection isn't compressed
+	 */
+	CompressionStage getCompression();
+
+	/**
+	 * Get the Codec used to talk to this client
+	 * @return the Codec, or null if the client hasn't sent anything yet so we don't know
+	 */
+	Codec getCodec();
+
+	/**
+	 * Set the Codec used to talk to this client
+	 * @param codec the Codec to use from now on
+	 */
+	void setCodec(Codec codec);
+
+	/**
+	 * Get the number of bytes waiting for the client: queued but not flushed, and for transports
+	 * where we can tell, written but not yet taken by the client
+	 * @return the number of bytes
+	 */
+	int queued();
+
+	/**
+	 * Get the counters for this connection
+	 * @return the ConnectionStats
+	 */
+	ConnectionStats getStats();
+
+	/**
+	 * Close the connection and release anything associated with it
+	 */
+	void close();
+}
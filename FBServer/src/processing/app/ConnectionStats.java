@@ -0,0 +1,311 @@
+package processing.app;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ConnectionStats counts what one client has been up to: how much it has sent us and we've sent
+ * it, in bytes and in messages, how much of what it sent made no sense, how long it is since we
+ * last heard from it, how much is waiting for it, and how its snapshot rate is doing. It's there
+ * to pick out the clients that are flooding us with rubbish or struggling to keep up.
+ *
+ * <p>Only the game loop changes the numbers, but they can be read from anywhere (MetricsServer
+ * reads them on its own thread), so they're volatile. The byte rates are worked out once a
+ * second in <code>update()</code>.</p>
+ *
+ * @author Chris Granville <v2t04 at students.keele.ac.uk>
+ * @version 3.0f (12/05/2010)
+ * @copyright 2009 - 2010 Chris Granville. All Rights Reserved.
+ * @see <a href="http://goo.gl/VOIb">Fireball: Multiplayer Asteroids</a>
+ */
+
+public class ConnectionStats
+{
+	/**
+	 * How often the byte rates are worked out, in nanoseconds
+	 */
+	private static final long RATE_INTERVAL = 1000000000L;
+
+	/**
+	 * The id the next connection gets. Connections are made on the network library's thread and
+	 * ShmListener's as well as the game loop's
+	 */
+	private static AtomicInteger next_id = new AtomicInteger(1);
+
+	/**
+	 * This connection's id, so connections from the same address can be told apart
+	 */
+	private final int id;
+
+	/**
+	 * The client's address, or shared memory name
+	 */
+	private final String client;
+
+	/**
+	 * Bytes read from and written to the client, after compression
+	 */
+	private volatile long bytes_in, bytes_out;
+
+	/**
+	 * Messages read from and queued for the client
+	 */
+	private volatile long messages_in, messages_out;
+
+	/**
+	 * Reads that made no sense
+	 */
+	private volatile long malformed;
+
+	/**
+	 * Snapshots not sent to keep to the client's rate
+	 */
+	private volatile long skipped;
+
+	/**
+	 * When we last read anything from the client, from System.nanoTime(), or 0 if we never have
+	 */
+	private volatile long last_input;
+
+	/**
+	 * Bytes waiting for the client when the last flush started
+	 */
+	private volatile int queued;
+
+	/**
+	 * Snapshots sent that the client hasn't acknowledged, or -1 if we don't know
+	 */
+	private volatile int in_flight = -1;
+
+	/**
+	 * Smoothed round trip time in milliseconds, or 0 if we don't know
+	 */
+	private volatile float rtt;
+
+	/**
+	 * Bytes a second read from and written to the client, over the last second
+	 */
+	private volatile float bytes_in_rate, bytes_out_rate;
+
+	/**
+	 * When the rates were last worked out, from System.nanoTime()
+	 */
+	private long rate_start;
+
+	/**
+	 * The byte counts when the rates were last worked out
+	 */
+	private long rate_bytes_in, rate_bytes_out;
+
+	/**
+	 * Constructor for ConnectionStats
+	 * @param client the client's address, or shared memory name
+	 */
+	ConnectionStats(String client)
+	{
+		this.client = client;
+		id = next_id.getAndIncrement();
+		rate_start = System.nanoTime();
+	}
+
+	/**
+	 * Count bytes read from the client
+	 * @param bytes number of bytes
+	 * @param now the time, from System.nanoTime()
+	 */
+	public void received(int bytes, long now)
+	{
+		bytes_in += bytes;
+		last_input = now;
+	}
+
+	/**
+	 * Count a whole message read from the client
+	 */
+	public void messageIn()
+	{
+		messages_in++;
+	}
+
+	/**
+	 * Count a message queued for the client
+	 */
+	public void messageOut()
+	{
+		messages_out++;
+	}
+
+	/**
+	 * Count a read that made no sense
+	 */
+	public void malformed()
+	{
+		malformed++;
+	}
+
+	/**
+	 * Count a flush to the client
+	 * @param bytes number of bytes written
+	 * @param queued number of bytes waiting for the client just before it
+	 */
+	public void sent(int bytes, int queued)
+	{
+		bytes_out += bytes;
+		this.queued = queued;
+	}
+
+	/**
+	 * Take the client's rate control numbers, once a frame
+	 * @param rate the client's RateController
+	 * @param skipped snapshots not sent to keep to the rate since last time
+	 */
+	public void rate(RateController rate, int skipped)
+	{
+		this.skipped += skipped;
+		in_flight = rate.getInFlight();
+		rtt = rate.getRtt();
+	}
+
+	/**
+	 * Work out the byte rates, if it's been long enough since they were last worked out
+	 * @param now the time, from System.nanoTime()
+	 */
+	public void update(long now)
+	{
+		long elapsed = now - rate_start;
+		if(elapsed < RATE_INTERVAL) return;
+		bytes_in_rate = (bytes_in - rate_bytes_in) * 1e9f / elapsed;
+		bytes_out_rate = (bytes_out - rate_bytes_out) * 1e9f / elapsed;
+		rate_bytes_in = bytes_in;
+		rate_bytes_out = bytes_out;
+		rate_start = now;
+	}
+
+	/**
+	 * Get this connection's id
+	 * @return the id, unique while the server is running
+	 */
+	public int getId()
+	{
+		return id;
+	}
+
+	/**
+	 * Get the client's address, or shared memory name
+	 * @return the name
+	 */
+	public String getClient()
+	{
+		return client;
+	}
+
+	/**
+	 * Get the bytes read from the client, after compression
+	 * @return the number of bytes
+	 */
+	public long getBytesIn()
+	{
+		return bytes_in;
+	}
+
+	/**
+	 * Get the bytes written to the client, after compression
+	 * @return the number of bytes
+	 */
+	public long getBytesOut()
+	{
+		return bytes_out;
+	}
+
+	/**
+	 * Get the messages read from the client
+	 * @return the number of messages
+	 */
+	public long getMessagesIn()
+	{
+		return messages_in;
+	}
+
+	/**
+	 * Get the messages queued for the client
+	 * @return the number of messages
+	 */
+	public long getMessagesOut()
+	{
+		return messages_out;
+	}
+
+	/**
+	 * Get the reads from the client that made no sense
+	 * @return the number of reads
+	 */
+	public long getMalformed()
+	{
+		return malformed;
+	}
+
+	/**
+	 * Get the snapshots not sent to keep to the client's rate
+	 * @return the number of snapshots
+	 */
+	public long getSkipped()
+	{
+		return skipped;
+	}
+
+	/**
+	 * Get how long it is since we last read anything from the client
+	 * @param now the time, from System.nanoTime()
+	 * @return the time in nanoseconds, or -1 if we never have
+	 */
+	public long getInputAge(long now)
+	{
+		long last = last_input;
+		return (last == 0) ? -1 : now - last;
+	}
+
+	/**
+	 * Get the bytes waiting for the client when the last flush started
+	 * @return the number of bytes
+	 */
+	public int getQueued()
+	{
+		return queued;
+	}
+
+	/**
+	 * Get the snapshots sent that the client hasn't acknowledged
+	 * @return the number of snapshots, or -1 if the client doesn't acknowledge them
+	 */
+	public int getInFlight()
+	{
+		return in_flight;
+	}
+
+	/**
+	 * Get the smoothed round trip time, which is only good to within half a frame as pongs are
+	 * read once a frame
+	 * @return the time in milliseconds, or 0 if we don't know it
+	 */
+	public float getRtt()
+	{
+		return rtt;
+	}
+
+	/**
+	 * Get the bytes a second read from the client, over the last second
+	 * @return the rate
+	 */
+	public float getBytesInRate()
+	{
+		return bytes_in_rate;
+	}
+
+	/**
+	 * Get the bytes a second written to the client, over the last second
+	 * @return the rate
+	 */
+	public float getBytesOutRate()
+	{
+		return bytes_out_rate;
+	}
+}
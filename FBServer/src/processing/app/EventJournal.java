@@ -0,0 +1,395 @@
+package processing.app;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * EventJournal keeps a permanent record of what happened in the game - clients joining and
+ * leaving, shots fired, hits and Ships destroyed - in binary files that JournalReader can dump
+ * and filter afterwards, so working out who did what to whom doesn't mean digging through the
+ * console.
+ *
+ * <p>The journal is a directory of segment files, <code>journal-000001.bin</code> and so on,
+ * each made full size up front and memory-mapped, so adding a record is a handful of puts into
+ * the mapping and never makes an object or waits for the disk. What's been written survives the
+ * server crashing, as it's in the operating system's hands as soon as it's put. Making a segment
+ * does wait for the disk, so once one is half full the next is made on a thread of its own, ready
+ * to be swapped in when it's needed. A new server carries on after the highest numbered segment
+ * there, rather than writing over it.</p>
+ *
+ * <p>Every record is <code>RECORD</code> bytes, and the first record in a segment is its header
+ * instead: a magic number, the format version, the record size, the segment's number and when
+ * it was made. The fields of a record are:</p>
+ *
+ * <pre>
+ *  0  long   time, System.currentTimeMillis()
+ *  8  int    frame
+ * 12  int    type, one of the constants below; 0 means no more records in this segment
+ * 16  int    subject, the connection it happened to (ConnectionStats.getId())
+ * 20  int    other, the connection that did it, for a hit; 0 if there isn't one
+ * 24  int    value, the shot's id for a shot, the damage for a hit
+ * 28  float  x
+ * 32  float  y
+ * 36  int    unused
+ * 40  byte[] name, the client's address or Ship's name, up to NAME_LENGTH ASCII characters, 0 padded
+ * </pre>
+ *
+ * <p>The type is written last, so a record that is only half there when the server dies looks
+ * like the end of the segment. Records only come from the game loop, but the next segment is
+ * handed over from the thread that made it, so adding one is synchronized.</p>
+ *
+ * @author Chris Granville <v2t04 at students.keele.ac.uk>
+ * @version 3.0f (12/05/2010)
+ * @copyright 2009 - 2010 Chris Granville. All Rights Reserved.
+ * @see <a href="http://goo.gl/VOIb">Fireball: Multiplayer Asteroids</a>
+ */
+
+public class EventJournal implements Runnable
+{
+	/**
+	 * Type: a client connected and got a Ship
+	 */
+	public static final int JOINED = 1;
+
+	/**
+	 * Type: a client connected but there wasn't room for its Ship, so it's only watching
+	 */
+	public static final int WATCHING = 2;
+
+	/**
+	 * Type: a client was turned away because the server couldn't keep up
+	 */
+	public static final int REFUSED = 3;
+
+	/**
+	 * Type: a connection went away
+	 */
+	public static final int LEFT = 4;
+
+	/**
+	 * Type: a Ship fired a Shot
+	 */
+	public static final int SHOT = 5;
+
+	/**
+	 * Type: a Ship was hit by a Shot
+	 */
+	public static final int HIT = 6;
+
+	/**
+	 * Type: a Ship was destroyed
+	 */
+	public static final int DESTROYED = 7;
+
+	/**
+	 * Names of the types, indexed by type
+	 */
+	public static final String[] NAMES = { "none", "joined", "watching", "refused", "left", "shot", "hit", "destroyed" };
+
+	/**
+	 * "CJNL", so a journal can be told from any other file
+	 */
+	public static final int MAGIC = 0x434a4e4c;
+
+	/**
+	 * Version of the format, to go up whenever the layout changes
+	 */
+	public static final int VERSION = 1;
+
+	/**
+	 * Size of every record, and of the header
+	 */
+	public static final int RECORD = 64;
+
+	/**
+	 * Where each field lives in a record
+	 */
+	public static final int TIME = 0, FRAME = 8, TYPE = 12, SUBJECT = 16, OTHER = 20, VALUE = 24, X = 28, Y = 32, NAME = 40;
+
+	/**
+	 * Where each field lives in the header
+	 */
+	public static final int HEADER_MAGIC = 0, HEADER_VERSION = 4, HEADER_RECORD = 8, HEADER_SEGMENT = 12, HEADER_CREATED = 16;
+
+	/**
+	 * Most characters of a name that are kept
+	 */
+	public static final int NAME_LENGTH = RECORD - NAME;
+
+	/**
+	 * What segment files are called: the prefix, a number and the suffix
+	 */
+	public static final String PREFIX = "journal-", SUFFIX = ".bin";
+
+	/**
+	 * Where the segments go
+	 */
+	private File directory;
+
+	/**
+	 * Size of each segment, in bytes, a whole number of records
+	 */
+	private int segment_size;
+
+	/**
+	 * The number of the segment being written
+	 */
+	private int segment;
+
+	/**
+	 * The segment being written
+	 */
+	private MappedByteBuffer buffer;
+
+	/**
+	 * Where the next record goes in the segment
+	 */
+	private int position;
+
+	/**
+	 * The next segment, made ahead of time and ready to swap in, or null if it isn't ready yet
+	 */
+	private MappedByteBuffer spare;
+
+	/**
+	 * Is the next segment being made
+	 */
+	private boolean preparing;
+
+	/**
+	 * Why the next segment couldn't be made, or null if nothing has gone wrong
+	 */
+	private IOException failure;
+
+	/**
+	 * For saying the journal has stopped
+	 */
+	private AsyncLogger logger;
+
+	/**
+	 * Number of records written
+	 */
+	private long records;
+
+	/**
+	 * Constructor for EventJournal. Makes the directory if it isn't there, and the first segment
+	 * @param directory where the segments go
+	 * @param segment_size size of each segment, in bytes
+	 * @param logger for saying the journal has stopped, if it ever has to
+	 * @throws IOException if the directory or segment can't be made
+	 */
+	EventJournal(File directory, int segment_size, AsyncLogger logger) throws IOException
+	{
+		this.directory = directory;
+		this.segment_size = Math.max(segment_size / RECORD, 2) * RECORD;
+		this.logger = logger;
+		if(!directory.isDirectory() && !directory.mkdirs()) throw new IOException("Could not make " + directory);
+
+		// Carry on after whatever is there already
+		String[] names = directory.list();
+		for(int i = 0; names != null && i < names.length; i++)
+		{
+			int number = segmentNumber(names[i]);
+			if(number > segment) segment = number;
+		}
+		buffer = makeSegment(segment + 1);
+		segment++;
+		position = RECORD;
+	}
+
+	/**
+	 * Add a record
+	 * @param type what happened, one of the type constants
+	 * @param frame the frame it happened in
+	 * @param subject the connection it happened to
+	 * @param other the connection that did it, or 0
+	 * @param value the shot's id or the damage, depending on the type, or 0
+	 * @param x where it happened
+	 * @param y where it happened
+	 * @param name the client's address or Ship's name, or null. Anything past NAME_LENGTH
+	 * characters is left off
+	 */
+	public synchronized void append(int type, int frame, int subject, int other, int value, float x, float y, String name)
+	{
+		if(buffer == null) return;
+		if(position + RECORD > segment_size && !nextSegment())
+		{
+			// Out of disk, most likely. Give up rather than fail every frame
+			logger.log("journal", frame, "Event journal stopped, could not make segment " + (segment + 1) + ": " + failure);
+			buffer = null;
+			return;
+		}
+		int at = position;
+		buffer.putLong(at + TIME, System.currentTimeMillis());
+		buffer.putInt(at + FRAME, frame);
+		buffer.putInt(at + SUBJECT, subject);
+		buffer.putInt(at + OTHER, other);
+		buffer.putInt(at + VALUE, value);
+		buffer.putFloat(at + X, x);
+		buffer.putFloat(at + Y, y);
+		int length = (name == null) ? 0 : Math.min(name.length(), NAME_LENGTH);
+		for(int i = 0; i < length; i++) buffer.put(at + NAME + i, (byte) name.charAt(i));
+		buffer.putInt(at + TYPE, type);
+		position += RECORD;
+		records++;
+
+		// Half way through, start on the next segment so it's ready long before it's needed
+		if(!preparing && spare == null && failure == null && position > segment_size / 2)
+		{
+			preparing = true;
+			Thread thread = new Thread(this, "Celestia journal");
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+	/**
+	 * Swap in the next segment. It should be ready by now; if it isn't, it's still being made,
+	 * so wait for it, as that's still sooner than making it here would be
+	 * @return a boolean indicating whether there is one. If not, <code>failure</code> says why
+	 */
+	private boolean nextSegment()
+	{
+		boolean interrupted = false;
+		while(preparing)
+		{
+			try
+			{
+				wait();
+			}
+			catch (InterruptedException e)
+			{
+				interrupted = true;
+			}
+		}
+		if(interrupted) Thread.currentThread().interrupt();
+		if(spare == null && failure == null)
+		{
+			// It's always started by the time a segment is half full, but just in case
+			try
+			{
+				spare = makeSegment(segment + 1);
+			}
+			catch (IOException e)
+			{
+				failure = e;
+			}
+		}
+		if(spare == null) return false;
+		buffer = spare;
+		spare = null;
+		segment++;
+		position = RECORD;
+		return true;
+	}
+
+	/**
+	 * Make the next segment, on a thread of its own, and hand it over
+	 * @see java.lang.Runnable#run()
+	 */
+	public void run()
+	{
+		int number;
+		synchronized(this)
+		{
+			number = segment + 1;
+		}
+		MappedByteBuffer made = null;
+		IOException error = null;
+		try
+		{
+			made = makeSegment(number);
+		}
+		catch (IOException e)
+		{
+			error = e;
+		}
+		synchronized(this)
+		{
+			spare = made;
+			failure = error;
+			preparing = false;
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Make and map a segment, and write its header
+	 * @param number the segment's number
+	 * @return the mapped segment
+	 * @throws IOException if it can't be made
+	 */
+	private MappedByteBuffer makeSegment(int number) throws IOException
+	{
+		MappedByteBuffer result;
+		File file = new File(directory, segmentName(number));
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try
+		{
+			raf.setLength(segment_size);
+			result = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segment_size);
+		}
+		finally
+		{
+			// The mapping stays valid after the file is closed
+			raf.close();
+		}
+		result.putInt(HEADER_MAGIC, MAGIC);
+		result.putInt(HEADER_VERSION, VERSION);
+		result.putInt(HEADER_RECORD, RECORD);
+		result.putInt(HEADER_SEGMENT, number);
+		result.putLong(HEADER_CREATED, System.currentTimeMillis());
+		return result;
+	}
+
+	/**
+	 * Make sure everything written so far is on the disk, and stop. A segment made ahead of time
+	 * and never used is left as it is, with a header and no records
+	 */
+	public synchronized void close()
+	{
+		if(buffer != null) buffer.force();
+		buffer = null;
+	}
+
+	/**
+	 * Get the number of records written
+	 * @return the number of records
+	 */
+	public synchronized long getRecords()
+	{
+		return records;
+	}
+
+	/**
+	 * Work out what a segment file is called
+	 * @param number the segment's number
+	 * @return the file name
+	 */
+	public static String segmentName(int number)
+	{
+		String digits = Integer.toString(number);
+		return PREFIX + "000000".substring(Math.min(digits.length(), 6)) + digits + SUFFIX;
+	}
+
+	/**
+	 * Work out a segment's number from its file name
+	 * @param name the file name
+	 * @return the number, or 0 if it isn't a segment
+	 */
+	public static int segmentNumber(String name)
+	{
+		if(!name.startsWith(PREFIX) || !name.endsWith(SUFFIX)) return 0;
+		try
+		{
+			return Integer.parseInt(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+		}
+		catch (NumberFormatException e)
+		{
+			return 0;
+		}
+	}
+}
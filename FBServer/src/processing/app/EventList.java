@@ -0,0 +1,171 @@
+package processing.app;
+
+import java.util.ArrayList;
+
+/**
+ * EventList is everything that happened during a frame that a client can't tell from where
+ * things are - a Ship firing, being hit or being destroyed - so clients that asked for
+ * <code>Protocol.CAP_EVENTS</code> can show it. It is emptied at the start of every frame,
+ * and encoded once however many clients get it, in the same way as a Snapshot.
+ *
+ * <p>It never grows: anything past <code>Protocol.MAX_EVENTS</code> in one frame is dropped,
+ * as a frame with that much going on isn't going to miss a few sparks.</p>
+ *
+ * <p>Events hold on to the Ship they happened to rather than its index, as Ships destroyed
+ * later in the frame shift everyone after them down the list. They're only turned into indices
+ * by <code>resolve()</code>, once the frame's Ships are settled and the snapshot is being made,
+ * so they line up with the snapshot that goes with them.</p>
+ *
+ * @author Chris Granville <v2t04 at students.keele.ac.uk>
+ * @version 3.0f (12/05/2010)
+ * @copyright 2009 - 2010 Chris Granville. All Rights Reserved.
+ * @see <a href="http://goo.gl/VOIb">Fireball: Multiplayer Asteroids</a>
+ */
+
+public class EventList
+{
+	/**
+	 * The type of each event, one of the <code>Protocol.EVENT_</code> constants
+	 */
+	private int[] types = new int[Protocol.MAX_EVENTS];
+
+	/**
+	 * The Ship each event happened to, or null if none
+	 */
+	private Ship[] subjects = new Ship[Protocol.MAX_EVENTS];
+
+	/**
+	 * Index of the Ship each event happened to in the snapshot, or 255 if none, as of the last
+	 * <code>resolve()</code>
+	 */
+	private int[] ships = new int[Protocol.MAX_EVENTS];
+
+	/**
+	 * Where each event happened, x
+	 */
+	private int[] xs = new int[Protocol.MAX_EVENTS];
+
+	/**
+	 * Where each event happened, y
+	 */
+	private int[] ys = new int[Protocol.MAX_EVENTS];
+
+	/**
+	 * Number of events this frame
+	 */
+	private int count;
+
+	/**
+	 * Number of events dropped because there were too many in one frame
+	 */
+	private long dropped;
+
+	/**
+	 * The binary encoding
+	 */
+	private byte[] binary = new byte[1 + Protocol.MAX_EVENTS * Protocol.EVENT_SIZE];
+
+	/**
+	 * Length of the binary encoding, or -1 if nobody has asked for it yet this frame
+	 */
+	private int binary_length = -1;
+
+	/**
+	 * Forget last frame's events
+	 */
+	public void clear()
+	{
+		// Let go of the Ships, destroyed ones especially
+		for(int i = 0; i < count; i++) subjects[i] = null;
+		count = 0;
+		binary_length = -1;
+	}
+
+	/**
+	 * Note that something happened
+	 * @param type what happened, one of the <code>Protocol.EVENT_</code> constants
+	 * @param ship the Ship it happened to, or null if none or it's being destroyed
+	 * @param x where it happened, x
+	 * @param y where it happened, y
+	 */
+	public void add(int type, Ship ship, int x, int y)
+	{
+		if(count == Protocol.MAX_EVENTS)
+		{
+			dropped++;
+			return;
+		}
+		types[count] = type;
+		subjects[count] = ship;
+		ships[count] = 255;
+		xs[count] = x;
+		ys[count] = y;
+		count++;
+		binary_length = -1;
+	}
+
+	/**
+	 * Work out the index of the Ship each event happened to, now that the frame's Ships won't
+	 * change. Any that isn't in the list any more gets 255, the same as an event without one
+	 * @param ship_list the Ships, in the order they're going out in the snapshot
+	 */
+	public void resolve(ArrayList<Ship> ship_list)
+	{
+		for(int i = 0; i < count; i++)
+		{
+			int index = (subjects[i] == null) ? -1 : ship_list.indexOf(subjects[i]);
+			ships[i] = (index < 0 || index > 254) ? 255 : index;
+		}
+		binary_length = -1;
+	}
+
+	/**
+	 * Get the number of events this frame
+	 * @return the number of events
+	 */
+	public int size()
+	{
+		return count;
+	}
+
+	/**
+	 * Get the number of events dropped because there were too many in one frame
+	 * @return the number of events
+	 */
+	public long getDropped()
+	{
+		return dropped;
+	}
+
+	/**
+	 * Get this frame's events in binary, as described by <code>Protocol.FRAME_EVENTS</code>
+	 * @return byte array whose first <code>getBinaryLength()</code> bytes are the events
+	 */
+	public byte[] getBinary()
+	{
+		if(binary_length >= 0) return binary;
+		int position = 0;
+		binary[position++] = (byte) count;
+		for(int i = 0; i < count; i++)
+		{
+			binary[position++] = (byte) types[i];
+			binary[position++] = (byte) ships[i];
+			binary[position++] = (byte) (xs[i] >> 8);
+			binary[position++] = (byte) xs[i];
+			binary[position++] = (byte) (ys[i] >> 8);
+			binary[position++] = (byte) ys[i];
+		}
+		binary_length = position;
+		return binary;
+	}
+
+	/**
+	 * Get the length of the binary encoding
+	 * @return number of bytes of <code>getBinary()</code> that are the events
+	 */
+	public int getBinaryLength()
+	{
+		if(binary_length < 0) getBinary();
+		return binary_length;
+	}
+}
@@ -2,7 +2,10 @@ package processing.app;
 
 import processing.core.*;
 import processing.net.*;
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import javax.swing.JOptionPane;
 
 /**
@@ -24,14 +27,64 @@ public class FBServer extends PApplet
 	private final byte TOTAL_CLIENTS = 10;			// The maximum number of clients that can connect
 	private int port;					// The port the server is running on
 	private final boolean GRIDLINES = false;		// Display gridlines?
+	private final boolean CONNECTION_STATS = false;	// Display each client's network numbers next to its ship?
 	private final boolean DEBUG = true;				// Display debugging messages?	
+	private final int TICK_RATE = 30;				// Frames a second the game runs at
 	private final float SHIP_WEIGHT = 0.035f;		// Weight of the ship
+	private final int SHIP_SIZE = 10;				// Scale for the size of the ships
 	private final String VERSION = "2.6g";			// Server version number and release status
+	private final boolean LOW_LATENCY = true;		// Set TCP_NODELAY and send everything for a client in one write per frame?
+	private final int CAPABILITIES = Protocol.CAP_BINARY | Protocol.CAP_DEFLATE | Protocol.CAP_VELOCITY | Protocol.CAP_EVENTS;	// Protocol capabilities we're willing to use with clients that ask
+	private final int COMPRESSION_LEVEL = 6;		// Deflater level for compressed clients, 1 (fastest) to 9 (smallest)
+	private final boolean SHARED_MEMORY = true;		// Accept clients on the same machine (bots, mostly) through ring files in SHM_DIRECTORY?
+	private final String SHM_DIRECTORY = "/dev/shm";	// Where shared memory clients create their ring files
+	private final int SHM_POLL_FRAMES = 15;			// How many frames between looking for new shared memory clients
+	private final float SHM_TIMEOUT = 10;			// Seconds a shared memory client can go without sending anything (they answer a ping every second) before it's given up on
+	private final float MIN_SNAPSHOT_RATE = 5;		// Fewest snapshots a second a client on a bad link is cut down to
+	private final float MAX_SNAPSHOT_RATE = TICK_RATE;	// Most snapshots a second a client on a good link gets, no more than TICK_RATE
+	private final boolean TIMING_LOG = false;		// Write how long each part of a frame takes to TIMING_FILE every couple of seconds?
+	private final String TIMING_FILE = "timing.csv";	// CSV file the frame timings are written to, next to the sketch
+	private final boolean METRICS = false;			// Serve how the server is doing at http://localhost:METRICS_PORT/metrics for Prometheus?
+	private final int METRICS_PORT = 9464;			// Local port the metrics are served on
+	private final boolean SLOW_TICK_CAPTURE = true;	// Write the last few frames out to CAPTURE_DIRECTORY when a frame goes over SLOW_TICK_BUDGET?
+	private final float SLOW_TICK_BUDGET = 50;		// Longest a frame can take before it's captured, in milliseconds (a frame is 1000 / TICK_RATE)
+	private final int CAPTURE_FRAMES = 60;			// How many frames leading up to a slow one are captured
+	private final String CAPTURE_DIRECTORY = "captures";	// Where captures are written, next to the sketch
+	private final int REPLAY_PASSES = 100;			// How many times --replay=<capture> runs through a capture's frames before quitting
+	private final int WATCHDOG_LEVEL = TickWatchdog.REFUSE_JOINS;	// How far to shed load when frames can't keep up (see TickWatchdog), NORMAL to never
+	private final float DEGRADED_SNAPSHOT_RATE = 10;	// Most snapshots a second anyone gets once the watchdog is shedding load
+	private final boolean JOURNAL = true;			// Record joins, leaves, shots, hits and destroyed Ships in JOURNAL_DIRECTORY (read it with JournalReader)?
+	private final String JOURNAL_DIRECTORY = "journal";	// Where the event journal's segments go, next to the sketch
+	private final int JOURNAL_SEGMENT_SIZE = 4 * 1024 * 1024;	// Size of each journal segment, in bytes
+	private final float TRACE_SECONDS = 10;			// How long a trace lasts once T is pressed on the server's window
+	private final String TRACE_DIRECTORY = "traces";	// Where traces are written, next to the sketch (open them in chrome://tracing or ui.perfetto.dev)
+	private final int TRACE_SPANS = 65536;			// Most spans each thread can record in one trace
 	private ArrayList<Ship> ship_list;				// List of all the ships/players
-	private ArrayList<Client> client_list;			// List of all the clients connected
+	private ArrayList<Connection> client_list;		// List of all the clients connected that have a ship
+	private ArrayList<Connection> connection_list;	// List of every connection, including those without a ship, which still get to watch
 	private ArrayList<Shot> shot_list;				// List of all the shots currently in existance
 	private PFont smallfont, bigfont;				// The font used to display debug info (ex. coordinates)
 	private Server server;							// Instance of the server
+	private ShmListener shm_listener;				// Picks up shared memory clients, null if we're not accepting them
+	private ArrayList<Connection> shm_accepted;		// Somewhere for shm_listener to put new connections
+	private ArrayList<String> shm_errors;			// Somewhere for shm_listener to put ring files it couldn't open
+	private ConcurrentLinkedQueue<Connection> tcp_accepted = new ConcurrentLinkedQueue<Connection>();	// TCP clients the network library has handed us, waiting for the game loop to add them
+	private Snapshot snapshot;						// Positions of everything, sent to every client at the end of each frame
+	private EventList events;						// Shots fired, hits and destroyed Ships this frame, for clients that show them
+	private byte[] input_buffer;					// Somewhere to read what the clients send us into
+	private ShapeBatch shapes;						// Shapes of everything we draw, made once
+	private PhaseTimer timer;						// Times each part of every frame
+	private SlowTickCapture capture;				// The last few frames, for when one is slow; null if we're not capturing
+	private SlowTickCapture replay;					// A capture being run again instead of serving clients, null if we're serving
+	private int replay_index, replay_pass;			// Which of the capture's frames is run next, and how many times they've all been run
+	private long replay_time, replay_slowest;		// Time spent running replayed frames, and the longest one took, in nanoseconds
+	private int replay_slowest_frame;				// Which captured frame took the longest to replay
+	private GcTracker gc;							// How much each frame allocates, and which frames the garbage collector held up
+	private TickWatchdog watchdog;					// Sheds load a step at a time when frames can't keep up
+	private EventJournal journal;					// Permanent record of what happened in the game, null if we're not keeping one
+	private TraceRecorder trace;					// Records what every thread is doing for a few seconds when asked, for chrome://tracing
+	private MetricsServer metrics;					// Numbers for Prometheus, served if METRICS is on
+	private AsyncLogger logger;						// Writes log messages out on its own thread, so a slow console never holds a frame up
 	
 	/**
 	 * Set the server up, doing things like setting a target framerate, loading
@@ -42,7 +95,7 @@ public class FBServer extends PApplet
 	public void setup()
 	{
 		size(800, 800);
-		frameRate(30);
+		frameRate(TICK_RATE);
 		//smooth();
 		ellipseMode(CENTER);
 		
@@ -51,12 +104,72 @@ public class FBServer extends PApplet
 		println("Copyright (C) 2010 Chris Granville. All rights reseved");
 		println("---------------------------------------------------------");
 		
+		// Are we running a slow frame capture again rather than serving?
+		String replay_file = null;
+		for(int i = 0; args != null && i < args.length; i++)
+		{
+			if(args[i].startsWith("--replay=")) replay_file = args[i].substring("--replay=".length());
+		}
+		
 		smallfont = loadFont("SansSerif-10.vlw");
 		bigfont = loadFont("SansSerif-16.vlw");
 		textFont(smallfont);
 		ship_list = new ArrayList<Ship>();
-		client_list = new ArrayList<Client>();
+		client_list = new ArrayList<Connection>();
+		connection_list = new ArrayList<Connection>();
 		shot_list = new ArrayList<Shot>();
+		snapshot = new Snapshot(TICK_RATE);
+		events = new EventList();
+		input_buffer = new byte[4096];
+		shapes = new ShapeBatch();
+		trace = new TraceRecorder(this, TRACE_DIRECTORY, TRACE_SPANS);
+		timer = new PhaseTimer(this, TIMING_LOG ? TIMING_FILE : null, trace);
+		logger = new AsyncLogger(System.out, trace);
+		logger.start();
+		if(SLOW_TICK_CAPTURE && replay_file == null) capture = new SlowTickCapture(this, CAPTURE_DIRECTORY, CAPTURE_FRAMES, SLOW_TICK_BUDGET, trace);
+		gc = new GcTracker(SLOW_TICK_BUDGET, trace);
+		watchdog = new TickWatchdog(1000.0f / TICK_RATE, TICK_RATE, WATCHDOG_LEVEL);
+		metrics = new MetricsServer(timer, gc, watchdog, trace);
+		if(replay_file != null)
+		{
+			// Nobody is going to connect, so there's no journal, metrics or port to ask for
+			try
+			{
+				replay = SlowTickCapture.load(this, replay_file);
+				frameRate(1000);
+				log_message("replay", "Replaying " + replay.getFrameCount() + " frames of " + replay_file + " " + REPLAY_PASSES + " times. Frame " +
+						replay.getSlowFrame() + " took " + nf(replay.getSlowTime() / 1000000.0f, 1, 1) + "ms when it was captured", 1);
+			}
+			catch (IOException e)
+			{
+				log_message("replay", "Could not replay " + replay_file + ": " + e.getMessage(), 1);
+				exit();
+			}
+			return;
+		}
+		if(JOURNAL)
+		{
+			try
+			{
+				journal = new EventJournal(new File(sketchPath(JOURNAL_DIRECTORY)), JOURNAL_SEGMENT_SIZE, logger);
+			}
+			catch (IOException e)
+			{
+				log_message("server", "Could not start the event journal in " + JOURNAL_DIRECTORY + ": " + e, 1);
+			}
+		}
+		if(METRICS)
+		{
+			try
+			{
+				metrics.start(METRICS_PORT);
+				log_message("server", "Serving metrics at http://localhost:" + METRICS_PORT + "/metrics", 1);
+			}
+			catch (IOException e)
+			{
+				log_message("server", "Could not serve metrics on port " + METRICS_PORT + ": " + e, 1);
+			}
+		}
 		
 		// Take the port as a user input, keep trying until we get an integer
 		while(true)
@@ -80,15 +193,25 @@ public class FBServer extends PApplet
 		// Start a server on the port specified earlier
 		try
 		{
-			log_message("Starting server on port " + port, 1);
+			log_message("server", "Starting server on port " + port, 1);
 			server = new Server(this, port);
 		}
 		catch (Exception e)
 		{
 			JOptionPane.showMessageDialog(frame, "An error occured while attempting to start the server. Do you have permission to use port " + port + "?");
-			log_message("There was an exception while creating the server. Cannot continue.", 1);
+			log_message("server", "There was an exception while creating the server. Cannot continue.", 1);
 			e.printStackTrace();
 		}
+		
+		// And listen for clients on the same machine, if there's somewhere to do it
+		File shm_directory = new File(SHM_DIRECTORY);
+		if(SHARED_MEMORY && shm_directory.isDirectory())
+		{
+			log_message("server", "Accepting shared memory clients in " + SHM_DIRECTORY, 1);
+			shm_listener = new ShmListener(shm_directory, port);
+			shm_accepted = new ArrayList<Connection>();
+			shm_errors = new ArrayList<String>();
+		}
 	}
 	
 	/**
@@ -96,84 +219,225 @@ public class FBServer extends PApplet
 	 */
 	public void draw()
 	{
+		if(replay != null)
+		{
+			replayFrame();
+			return;
+		}
+		TickEvent tick = new TickEvent();
+		tick.begin();
+		timer.begin(frameCount);
+		gc.begin();
 		background(0);
-		if(GRIDLINES) drawGrid();
+		boolean drawing = watchdog.getLevel() < TickWatchdog.NO_DRAWING;
+		if(GRIDLINES && drawing) drawGrid();
+		
+		// Pick up any new clients, over TCP or on the same machine
+		acceptTcp();
+		if(shm_listener != null && frameCount % SHM_POLL_FRAMES == 0) acceptSharedMemory();
 		
 		// Draw any clients that are connected
-		if(server.clientCount >= 1)
+		if(!connection_list.isEmpty())
+		{
+			// Find out what every client has told us since last frame
+			readInputs();
+			if(capture != null) capture.record(frameCount, ship_list, shot_list);
+			timer.mark(PhaseTimer.INPUT);
+			
+			// Move everything on a frame
+			simulate(drawing);
+			
+			// Send new positions of Shots and Ships to all connected clients
+			transmitLocations();
+			timer.mark(PhaseTimer.TRANSMIT);
+			
+			// Everything for this frame has been queued, so send it
+			flushConnections();
+			timer.mark(PhaseTimer.FLUSH);
+		}
+		
+		// Basic debugging information
+		drawServerInfo();
+		timer.end();
+		gc.end();
+		int level = watchdog.getLevel();
+		if(watchdog.frame(timer.getLast(PhaseTimer.TICK)))
 		{
-			doCollisions();
-			for(int i = 0; i < client_list.size(); i++)
+			if(watchdog.getLevel() > level) log_message("watchdog", "Frames are running over, shedding load: " + TickWatchdog.NAMES[watchdog.getLevel()], 1);
+			else log_message("watchdog", "Keeping up again, back to: " + TickWatchdog.NAMES[watchdog.getLevel()], 1);
+		}
+		String capture_file = (capture != null) ? capture.check(frameCount, timer) : null;
+		if(capture_file != null)
+		{
+			log_message("slow", "Frame took " + nf(timer.getLast(PhaseTimer.TICK) / 1000000.0f, 1, 1) + "ms, capturing it to " + capture_file, 1);
+		}
+		metrics.frame(frameRate, ship_list.size(), shot_list.size(), client_list.size(), connection_list.size());
+		String trace_file = trace.check();
+		if(trace_file != null) log_message("trace", "Trace finished, writing it to " + trace_file, 1);
+		tick.end();
+		if(tick.shouldCommit())
+		{
+			tick.frame = frameCount;
+			tick.ships = ship_list.size();
+			tick.shots = shot_list.size();
+			tick.connections = connection_list.size();
+			tick.game_events = events.size();
+			tick.commit();
+		}
+	}
+	
+	/**
+	 * Run the game on a frame, once input has been read: check for collisions, act on every
+	 * client's keys and move everything, draw it and clear away expired Shots. Replayed captures
+	 * go through here as well, so they run exactly the code a live frame does
+	 * @param drawing should the world be drawn on the server's window
+	 */
+	private void simulate(boolean drawing)
+	{
+		events.clear();
+		CollisionEvent collisions = new CollisionEvent();
+		collisions.begin();
+		doCollisions(collisions);
+		collisions.frame = frameCount;
+		collisions.commit();
+		timer.mark(PhaseTimer.COLLISIONS);
+		for(int i = 0; i < client_list.size(); i++)
+		{
+			// Get the current client and associated ship...
+			Ship current = ship_list.get(i);
+			
+			// Check if it's been destroyed and make sure we have the right ship
+			if(current.toDestroy() && current.getShipName().equals(client_list.get(i).ip()))
 			{
-				// Get the current client and associated ship...
-				String temp[] = null, message = null;
-				boolean left, right, up, space, addPropulsion = false;
-				Client this_client = (Client) client_list.get(i);
-				Ship current = (Ship) ship_list.get(i);
+				// It's gone before the snapshot is made, so there's no index to give it
+				events.add(Protocol.EVENT_DESTROYED, null, current.getXPosition(), current.getYPosition());
+				journal(EventJournal.DESTROYED, client_list.get(i), 0, 0, current.getXPosition(), current.getYPosition(), current.getShipName());
 				
-				// Check if it's been destroyed and make sure we have the right ship
-				if(current.toDestroy() && current.getShipName().equals(client_list.get(i).ip()))
-				{
-					// Ship is to be destroyed, so remove it from the lists
-					client_list.remove(i);
-					ship_list.remove(i);
-				}
-				else	// Not to be destroyed, so let's get some data and process it using the Ship class
+				// Ship is to be destroyed, so remove it from the lists
+				client_list.remove(i);
+				ship_list.remove(i);
+				logRoster("destroyed", current.getShipName());
+			}
+			else	// Not to be destroyed, so act on whatever keys the client is pressing
+			{
+				try
 				{
-					if(this_client != null && this_client.available() > 1)
+					if(current.applyInput())
 					{
-						// Protocol documtation is available in the...documentation
-						boolean hasDrawn = false;
-						message = this_client.readString();
-						temp = message.split(":");
-						if(temp.length >= 4)	// Is the data malfored (ArrayIndexOutOfBoundsException, most commonly)
-						{
-							try
-							{
-								// Get the boolean data if we can
-								up = Boolean.valueOf(temp[0]);
-								left = Boolean.valueOf(temp[1]);
-								right = Boolean.valueOf(temp[2]);
-								space = Boolean.valueOf(temp[3]);
-
-								if(up == true) addPropulsion = true;
-								if(left == true) current.rotate(true);
-								if(right == true) current.rotate(false);
-								if(space == true && !current.isShooting()) current.shoot();
-
-								current.addPropulsion = addPropulsion;
-								current.move();
-								current.draw();
-								hasDrawn = true;
-							}
-							catch (Exception e)	// Lots of things could possibly go wrong here, but we'll want to draw the ship
-							{					// if we have valid data or not
-								current.draw();
-								hasDrawn = true;
-							}
-						}
-						else
-						{
-							// Malformed data
-							log_message("Data from client " + this_client.ip() + " is malformed, skipping", 1);
-							log_message("Malformed data: " + message, 1);
-						}
-						
-						// We want to draw the ship if it hasn't already drawn. Prevents the flicker problem due to malformed data
-						if(!hasDrawn) current.draw();
+						events.add(Protocol.EVENT_SHOT, current, current.getXPosition(), current.getYPosition());
+						journal(EventJournal.SHOT, client_list.get(i), 0, current.getShot().getId(), current.getXPosition(), current.getYPosition(), null);
 					}
+					current.move();
+				}
+				catch (Exception e)	// Lots of things could possibly go wrong here, but we'll want to draw the ship
+				{					// if we have valid data or not
+					log_message("move", "Could not move " + current.getShipName() + ": " + e, 1);
 				}
 			}
-			
-			// Clear Shots that have expired
-			clearShots();
-			
-			// Send new positions of Shots and Ships to all connected clients
-			transmitLocations();
 		}
+		timer.mark(PhaseTimer.MOVE);
 		
-		// Basic debugging information
+		// Everything has moved, so draw it, unless we're too busy to
+		if(drawing) drawWorld();
+		timer.mark(PhaseTimer.DRAW);
+		
+		// Clear Shots that have expired
+		clearShots();
+		timer.mark(PhaseTimer.CLEAR);
+	}
+	
+	/**
+	 * Run the next frame of the capture being replayed: put the Ships and Shots back the way they
+	 * were when it was captured, then run it through simulate() exactly as a live frame would be,
+	 * timing it as we go. Nothing is read or sent. Once every frame has been run REPLAY_PASSES
+	 * times, say how long they took and quit. Run the server under a profiler (Java Flight
+	 * Recorder, with -XX:StartFlightRecording, for one) to see where the time goes
+	 */
+	private void replayFrame()
+	{
+		// Shots expire by frameCount, so it has to be the captured frame's while it runs
+		int frame = frameCount;
+		int captured = replay.restore(replay_index, SHIP_SIZE, TICK_RATE, ship_list, shot_list, client_list);
+		frameCount = captured;
+		timer.begin(frameCount);
+		gc.begin();
+		background(0);
+		simulate(true);
+		timer.end();
+		gc.end();
+		frameCount = frame;
 		drawServerInfo();
+		
+		long took = timer.getLast(PhaseTimer.TICK);
+		replay_time += took;
+		if(took > replay_slowest)
+		{
+			replay_slowest = took;
+			replay_slowest_frame = captured;
+		}
+		if(++replay_index < replay.getFrameCount()) return;
+		replay_index = 0;
+		if(++replay_pass < REPLAY_PASSES) return;
+		log_message("replay", "Replayed " + replay.getFrameCount() + " frames " + REPLAY_PASSES + " times, " +
+				nf(replay_time / 1000000.0f / (replay.getFrameCount() * REPLAY_PASSES), 1, 3) + "ms a frame, slowest " +
+				nf(replay_slowest / 1000000.0f, 1, 3) + "ms (frame " + replay_slowest_frame + ")", 1);
+		exit();
+	}
+	
+	/**
+	 * Read whatever each connection has sent us since last frame and hand it to its Codec, which
+	 * takes care of updating the Ship's keys. A connection that hasn't been given a Codec yet
+	 * gets one based on the first thing it sends: a hello means it speaks the framed protocol,
+	 * anything else means it's an old client talking text.
+	 */
+	private void readInputs()
+	{
+		long now = System.nanoTime();
+		for(int i = 0; i < connection_list.size(); i++)
+		{
+			Connection connection = connection_list.get(i);
+			int index = client_list.indexOf(connection);
+			Ship ship = (index >= 0) ? ship_list.get(index) : null;
+			while(connection.available() > 0)
+			{
+				ClientIOEvent io = new ClientIOEvent();
+				io.begin();
+				int read = connection.read(input_buffer);
+				if(read <= 0) break;
+				metrics.addBytesIn(read);
+				connection.getStats().received(read, now);
+				io.end();
+				if(io.shouldCommit())
+				{
+					io.client = connection.ip();
+					io.direction = "receive";
+					io.bytes = read;
+					io.commit();
+				}
+				
+				Codec codec = connection.getCodec();
+				if(codec == null)
+				{
+					if(input_buffer[0] == Protocol.HELLO.charAt(0))
+					{
+						codec = new FramedCodec(CAPABILITIES, COMPRESSION_LEVEL, new RateController(MIN_SNAPSHOT_RATE, MAX_SNAPSHOT_RATE, TICK_RATE));
+					}
+					else codec = new LegacyCodec();
+					connection.setCodec(codec);
+				}
+				
+				String error = codec.receive(connection, ship, input_buffer, 0, read);
+				if(error != null)
+				{
+					// Malformed data
+					connection.getStats().malformed();
+					log_message("malformed", "Data from client " + connection.ip() + " is malformed, skipping: " + error, 1);
+				}
+				String rejection = codec.takeRejection();
+				if(rejection != null) log_message("client", "Turned away client " + connection.ip() + ": " + rejection, 1);
+				if(!connection.active()) break;
+			}
+		}
 	}
 	
 	/**
@@ -197,6 +461,49 @@ public class FBServer extends PApplet
 		}
 	}
 	
+	/**
+	 * Draw every Ship and Shot, a kind at a time: all the hulls, then all the shields, then the
+	 * labels, then the shots. Each kind only needs its style set once, rather than once per Ship
+	 */
+	private void drawWorld()
+	{
+		shapes.beginHulls(g);
+		for(int i = 0; i < ship_list.size(); i++) ship_list.get(i).drawHull(g, shapes);
+		
+		shapes.beginShields(g);
+		for(int i = 0; i < ship_list.size(); i++) ship_list.get(i).drawShield(g, shapes);
+		shapes.endShields(g);
+		
+		fill(255);
+		for(int i = 0; i < ship_list.size(); i++) ship_list.get(i).drawLabel(g);
+		if(CONNECTION_STATS) drawConnectionStats();
+		
+		shapes.beginShots(g);
+		for(int i = 0; i < ship_list.size(); i++) ship_list.get(i).drawShot(g, shapes);
+		shapes.endShots(g);
+	}
+	
+	/**
+	 * Draws each client's network numbers under its ship's label: bytes a second in and out,
+	 * messages in and out, malformed reads, bytes waiting for it, how long since it last sent
+	 * anything, round trip time (only good to within half a frame, so shown to the millisecond
+	 * rather than a tenth of one) and snapshots skipped
+	 */
+	private void drawConnectionStats()
+	{
+		long now = System.nanoTime();
+		for(int i = 0; i < client_list.size() && i < ship_list.size(); i++)
+		{
+			ConnectionStats stats = client_list.get(i).getStats();
+			Ship ship = ship_list.get(i);
+			long age = stats.getInputAge(now);
+			text("in " + round(stats.getBytesInRate()) + "B/s " + stats.getMessagesIn() + " msgs, out " + round(stats.getBytesOutRate()) + "B/s " +
+					stats.getMessagesOut() + " msgs, bad " + stats.getMalformed(), ship.getXPosition() + 30, ship.getYPosition() + 25);
+			text("queued " + stats.getQueued() + "B, input " + (age < 0 ? "never" : (age / 1000000) + "ms ago") + ", rtt " + round(stats.getRtt()) +
+					"ms, skipped " + stats.getSkipped(), ship.getXPosition() + 30, ship.getYPosition() + 40);
+		}
+	}
+	
 	/**
 	 * Draws the version number, number of connected clients, frame rate and number of Ships, Shots and Clients
 	 */
@@ -205,10 +512,79 @@ public class FBServer extends PApplet
 		textFont(bigfont);
 		fill(255);
 		text("Celestia Server v" + VERSION, 10, 25);
-		text(server.clientCount + " client(s) connected", 10, 45);
-		text(round(frameRate) + "fps", 10, 65);
+		text(connection_list.size() + " client(s) connected", 10, 45);
+		int level = watchdog.getLevel();
+		text(round(frameRate) + "fps" + (level == TickWatchdog.NORMAL ? "" : ", shedding load: " + TickWatchdog.NAMES[level]), 10, 65);
 		text("Ships: " + ship_list.size() + ", shots: " + shot_list.size() + ", clients: " + client_list.size(), 10, 85);
+		drawCompressionInfo();
+		drawRateInfo();
 		textFont(smallfont);
+		drawTimingInfo();
+	}
+	
+	/**
+	 * Draws how long each part of a frame has been taking over the last few seconds, so a slow
+	 * frame can be pinned on something, and how much garbage frames make
+	 */
+	private void drawTimingInfo()
+	{
+		text("Frame timings, p50 / p99 / p99.9 / max:", 10, 145);
+		for(int i = 0; i < PhaseTimer.NAMES.length; i++) text(timer.getLine(i), 20, 157 + 12 * i);
+		long allocated = gc.getLastAllocated();
+		text("Allocated " + (allocated < 0 ? "?" : (allocated / 1024) + "KB") + "/frame, GC pauses: " + gc.getPauseCount() +
+			", over budget: " + gc.getOverruns() + " (" + gc.getPausedOverruns() + " in a pause)", 10, 157 + 12 * PhaseTimer.NAMES.length + 6);
+	}
+	
+	/**
+	 * Draws how well compression is doing across every compressed connection - the overall ratio,
+	 * the last message's ratio and how long it takes to compress a message on average
+	 */
+	private void drawCompressionInfo()
+	{
+		int compressed = 0;
+		long raw = 0, packed = 0, messages = 0, nanos = 0;
+		float last_ratio = 1.0f;
+		for(int i = 0; i < connection_list.size(); i++)
+		{
+			CompressionStage stage = connection_list.get(i).getCompression();
+			if(stage == null) continue;
+			compressed++;
+			raw += stage.getRawBytes();
+			packed += stage.getCompressedBytes();
+			messages += stage.getMessages();
+			nanos += stage.getAverageNanos() * stage.getMessages();
+			last_ratio = stage.getLastRatio();
+		}
+		if(compressed == 0 || raw == 0) return;
+		text("Compressed: " + compressed + ", ratio: " + nf((float) packed / raw, 1, 2) + " (last " + nf(last_ratio, 1, 2) + "), " + (nanos / messages / 1000) + "us/msg", 10, 105);
+	}
+	
+	/**
+	 * Draws the range of snapshot rates the RateControllers have settled on, how many clients are
+	 * being sent less than every frame, and the average round trip time, to within half a frame
+	 */
+	private void drawRateInfo()
+	{
+		int controlled = 0, reduced = 0, measured = 0;
+		float lowest = MAX_SNAPSHOT_RATE, highest = 0, total_rtt = 0;
+		for(int i = 0; i < connection_list.size(); i++)
+		{
+			Codec codec = connection_list.get(i).getCodec();
+			RateController rate = (codec == null) ? null : codec.getRateController();
+			if(rate == null) continue;
+			controlled++;
+			lowest = min(lowest, rate.getRate());
+			highest = max(highest, rate.getRate());
+			if(rate.getRate() < MAX_SNAPSHOT_RATE) reduced++;
+			if(rate.getRtt() > 0)
+			{
+				measured++;
+				total_rtt += rate.getRtt();
+			}
+		}
+		if(controlled == 0) return;
+		text("Snapshot rate: " + nf(lowest, 1, 1) + "-" + nf(highest, 1, 1) + "/s, " + reduced + " reduced, rtt " +
+				(measured == 0 ? "?" : str(round(total_rtt / measured))) + "ms", 10, 125);
 	}
 	
 	/**
@@ -218,9 +594,10 @@ public class FBServer extends PApplet
 	 * ServerObject.collidingWith(), here we're really just taking the appropriate
 	 * action (either make the ships bounce off each other or take 10 hit points off
 	 * the shield strength).
+	 * @param counts flight recorder event to count the pairs checked and collisions found in
 	 * @see ServerObject.collidingWith() 
 	 */
-	private void doCollisions()
+	private void doCollisions(CollisionEvent counts)
 	{
 		Ship a, b;	
 		// Between ships
@@ -231,8 +608,10 @@ public class FBServer extends PApplet
 			for(int j = 0; j < client_list.size(); j++)
 			{
 				b = (Ship) ship_list.get(j);
+				counts.ship_pairs++;
 				if(a.collidingWith(b) && a != b)
 				{
+					counts.ship_collisions++;
 					// The ships are colliding, make them rebound from each other
 					// This section is heavily influenced by Dave Collin's pool2
 					int a_x = a.getXPosition();
@@ -251,7 +630,13 @@ public class FBServer extends PApplet
 					b.addXVec(ax, SHIP_WEIGHT);
 					b.addYVec(ay, SHIP_WEIGHT);
 					
-					log_message("Collision: " + a.getShipName() + ", " + b.getShipName() + "  [" + dx +", " + dy + "]", 2);
+					// Built straight into the log so overlapping ships don't make strings every frame
+					AsyncLogger.Entry entry = log_begin("collision", 2);
+					if(entry != null)
+					{
+						entry.text.append("Collision: ").append(a.getShipName()).append(", ").append(b.getShipName()).append("  [").append(dx).append(", ").append(dy).append("]");
+						logger.commit(entry);
+					}
 				}
 			}
 			// Add the ships shot if it isn't already added, which it should be
@@ -265,11 +650,24 @@ public class FBServer extends PApplet
 			{
 				Ship ship = (Ship) ship_list.get(i);
 				Shot shot = (Shot) shot_list.get(j);
+				counts.shot_pairs++;
 				if(ship.collidingWith(shot) && !ship.hitBeforeWithShot(shot.getId()))
 				{
+					counts.hits++;
 					// Let's really, ridiculously kill the shot like the utter vermin that it is
 					// (Had soooo many problems with them it's actually ridiculous and so I now hate my own class.)
 					ship.hit(10, shot.getId());
+					events.add(Protocol.EVENT_HIT, ship, shot.getXPosition(), shot.getYPosition());
+					if(journal != null)
+					{
+						// Shots don't know who fired them, but the Ship that fired one still has it
+						int shooter = 0;
+						for(int k = 0; k < client_list.size(); k++)
+						{
+							if(ship_list.get(k).getShot() == shot) shooter = client_list.get(k).getStats().getId();
+						}
+						journal.append(EventJournal.HIT, frameCount, client_list.get(i).getStats().getId(), shooter, 10, shot.getXPosition(), shot.getYPosition(), null);
+					}
 					ship.destroyShot();
 					shot.destroy();
 					shot_list.remove(j);
@@ -287,91 +685,268 @@ public class FBServer extends PApplet
 		{
 			if(shot_list.get(i).toDestroy())
 			{
-				log_message("Decayed shot id: " + shot_list.get(i).getId(), 2);
+				AsyncLogger.Entry entry = log_begin("decay", 2);
+				if(entry != null)
+				{
+					entry.text.append("Decayed shot id: ").append(shot_list.get(i).getId());
+					logger.commit(entry);
+				}
 				shot_list.remove(i);
 			}
 		}
 	}
 
 	/**
-	 * When a client connects, add them to the list of clients and assign them a Ship, assuming that
-	 * the number of ships < maximum number of ships. We limit the number of ships not only for
-	 * performance (it's bad enough with only a few) but also gameplay - with too many the game
-	 * would become far too hard and confusing.
+	 * When a client connects, queue it up to be added at the start of the next frame. This is
+	 * called on the network library's thread, and draw() is busy going through the lists, so
+	 * nothing here touches them; acceptTcp() does the rest on the game loop.
 	 * @see processing.net.Server#serverEvent()
 	 */
 	public void serverEvent(Server s, Client c)
 	{
-		String ip = c.ip();
-		if(server.clientCount < TOTAL_CLIENTS)
+		trace.begin("accept", "network");
+		tcp_accepted.add(new TcpConnection(c, LOW_LATENCY));
+		trace.end();
+	}
+	
+	/**
+	 * Add the TCP clients that have connected since last frame, giving them a Ship each assuming
+	 * that the number of ships < maximum number of ships. We limit the number of ships not only for
+	 * performance (it's bad enough with only a few) but also gameplay - with too many the game
+	 * would become far too hard and confusing.
+	 */
+	private void acceptTcp()
+	{
+		Connection connection;
+		while((connection = tcp_accepted.poll()) != null) addConnection(connection);
+	}
+	
+	/**
+	 * Start a trace when T is pressed, so a stall can be caught while it's happening
+	 * @see processing.core.PApplet#keyPressed()
+	 */
+	public void keyPressed()
+	{
+		if(key != 't' && key != 'T') return;
+		if(trace.start(TRACE_SECONDS)) log_message("trace", "Tracing for " + nf(TRACE_SECONDS, 1, 1) + " seconds", 1);
+		else log_message("trace", "Already tracing, or still writing the last trace out", 1);
+	}
+	
+	/**
+	 * Pick up any clients that have created ring files since we last looked, and treat them
+	 * exactly like clients that connected over TCP
+	 */
+	private void acceptSharedMemory()
+	{
+		shm_accepted.clear();
+		shm_errors.clear();
+		shm_listener.poll(shm_accepted, shm_errors);
+		for(int i = 0; i < shm_errors.size(); i++) log_message("client", shm_errors.get(i), 1);
+		for(int i = 0; i < shm_accepted.size(); i++) addConnection(shm_accepted.get(i));
+	}
+	
+	/**
+	 * Add a new connection, whatever it came in on, giving it a Ship if there's room for one
+	 * @param connection the new connection
+	 */
+	private void addConnection(Connection connection)
+	{
+		String ip = connection.ip();
+		if(watchdog.getLevel() >= TickWatchdog.REFUSE_JOINS)
 		{
-			ship_list.add(new Ship(this, new PVector(width/2, height/2), 10, ip, 150f));
-			client_list.add(c);
-			log_message("Added a new client from " + ip, 1);
+			log_message("client", "Turned away a new client from " + ip + ": the server can't keep up", 1);
+			logRoster("refused", ip);
+			journal(EventJournal.REFUSED, connection, 0, 0, 0, 0, ip);
+			connection.close();
+			return;
+		}
+		connection_list.add(connection);
+		metrics.addConnection(connection.getStats());
+		if(client_list.size() < TOTAL_CLIENTS)
+		{
+			ship_list.add(new Ship(this, new PVector(width/2, height/2), SHIP_SIZE, ip, 150f, TICK_RATE));
+			client_list.add(connection);
+			log_message("client", "Added a new client from " + ip, 1);
+			logRoster("joined", ip);
+			journal(EventJournal.JOINED, connection, 0, 0, 0, 0, ip);
 		}
 		else
 		{
-			log_message("Could not add new client from " + ip + " during frame " + frameCount + ": too many clients connected", 1);
+			log_message("client", "Could not add new client from " + ip + " during frame " + frameCount + ": too many clients connected", 1);
+			logRoster("watching", ip);
+			journal(EventJournal.WATCHING, connection, 0, 0, 0, 0, ip);
 		}	
 	}
 	
 	/**
 	 * Generate the transmission and send it to all connected clients. The transmission contains
 	 * the details of the co-ordinates of every object in the game. This is a very basic and
-	 * rudimentary approach, but it's simple and relatively effective. For full details of the
-	 * protocol, see the documentation.		
+	 * rudimentary approach, but it's simple and relatively effective. Each client's Codec decides
+	 * what form it gets it in. For full details of the protocol, see the documentation.
 	 */
 	public void transmitLocations()
 	{
-		// First, actually build the transmission 
-		// The ships go first
-		String transmission = "";
-		for(int i = 0; i < client_list.size(); i++)
+		snapshot.update(ship_list, shot_list, events);
+		
+		// Queue the transmission for every connection that we know how to talk to. It won't actually
+		// go anywhere until flushConnections()
+		for(int i = 0; i < connection_list.size(); i++)
 		{
-			Ship s = (Ship) ship_list.get(i);
-			transmission += s.getXPosition() + "," + s.getYPosition() + "," + s.getAngle() + "," + s.getShieldColor() + "," + s.getShieldStrength();
-			if(i != client_list.size() - 1) transmission += ";";
+			Connection connection = connection_list.get(i);
+			Codec codec = connection.getCodec();
+			if(codec == null) continue;
+			RateController rate = codec.getRateController();
+			if(rate != null) rate.setCeiling(watchdog.getLevel() >= TickWatchdog.REDUCE_SNAPSHOTS ? DEGRADED_SNAPSHOT_RATE : MAX_SNAPSHOT_RATE);
+			codec.sendSnapshot(connection, snapshot);
+			
+			if(rate != null)
+			{
+				int skipped = rate.takeSkipped();
+				metrics.addSkipped(skipped);
+				connection.getStats().rate(rate, skipped);
+			}
+			if(rate != null && rate.takeBackedOff())
+			{
+				log_message("rate", "Cut snapshot rate for " + connection.ip() + " to " + nf(rate.getRate(), 1, 1) + "/s (rtt " + nf(rate.getRtt(), 1, 1) +
+						"ms, " + rate.getInFlight() + " unacknowledged, " + rate.getWaiting() + "B unread)", 2);
+			}
 		}
-		
-		// Add the delimiter...
-		transmission += "//";
-		
-		// And now the shots, if we have any
-		if(shot_list.size() == 0) transmission += "false";
-		else
+	}
+	
+	/**
+	 * Send everything that has been queued for each connection during this frame. In low latency mode
+	 * this is the only point at which anything is written to the network, and each connection gets
+	 * exactly one write. Connections that have gone away are dropped at the same time.
+	 * Bye little strings, may you reach your destinations intact (please use TCP instead of UDP!)
+	 */
+	private void flushConnections()
+	{
+		long now = System.nanoTime();
+		for(int i = connection_list.size() - 1; i >= 0; i--)
 		{
-			for(int i = 0; i < shot_list.size(); i++)
+			Connection connection = connection_list.get(i);
+			ClientIOEvent io = new ClientIOEvent();
+			io.begin();
+			// Once the flush is done a TCP connection has nothing left of its own, so look first
+			int queued = connection.queued();
+			int written = connection.flush();
+			metrics.addBytesOut(written);
+			connection.getStats().sent(written, queued);
+			Codec codec = connection.getCodec();
+			RateController rate = (codec == null) ? null : codec.getRateController();
+			if(rate != null) rate.flushed(connection.queued(), written);
+			connection.getStats().update(now);
+			io.end();
+			if(written > 0 && io.shouldCommit())
+			{
+				io.client = connection.ip();
+				io.direction = "send";
+				io.bytes = written;
+				io.commit();
+			}
+			// A bot that was killed never tells us it's gone, so one that's gone quiet is given up on
+			if(connection instanceof ShmConnection && connection.active() && connection.getStats().getInputAge(now) > SHM_TIMEOUT * 1000000000L)
 			{
-				Shot s = (Shot) shot_list.get(i);
-				transmission += s.getXPosition() + "," + s.getYPosition();
-				if(i != shot_list.size() - 1) transmission +=  ";";
+				log_message("client", "Closing shared memory client " + connection.ip() + ": nothing from it for " + nf(SHM_TIMEOUT, 1, 0) + "s", 1);
+				connection.close();
+			}
+			if(!connection.active() && !client_list.contains(connection))
+			{
+				// Whatever went wrong, it may not have let go of everything yet
+				connection.close();
+				connection_list.remove(i);
+				metrics.removeConnection(connection.getStats());
+				logRoster("left", connection.ip());
+				journal(EventJournal.LEFT, connection, 0, 0, 0, 0, connection.ip());
 			}
 		}
-		
-		// Send the transmission on its way. Bye little string, may you reach your destination intact (please use TCP instead of UDP!)
-		server.write(transmission);
 	}
 	
 	/**
-	 * Log a message to the terminal window.
+	 * Log a message to the terminal window. It's written by the logger's own thread, so this
+	 * never waits for the console, and each kind of message is rate limited so one chatty
+	 * problem can't flood it.
 	 * There are two priorities:
 	 * 		1: high importance and is always displayed
 	 * 		2: low importance, only displayed in debug mode
+	 * @param key what kind of message it is, such as "collision", for rate limiting
 	 * @param message
 	 * @param priority
 	 */
-	private void log_message(String message, int priority)
+	private void log_message(String key, String message, int priority)
+	{
+		AsyncLogger.Entry entry = log_begin(key, priority);
+		if(entry == null) return;
+		entry.text.append(message);
+		logger.commit(entry);
+	}
+	
+	/**
+	 * Start a log message to build in place, for messages logged often enough that making a
+	 * String for each one would matter. Append to the entry's text and then commit it to the logger.
+	 * @param key what kind of message it is, such as "collision", for rate limiting
+	 * @param priority as for log_message()
+	 * @return the entry, or null if the message shouldn't be logged
+	 */
+	private AsyncLogger.Entry log_begin(String key, int priority)
+	{
+		if(priority == 1 || (DEBUG && priority == 2)) return logger.begin(key, frameCount);
+		return null;
+	}
+
+	/**
+	 * Tell Java Flight Recorder that someone has come or gone, if it's recording
+	 * @param change what happened, as described in RosterEvent
+	 * @param client the client it happened to
+	 */
+	private void logRoster(String change, String client)
+	{
+		RosterEvent event = new RosterEvent();
+		if(!event.shouldCommit()) return;
+		event.change = change;
+		event.client = client;
+		event.ships = ship_list.size();
+		event.connections = connection_list.size();
+		event.commit();
+	}
+
+	/**
+	 * Add a record to the event journal, if we're keeping one
+	 * @param type what happened, one of the EventJournal type constants
+	 * @param connection the connection it happened to
+	 * @param other the connection that did it, or 0
+	 * @param value the shot's id or the damage, depending on the type, or 0
+	 * @param x where it happened
+	 * @param y where it happened
+	 * @param name the client's address or Ship's name, or null
+	 */
+	private void journal(int type, Connection connection, int other, int value, float x, float y, String name)
+	{
+		if(journal != null) journal.append(type, frameCount, connection.getStats().getId(), other, value, x, y, name);
+	}
+
+	/**
+	 * Finish the timing file and event journal, if there are any, stop serving metrics and write out whatever is left to log
+	 * @see processing.core.PApplet#stop()
+	 */
+	public void stop()
 	{
-		if(priority == 1 || (DEBUG && priority == 2)) println("[f" + frameCount + "] " + message);
+		timer.close();
+		gc.close();
+		if(journal != null) journal.close();
+		metrics.stop();
+		logger.shutdown();
+		super.stop();
 	}
 
 	/**
-	 * The method that Processing uses to convert this from a PApplet to an application
+	 * The method that Processing uses to convert this from a PApplet to an application.
+	 * <code>--replay=&lt;capture&gt;</code> runs a SlowTickCapture's frames again instead of serving
 	 * @param args	the arguments to pass to the application
 	 */
 	public static void main(String args[])
 	{
-		PApplet.main(new String[] { "--bgcolor=#000000", "processing.app.FBServer" });
+		PApplet.main(concat(new String[] { "--bgcolor=#000000", "processing.app.FBServer" }, args));
 	}
 	
 }
\ No newline at end of file
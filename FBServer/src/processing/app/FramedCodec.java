@@ -0,0 +1,400 @@
+package processing.app;
+
+/**
+ * FramedCodec talks the framed protocol described in <code>Protocol</code>. It starts by
+ * waiting for the client's hello line, works out which version and capabilities both of us
+ * can use and replies with a welcome line. From then on it reads input frames from the client
+ * and sends it snapshots in whichever format was agreed, as often as its RateController thinks
+ * the link can take. Clients on version 2 or later are pinged every so often so the
+ * controller knows the round trip time. Pongs are only read once a frame, so the round trip
+ * time is only good to within half a frame either way.
+ *
+ * @author Chris Granville <v2t04 at students.keele.ac.uk>
+ * @version 3.0f (12/05/2010)
+ * @copyright 2009 - 2010 Chris Granville. All Rights Reserved.
+ * @see <a href="http://goo.gl/VOIb">Fireball: Multiplayer Asteroids</a>
+ */
+
+public class FramedCodec implements Codec
+{
+	/**
+	 * How often to ping the client, in microseconds
+	 */
+	private static final int PING_INTERVAL = 1000000;
+
+	/**
+	 * What readHello() returns when it has turned the client away
+	 */
+	private static final int REJECTED = -2;
+
+	/**
+	 * The capabilities that this server is willing to use
+	 */
+	private int supported;
+
+	/**
+	 * Deflater level to use if compression is agreed
+	 */
+	private int compression_level;
+
+	/**
+	 * Have we had the hello line and replied to it
+	 */
+	private boolean greeted;
+
+	/**
+	 * Have we closed the connection, so anything else that arrives is ignored
+	 */
+	private boolean closed;
+
+	/**
+	 * Why we turned the client away, if we have and nobody has asked yet
+	 */
+	private String rejection;
+
+	/**
+	 * The version of the protocol that was agreed
+	 */
+	private int version;
+
+	/**
+	 * The capabilities that were agreed
+	 */
+	private int capabilities;
+
+	/**
+	 * Bytes received that haven't made a complete line or frame yet
+	 */
+	private byte[] pending = new byte[256];
+
+	/**
+	 * Number of bytes in <code>pending</code>
+	 */
+	private int pending_count;
+
+	/**
+	 * Scratch space for building frame headers
+	 */
+	private byte[] header = new byte[Protocol.MESSAGE_HEADER_SIZE];
+
+	/**
+	 * Sequence number of the last snapshot the client told us it had received
+	 */
+	private int acknowledged;
+
+	/**
+	 * Decides how often the client gets a snapshot
+	 */
+	private RateController rate;
+
+	/**
+	 * When we last pinged the client, in microseconds from System.nanoTime()
+	 */
+	private int last_ping;
+
+	/**
+	 * Scratch space for building pings, with room for the round trip time after them
+	 */
+	private byte[] ping = new byte[Protocol.PING_SIZE + Protocol.PING_RTT_SIZE];
+
+	/**
+	 * The client's Ship, as of the last time it sent us anything, or null if it hasn't got one
+	 */
+	private Ship ship;
+
+	/**
+	 * Index of the client's Ship that we last told it, or -1 if we've told it it hasn't got one
+	 */
+	private int own_ship = -1;
+
+	/**
+	 * Scratch space for own ship frames
+	 */
+	private byte[] own_ship_frame = new byte[1];
+
+	/**
+	 * Constructor for FramedCodec
+	 * @param supported the capabilities that the server is willing to use
+	 * @param compression_level Deflater level to use if compression is agreed
+	 * @param rate decides how often the client gets a snapshot
+	 */
+	FramedCodec(int supported, int compression_level, RateController rate)
+	{
+		this.supported = supported;
+		this.compression_level = compression_level;
+		this.rate = rate;
+		last_ping = micros() - PING_INTERVAL;
+	}
+
+	/**
+	 * @see Codec#receive(Connection, Ship, byte[], int, int)
+	 */
+	public String receive(Connection connection, Ship ship, byte[] data, int offset, int length)
+	{
+		this.ship = ship;
+		if(closed) return null;
+		// Never more than one unfinished frame (whose size is checked below) and one read, so this is bounded
+		if(pending_count + length > pending.length)
+		{
+			byte[] bigger = new byte[Math.max(pending.length * 2, pending_count + length)];
+			System.arraycopy(pending, 0, bigger, 0, pending_count);
+			pending = bigger;
+		}
+		System.arraycopy(data, offset, pending, pending_count, length);
+		pending_count += length;
+
+		int position = 0;
+		String error = null;
+		if(!greeted)
+		{
+			position = readHello(connection);
+			if(position == REJECTED)
+			{
+				pending_count = 0;
+				closed = true;
+				return null;
+			}
+			if(position < 0)
+			{
+				pending_count = 0;
+				return "Bad hello from " + connection.ip();
+			}
+		}
+
+		while(greeted && pending_count - position >= Protocol.MESSAGE_HEADER_SIZE)
+		{
+			int type = pending[position] & 0xff;
+			int frame_length = ((pending[position + 1] & 0xff) << 8) | (pending[position + 2] & 0xff);
+			if(frame_length > Protocol.MAX_CLIENT_FRAME)
+			{
+				// There's no finding the start of the next frame after this, so give up on the client
+				pending_count = 0;
+				closed = true;
+				connection.close();
+				return "Frame too large (" + frame_length + " bytes), closing the connection";
+			}
+			if(pending_count - position - Protocol.MESSAGE_HEADER_SIZE < frame_length) break;
+			int payload = position + Protocol.MESSAGE_HEADER_SIZE;
+			position = payload + frame_length;
+			connection.getStats().messageIn();
+
+			switch(type)
+			{
+				case Protocol.FRAME_INPUT:
+					if(frame_length < 3)
+					{
+						error = "Input frame too short (" + frame_length + " bytes)";
+						break;
+					}
+					if(ship != null) ship.setInput(pending[payload] & 0xff);
+					acknowledged = ((pending[payload + 1] & 0xff) << 8) | (pending[payload + 2] & 0xff);
+					rate.acknowledged(acknowledged);
+					break;
+				case Protocol.FRAME_PONG:
+					if(frame_length < Protocol.PING_SIZE)
+					{
+						error = "Pong frame too short (" + frame_length + " bytes)";
+						break;
+					}
+					int then = ((pending[payload] & 0xff) << 24) | ((pending[payload + 1] & 0xff) << 16) |
+							((pending[payload + 2] & 0xff) << 8) | (pending[payload + 3] & 0xff);
+					// The pong is only read at the start of a frame, so it could have been sitting there
+					// for anything up to a frame. Take it as having arrived half way through, which puts
+					// each measurement within half a frame of the truth rather than always over it
+					float waited = 500.0f / rate.getTickRate();
+					rate.measured(Math.max((micros() - then) / 1000.0f - waited, 0));
+					break;
+				default:
+					// Something from a newer client that we don't understand, so skip it
+					break;
+			}
+		}
+
+		System.arraycopy(pending, position, pending, 0, pending_count - position);
+		pending_count -= position;
+		return error;
+	}
+
+	/**
+	 * Look for the hello line at the start of <code>pending</code> and, once we have all of it,
+	 * agree a version and capabilities and reply
+	 * @param connection the connection to reply on
+	 * @return the index of the first byte after the line, 0 if we don't have it all yet, -1
+	 * if it isn't a hello at all, or <code>REJECTED</code> if it is but we can't talk to the client
+	 */
+	private int readHello(Connection connection)
+	{
+		int end = -1;
+		for(int i = 0; i < pending_count; i++)
+		{
+			if(pending[i] == '\n')
+			{
+				end = i;
+				break;
+			}
+		}
+		if(end < 0) return pending_count > Protocol.MAX_LINE_LENGTH ? -1 : 0;
+
+		char[] chars = new char[end];
+		for(int i = 0; i < end; i++) chars[i] = (char) (pending[i] & 0xff);
+		String parts[] = new String(chars).split(" ");
+		if(parts.length < 3 || !parts[0].equals(Protocol.HELLO)) return -1;
+		int client_version, client_capabilities;
+		try
+		{
+			client_version = Integer.parseInt(parts[1]);
+			client_capabilities = Integer.parseInt(parts[2]);
+		}
+		catch (NumberFormatException e)
+		{
+			return -1;
+		}
+
+		version = Math.min(client_version, Protocol.VERSION);
+		if(version < Protocol.MIN_VERSION)
+		{
+			connection.queue(Protocol.REJECT + "\n");
+			connection.flush();
+			connection.close();
+			rejection = "it speaks version " + client_version + ", we need at least " + Protocol.MIN_VERSION;
+			return REJECTED;
+		}
+		capabilities = client_capabilities & supported;
+		greeted = true;
+		connection.queue(Protocol.WELCOME + " " + version + " " + capabilities + " " + Math.round(rate.getTickRate()) + "\n");
+		if((capabilities & Protocol.CAP_DEFLATE) != 0) connection.enableCompression(new CompressionStage(compression_level));
+		return end + 1;
+	}
+
+	/**
+	 * @see Codec#takeRejection()
+	 */
+	public String takeRejection()
+	{
+		String result = rejection;
+		rejection = null;
+		return result;
+	}
+
+	/**
+	 * Nothing is sent until the client has said hello and we've replied, and after that
+	 * snapshots only go when the RateController says so. Events go every frame there are any
+	 * @see Codec#sendSnapshot(Connection, Snapshot)
+	 */
+	public void sendSnapshot(Connection connection, Snapshot snapshot)
+	{
+		if(!greeted || closed) return;
+		long now = System.nanoTime();
+		if(version >= 2 && (int) (now / 1000) - last_ping >= PING_INTERVAL) sendPing(connection, now);
+		EventList events = snapshot.getEvents();
+		if((capabilities & Protocol.CAP_EVENTS) != 0 && events.size() > 0)
+		{
+			// Unlike positions, a missed event isn't made up for by the next one, so these go whatever the rate
+			queueHeader(connection, Protocol.FRAME_EVENTS, events.getBinaryLength());
+			connection.queue(events.getBinary(), 0, events.getBinaryLength());
+		}
+		if(!rate.shouldSend(now)) return;
+		rate.sent(snapshot.getSequence());
+		int index = snapshot.indexOf(ship);
+		if((capabilities & Protocol.CAP_EVENTS) != 0 && index != own_ship && index < 255)
+		{
+			own_ship = index;
+			own_ship_frame[0] = (byte) index;
+			queueHeader(connection, Protocol.FRAME_OWN_SHIP, own_ship_frame.length);
+			connection.queue(own_ship_frame, 0, own_ship_frame.length);
+		}
+		if((capabilities & Protocol.CAP_BINARY) != 0)
+		{
+			boolean velocities = (capabilities & Protocol.CAP_VELOCITY) != 0;
+			int length = snapshot.getBinaryLength(velocities);
+			queueHeader(connection, Protocol.FRAME_SNAPSHOT_BINARY, length);
+			connection.queue(snapshot.getBinary(velocities), 0, length);
+		}
+		else
+		{
+			String text = snapshot.getText();
+			queueHeader(connection, Protocol.FRAME_SNAPSHOT_TEXT, text.length());
+			connection.queue(text);
+		}
+	}
+
+	/**
+	 * Queue a ping, holding the time it was sent so we don't have to remember it, and tell the
+	 * client the round trip time we've measured while we're at it
+	 * @param connection the connection to queue it on
+	 * @param now the time, from System.nanoTime()
+	 */
+	private void sendPing(Connection connection, long now)
+	{
+		last_ping = (int) (now / 1000);
+		ping[0] = (byte) (last_ping >> 24);
+		ping[1] = (byte) (last_ping >> 16);
+		ping[2] = (byte) (last_ping >> 8);
+		ping[3] = (byte) last_ping;
+		int rtt = Math.min(Math.round(rate.getRtt()), 0xffff);
+		ping[4] = (byte) (rtt >> 8);
+		ping[5] = (byte) rtt;
+		queueHeader(connection, Protocol.FRAME_PING, ping.length);
+		connection.queue(ping, 0, ping.length);
+	}
+
+	/**
+	 * Get the time in microseconds, which wraps around every hour or so. That's fine as we only
+	 * ever want the difference between two that are close together
+	 * @return the time, from System.nanoTime()
+	 */
+	private static int micros()
+	{
+		return (int) (System.nanoTime() / 1000);
+	}
+
+	/**
+	 * Queue the header for a frame
+	 * @param connection the connection to queue it on
+	 * @param type the type of frame
+	 * @param length the length of the payload that will follow it
+	 */
+	private void queueHeader(Connection connection, int type, int length)
+	{
+		header[0] = (byte) type;
+		header[1] = (byte) (length >> 8);
+		header[2] = (byte) length;
+		connection.queue(header, 0, Protocol.MESSAGE_HEADER_SIZE);
+		connection.getStats().messageOut();
+	}
+
+	/**
+	 * Get the version of the protocol that was agreed
+	 * @return the version, or 0 if we haven't had a hello yet
+	 */
+	public int getVersion()
+	{
+		return version;
+	}
+
+	/**
+	 * Get the capabilities that were agreed
+	 * @return the capabilities as a combination of the <code>Protocol.CAP_</code> bits
+	 */
+	public int getCapabilities()
+	{
+		return capabilities;
+	}
+
+	/**
+	 * Get the sequence number of the last snapshot the client said it had received
+	 * @return the sequence number, from 0 to 65535
+	 */
+	public int getAcknowledged()
+	{
+		return acknowledged;
+	}
+
+	/**
+	 * @see Codec#getRateController()
+	 */
+	public RateController getRateController()
+	{
+		return rate;
+	}
+}
@@ -0,0 +1,292 @@
+package processing.app;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import com.sun.management.GarbageCollectionNotificationInfo;
+import com.sun.management.GcInfo;
+
+/**
+ * GcTracker finds out whether the garbage collector is to blame for slow frames. It counts how
+ * much the game loop allocates each frame, from the JVM's count of bytes allocated by the thread,
+ * so a change that starts making garbage shows up the day it goes in; and it listens for the
+ * collector saying it has paused, so frames that were running during a pause can be told apart
+ * from frames that were slow on their own.
+ *
+ * <p>The collector only says it paused once it has finished, on a thread of its own, so pauses
+ * are put on a queue and matched up against the last <code>HISTORY</code> frames at the end of
+ * every frame. Concurrent collection cycles (ZGC's, for example) don't stop the game, so they're
+ * left out.</p>
+ *
+ * @author Chris Granville <v2t04 at students.keele.ac.uk>
+ * @version 3.0f (12/05/2010)
+ * @copyright 2009 - 2010 Chris Granville. All Rights Reserved.
+ * @see <a href="http://goo.gl/VOIb">Fireball: Multiplayer Asteroids</a>
+ */
+
+public class GcTracker implements NotificationListener
+{
+	/**
+	 * Number of recent frames kept to match pauses against. Pauses are reported well within this
+	 */
+	private static final int HISTORY = 64;
+
+	/**
+	 * Collectors only report times to the millisecond, so a pause is taken to have started this
+	 * much earlier and finished this much later than it says, in nanoseconds
+	 */
+	private static final long SLOP = 1000000L;
+
+	/**
+	 * The JVM's thread counters, if it can count bytes allocated by a thread; null if it can't
+	 */
+	private com.sun.management.ThreadMXBean threads;
+
+	/**
+	 * The game loop's thread id, as of the start of the frame
+	 */
+	private long thread_id;
+
+	/**
+	 * What to add to a collector's times, which are in milliseconds since the JVM started, to turn
+	 * them into System.nanoTime(). Worked out once, from the JVM's uptime, which is counted from the
+	 * same start by the same clock
+	 */
+	private long offset;
+
+	/**
+	 * The collectors we're listening to
+	 */
+	private List<GarbageCollectorMXBean> collectors;
+
+	/**
+	 * Pauses reported but not yet matched up with frames, each as { start, end } from System.nanoTime()
+	 */
+	private ConcurrentLinkedQueue<long[]> pauses = new ConcurrentLinkedQueue<long[]>();
+
+	/**
+	 * When each recent frame started and finished, from System.nanoTime()
+	 */
+	private long[] starts = new long[HISTORY], ends = new long[HISTORY];
+
+	/**
+	 * Did each recent frame go over the budget, and has it already been found to have run during a pause
+	 */
+	private boolean[] overran = new boolean[HISTORY], paused = new boolean[HISTORY];
+
+	/**
+	 * Where the next frame goes in the recent frames, and how many have been kept
+	 */
+	private int next, kept;
+
+	/**
+	 * When the current frame started, and how much the thread had allocated then
+	 */
+	private long frame_start, frame_allocated;
+
+	/**
+	 * A frame longer than this has gone over the budget, in nanoseconds
+	 */
+	private long budget;
+
+	/**
+	 * Records each pause, when a trace is being taken
+	 */
+	private TraceRecorder trace;
+
+	/**
+	 * Bytes allocated by the game loop in each frame
+	 */
+	private LatencyHistogram allocations = new LatencyHistogram();
+
+	/**
+	 * Bytes the game loop allocated in the last frame, or -1 if we can't tell
+	 */
+	private volatile long last_allocated = -1;
+
+	/**
+	 * Number of pauses and the time they took altogether, in nanoseconds
+	 */
+	private volatile long pause_count, pause_time;
+
+	/**
+	 * Number of frames that went over the budget, that ran during a pause, and that did both
+	 */
+	private volatile long overruns, paused_frames, paused_overruns;
+
+	/**
+	 * Constructor for GcTracker
+	 * @param budget a frame longer than this has gone over the budget, in milliseconds
+	 * @param trace records each pause, when a trace is being taken
+	 */
+	GcTracker(float budget, TraceRecorder trace)
+	{
+		this.budget = (long) (budget * 1000000);
+		this.trace = trace;
+		// Either side of reading the uptime, so the call itself doesn't throw it out
+		long before = System.nanoTime();
+		long uptime = ManagementFactory.getRuntimeMXBean().getUptime();
+		offset = before + (System.nanoTime() - before) / 2 - uptime * 1000000L;
+		if(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean)
+		{
+			threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+			if(!threads.isThreadAllocatedMemorySupported()) threads = null;
+			else if(!threads.isThreadAllocatedMemoryEnabled()) threads.setThreadAllocatedMemoryEnabled(true);
+		}
+		collectors = ManagementFactory.getGarbageCollectorMXBeans();
+		for(GarbageCollectorMXBean collector : collectors)
+		{
+			if(collector instanceof NotificationEmitter) ((NotificationEmitter) collector).addNotificationListener(this, null, null);
+		}
+	}
+
+	/**
+	 * A frame is starting. Call from the game loop, as that's the thread allocations are counted for
+	 */
+	public void begin()
+	{
+		frame_start = System.nanoTime();
+		thread_id = Thread.currentThread().getId();
+		if(threads != null) frame_allocated = threads.getThreadAllocatedBytes(thread_id);
+	}
+
+	/**
+	 * The frame has finished: count what it allocated, keep it to match pauses against, and match
+	 * any pauses reported since last time
+	 */
+	public void end()
+	{
+		long now = System.nanoTime();
+		if(threads != null)
+		{
+			long allocated = threads.getThreadAllocatedBytes(thread_id) - frame_allocated;
+			allocations.record(allocated);
+			last_allocated = allocated;
+		}
+
+		starts[next] = frame_start;
+		ends[next] = now;
+		overran[next] = now - frame_start > budget;
+		paused[next] = false;
+		if(overran[next]) overruns++;
+		next = (next + 1) % HISTORY;
+		kept = Math.min(kept + 1, HISTORY);
+
+		long[] pause;
+		while((pause = pauses.poll()) != null)
+		{
+			for(int i = 0; i < kept; i++)
+			{
+				if(paused[i] || ends[i] < pause[0] || starts[i] > pause[1]) continue;
+				paused[i] = true;
+				paused_frames++;
+				if(overran[i]) paused_overruns++;
+			}
+		}
+	}
+
+	/**
+	 * Called by a collector when it has finished, on the JVM's notification thread
+	 * @see javax.management.NotificationListener#handleNotification(Notification, Object)
+	 */
+	public void handleNotification(Notification notification, Object handback)
+	{
+		if(!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) return;
+		GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+		// Concurrent cycles run alongside the game rather than stopping it
+		if(info.getGcAction().contains("cycle")) return;
+		GcInfo gc = info.getGcInfo();
+		long start = offset + gc.getStartTime() * 1000000L - SLOP;
+		long end = offset + gc.getEndTime() * 1000000L + SLOP;
+		pauses.add(new long[] { start, end });
+		trace.complete("pause", "gc", start + SLOP, end - SLOP, -1);
+		pause_count++;
+		pause_time += gc.getDuration() * 1000000L;
+	}
+
+	/**
+	 * Stop listening to the collectors
+	 */
+	public void close()
+	{
+		for(GarbageCollectorMXBean collector : collectors)
+		{
+			if(!(collector instanceof NotificationEmitter)) continue;
+			try
+			{
+				((NotificationEmitter) collector).removeNotificationListener(this);
+			}
+			catch (Exception e)	// It wasn't listening, which is what we wanted anyway
+			{
+			}
+		}
+	}
+
+	/**
+	 * Get the bytes allocated by the game loop in each frame
+	 * @return the histogram, which is shared, so shouldn't be changed
+	 */
+	public LatencyHistogram getAllocations()
+	{
+		return allocations;
+	}
+
+	/**
+	 * Get the bytes the game loop allocated in the last frame
+	 * @return the number of bytes, or -1 if the JVM can't tell us
+	 */
+	public long getLastAllocated()
+	{
+		return last_allocated;
+	}
+
+	/**
+	 * Get the number of collector pauses
+	 * @return the number of pauses
+	 */
+	public long getPauseCount()
+	{
+		return pause_count;
+	}
+
+	/**
+	 * Get the time spent in collector pauses
+	 * @return the time, in nanoseconds
+	 */
+	public long getPauseTime()
+	{
+		return pause_time;
+	}
+
+	/**
+	 * Get the number of frames that went over the budget
+	 * @return the number of frames
+	 */
+	public long getOverruns()
+	{
+		return overruns;
+	}
+
+	/**
+	 * Get the number of frames that were running during a collector pause
+	 * @return the number of frames
+	 */
+	public long getPausedFrames()
+	{
+		return paused_frames;
+	}
+
+	/**
+	 * Get the number of frames that went over the budget and were running during a collector pause
+	 * @return the number of frames
+	 */
+	public long getPausedOverruns()
+	{
+		return paused_overruns;
+	}
+}
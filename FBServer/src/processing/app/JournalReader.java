@@ -0,0 +1,249 @@
+package processing.app;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+
+/**
+ * JournalReader dumps what EventJournal wrote, one line per record, optionally only the records
+ * that match some filters. It runs on its own, from the command line, so it can be pointed at a
+ * copy of a server's journal from anywhere.
+ *
+ * <pre>
+ * java processing.app.JournalReader &lt;directory or segment&gt;... [--type=hit,destroyed]
+ *     [--client=id or address] [--from=frame] [--to=frame] [--summary]
+ * </pre>
+ *
+ * <p>A directory means every segment in it, in order. A client can be given as a connection id,
+ * which matches records it's the subject or the other of, or as an address, which matches
+ * joins and leaves from it and everything that happened to or was done by the connections it
+ * made. With <code>--summary</code> only the number of records of each type is printed.</p>
+ *
+ * @author Chris Granville <v2t04 at students.keele.ac.uk>
+ * @version 3.0f (12/05/2010)
+ * @copyright 2009 - 2010 Chris Granville. All Rights Reserved.
+ * @see <a href="http://goo.gl/VOIb">Fireball: Multiplayer Asteroids</a>
+ */
+
+public class JournalReader
+{
+	/**
+	 * Which types to print, indexed by type; null to print every type
+	 */
+	private boolean[] types;
+
+	/**
+	 * Only print records to do with this connection, or 0 for any
+	 */
+	private int client_id;
+
+	/**
+	 * Only print records to do with connections from this address, or null for any
+	 */
+	private String client_address;
+
+	/**
+	 * Connection ids seen joining from client_address so far
+	 */
+	private ArrayList<Integer> address_ids = new ArrayList<Integer>();
+
+	/**
+	 * Only print records from frames in this range
+	 */
+	private int from = Integer.MIN_VALUE, to = Integer.MAX_VALUE;
+
+	/**
+	 * Only count records rather than printing them
+	 */
+	private boolean summary;
+
+	/**
+	 * Number of records matched of each type
+	 */
+	private long[] counts = new long[EventJournal.NAMES.length];
+
+	/**
+	 * For writing out times
+	 */
+	private SimpleDateFormat date_format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+
+	/**
+	 * Somewhere to build a record's name in
+	 */
+	private StringBuilder name = new StringBuilder(EventJournal.NAME_LENGTH);
+
+	/**
+	 * Read one segment, printing or counting every record that matches
+	 * @param file the segment
+	 * @throws IOException if it can't be read or isn't a journal segment
+	 */
+	private void read(File file) throws IOException
+	{
+		MappedByteBuffer buffer;
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try
+		{
+			buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+		}
+		finally
+		{
+			raf.close();
+		}
+		if(buffer.capacity() < EventJournal.RECORD || buffer.getInt(EventJournal.HEADER_MAGIC) != EventJournal.MAGIC) throw new IOException("not a journal segment");
+		int version = buffer.getInt(EventJournal.HEADER_VERSION);
+		if(version != EventJournal.VERSION) throw new IOException("journal version " + version + ", we only understand " + EventJournal.VERSION);
+		int record = buffer.getInt(EventJournal.HEADER_RECORD);
+		if(record < EventJournal.RECORD) throw new IOException("records are " + record + " bytes, too small to be ours");
+
+		for(int at = record; at + record <= buffer.capacity(); at += record)
+		{
+			int type = buffer.getInt(at + EventJournal.TYPE);
+			if(type == 0) break;
+			if(type < 0 || type >= EventJournal.NAMES.length) continue;
+			int frame = buffer.getInt(at + EventJournal.FRAME);
+			int subject = buffer.getInt(at + EventJournal.SUBJECT);
+			int other = buffer.getInt(at + EventJournal.OTHER);
+			name.setLength(0);
+			for(int i = 0; i < EventJournal.NAME_LENGTH; i++)
+			{
+				byte b = buffer.get(at + EventJournal.NAME + i);
+				if(b == 0) break;
+				name.append((char) b);
+			}
+
+			if(client_address != null && type <= EventJournal.LEFT && client_address.equals(name.toString()) && !address_ids.contains(subject))
+			{
+				address_ids.add(subject);
+			}
+			if(types != null && !types[type]) continue;
+			if(frame < from || frame > to) continue;
+			if(client_id != 0 && subject != client_id && other != client_id) continue;
+			if(client_address != null && !address_ids.contains(subject) && !address_ids.contains(other)) continue;
+
+			counts[type]++;
+			if(summary) continue;
+			StringBuilder line = new StringBuilder(96);
+			line.append(date_format.format(new Date(buffer.getLong(at + EventJournal.TIME)))).append(" f").append(frame).append(' ').append(EventJournal.NAMES[type]);
+			line.append(" client ").append(subject);
+			if(other != 0) line.append(" by ").append(other);
+			int value = buffer.getInt(at + EventJournal.VALUE);
+			if(type == EventJournal.SHOT) line.append(" shot ").append(value);
+			else if(type == EventJournal.HIT) line.append(" damage ").append(value);
+			if(type >= EventJournal.SHOT) line.append(" at (").append(buffer.getFloat(at + EventJournal.X)).append(", ").append(buffer.getFloat(at + EventJournal.Y)).append(')');
+			if(name.length() > 0) line.append(' ').append(name);
+			System.out.println(line);
+		}
+	}
+
+	/**
+	 * Dump a journal from the command line
+	 * @param args the directories and segments to read, and any options
+	 */
+	public static void main(String args[])
+	{
+		JournalReader reader = new JournalReader();
+		ArrayList<File> files = new ArrayList<File>();
+		try
+		{
+			for(int i = 0; i < args.length; i++)
+			{
+				String arg = args[i];
+				String value = arg.substring(arg.indexOf('=') + 1);
+				if(arg.startsWith("--type="))
+				{
+					reader.types = new boolean[EventJournal.NAMES.length];
+					String[] names = value.split(",");
+					for(int j = 0; j < names.length; j++)
+					{
+						int type = Arrays.asList(EventJournal.NAMES).indexOf(names[j].trim());
+						if(type <= 0) throw new IllegalArgumentException("Unknown type " + names[j] + ", expected one of " + String.join(", ", Arrays.asList(EventJournal.NAMES).subList(1, EventJournal.NAMES.length)));
+						reader.types[type] = true;
+					}
+				}
+				else if(arg.startsWith("--client="))
+				{
+					try
+					{
+						reader.client_id = Integer.parseInt(value);
+					}
+					catch (NumberFormatException e)	// Not a number, so an address
+					{
+						reader.client_address = value;
+					}
+				}
+				else if(arg.startsWith("--from=")) reader.from = Integer.parseInt(value);
+				else if(arg.startsWith("--to=")) reader.to = Integer.parseInt(value);
+				else if(arg.equals("--summary")) reader.summary = true;
+				else if(arg.startsWith("--")) throw new IllegalArgumentException("Unknown option " + arg);
+				else files.addAll(segments(new File(arg)));
+			}
+		}
+		catch (NumberFormatException e)
+		{
+			System.out.println("Not a number: " + e.getMessage());
+			System.exit(2);
+		}
+		catch (IllegalArgumentException e)
+		{
+			System.out.println(e.getMessage());
+			System.exit(2);
+		}
+		if(files.isEmpty())
+		{
+			System.out.println("Usage: JournalReader <directory or segment>... [--type=hit,destroyed] [--client=id or address]");
+			System.out.println("       [--from=frame] [--to=frame] [--summary]");
+			System.exit(2);
+		}
+
+		boolean failed = false;
+		for(int i = 0; i < files.size(); i++)
+		{
+			try
+			{
+				reader.read(files.get(i));
+			}
+			catch (IOException e)
+			{
+				System.err.println("Could not read " + files.get(i) + ": " + e.getMessage());
+				failed = true;
+			}
+		}
+		if(reader.summary)
+		{
+			for(int i = 1; i < reader.counts.length; i++) System.out.println(EventJournal.NAMES[i] + ": " + reader.counts[i]);
+		}
+		System.exit(failed ? 1 : 0);
+	}
+
+	/**
+	 * Find the segments to read for one argument
+	 * @param file a segment, or a directory of them
+	 * @return the segments, in order
+	 */
+	private static ArrayList<File> segments(File file)
+	{
+		ArrayList<File> result = new ArrayList<File>();
+		if(!file.isDirectory())
+		{
+			result.add(file);
+			return result;
+		}
+		String[] names = file.list();
+		int[] numbers = new int[(names == null) ? 0 : names.length];
+		int found = 0;
+		for(int i = 0; i < numbers.length; i++)
+		{
+			int number = EventJournal.segmentNumber(names[i]);
+			if(number > 0) numbers[found++] = number;
+		}
+		Arrays.sort(numbers, 0, found);
+		for(int i = 0; i < found; i++) result.add(new File(file, EventJournal.segmentName(numbers[i])));
+		return result;
+	}
+}
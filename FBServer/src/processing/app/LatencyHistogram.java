@@ -0,0 +1,176 @@
+package processing.app;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * LatencyHistogram counts how long something took, to within about 3%, from a nanosecond up
+ * to about a minute, in a fixed 8KB however many times it's used - so percentiles can be read
+ * off it without keeping every time.
+ *
+ * <p>The buckets are log-linear, the same idea as HdrHistogram: times below 64ns each get a
+ * bucket of their own, and after that every doubling of time is split into 32 equal buckets,
+ * so a bucket is never wider than 1/32 of the times in it. Finding the bucket is a shift and a
+ * leading zero count.</p>
+ *
+ * <p>Every count is atomic, so times can be recorded and read from different threads without
+ * locking. A reader might see a time counted but not yet in the maximum, or the other way round,
+ * which doesn't matter for statistics.</p>
+ *
+ * @author Chris Granville <v2t04 at students.keele.ac.uk>
+ * @version 3.0f (12/05/2010)
+ * @copyright 2009 - 2010 Chris Granville. All Rights Reserved.
+ * @see <a href="http://goo.gl/VOIb">Fireball: Multiplayer Asteroids</a>
+ */
+
+public class LatencyHistogram
+{
+	/**
+	 * Each doubling of time is split into 2^SUB_BITS buckets
+	 */
+	private static final int SUB_BITS = 5;
+
+	/**
+	 * Number of buckets each doubling of time is split into
+	 */
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+	/**
+	 * Number of buckets. Enough for times up to 2^36 nanoseconds, about 68 seconds
+	 */
+	public static final int BUCKETS = 1024;
+
+	/**
+	 * Longest time that can be told apart from longer ones, in nanoseconds. Anything longer
+	 * goes in the last bucket
+	 */
+	private static final long LARGEST = valueAt(BUCKETS - 1);
+
+	/**
+	 * How many times fell in each bucket
+	 */
+	private AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+	/**
+	 * How many times have been recorded
+	 */
+	private AtomicLong total = new AtomicLong();
+
+	/**
+	 * The longest time recorded, exactly, in nanoseconds
+	 */
+	private AtomicLong max = new AtomicLong();
+
+	/**
+	 * All the times recorded added up, in nanoseconds
+	 */
+	private AtomicLong sum = new AtomicLong();
+
+	/**
+	 * Count a time
+	 * @param nanos the time, in nanoseconds
+	 */
+	public void record(long nanos)
+	{
+		if(nanos < 0) nanos = 0;
+		counts.incrementAndGet(indexOf(Math.min(nanos, LARGEST)));
+		total.incrementAndGet();
+		sum.addAndGet(nanos);
+		long longest = max.get();
+		while(nanos > longest && !max.compareAndSet(longest, nanos)) longest = max.get();
+	}
+
+	/**
+	 * Forget every time recorded
+	 */
+	public void reset()
+	{
+		for(int i = 0; i < BUCKETS; i++) counts.set(i, 0);
+		total.set(0);
+		max.set(0);
+		sum.set(0);
+	}
+
+	/**
+	 * Add the counts in each bucket to an array, so several histograms can be merged
+	 * @param into array of <code>BUCKETS</code> counts to add to
+	 */
+	public void addTo(long[] into)
+	{
+		for(int i = 0; i < BUCKETS; i++) into[i] += counts.get(i);
+	}
+
+	/**
+	 * Get how many times have been recorded
+	 * @return the number of times
+	 */
+	public long getCount()
+	{
+		return total.get();
+	}
+
+	/**
+	 * Get all the times recorded added up
+	 * @return the total time in nanoseconds
+	 */
+	public long getSum()
+	{
+		return sum.get();
+	}
+
+	/**
+	 * Get the longest time recorded
+	 * @return the time in nanoseconds, or 0 if there haven't been any
+	 */
+	public long getMax()
+	{
+		return max.get();
+	}
+
+	/**
+	 * Find the bucket a time goes in
+	 * @param nanos the time, in nanoseconds, no more than <code>LARGEST</code>
+	 * @return the index of the bucket
+	 */
+	static int indexOf(long nanos)
+	{
+		if(nanos < 2 * SUB_BUCKETS) return (int) nanos;
+		// Shift down until it fits in SUB_BITS + 1 bits, and the shift is which doubling it's in
+		int shift = 63 - Long.numberOfLeadingZeros(nanos) - SUB_BITS;
+		return (shift * SUB_BUCKETS) + (int) (nanos >>> shift);
+	}
+
+	/**
+	 * Find the longest time that goes in a bucket
+	 * @param index the index of the bucket
+	 * @return the time, in nanoseconds
+	 */
+	static long valueAt(int index)
+	{
+		if(index < 2 * SUB_BUCKETS) return index;
+		int shift = index / SUB_BUCKETS - 1;
+		long low = (long) (index - shift * SUB_BUCKETS) << shift;
+		return low + (1L << shift) - 1;
+	}
+
+	/**
+	 * Read a percentile off merged counts
+	 * @param counts array of <code>BUCKETS</code> counts, as filled by <code>addTo()</code>
+	 * @param count the total of <code>counts</code>
+	 * @param fraction the percentile, from 0 to 1
+	 * @return the time in nanoseconds that <code>fraction</code> of the times were no longer
+	 * than, to within a bucket, or 0 if there weren't any
+	 */
+	static long percentile(long[] counts, long count, double fraction)
+	{
+		if(count == 0) return 0;
+		long wanted = Math.max((long) Math.ceil(fraction * count), 1);
+		long seen = 0;
+		for(int i = 0; i < BUCKETS; i++)
+		{
+			seen += counts[i];
+			if(seen >= wanted) return valueAt(i);
+		}
+		return LARGEST;
+	}
+}
@@ -0,0 +1,67 @@
+package processing.app;
+
+/**
+ * LegacyCodec talks the original text protocol, for clients that connect and start sending
+ * colon-separated booleans without saying hello first. They get the text snapshot, exactly
+ * as they always have.
+ *
+ * @author Chris Granville <v2t04 at students.keele.ac.uk>
+ * @version 3.0f (12/05/2010)
+ * @copyright 2009 - 2010 Chris Granville. All Rights Reserved.
+ * @see <a href="http://goo.gl/VOIb">Fireball: Multiplayer Asteroids</a>
+ */
+
+public class LegacyCodec implements Codec
+{
+	/**
+	 * The message is up:left:right:space, so anything with fewer parts than this is malformed
+	 * @see Codec#receive(Connection, Ship, byte[], int, int)
+	 */
+	public String receive(Connection connection, Ship ship, byte[] data, int offset, int length)
+	{
+		// Protocol documtation is available in the...documentation
+		char[] chars = new char[length];
+		for(int i = 0; i < length; i++) chars[i] = (char) (data[offset + i] & 0xff);
+		String message = new String(chars);
+		String temp[] = message.split(":");
+		if(temp.length < 4) return "Malformed data: " + message;	// Is the data malfored (ArrayIndexOutOfBoundsException, most commonly)
+		connection.getStats().messageIn();
+		if(ship == null) return null;
+
+		int keys = 0;
+		if(Boolean.valueOf(temp[0])) keys |= Protocol.KEY_UP;
+		if(Boolean.valueOf(temp[1])) keys |= Protocol.KEY_LEFT;
+		if(Boolean.valueOf(temp[2])) keys |= Protocol.KEY_RIGHT;
+		if(Boolean.valueOf(temp[3])) keys |= Protocol.KEY_FIRE;
+		ship.setInput(keys);
+		return null;
+	}
+
+	/**
+	 * @see Codec#sendSnapshot(Connection, Snapshot)
+	 */
+	public void sendSnapshot(Connection connection, Snapshot snapshot)
+	{
+		connection.queue(snapshot.getText());
+		connection.getStats().messageOut();
+	}
+
+	/**
+	 * Old clients don't say which version they speak, so they're never turned away
+	 * @see Codec#takeRejection()
+	 */
+	public String takeRejection()
+	{
+		return null;
+	}
+
+	/**
+	 * Old clients never tell us what they've received, so there's nothing to base a rate on
+	 * and they get a snapshot every frame, like they always have
+	 * @see Codec#getRateController()
+	 */
+	public RateController getRateController()
+	{
+		return null;
+	}
+}
@@ -0,0 +1,426 @@
+package processing.app;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * MetricsServer keeps the numbers that say how the server is getting on - how fast it's
+ * ticking and how long ticks take, how much is in the game, how much is going over the network
+ * and how busy the garbage collector is - and, if asked to, serves them over HTTP in the
+ * Prometheus text format at <code>/metrics</code>, so they can be scraped into the usual
+ * dashboards rather than read off the server's window.
+ *
+ * <p>The game loop only ever writes the numbers, once a frame, and the page is put together on
+ * the HTTP server's own thread when something scrapes it, so it costs the game nothing between
+ * scrapes. It only listens on the loopback address: anything further away should go through
+ * whatever scrapes it.</p>
+ *
+ * @author Chris Granville <v2t04 at students.keele.ac.uk>
+ * @version 3.0f (12/05/2010)
+ * @copyright 2009 - 2010 Chris Granville. All Rights Reserved.
+ * @see <a href="http://goo.gl/VOIb">Fireball: Multiplayer Asteroids</a>
+ */
+
+public class MetricsServer implements HttpHandler
+{
+	/**
+	 * Upper bounds of the tick duration histogram buckets, in nanoseconds. A frame at 30 a second has 33ms
+	 */
+	private static final long[] BOUNDS = { 500000L, 1000000L, 2000000L, 5000000L, 10000000L, 20000000L, 33000000L, 50000000L, 100000000L, 250000000L, 1000000000L };
+
+	/**
+	 * The bucket bounds written out in seconds, to match
+	 */
+	private static final String[] BOUND_NAMES = { "0.0005", "0.001", "0.002", "0.005", "0.01", "0.02", "0.033", "0.05", "0.1", "0.25", "1" };
+
+	/**
+	 * Upper bounds of the allocation per tick histogram buckets, in bytes. A frame that makes no garbage allocates nothing
+	 */
+	private static final long[] BYTE_BOUNDS = { 0, 1024, 4096, 16384, 65536, 262144, 1048576, 4194304, 16777216 };
+
+	/**
+	 * The allocation bucket bounds written out, to match
+	 */
+	private static final String[] BYTE_BOUND_NAMES = { "0", "1024", "4096", "16384", "65536", "262144", "1048576", "4194304", "16777216" };
+
+	/**
+	 * What the page is sent as
+	 */
+	private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+	/**
+	 * Where the tick and phase durations come from
+	 */
+	private PhaseTimer timer;
+
+	/**
+	 * Where the allocation and garbage collection pause numbers come from
+	 */
+	private GcTracker gc;
+
+	/**
+	 * Where the degradation level and how often it has changed come from
+	 */
+	private TickWatchdog watchdog;
+
+	/**
+	 * Records each scrape, when a trace is being taken
+	 */
+	private TraceRecorder trace;
+
+	/**
+	 * Number of frames run
+	 */
+	private volatile long ticks;
+
+	/**
+	 * Frames a second the server is actually managing, according to Processing
+	 */
+	private volatile float tick_rate;
+
+	/**
+	 * Number of Ships and Shots in the game
+	 */
+	private volatile int ships, shots;
+
+	/**
+	 * Number of clients with a Ship, and of every connection including those watching
+	 */
+	private volatile int players, connections;
+
+	/**
+	 * Bytes read from and written to every client, after compression. Only the game loop changes them
+	 */
+	private volatile long bytes_in, bytes_out;
+
+	/**
+	 * Snapshots not sent to clients to keep to their rate. Only the game loop changes it
+	 */
+	private volatile long snapshots_skipped;
+
+	/**
+	 * The counters of every connection. Connections come and go rarely enough that copying the
+	 * list each time is cheaper than locking it every scrape
+	 */
+	private List<ConnectionStats> connection_stats = new CopyOnWriteArrayList<ConnectionStats>();
+
+	/**
+	 * The HTTP server, or null if we're not serving
+	 */
+	private HttpServer http;
+
+	/**
+	 * Somewhere to merge a histogram's buckets into. Only used on the HTTP server's thread
+	 */
+	private long[] merged = new long[LatencyHistogram.BUCKETS];
+
+	/**
+	 * Constructor for MetricsServer. Nothing is served until <code>start()</code>
+	 * @param timer where the tick and phase durations come from
+	 * @param gc where the allocation and garbage collection pause numbers come from
+	 * @param watchdog where the degradation level comes from
+	 * @param trace records each scrape, when a trace is being taken
+	 */
+	MetricsServer(PhaseTimer timer, GcTracker gc, TickWatchdog watchdog, TraceRecorder trace)
+	{
+		this.timer = timer;
+		this.gc = gc;
+		this.watchdog = watchdog;
+		this.trace = trace;
+	}
+
+	/**
+	 * Start serving the numbers
+	 * @param port the port to listen on, on the loopback address
+	 * @throws IOException if it can't listen on the port
+	 */
+	public void start(int port) throws IOException
+	{
+		http = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		http.createContext("/metrics", this);
+		http.start();
+	}
+
+	/**
+	 * Stop serving the numbers, if we were
+	 */
+	public void stop()
+	{
+		if(http != null) http.stop(0);
+		http = null;
+	}
+
+	/**
+	 * Note how things stand at the end of a frame
+	 * @param tick_rate frames a second the server is actually managing
+	 * @param ships number of Ships
+	 * @param shots number of Shots
+	 * @param players number of clients with a Ship
+	 * @param connections number of connections, with or without a Ship
+	 */
+	public void frame(float tick_rate, int ships, int shots, int players, int connections)
+	{
+		ticks++;
+		this.tick_rate = tick_rate;
+		this.ships = ships;
+		this.shots = shots;
+		this.players = players;
+		this.connections = connections;
+	}
+
+	/**
+	 * Count bytes read from a client
+	 * @param bytes number of bytes
+	 */
+	public void addBytesIn(int bytes)
+	{
+		bytes_in += bytes;
+	}
+
+	/**
+	 * Count bytes written to a client
+	 * @param bytes number of bytes
+	 */
+	public void addBytesOut(int bytes)
+	{
+		bytes_out += bytes;
+	}
+
+	/**
+	 * Count snapshots not sent to keep to a client's rate
+	 * @param snapshots number of snapshots
+	 */
+	public void addSkipped(int snapshots)
+	{
+		snapshots_skipped += snapshots;
+	}
+
+	/**
+	 * Start exporting a connection's counters
+	 * @param stats the connection's counters
+	 */
+	public void addConnection(ConnectionStats stats)
+	{
+		connection_stats.add(stats);
+	}
+
+	/**
+	 * Stop exporting a connection's counters, as it's gone
+	 * @param stats the connection's counters
+	 */
+	public void removeConnection(ConnectionStats stats)
+	{
+		connection_stats.remove(stats);
+	}
+
+	/**
+	 * Serve the numbers in the Prometheus text format
+	 * @see com.sun.net.httpserver.HttpHandler#handle(HttpExchange)
+	 */
+	public void handle(HttpExchange exchange) throws IOException
+	{
+		trace.begin("scrape", "metrics");
+		try
+		{
+			byte[] body = getText().getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+			exchange.sendResponseHeaders(200, body.length);
+			OutputStream out = exchange.getResponseBody();
+			out.write(body);
+			out.close();
+		}
+		finally
+		{
+			trace.end();
+		}
+	}
+
+	/**
+	 * Put every number together in the Prometheus text format
+	 * @return the text
+	 */
+	public String getText()
+	{
+		StringBuilder text = new StringBuilder(4096);
+		header(text, "celestia_ticks_total", "counter", "Server frames run.");
+		text.append("celestia_ticks_total ").append(ticks).append('\n');
+		header(text, "celestia_tick_rate", "gauge", "Frames a second the server is actually managing.");
+		text.append("celestia_tick_rate ").append(tick_rate).append('\n');
+
+		header(text, "celestia_tick_duration_seconds", "histogram", "How long whole server frames take.");
+		histogram(text, "celestia_tick_duration_seconds", "", timer.getTotal(PhaseTimer.TICK), BOUNDS, BOUND_NAMES, 1e9);
+		header(text, "celestia_tick_phase_duration_seconds", "histogram", "How long each part of a server frame takes.");
+		for(int i = 0; i < PhaseTimer.TICK; i++)
+		{
+			histogram(text, "celestia_tick_phase_duration_seconds", "phase=\"" + PhaseTimer.NAMES[i] + "\",", timer.getTotal(i), BOUNDS, BOUND_NAMES, 1e9);
+		}
+
+		header(text, "celestia_ships", "gauge", "Ships in the game.");
+		text.append("celestia_ships ").append(ships).append('\n');
+		header(text, "celestia_shots", "gauge", "Shots in the game.");
+		text.append("celestia_shots ").append(shots).append('\n');
+		header(text, "celestia_players", "gauge", "Clients with a Ship.");
+		text.append("celestia_players ").append(players).append('\n');
+		header(text, "celestia_connections", "gauge", "Connections, including those only watching.");
+		text.append("celestia_connections ").append(connections).append('\n');
+		header(text, "celestia_received_bytes_total", "counter", "Bytes read from clients, after compression.");
+		text.append("celestia_received_bytes_total ").append(bytes_in).append('\n');
+		header(text, "celestia_sent_bytes_total", "counter", "Bytes written to clients, after compression.");
+		text.append("celestia_sent_bytes_total ").append(bytes_out).append('\n');
+		header(text, "celestia_snapshots_skipped_total", "counter", "Snapshots not sent to clients to keep to their rate.");
+		text.append("celestia_snapshots_skipped_total ").append(snapshots_skipped).append('\n');
+		header(text, "celestia_degradation_level", "gauge", "How much load the watchdog is shedding, from 0 (none) to 3 (refusing joins).");
+		text.append("celestia_degradation_level ").append(watchdog.getLevel()).append('\n');
+		header(text, "celestia_degradation_transitions_total", "counter", "Times the watchdog has gone down or back up to each level.");
+		for(int i = 0; i < TickWatchdog.NAMES.length; i++)
+		{
+			String level = "level=\"" + TickWatchdog.NAMES[i] + "\"";
+			if(i > TickWatchdog.NORMAL) text.append("celestia_degradation_transitions_total{").append(level).append(",direction=\"down\"} ").append(watchdog.getDegraded(i)).append('\n');
+			if(i < TickWatchdog.REFUSE_JOINS) text.append("celestia_degradation_transitions_total{").append(level).append(",direction=\"up\"} ").append(watchdog.getRecovered(i)).append('\n');
+		}
+
+		connections(text);
+
+		header(text, "celestia_tick_allocated_bytes", "histogram", "Bytes allocated by the game loop each tick.");
+		histogram(text, "celestia_tick_allocated_bytes", "", gc.getAllocations(), BYTE_BOUNDS, BYTE_BOUND_NAMES, 1);
+		header(text, "celestia_gc_pauses_total", "counter", "Garbage collector pauses.");
+		text.append("celestia_gc_pauses_total ").append(gc.getPauseCount()).append('\n');
+		header(text, "celestia_gc_pause_seconds_total", "counter", "Time spent in garbage collector pauses.");
+		text.append("celestia_gc_pause_seconds_total ").append(gc.getPauseTime() / 1e9).append('\n');
+		header(text, "celestia_tick_overruns_total", "counter", "Ticks that went over their budget.");
+		text.append("celestia_tick_overruns_total ").append(gc.getOverruns()).append('\n');
+		header(text, "celestia_ticks_during_gc_pause_total", "counter", "Ticks that were running during a garbage collector pause.");
+		text.append("celestia_ticks_during_gc_pause_total ").append(gc.getPausedFrames()).append('\n');
+		header(text, "celestia_tick_overruns_during_gc_pause_total", "counter", "Ticks that went over their budget and were running during a garbage collector pause.");
+		text.append("celestia_tick_overruns_during_gc_pause_total ").append(gc.getPausedOverruns()).append('\n');
+
+		List<GarbageCollectorMXBean> collectors = ManagementFactory.getGarbageCollectorMXBeans();
+		header(text, "jvm_gc_collections_total", "counter", "Garbage collections run, by collector.");
+		for(GarbageCollectorMXBean gc : collectors)
+		{
+			text.append("jvm_gc_collections_total{gc=\"").append(gc.getName()).append("\"} ").append(Math.max(gc.getCollectionCount(), 0)).append('\n');
+		}
+		header(text, "jvm_gc_collection_seconds_total", "counter", "Time spent collecting garbage, by collector.");
+		for(GarbageCollectorMXBean gc : collectors)
+		{
+			text.append("jvm_gc_collection_seconds_total{gc=\"").append(gc.getName()).append("\"} ").append(Math.max(gc.getCollectionTime(), 0) / 1000.0).append('\n');
+		}
+		MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+		header(text, "jvm_memory_heap_used_bytes", "gauge", "Heap in use.");
+		text.append("jvm_memory_heap_used_bytes ").append(heap.getUsed()).append('\n');
+		header(text, "jvm_memory_heap_committed_bytes", "gauge", "Heap the JVM has from the system.");
+		text.append("jvm_memory_heap_committed_bytes ").append(heap.getCommitted()).append('\n');
+		return text.toString();
+	}
+
+	/**
+	 * Write every connection's counters, labelled with its id and address
+	 * @param text where to write them
+	 */
+	private void connections(StringBuilder text)
+	{
+		long now = System.nanoTime();
+		ConnectionStats[] stats = connection_stats.toArray(new ConnectionStats[0]);
+		int count = stats.length;
+		String[] labels = new String[count];
+		for(int i = 0; i < count; i++)
+		{
+			labels[i] = "{connection=\"" + stats[i].getId() + "\",client=\"" + escape(stats[i].getClient()) + "\"} ";
+		}
+
+		header(text, "celestia_connection_received_bytes_total", "counter", "Bytes read from each client, after compression.");
+		for(int i = 0; i < count; i++) text.append("celestia_connection_received_bytes_total").append(labels[i]).append(stats[i].getBytesIn()).append('\n');
+		header(text, "celestia_connection_sent_bytes_total", "counter", "Bytes written to each client, after compression.");
+		for(int i = 0; i < count; i++) text.append("celestia_connection_sent_bytes_total").append(labels[i]).append(stats[i].getBytesOut()).append('\n');
+		header(text, "celestia_connection_received_messages_total", "counter", "Messages read from each client.");
+		for(int i = 0; i < count; i++) text.append("celestia_connection_received_messages_total").append(labels[i]).append(stats[i].getMessagesIn()).append('\n');
+		header(text, "celestia_connection_sent_messages_total", "counter", "Messages queued for each client.");
+		for(int i = 0; i < count; i++) text.append("celestia_connection_sent_messages_total").append(labels[i]).append(stats[i].getMessagesOut()).append('\n');
+		header(text, "celestia_connection_malformed_total", "counter", "Reads from each client that made no sense.");
+		for(int i = 0; i < count; i++) text.append("celestia_connection_malformed_total").append(labels[i]).append(stats[i].getMalformed()).append('\n');
+		header(text, "celestia_connection_snapshots_skipped_total", "counter", "Snapshots not sent to each client to keep to its rate.");
+		for(int i = 0; i < count; i++) text.append("celestia_connection_snapshots_skipped_total").append(labels[i]).append(stats[i].getSkipped()).append('\n');
+		header(text, "celestia_connection_queued_bytes", "gauge", "Bytes waiting for each client when its last flush started.");
+		for(int i = 0; i < count; i++) text.append("celestia_connection_queued_bytes").append(labels[i]).append(stats[i].getQueued()).append('\n');
+		header(text, "celestia_connection_in_flight_snapshots", "gauge", "Snapshots sent to each client that it hasn't acknowledged.");
+		for(int i = 0; i < count; i++)
+		{
+			if(stats[i].getInFlight() >= 0) text.append("celestia_connection_in_flight_snapshots").append(labels[i]).append(stats[i].getInFlight()).append('\n');
+		}
+		header(text, "celestia_connection_rtt_seconds", "gauge", "Smoothed round trip time to each client, to within half a frame.");
+		for(int i = 0; i < count; i++)
+		{
+			if(stats[i].getRtt() > 0) text.append("celestia_connection_rtt_seconds").append(labels[i]).append(stats[i].getRtt() / 1000.0).append('\n');
+		}
+		header(text, "celestia_connection_input_age_seconds", "gauge", "Time since each client last sent anything.");
+		for(int i = 0; i < count; i++)
+		{
+			long age = stats[i].getInputAge(now);
+			if(age >= 0) text.append("celestia_connection_input_age_seconds").append(labels[i]).append(age / 1e9).append('\n');
+		}
+	}
+
+	/**
+	 * Escape a label value, so an odd client name can't break the page
+	 * @param value the value
+	 * @return the value with backslashes, quotes and newlines escaped
+	 */
+	private static String escape(String value)
+	{
+		return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+
+	/**
+	 * Write the HELP and TYPE lines for a metric
+	 * @param text where to write them
+	 * @param name the metric's name
+	 * @param type "counter", "gauge" or "histogram"
+	 * @param help what it is
+	 */
+	private static void header(StringBuilder text, String name, String type, String help)
+	{
+		text.append("# HELP ").append(name).append(' ').append(help).append('\n');
+		text.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+	}
+
+	/**
+	 * Write a histogram's buckets, sum and count. The buckets are only as exact as
+	 * LatencyHistogram's, to within about 3% of each bound
+	 * @param text where to write it
+	 * @param name the metric's name
+	 * @param labels any labels other than le, each followed by a comma, or ""
+	 * @param histogram the values
+	 * @param bounds upper bound of each bucket, in the histogram's units
+	 * @param bound_names the bounds written out in the metric's units
+	 * @param scale how many of the histogram's units make one of the metric's, such as 1e9 for nanoseconds to seconds
+	 */
+	private void histogram(StringBuilder text, String name, String labels, LatencyHistogram histogram, long[] bounds, String[] bound_names, double scale)
+	{
+		for(int i = 0; i < merged.length; i++) merged[i] = 0;
+		histogram.addTo(merged);
+		// Count from the buckets themselves so the +Inf bucket and the count always agree
+		long count = 0;
+		int bucket = 0;
+		for(int i = 0; i < bounds.length; i++)
+		{
+			while(bucket < LatencyHistogram.BUCKETS && LatencyHistogram.valueAt(bucket) <= bounds[i]) count += merged[bucket++];
+			text.append(name).append("_bucket{").append(labels).append("le=\"").append(bound_names[i]).append("\"} ").append(count).append('\n');
+		}
+		while(bucket < LatencyHistogram.BUCKETS) count += merged[bucket++];
+		text.append(name).append("_bucket{").append(labels).append("le=\"+Inf\"} ").append(count).append('\n');
+		String plain = labels.length() > 0 ? "{" + labels.substring(0, labels.length() - 1) + "}" : "";
+		text.append(name).append("_sum").append(plain).append(' ').append(histogram.getSum() / scale).append('\n');
+		text.append(name).append("_count").append(plain).append(' ').append(count).append('\n');
+	}
+}
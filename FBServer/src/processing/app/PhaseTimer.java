@@ -0,0 +1,330 @@
+package processing.app;
+
+import java.io.PrintWriter;
+import java.util.Arrays;
+import processing.core.PApplet;
+
+/**
+ * PhaseTimer times each part of a server frame - reading input, collisions, moving, drawing,
+ * clearing shots, building and queueing snapshots and writing them out - so that when frames
+ * get slow we can see which part is to blame, rather than just watching the frame rate drop.
+ *
+ * <p>Each phase has a LatencyHistogram for each of the last few slices of time, and the
+ * percentiles are worked out over all of them, so they cover a rolling window of the last
+ * <code>SLICES * SLICE</code> and old slow frames drop out of it rather than hanging about for
+ * ever. When a slice ends the oldest histogram is emptied and used for the next one. The
+ * percentiles are worked out once a slice, as text for the screen and optionally as lines of a
+ * CSV file, so timing a frame is only a few <code>System.nanoTime()</code> calls.</p>
+ *
+ * <p>Each phase is also a TickPhaseEvent for Java Flight Recorder, for when the percentiles
+ * say something is slow and a recording is needed to find out why, and a span in the
+ * TraceRecorder's trace while one is being taken.</p>
+ *
+ * @author Chris Granville <v2t04 at students.keele.ac.uk>
+ * @version 3.0f (12/05/2010)
+ * @copyright 2009 - 2010 Chris Granville. All Rights Reserved.
+ * @see <a href="http://goo.gl/VOIb">Fireball: Multiplayer Asteroids</a>
+ */
+
+public class PhaseTimer
+{
+	/**
+	 * Phase: clearing the screen, picking up new clients and reading and decoding what the clients sent
+	 */
+	public static final int INPUT = 0;
+
+	/**
+	 * Phase: doCollisions()
+	 */
+	public static final int COLLISIONS = 1;
+
+	/**
+	 * Phase: applying input to and moving every Ship, and removing destroyed ones
+	 */
+	public static final int MOVE = 2;
+
+	/**
+	 * Phase: drawing the world
+	 */
+	public static final int DRAW = 3;
+
+	/**
+	 * Phase: clearShots()
+	 */
+	public static final int CLEAR = 4;
+
+	/**
+	 * Phase: transmitLocations(), building the snapshot and queueing it for every client
+	 */
+	public static final int TRANSMIT = 5;
+
+	/**
+	 * Phase: flushConnections(), actually writing to every client
+	 */
+	public static final int FLUSH = 6;
+
+	/**
+	 * The whole frame, from the first phase to the last
+	 */
+	public static final int TICK = 7;
+
+	/**
+	 * Names of the phases, for the screen and the CSV file
+	 */
+	public static final String[] NAMES = { "input", "collisions", "move", "draw", "clear", "transmit", "flush", "tick" };
+
+	/**
+	 * Which of a phase's numbers to get from <code>getSummary()</code>: the number of times it
+	 * was timed, its p50, p99 and p99.9, and the longest it took
+	 */
+	public static final int COUNT = 0, P50 = 1, P99 = 2, P999 = 3, MAX = 4;
+
+	/**
+	 * How long each slice of the rolling window is, in nanoseconds
+	 */
+	private static final long SLICE = 2000000000L;
+
+	/**
+	 * Number of slices in the rolling window
+	 */
+	private static final int SLICES = 5;
+
+	/**
+	 * The first line of the CSV file
+	 */
+	private static final String CSV_HEADER = "time_ms,phase,count,p50_us,p99_us,p999_us,max_us";
+
+	/**
+	 * Each phase's histograms, one per slice
+	 */
+	private LatencyHistogram[][] histograms = new LatencyHistogram[NAMES.length][SLICES];
+
+	/**
+	 * Each phase's histogram since the server started, which is never emptied, for MetricsServer
+	 */
+	private LatencyHistogram[] totals = new LatencyHistogram[NAMES.length];
+
+	/**
+	 * Which slice is being recorded into
+	 */
+	private int slice;
+
+	/**
+	 * When the current slice started, from System.nanoTime()
+	 */
+	private long slice_start;
+
+	/**
+	 * When the frame started, and when the last phase ended, from System.nanoTime()
+	 */
+	private long frame_start, last_mark;
+
+	/**
+	 * How long each phase took in the last frame, in nanoseconds, or 0 if it didn't happen
+	 */
+	private long[] last = new long[NAMES.length];
+
+	/**
+	 * Which frame is being timed
+	 */
+	private int frame;
+
+	/**
+	 * The flight recorder event for the phase being timed. There's only ever one phase going
+	 * at a time, so the same one is used over and over rather than making one for each
+	 */
+	private TickPhaseEvent phase_event = new TickPhaseEvent();
+
+	/**
+	 * Somewhere to merge a phase's slices into
+	 */
+	private long[] merged = new long[LatencyHistogram.BUCKETS];
+
+	/**
+	 * Each phase's numbers over the window as of the end of the last slice, indexed by
+	 * <code>COUNT</code>, <code>P50</code> and so on, with times in nanoseconds
+	 */
+	private long[][] summary = new long[NAMES.length][MAX + 1];
+
+	/**
+	 * Each phase's numbers as a line of text for the screen
+	 */
+	private String[] lines = new String[NAMES.length];
+
+	/**
+	 * Where to write the CSV, or null if we aren't
+	 */
+	private PrintWriter csv;
+
+	/**
+	 * Records each phase and frame, when a trace is being taken
+	 */
+	private TraceRecorder trace;
+
+	/**
+	 * Constructor for PhaseTimer
+	 * @param parent the parent PApplet, for making the CSV file
+	 * @param csv_file the name of the CSV file to write the numbers to, or null not to
+	 * @param trace records each phase and frame, when a trace is being taken
+	 */
+	PhaseTimer(PApplet parent, String csv_file, TraceRecorder trace)
+	{
+		this.trace = trace;
+		for(int i = 0; i < NAMES.length; i++)
+		{
+			for(int j = 0; j < SLICES; j++) histograms[i][j] = new LatencyHistogram();
+			totals[i] = new LatencyHistogram();
+			lines[i] = NAMES[i] + ": -";
+		}
+		slice_start = System.nanoTime();
+		if(csv_file != null)
+		{
+			csv = parent.createWriter(csv_file);
+			csv.println(CSV_HEADER);
+		}
+	}
+
+	/**
+	 * Start timing a frame
+	 * @param frame which frame it is
+	 */
+	public void begin(int frame)
+	{
+		this.frame = frame;
+		Arrays.fill(last, 0);
+		frame_start = System.nanoTime();
+		last_mark = frame_start;
+		phase_event.begin();
+	}
+
+	/**
+	 * A phase has just finished: count the time since the last one finished (or the frame
+	 * started) against it
+	 * @param phase which phase, such as <code>COLLISIONS</code>
+	 */
+	public void mark(int phase)
+	{
+		long now = System.nanoTime();
+		histograms[phase][slice].record(now - last_mark);
+		totals[phase].record(now - last_mark);
+		last[phase] = now - last_mark;
+		trace.complete(NAMES[phase], "tick", last_mark, now, frame);
+		last_mark = now;
+		phase_event.end();
+		if(phase_event.shouldCommit())
+		{
+			phase_event.phase = NAMES[phase];
+			phase_event.frame = frame;
+			phase_event.commit();
+		}
+		phase_event.begin();
+	}
+
+	/**
+	 * The frame has finished: count the whole of it, and if the slice is up work the numbers
+	 * out and move on to the next
+	 */
+	public void end()
+	{
+		long now = System.nanoTime();
+		histograms[TICK][slice].record(now - frame_start);
+		totals[TICK].record(now - frame_start);
+		last[TICK] = now - frame_start;
+		trace.complete(NAMES[TICK], "tick", frame_start, now, frame);
+		last_mark = now;
+		if(now - slice_start < SLICE) return;
+
+		summarise();
+		slice = (slice + 1) % SLICES;
+		for(int i = 0; i < NAMES.length; i++) histograms[i][slice].reset();
+		slice_start = now;
+	}
+
+	/**
+	 * Work out the percentiles of every phase over the whole window
+	 */
+	private void summarise()
+	{
+		long time = System.currentTimeMillis();
+		for(int i = 0; i < NAMES.length; i++)
+		{
+			Arrays.fill(merged, 0);
+			long count = 0, longest = 0;
+			for(int j = 0; j < SLICES; j++)
+			{
+				histograms[i][j].addTo(merged);
+				count += histograms[i][j].getCount();
+				longest = Math.max(longest, histograms[i][j].getMax());
+			}
+			long[] numbers = summary[i];
+			numbers[COUNT] = count;
+			numbers[P50] = LatencyHistogram.percentile(merged, count, 0.5);
+			numbers[P99] = LatencyHistogram.percentile(merged, count, 0.99);
+			numbers[P999] = LatencyHistogram.percentile(merged, count, 0.999);
+			numbers[MAX] = longest;
+			lines[i] = NAMES[i] + ": " + micros(numbers[P50]) + " / " + micros(numbers[P99]) + " / " + micros(numbers[P999]) + " / " + micros(numbers[MAX]) + "us";
+			if(csv != null) csv.println(time + "," + NAMES[i] + "," + count + "," + micros(numbers[P50]) + "," + micros(numbers[P99]) + "," + micros(numbers[P999]) + "," + micros(numbers[MAX]));
+		}
+		if(csv != null) csv.flush();
+	}
+
+	/**
+	 * Turn nanoseconds into whole microseconds, rounding up so nothing shows as 0 that took any time
+	 * @param nanos the time in nanoseconds
+	 * @return the time in microseconds
+	 */
+	private static long micros(long nanos)
+	{
+		return (nanos + 999) / 1000;
+	}
+
+	/**
+	 * Get one of a phase's numbers over the window, as of the end of the last slice
+	 * @param phase which phase, such as <code>COLLISIONS</code>
+	 * @param which which number, such as <code>P99</code>
+	 * @return the number, with times in nanoseconds
+	 */
+	public long getSummary(int phase, int which)
+	{
+		return summary[phase][which];
+	}
+
+	/**
+	 * Get how long a phase took in the frame that was timed last
+	 * @param phase which phase, such as <code>COLLISIONS</code>, or <code>TICK</code> for the whole frame
+	 * @return the time in nanoseconds, or 0 if the phase didn't happen
+	 */
+	public long getLast(int phase)
+	{
+		return last[phase];
+	}
+
+	/**
+	 * Get every time a phase has taken since the server started
+	 * @param phase which phase, such as <code>COLLISIONS</code>, or <code>TICK</code> for whole frames
+	 * @return the histogram, which is shared, so shouldn't be changed
+	 */
+	public LatencyHistogram getTotal(int phase)
+	{
+		return totals[phase];
+	}
+
+	/**
+	 * Get a phase's numbers as a line of text: p50, p99, p99.9 and max over the window
+	 * @param phase which phase, such as <code>COLLISIONS</code>
+	 * @return the text
+	 */
+	public String getLine(int phase)
+	{
+		return lines[phase];
+	}
+
+	/**
+	 * Finish the CSV file, if there is one
+	 */
+	public void close()
+	{
+		if(csv != null) csv.close();
+		csv = null;
+	}
+}
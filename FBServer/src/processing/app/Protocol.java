@@ -0,0 +1,250 @@
+package processing.app;
+
+/**
+ * Protocol holds the constants that the server and the client have to agree on. There is a
+ * copy of this class in FBClient which must be kept identical, in the same way that the
+ * snapshot format itself has to be.
+ *
+ * <p>A client that speaks the framed protocol starts by sending a line of text,
+ * <code>#hello &lt;version&gt; &lt;capabilities&gt;</code>, before anything else. The server
+ * replies with <code>#welcome &lt;version&gt; &lt;capabilities&gt; &lt;tick rate&gt;</code> giving the
+ * version, the subset of capabilities that will actually be used and how many frames a second
+ * it runs at (which older servers leave off), or with <code>#reject</code> if it
+ * can't talk to that client at all. After that, everything in both directions is a frame:
+ * one byte of type, two bytes of length (big end first) and then the payload. If compression
+ * was agreed, everything the server sends after the welcome line is compressed as well.</p>
+ *
+ * <p>Clients that don't send a hello are treated as old clients and get the original text
+ * protocol, so they carry on working exactly as before.</p>
+ *
+ * @author Chris Granville <v2t04 at students.keele.ac.uk>
+ * @version 3.0f (12/05/2010)
+ * @copyright 2009 - 2010 Chris Granville. All Rights Reserved.
+ * @see <a href="http://goo.gl/VOIb">Fireball: Multiplayer Asteroids</a>
+ */
+
+public final class Protocol
+{
+	/**
+	 * The newest version of the framed protocol that we speak
+	 */
+	public static final int VERSION = 2;
+
+	/**
+	 * The oldest version of the framed protocol that we still speak
+	 */
+	public static final int MIN_VERSION = 1;
+
+	/**
+	 * Start of the line a client sends to open a framed connection
+	 */
+	public static final String HELLO = "#hello";
+
+	/**
+	 * Start of the line the server replies to a hello with
+	 */
+	public static final String WELCOME = "#welcome";
+
+	/**
+	 * Frames a second the server runs at, and so how far apart snapshot sequence numbers are,
+	 * if its welcome doesn't say. Every server so far has run at this
+	 */
+	public static final int DEFAULT_TICK_RATE = 30;
+
+	/**
+	 * The line the server replies with if it can't speak to the client
+	 */
+	public static final String REJECT = "#reject";
+
+	/**
+	 * The longest a hello or welcome line is allowed to be
+	 */
+	public static final int MAX_LINE_LENGTH = 64;
+
+	/**
+	 * Capability: snapshots are sent in binary rather than text
+	 */
+	public static final int CAP_BINARY = 1;
+
+	/**
+	 * Capability: snapshots can be sent as deltas against an acknowledged snapshot
+	 */
+	public static final int CAP_DELTA = 2;
+
+	/**
+	 * Capability: everything the server sends is compressed
+	 */
+	public static final int CAP_DEFLATE = 4;
+
+	/**
+	 * Capability: snapshots can be sent over UDP
+	 */
+	public static final int CAP_UDP = 8;
+
+	/**
+	 * Capability: binary snapshots carry the velocity of every ship and shot, so the client
+	 * can carry on moving them when a snapshot is late
+	 */
+	public static final int CAP_VELOCITY = 16;
+
+	/**
+	 * Capability: the server says when something happens - a Ship firing, being hit or being
+	 * destroyed - as well as where everything is, so the client can show it and play it
+	 */
+	public static final int CAP_EVENTS = 32;
+
+	/**
+	 * Frame header: one byte of type and two bytes of length
+	 */
+	public static final int MESSAGE_HEADER_SIZE = 3;
+
+	/**
+	 * Server to client: a snapshot in the original text format
+	 */
+	public static final int FRAME_SNAPSHOT_TEXT = 1;
+
+	/**
+	 * Server to client: a snapshot in binary. The sequence number (two bytes), the number of
+	 * ships (one byte) and for each one its x, y and angle (two bytes each), shield color and
+	 * shield strength (one byte each), then the number of shots (one byte) and for each one
+	 * its x and y (two bytes each). If CAP_VELOCITY was agreed, every ship and shot is followed
+	 * by its x and y velocity in pixels a second (two bytes each, signed)
+	 */
+	public static final int FRAME_SNAPSHOT_BINARY = 2;
+
+	/**
+	 * Client to server: the keys being pressed (one byte, see the KEY_ constants) and the
+	 * sequence number of the last snapshot the client received (two bytes)
+	 */
+	public static final int FRAME_INPUT = 3;
+
+	/**
+	 * Server to client, version 2 onwards: a ping (four bytes, which mean nothing to the
+	 * client) that must be sent straight back as a pong, so the server can measure the round
+	 * trip time. It may be followed by the round trip time the server has measured so far, in
+	 * milliseconds (two bytes), which the client can show but doesn't send back
+	 */
+	public static final int FRAME_PING = 4;
+
+	/**
+	 * Client to server, version 2 onwards: the four bytes from a ping, unchanged
+	 */
+	public static final int FRAME_PONG = 5;
+
+	/**
+	 * Size of the payload of a ping or pong
+	 */
+	public static final int PING_SIZE = 4;
+
+	/**
+	 * Size of the round trip time that may follow a ping
+	 */
+	public static final int PING_RTT_SIZE = 2;
+
+	/**
+	 * Server to client, if CAP_EVENTS was agreed: what happened during a frame. The number of
+	 * events (one byte), then for each one its type (one byte, see the EVENT_ constants), the
+	 * index of the Ship it happened to in that frame's snapshot (one byte, 255 if none) and
+	 * where it happened, x and y (two bytes each, signed). Only sent for frames where something
+	 * happened, and sent even when that frame's snapshot isn't
+	 */
+	public static final int FRAME_EVENTS = 6;
+
+	/**
+	 * Size of each event in an events frame
+	 */
+	public static final int EVENT_SIZE = 6;
+
+	/**
+	 * Most events in one events frame
+	 */
+	public static final int MAX_EVENTS = 255;
+
+	/**
+	 * Event: a Ship was hit by a Shot, at the Shot's position
+	 */
+	public static final int EVENT_HIT = 1;
+
+	/**
+	 * Event: a Ship's shield ran out and it was destroyed, at the Ship's position. The Ship is
+	 * already gone from the snapshot that goes with it, so its index is always 255
+	 */
+	public static final int EVENT_DESTROYED = 2;
+
+	/**
+	 * Event: a Ship fired a Shot, at the Ship's position
+	 */
+	public static final int EVENT_SHOT = 3;
+
+	/**
+	 * Server to client, if CAP_EVENTS was agreed: which Ship in the snapshots that follow is
+	 * the client's own (one byte, 255 if it hasn't got one). Sent just before a snapshot
+	 * whenever it changes, which it does when a Ship before it in the list goes
+	 */
+	public static final int FRAME_OWN_SHIP = 7;
+
+	/**
+	 * Bit in an input frame for the up key
+	 */
+	public static final int KEY_UP = 1;
+
+	/**
+	 * Bit in an input frame for the left key
+	 */
+	public static final int KEY_LEFT = 2;
+
+	/**
+	 * Bit in an input frame for the right key
+	 */
+	public static final int KEY_RIGHT = 4;
+
+	/**
+	 * Bit in an input frame for the space key
+	 */
+	public static final int KEY_FIRE = 8;
+
+	/**
+	 * Every compressed block starts with its length as two bytes, big end first
+	 */
+	public static final int COMPRESSED_HEADER_SIZE = 2;
+
+	/**
+	 * The largest frame or compressed block we'll send or accept
+	 */
+	public static final int MAX_FRAME_SIZE = 65535;
+
+	/**
+	 * The largest frame a client may send us. Clients only send input and pong frames, which
+	 * are a few bytes each, so anything bigger than this means the stream has gone wrong
+	 */
+	public static final int MAX_CLIENT_FRAME = 64;
+
+	/**
+	 * How many degrees a ship turns each frame. Ships start at 270, so every angle in a
+	 * snapshot is a multiple of this
+	 */
+	public static final int SHIP_TURN = 10;
+
+	/**
+	 * Preset dictionary for the snapshot compressor. Snapshots are mostly the same few
+	 * strings every frame - the shield color (every ship is 150.0), shield strengths in steps
+	 * of 10, angles in steps of 10 and the delimiters - so priming the compressor with them
+	 * means even the very first snapshot compresses well. Deflate prefers matches near the
+	 * end of the window, so the most common strings go last. Changing this breaks every client
+	 * that has a different copy.
+	 */
+	public static final byte[] DICTIONARY = (
+		"-350,-340,-330,-320,-310,-300,-290,-280,-270,-260,-250,-240,-230,-220,-210,-200," +
+		"-190,-180,-170,-160,-150,-140,-130,-120,-110,-100,-90,-80,-70,-60,-50,-40,-30,-20,-10," +
+		"350,340,330,320,310,300,290,280,260,250,240,230,220,210,200,190,180,170,160,140,130,120,110," +
+		",150.0,10.0;,150.0,20.0;,150.0,30.0;,150.0,40.0;,150.0,50.0;,150.0,60.0;,150.0,70.0;" +
+		",150.0,80.0;,150.0,90.0;//false;400,400,270,150.0,100.0;,270,150.0,100.0//"
+	).getBytes();
+
+	/**
+	 * Not to be instantiated
+	 */
+	private Protocol()
+	{
+	}
+}
@@ -0,0 +1,340 @@
+package processing.app;
+
+/**
+ * RateController decides how often a single client gets sent a snapshot. Everyone used to get
+ * one every frame, which is fine on a LAN but just piles up in the send buffer of anyone on a
+ * slow link, so that everything they see ends up seconds old.
+ *
+ * <p>The rate goes up slowly while the link looks healthy and is cut by a fraction when it
+ * doesn't (additive increase, multiplicative decrease, the same as TCP itself), and is always
+ * kept between the bounds it was given. A link looks unhealthy when more snapshots have been
+ * sent that the client hasn't acknowledged than its latency explains, which means things are
+ * queuing up somewhere between us and them. TCP never loses anything as far as we can see, so
+ * the backlog of unacknowledged snapshots stands in for loss. The link also looks unhealthy when
+ * more than a few flushes' worth of bytes are still sitting where the client hasn't taken them
+ * after a flush. Only shared memory clients can show us that (it's the part of the ring they
+ * haven't read); a TCP write doesn't come back until the socket has taken everything, so for
+ * them a full socket buffer shows up as unacknowledged snapshots instead.</p>
+ *
+ * <p>The round trip time isn't used to decide whether the link is healthy by itself. Pongs are
+ * only read once a frame, so each measurement can be out by half a frame, which at 30 frames a
+ * second is as big as the growth we'd be looking for on a fast link. It's only used for how many
+ * snapshots the latency explains and how long to wait between cuts, where that doesn't matter.</p>
+ *
+ * @author Chris Granville <v2t04 at students.keele.ac.uk>
+ * @version 3.0f (12/05/2010)
+ * @copyright 2009 - 2010 Chris Granville. All Rights Reserved.
+ * @see <a href="http://goo.gl/VOIb">Fireball: Multiplayer Asteroids</a>
+ */
+
+public class RateController
+{
+	/**
+	 * How many snapshots a second are added to the rate for every second that things look fine
+	 */
+	private static final float INCREASE_PER_SECOND = 2.0f;
+
+	/**
+	 * What the rate is multiplied by when things don't look fine
+	 */
+	private static final float DECREASE_FACTOR = 0.7f;
+
+	/**
+	 * More unacknowledged snapshots than this, on top of however many the round trip time
+	 * accounts for, and they're queuing somewhere
+	 */
+	private static final int IN_FLIGHT_SLACK = 4;
+
+	/**
+	 * More bytes than this many flushes' worth left waiting for the client after a flush, and
+	 * it isn't keeping up
+	 */
+	private static final int QUEUE_SLACK = 4;
+
+	/**
+	 * Weight given to each new flush in the smoothed flush size
+	 */
+	private static final float FLUSH_GAIN = 0.125f;
+
+	/**
+	 * Never cut the rate more than once in this many milliseconds, or once a round trip if that's longer,
+	 * so one bad spell isn't punished over and over before the last cut has had a chance to work
+	 */
+	private static final float MIN_DECREASE_INTERVAL = 250.0f;
+
+	/**
+	 * Weight given to each new round trip time in the smoothed one
+	 */
+	private static final float RTT_GAIN = 0.125f;
+
+	/**
+	 * How many snapshot sequence numbers we remember the send count for. Has to be a power of two
+	 */
+	private static final int HISTORY = 256;
+
+	/**
+	 * Lowest and highest rates we're allowed to choose, in snapshots per second
+	 */
+	private float min_rate, max_rate;
+
+	/**
+	 * Highest rate we're allowed to choose for now, no more than max_rate, so the server can cut
+	 * everyone's rate when it's struggling
+	 */
+	private float ceiling;
+
+	/**
+	 * How many frames the server runs a second
+	 */
+	private float tick_rate;
+
+	/**
+	 * The current rate, in snapshots per second
+	 */
+	private float rate;
+
+	/**
+	 * How much of a snapshot we've earned so far. One is sent each time it reaches one
+	 */
+	private float credit;
+
+	/**
+	 * Number of snapshots sent so far
+	 */
+	private int sent;
+
+	/**
+	 * Value of <code>sent</code> after each snapshot was sent, indexed by its sequence number
+	 */
+	private int[] sent_at = new int[HISTORY];
+
+	/**
+	 * Number of snapshots sent that haven't been acknowledged
+	 */
+	private int in_flight;
+
+	/**
+	 * Bytes left waiting for the client after the last flush
+	 */
+	private int waiting;
+
+	/**
+	 * Smoothed size of the flushes that had anything in them, in bytes. Zero until there's been one
+	 */
+	private float flush_size;
+
+	/**
+	 * Smoothed round trip time and the lowest single one seen, in milliseconds, each to within half
+	 * a frame. Zero until we've had one
+	 */
+	private float rtt, min_rtt;
+
+	/**
+	 * When the rate was last updated and last cut, from System.nanoTime()
+	 */
+	private long last_update, last_decrease;
+
+	/**
+	 * Number of snapshots not sent to keep to the rate, since anyone last asked
+	 */
+	private int skipped;
+
+	/**
+	 * Number of times the rate has been cut
+	 */
+	private int decreases;
+
+	/**
+	 * Has the rate been cut since anyone last asked
+	 */
+	private boolean backed_off;
+
+	/**
+	 * Constructor for RateController. Starts at the highest rate, as most links can take it
+	 * @param min_rate lowest rate to choose, in snapshots per second
+	 * @param max_rate highest rate to choose, in snapshots per second
+	 * @param tick_rate how many frames the server runs a second
+	 */
+	RateController(float min_rate, float max_rate, float tick_rate)
+	{
+		this.min_rate = min_rate;
+		this.max_rate = Math.min(max_rate, tick_rate);
+		this.tick_rate = tick_rate;
+		ceiling = this.max_rate;
+		rate = this.max_rate;
+		last_update = System.nanoTime();
+	}
+
+	/**
+	 * Called once every frame to find out whether this client gets a snapshot this time
+	 * @param now the time, from System.nanoTime()
+	 * @return a boolean indicating whether to send one
+	 */
+	public boolean shouldSend(long now)
+	{
+		update(now);
+		credit = Math.min(credit + rate / tick_rate, 1.0f);
+		if(credit < 1.0f)
+		{
+			skipped++;
+			return false;
+		}
+		credit -= 1.0f;
+		return true;
+	}
+
+	/**
+	 * Note that a snapshot was sent
+	 * @param sequence its sequence number
+	 */
+	public void sent(int sequence)
+	{
+		sent++;
+		sent_at[sequence & (HISTORY - 1)] = sent;
+		in_flight++;
+	}
+
+	/**
+	 * Note that the client has acknowledged a snapshot, and so every one before it
+	 * @param sequence its sequence number
+	 */
+	public void acknowledged(int sequence)
+	{
+		int outstanding = sent - sent_at[sequence & (HISTORY - 1)];
+		// Anything out of range is an old acknowledgement from before the history wrapped
+		if(outstanding >= 0 && outstanding <= in_flight) in_flight = outstanding;
+	}
+
+	/**
+	 * Take a new measurement of the round trip time into account
+	 * @param millis the round trip time, in milliseconds
+	 */
+	public void measured(float millis)
+	{
+		if(millis < 0) return;
+		if(rtt == 0 || millis < min_rtt) min_rtt = millis;
+		rtt = (rtt == 0) ? millis : rtt + RTT_GAIN * (millis - rtt);
+	}
+
+	/**
+	 * Take what a flush left behind into account
+	 * @param waiting bytes still waiting for the client that it hasn't taken
+	 * @param written bytes the flush wrote
+	 */
+	public void flushed(int waiting, int written)
+	{
+		this.waiting = waiting;
+		if(written > 0) flush_size = (flush_size == 0) ? written : flush_size + FLUSH_GAIN * (written - flush_size);
+	}
+
+	/**
+	 * Move the rate up or down depending on how the link looks
+	 * @param now the time, from System.nanoTime()
+	 */
+	private void update(long now)
+	{
+		float elapsed = (now - last_update) / 1000000000.0f;
+		last_update = now;
+		boolean backlogged = in_flight > IN_FLIGHT_SLACK + rate * min_rtt / 1000.0f ||
+				(flush_size > 0 && waiting > QUEUE_SLACK * flush_size);
+		if(backlogged)
+		{
+			if((now - last_decrease) / 1000000.0f >= Math.max(MIN_DECREASE_INTERVAL, rtt))
+			{
+				rate = Math.max(rate * DECREASE_FACTOR, min_rate);
+				last_decrease = now;
+				decreases++;
+				backed_off = true;
+			}
+		}
+		else rate = Math.min(rate + INCREASE_PER_SECOND * elapsed, ceiling);
+	}
+
+	/**
+	 * Cap the rate for now. Lowering the cap takes effect straight away; raising it lets the rate
+	 * climb back up as usual
+	 * @param ceiling highest rate to choose, in snapshots per second. Kept between the bounds the
+	 * controller was given
+	 */
+	public void setCeiling(float ceiling)
+	{
+		this.ceiling = Math.max(min_rate, Math.min(ceiling, max_rate));
+		rate = Math.min(rate, this.ceiling);
+	}
+
+	/**
+	 * Find out whether the rate has been cut since last time this was called
+	 * @return a boolean indicating whether it has
+	 */
+	public boolean takeBackedOff()
+	{
+		boolean result = backed_off;
+		backed_off = false;
+		return result;
+	}
+
+	/**
+	 * Find out how many snapshots weren't sent to keep to the rate since this was last called
+	 * @return the number of snapshots
+	 */
+	public int takeSkipped()
+	{
+		int result = skipped;
+		skipped = 0;
+		return result;
+	}
+
+	/**
+	 * Get the current rate
+	 * @return the rate, in snapshots per second
+	 */
+	public float getRate()
+	{
+		return rate;
+	}
+
+	/**
+	 * Get how many frames the server runs a second
+	 * @return the tick rate
+	 */
+	public float getTickRate()
+	{
+		return tick_rate;
+	}
+
+	/**
+	 * Get the smoothed round trip time, which is only good to within half a frame
+	 * @return the round trip time in milliseconds, or 0 if we haven't measured one yet
+	 */
+	public float getRtt()
+	{
+		return rtt;
+	}
+
+	/**
+	 * Get the number of snapshots sent that haven't been acknowledged
+	 * @return the number in flight
+	 */
+	public int getInFlight()
+	{
+		return in_flight;
+	}
+
+	/**
+	 * Get the bytes left waiting for the client after the last flush
+	 * @return the number of bytes
+	 */
+	public int getWaiting()
+	{
+		return waiting;
+	}
+
+	/**
+	 * Get the number of times the rate has been cut
+	 * @return the number of cuts
+	 */
+	public int getDecreases()
+	{
+		return decreases;
+	}
+}
@@ -0,0 +1,143 @@
+package processing.app;
+
+/**
+ * ReplayConnection stands in for the client behind a Ship when a SlowTickCapture is being
+ * replayed. The game code finds a Ship's client through <code>client_list</code> and checks the
+ * Ship's name against it, so every Ship needs one, but there's nobody on the other end: nothing
+ * ever arrives, and anything queued goes nowhere.
+ *
+ * @author Chris Granville <v2t04 at students.keele.ac.uk>
+ * @version 3.0f (12/05/2010)
+ * @copyright 2009 - 2010 Chris Granville. All Rights Reserved.
+ * @see <a href="http://goo.gl/VOIb">Fireball: Multiplayer Asteroids</a>
+ */
+
+public class ReplayConnection implements Connection
+{
+	/**
+	 * Name of the client, the same as its Ship's
+	 */
+	private String name;
+
+	/**
+	 * Counters for this connection, which stay at nothing
+	 */
+	private ConnectionStats stats;
+
+	/**
+	 * Constructor for ReplayConnection
+	 * @param name name of the client the Ship had when it was captured
+	 */
+	ReplayConnection(String name)
+	{
+		this.name = name;
+		stats = new ConnectionStats(name);
+	}
+
+	/**
+	 * @see Connection#ip()
+	 */
+	public String ip()
+	{
+		return name;
+	}
+
+	/**
+	 * @see Connection#active()
+	 */
+	public boolean active()
+	{
+		return true;
+	}
+
+	/**
+	 * @see Connection#available()
+	 */
+	public int available()
+	{
+		return 0;
+	}
+
+	/**
+	 * @see Connection#read(byte[])
+	 */
+	public int read(byte[] buffer)
+	{
+		return 0;
+	}
+
+	/**
+	 * @see Connection#queue(String)
+	 */
+	public void queue(String message)
+	{
+	}
+
+	/**
+	 * @see Connection#queue(byte[], int, int)
+	 */
+	public void queue(byte[] data, int offset, int length)
+	{
+	}
+
+	/**
+	 * @see Connection#flush()
+	 */
+	public int flush()
+	{
+		return 0;
+	}
+
+	/**
+	 * @see Connection#enableCompression(CompressionStage)
+	 */
+	public void enableCompression(CompressionStage stage)
+	{
+	}
+
+	/**
+	 * @see Connection#getCompression()
+	 */
+	public CompressionStage getCompression()
+	{
+		return null;
+	}
+
+	/**
+	 * @see Connection#getCodec()
+	 */
+	public Codec getCodec()
+	{
+		return null;
+	}
+
+	/**
+	 * @see Connection#setCodec(Codec)
+	 */
+	public void setCodec(Codec codec)
+	{
+	}
+
+	/**
+	 * @see Connection#queued()
+	 */
+	public int queued()
+	{
+		return 0;
+	}
+
+	/**
+	 * @see Connection#getStats()
+	 */
+	public ConnectionStats getStats()
+	{
+		return stats;
+	}
+
+	/**
+	 * @see Connection#close()
+	 */
+	public void close()
+	{
+	}
+}
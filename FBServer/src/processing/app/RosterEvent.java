@@ -0,0 +1,47 @@
+package processing.app;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * RosterEvent is a Java Flight Recorder event for a client joining or leaving, or a Ship being
+ * destroyed, so changes in load show up on the same timeline as everything else.
+ *
+ * @author Chris Granville <v2t04 at students.keele.ac.uk>
+ * @version 3.0f (12/05/2010)
+ * @copyright 2009 - 2010 Chris Granville. All Rights Reserved.
+ * @see <a href="http://goo.gl/VOIb">Fireball: Multiplayer Asteroids</a>
+ */
+
+@Name("celestia.Roster")
+@Label("Roster Change")
+@Category({ "Celestia", "Server" })
+@Description("A client joined, was turned away or left, or a Ship was destroyed")
+class RosterEvent extends jdk.jfr.Event
+{
+	/**
+	 * What happened: "joined", "watching", "refused", "destroyed" or "left"
+	 */
+	@Label("Change")
+	String change;
+
+	/**
+	 * Which client, by IP address (or shared memory name)
+	 */
+	@Label("Client")
+	String client;
+
+	/**
+	 * Number of Ships in the game afterwards
+	 */
+	@Label("Ships")
+	int ships;
+
+	/**
+	 * Number of connections afterwards, with or without a Ship
+	 */
+	@Label("Connections")
+	int connections;
+}
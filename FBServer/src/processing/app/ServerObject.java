@@ -106,6 +106,15 @@ public abstract class ServerObject
 		return parent.round(position.y);
 	}
 	
+	/**
+	 * Get how far the ServerObject moves each frame
+	 * @return the displacement, which must not be changed
+	 */
+	public PVector getDisplacement()
+	{
+		return displacement;
+	}
+	
 	/**
 	 * Get the current rotation angle in degrees of the ServerObject
 	 * @return integer signifying the angle (in degrees) of the ServerObject
@@ -0,0 +1,187 @@
+package processing.app;
+
+import processing.core.PApplet;
+import processing.core.PGraphics;
+import processing.core.PShape;
+
+/**
+ * ShapeBatch holds the shapes of everything we draw - a ship's hull and shield, and a shot -
+ * made once as PShapes around the origin rather than worked out from scratch every time, and
+ * draws them with a transform to put them in the right place. There is a copy of this class in
+ * FBClient which must be kept identical, so both draw things the same.
+ *
+ * <p>Everything of one kind is drawn together: set the style once with <code>beginHulls()</code>
+ * and friends, then draw every hull, so the renderer isn't switching stroke weights and colour
+ * modes back and forth for every ship. The shapes carry no style of their own for the same
+ * reason, which is also why a ship's hull and shield are separate shapes rather than one
+ * group.</p>
+ *
+ * <p>Processing 1.x can't make shapes itself (only load SVGs), so the shapes are PShapes set up
+ * by hand through a subclass.</p>
+ *
+ * @author Chris Granville <v2t04 at students.keele.ac.uk>
+ * @version 3.0f (12/05/2010)
+ * @copyright 2009 - 2010 Chris Granville. All Rights Reserved.
+ * @see <a href="http://goo.gl/VOIb">Fireball: Multiplayer Asteroids</a>
+ */
+
+public class ShapeBatch
+{
+	/**
+	 * Size of a ship, from its middle to its nose
+	 */
+	private static final int SHIP_SIZE = 10;
+
+	/**
+	 * Radius of a ship's shield, and how far below the ship's position its middle is
+	 */
+	private static final float SHIELD_RADIUS = 25, SHIELD_OFFSET = 5;
+
+	/**
+	 * Radius of a shot
+	 */
+	private static final float SHOT_RADIUS = 5;
+
+	/**
+	 * A PShape that is a single primitive with no style of its own
+	 */
+	private static class Primitive extends PShape
+	{
+		/**
+		 * Constructor for Primitive
+		 * @param kind which primitive, TRIANGLE or ELLIPSE (whose parameters are corner, width, height)
+		 * @param params the primitive's parameters
+		 */
+		Primitive(int kind, float[] params)
+		{
+			super(PRIMITIVE);
+			this.kind = kind;
+			this.params = params;
+			style = false;
+		}
+	}
+
+	/**
+	 * The hull, pointing along the x axis, and the shield, around the origin
+	 */
+	private PShape hull, shield;
+
+	/**
+	 * A shot, around the origin
+	 */
+	private PShape shot;
+
+	/**
+	 * Constructor for ShapeBatch. Makes all the shapes
+	 */
+	ShapeBatch()
+	{
+		float back = 1.7f * SHIP_SIZE;
+		hull = new Primitive(PApplet.TRIANGLE, new float[] {
+			SHIP_SIZE, 0,
+			back * PApplet.cos(PApplet.PI + 0.7f), back * PApplet.sin(PApplet.PI + 0.7f),
+			back * PApplet.cos(PApplet.PI - 0.7f), back * PApplet.sin(PApplet.PI - 0.7f) });
+		shield = new Primitive(PApplet.ELLIPSE, new float[] {
+			-SHIELD_RADIUS, SHIELD_OFFSET - SHIELD_RADIUS, 2 * SHIELD_RADIUS, 2 * SHIELD_RADIUS });
+		shot = new Primitive(PApplet.ELLIPSE, new float[] { -SHOT_RADIUS, -SHOT_RADIUS, 2 * SHOT_RADIUS, 2 * SHOT_RADIUS });
+	}
+
+	/**
+	 * Set the style for drawing hulls
+	 * @param g what to draw onto
+	 */
+	void beginHulls(PGraphics g)
+	{
+		g.strokeWeight(1);
+		g.stroke(255);
+		g.fill(0);
+	}
+
+	/**
+	 * Draw a hull. Call <code>beginHulls()</code> first
+	 * @param g what to draw onto
+	 * @param x x position of the ship
+	 * @param y y position of the ship
+	 * @param angle the angle of the ship, in degrees
+	 */
+	void drawHull(PGraphics g, float x, float y, float angle)
+	{
+		g.pushMatrix();
+		g.translate(x, y);
+		g.rotate(PApplet.radians(angle));
+		hull.draw(g);
+		g.popMatrix();
+	}
+
+	/**
+	 * Set the style for drawing shields
+	 * @param g what to draw onto
+	 */
+	void beginShields(PGraphics g)
+	{
+		g.colorMode(PApplet.HSB);
+		g.strokeWeight(5.0f);
+		g.noFill();
+	}
+
+	/**
+	 * Draw a shield. Call <code>beginShields()</code> first and <code>endShields()</code> after the last one
+	 * @param g what to draw onto
+	 * @param x x position of the ship
+	 * @param y y position of the ship
+	 * @param shield_color shield color, as a hue
+	 * @param shield_strength shield strength, as a brightness
+	 */
+	void drawShield(PGraphics g, float x, float y, float shield_color, float shield_strength)
+	{
+		g.stroke(shield_color, 1000f, shield_strength);
+		g.pushMatrix();
+		g.translate(x, y);
+		shield.draw(g);
+		g.popMatrix();
+	}
+
+	/**
+	 * Put things back how they were after drawing shields
+	 * @param g what was drawn onto
+	 */
+	void endShields(PGraphics g)
+	{
+		g.colorMode(PApplet.RGB);
+		g.strokeWeight(1.0f);
+	}
+
+	/**
+	 * Set the style for drawing shots
+	 * @param g what to draw onto
+	 */
+	void beginShots(PGraphics g)
+	{
+		g.fill(255);
+		g.stroke(255);
+		g.strokeWeight(5);
+	}
+
+	/**
+	 * Draw a shot. Call <code>beginShots()</code> first and <code>endShots()</code> after the last one
+	 * @param g what to draw onto
+	 * @param x x position of the shot
+	 * @param y y position of the shot
+	 */
+	void drawShot(PGraphics g, float x, float y)
+	{
+		g.pushMatrix();
+		g.translate(x, y);
+		shot.draw(g);
+		g.popMatrix();
+	}
+
+	/**
+	 * Put things back how they were after drawing shots
+	 * @param g what was drawn onto
+	 */
+	void endShots(PGraphics g)
+	{
+		g.strokeWeight(1);
+	}
+}
@@ -0,0 +1,317 @@
+package processing.app;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * SharedRing is a pair of single-producer, single-consumer ring buffers in a memory-mapped
+ * file, one for each direction, used to connect a client and the server on the same machine
+ * without going anywhere near the network stack. There is a copy of this class in FBClient
+ * which must be kept identical.
+ *
+ * <p>The file starts with a header: a magic number, the connection state and the capacity of
+ * each ring, followed by the read and write positions of both rings (each on its own cache
+ * line), and then the data for the client-to-server ring and the server-to-client ring. The
+ * positions only ever go up; the index into the ring is the position modulo the capacity.
+ * Each side only ever writes its own positions. A position is written with release semantics
+ * after the data it covers, and read with acquire semantics before that data is touched, so the
+ * other side never sees a position before the bytes behind it (or, for the reader's position,
+ * reuses space before it has been read). The state word is published the same way.</p>
+ *
+ * <p>The Java memory model only talks about threads in one JVM, not two processes sharing a
+ * mapping, but acquire and release accesses through a VarHandle become the processor's own
+ * ordered loads and stores (with barriers where it needs them), which is what keeps two
+ * processes in step on the same memory. Every word accessed this way is naturally aligned, as
+ * they must be.</p>
+ *
+ * @author Chris Granville <v2t04 at students.keele.ac.uk>
+ * @version 3.0f (12/05/2010)
+ * @copyright 2009 - 2010 Chris Granville. All Rights Reserved.
+ * @see <a href="http://goo.gl/VOIb">Fireball: Multiplayer Asteroids</a>
+ */
+
+public class SharedRing
+{
+	/**
+	 * The client has created the file but the server hasn't picked it up yet
+	 */
+	public static final int STATE_OPENING = 0;
+
+	/**
+	 * The server has picked up the connection
+	 */
+	public static final int STATE_OPEN = 1;
+
+	/**
+	 * One side or the other has gone away
+	 */
+	public static final int STATE_CLOSED = 2;
+
+	/**
+	 * "CELE", so we don't go mapping any old file that happens to have the right name
+	 */
+	private static final int MAGIC = 0x43454c45;
+
+	/**
+	 * Where the header fields live
+	 */
+	private static final int MAGIC_OFFSET = 0, STATE_OFFSET = 4, CAPACITY_OFFSET = 8;
+
+	/**
+	 * Where the positions live, one cache line apart so the two sides don't fight over them
+	 */
+	private static final int C2S_HEAD = 64, C2S_TAIL = 128, S2C_HEAD = 192, S2C_TAIL = 256;
+
+	/**
+	 * Where the client-to-server ring starts. The server-to-client ring follows it
+	 */
+	private static final int DATA_OFFSET = 320;
+
+	/**
+	 * For reading and writing the positions with acquire and release semantics. Big endian, the
+	 * same as ByteBuffer's getLong() and putLong(), so the file's layout is unchanged
+	 */
+	private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+	/**
+	 * The same, for the magic number and state
+	 */
+	private static final VarHandle INTS = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+
+	/**
+	 * The whole mapped file
+	 */
+	private MappedByteBuffer buffer;
+
+	/**
+	 * View of the buffer used for bulk reads, so we can move its position about freely
+	 */
+	private ByteBuffer in_view;
+
+	/**
+	 * View of the buffer used for bulk writes
+	 */
+	private ByteBuffer out_view;
+
+	/**
+	 * Size of each ring. Always a power of two
+	 */
+	private int capacity;
+
+	/**
+	 * Offsets of the positions and data for the ring we read from
+	 */
+	private int in_head_offset, in_tail_offset, in_data;
+
+	/**
+	 * Offsets of the positions and data for the ring we write to
+	 */
+	private int out_head_offset, out_tail_offset, out_data;
+
+	/**
+	 * Our copy of the position we've read up to. Only we ever change it
+	 */
+	private long in_head;
+
+	/**
+	 * Our copy of the position we've written up to. Only we ever change it
+	 */
+	private long out_tail;
+
+	/**
+	 * Create a new ring file, for the client to do when it connects
+	 * @param file where to create it
+	 * @param capacity size of each ring, rounded up to a power of two
+	 * @return the ring, from the client's side
+	 * @throws IOException if the file can't be created or mapped
+	 */
+	public static SharedRing create(File file, int capacity) throws IOException
+	{
+		int size = Integer.highestOneBit(Math.max(capacity, 64) - 1) << 1;
+		MappedByteBuffer buffer = map(file, DATA_OFFSET + 2 * size);
+		buffer.putInt(CAPACITY_OFFSET, size);
+		buffer.putInt(STATE_OFFSET, STATE_OPENING);
+		INTS.setRelease(buffer, MAGIC_OFFSET, MAGIC);
+		return new SharedRing(buffer, false);
+	}
+
+	/**
+	 * Open a ring file that a client created, for the server to do when it finds one
+	 * @param file the file
+	 * @return the ring, from the server's side, or null if the file isn't a ring
+	 * @throws IOException if the file can't be mapped
+	 */
+	public static SharedRing open(File file) throws IOException
+	{
+		if(file.length() < DATA_OFFSET) return null;
+		MappedByteBuffer buffer = map(file, file.length());
+		if((int) INTS.getAcquire(buffer, MAGIC_OFFSET) != MAGIC) return null;
+		int capacity = buffer.getInt(CAPACITY_OFFSET);
+		if(Integer.bitCount(capacity) != 1 || DATA_OFFSET + 2L * capacity > file.length()) return null;
+		return new SharedRing(buffer, true);
+	}
+
+	/**
+	 * Map a file into memory, creating it or making it bigger if it needs to be
+	 * @param file the file
+	 * @param size how much of it to map
+	 * @return the mapped buffer
+	 * @throws IOException if the file can't be mapped
+	 */
+	private static MappedByteBuffer map(File file, long size) throws IOException
+	{
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try
+		{
+			if(raf.length() < size) raf.setLength(size);
+			return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+		}
+		finally
+		{
+			// The mapping stays valid after the file is closed
+			raf.close();
+		}
+	}
+
+	/**
+	 * Constructor for SharedRing
+	 * @param buffer the mapped file
+	 * @param server_side whether we're the server (reading client-to-server) or the client
+	 */
+	private SharedRing(MappedByteBuffer buffer, boolean server_side)
+	{
+		this.buffer = buffer;
+		capacity = buffer.getInt(CAPACITY_OFFSET);
+		in_view = buffer.duplicate();
+		out_view = buffer.duplicate();
+		if(server_side)
+		{
+			in_head_offset = C2S_HEAD;
+			in_tail_offset = C2S_TAIL;
+			in_data = DATA_OFFSET;
+			out_head_offset = S2C_HEAD;
+			out_tail_offset = S2C_TAIL;
+			out_data = DATA_OFFSET + capacity;
+		}
+		else
+		{
+			in_head_offset = S2C_HEAD;
+			in_tail_offset = S2C_TAIL;
+			in_data = DATA_OFFSET + capacity;
+			out_head_offset = C2S_HEAD;
+			out_tail_offset = C2S_TAIL;
+			out_data = DATA_OFFSET;
+		}
+		in_head = (long) LONGS.getAcquire(buffer, in_head_offset);
+		out_tail = (long) LONGS.getAcquire(buffer, out_tail_offset);
+	}
+
+	/**
+	 * Get the number of bytes waiting to be read
+	 * @return the number of bytes that can be read
+	 */
+	public int available()
+	{
+		long tail = (long) LONGS.getAcquire(buffer, in_tail_offset);
+		return (int) (tail - in_head);
+	}
+
+	/**
+	 * Get the number of bytes written that the other end hasn't read yet
+	 * @return the number of bytes
+	 */
+	public int unread()
+	{
+		long head = (long) LONGS.getAcquire(buffer, out_head_offset);
+		return (int) (out_tail - head);
+	}
+
+	/**
+	 * Read as many bytes as are waiting, up to <code>length</code>
+	 * @param data where to put them
+	 * @param offset index in <code>data</code> of the first byte
+	 * @param length most bytes to read
+	 * @return the number of bytes read
+	 */
+	public int read(byte[] data, int offset, int length)
+	{
+		// Acquire, so the bytes it covers are read after it
+		long tail = (long) LONGS.getAcquire(buffer, in_tail_offset);
+		int count = (int) Math.min(length, tail - in_head);
+		if(count <= 0) return 0;
+		int index = (int) (in_head & (capacity - 1));
+		int first = Math.min(count, capacity - index);
+		in_view.position(in_data + index);
+		in_view.get(data, offset, first);
+		if(first < count)
+		{
+			in_view.position(in_data);
+			in_view.get(data, offset + first, count - first);
+		}
+		in_head += count;
+		// Release, so the writer can't reuse the space until we've finished reading it
+		LONGS.setRelease(buffer, in_head_offset, in_head);
+		return count;
+	}
+
+	/**
+	 * Write some bytes, all or nothing
+	 * @param data array holding them
+	 * @param offset index of the first byte
+	 * @param length number of bytes
+	 * @return false if there wasn't room for all of them, in which case none were written
+	 */
+	public boolean write(byte[] data, int offset, int length)
+	{
+		// Acquire, so we don't write over anything before the reader has finished with it
+		long head = (long) LONGS.getAcquire(buffer, out_head_offset);
+		if(capacity - (out_tail - head) < length) return false;
+		int index = (int) (out_tail & (capacity - 1));
+		int first = Math.min(length, capacity - index);
+		out_view.position(out_data + index);
+		out_view.put(data, offset, first);
+		if(first < length)
+		{
+			out_view.position(out_data);
+			out_view.put(data, offset + first, length - first);
+		}
+		out_tail += length;
+		// Release, so the reader never sees the new position before the bytes behind it
+		LONGS.setRelease(buffer, out_tail_offset, out_tail);
+		return true;
+	}
+
+	/**
+	 * Get the state of the connection
+	 * @return one of the <code>STATE_</code> constants
+	 */
+	public int getState()
+	{
+		return (int) INTS.getAcquire(buffer, STATE_OFFSET);
+	}
+
+	/**
+	 * Set the state of the connection
+	 * @param state one of the <code>STATE_</code> constants
+	 */
+	public void setState(int state)
+	{
+		INTS.setRelease(buffer, STATE_OFFSET, state);
+	}
+
+	/**
+	 * Get the size of each ring
+	 * @return the capacity in bytes
+	 */
+	public int getCapacity()
+	{
+		return capacity;
+	}
+}
@@ -1,6 +1,7 @@
 package processing.app;
 
 import processing.core.PApplet;
+import processing.core.PGraphics;
 import processing.core.PVector;
 import java.util.ArrayList;
 
@@ -33,7 +34,7 @@ public class Ship extends ServerObject
 	/**
 	 * How many degrees the ship turns by at each iteration
 	 */
-	private final int TURN = 10;
+	private final int TURN = Protocol.SHIP_TURN;
 	
 	/**
 	 * How much propulsion to add if the up key is pressed
@@ -96,6 +97,16 @@ public class Ship extends ServerObject
 	 */
 	public boolean addPropulsion;
 	
+	/**
+	 * The keys the client last told us it was pressing, as a combination of the <code>Protocol.KEY_</code> bits
+	 */
+	private int input;
+	
+	/**
+	 * How many frames the game runs a second
+	 */
+	private float tick_rate;
+	
 	/**
 	 * Contructor for Ship
 	 * @param parent the parent PApplet to draw to
@@ -103,15 +114,18 @@ public class Ship extends ServerObject
 	 * @param size scale for the size of the ship
 	 * @param ship_name the name that we wish to assign to this ship
 	 * @param shield_color color of the shield
+	 * @param tick_rate how many frames the game runs a second, for timing Shots
 	 */
-	Ship(PApplet parent, PVector position, int size, String ship_name, float shield_color)
+	Ship(PApplet parent, PVector position, int size, String ship_name, float shield_color, float tick_rate)
 	{
 		super(parent, position.x, position.y);
 		this.size = size;
 		this.ship_name = ship_name;
 		this.shield_color = shield_color;
+		this.tick_rate = tick_rate;
 		angle = 270;
 		been_shot_with_list = new ArrayList<Integer>();
+		updatePoints();
 	}
 	
 	/**
@@ -137,6 +151,12 @@ public class Ship extends ServerObject
 		if(addPropulsion) displacement.add(new PVector(PROPULSION * parent.cos(parent.radians(angle)), PROPULSION * parent.sin(parent.radians(angle))));
 		displacement.limit(3.3f);
 		position.add(displacement);
+		
+		// At the edges?
+		if(position.x > parent.width) position.x -= parent.width;
+		if(position.x < 0) position.x += parent.width;
+		if(position.y > parent.height) position.y -= parent.height;
+		if(position.y < 0) position.y += parent.height;
 		updatePoints();
 		
 		// Decide whether we need to destroy the shot, if it exists
@@ -147,10 +167,12 @@ public class Ship extends ServerObject
 			shot = null;
 			has_shot = false;
 		}
+		if(hasLiveShot()) shot.move();
 	}
 
 	/**
-	 * Draw the <code>Ship</code> at [position.x, position.y]
+	 * Draw the <code>Ship</code> at [position.x, position.y] on its own. The server draws
+	 * everything a kind at a time through a ShapeBatch instead, with the methods below
 	 * @see ServerObject#draw()
 	 */
 	@Override
@@ -158,12 +180,6 @@ public class Ship extends ServerObject
 		// Has the ship been destroyed?
 		if(!toDestroy())
 		{
-			// At the edges?
-			if(position.x > parent.width) position.x -= parent.width;
-			if(position.x < 0) position.x += parent.width;
-			if(position.y > parent.height) position.y -= parent.height;
-			if(position.y < 0) position.y += parent.height;
-			
 			// The actual ship
 			parent.strokeWeight(1);
 			parent.stroke(255);
@@ -183,17 +199,96 @@ public class Ship extends ServerObject
 			
 			// Coordinate label
 			parent.fill(255);
-			parent.text(ship_name, position.x + 30, position.y - 5);
-			parent.text("[" + parent.round(position.x) + ", " + parent.round(position.y) + "] shield: " + shield_strength, position.x + 30, position.y + 10);
+			drawLabel(parent.g);
 			
-			if(has_shot && !shot.toDestroy())
-			{
-				shot.move();
-				shot.draw();
-			}
+			if(hasLiveShot()) shot.draw();
 		}
 	}
 	
+	/**
+	 * Draw the hull of the <code>Ship</code>. Call <code>shapes.beginHulls()</code> first
+	 * @param g what to draw onto
+	 * @param shapes the shapes to draw with
+	 */
+	public void drawHull(PGraphics g, ShapeBatch shapes)
+	{
+		if(!toDestroy()) shapes.drawHull(g, position.x, position.y, angle);
+	}
+	
+	/**
+	 * Draw the shield of the <code>Ship</code>. Call <code>shapes.beginShields()</code> first
+	 * @param g what to draw onto
+	 * @param shapes the shapes to draw with
+	 */
+	public void drawShield(PGraphics g, ShapeBatch shapes)
+	{
+		if(!toDestroy()) shapes.drawShield(g, position.x, position.y, shield_color, shield_strength);
+	}
+	
+	/**
+	 * Write the name, position and shield strength of the <code>Ship</code> next to it, in
+	 * whatever fill has been set
+	 * @param g what to draw onto
+	 */
+	public void drawLabel(PGraphics g)
+	{
+		if(toDestroy()) return;
+		g.text(ship_name, position.x + 30, position.y - 5);
+		g.text("[" + parent.round(position.x) + ", " + parent.round(position.y) + "] shield: " + shield_strength, position.x + 30, position.y + 10);
+	}
+	
+	/**
+	 * Draw the <code>Shot</code> if there is one in flight. Call <code>shapes.beginShots()</code> first
+	 * @param g what to draw onto
+	 * @param shapes the shapes to draw with
+	 */
+	public void drawShot(PGraphics g, ShapeBatch shapes)
+	{
+		if(!toDestroy() && hasLiveShot()) shapes.drawShot(g, shot.position.x, shot.position.y);
+	}
+	
+	/**
+	 * Is there a <code>Shot</code> in flight that hasn't been destroyed
+	 * @return a boolean indicating whether there is
+	 */
+	private boolean hasLiveShot()
+	{
+		return has_shot && !shot.toDestroy();
+	}
+	
+	/**
+	 * Remember which keys the client is pressing. They are acted on every frame until the
+	 * client tells us otherwise
+	 * @param input the keys being pressed, as a combination of the <code>Protocol.KEY_</code> bits
+	 */
+	public void setInput(int input)
+	{
+		this.input = input;
+	}
+	
+	/**
+	 * Get the keys the client last told us it was pressing
+	 * @return the keys, as a combination of the <code>Protocol.KEY_</code> bits
+	 */
+	public int getInput()
+	{
+		return input;
+	}
+	
+	/**
+	 * Act on the keys the client is pressing: rotate, add propulsion and shoot if we're not already
+	 * @return a boolean indicating whether the Ship fired
+	 */
+	public boolean applyInput()
+	{
+		addPropulsion = (input & Protocol.KEY_UP) != 0;
+		if((input & Protocol.KEY_LEFT) != 0) rotate(true);
+		if((input & Protocol.KEY_RIGHT) != 0) rotate(false);
+		if((input & Protocol.KEY_FIRE) == 0 || isShooting()) return false;
+		shoot();
+		return true;
+	}
+	
 	/**
 	 * Rotate the ship by <code>TURN</code>
 	 * @param anticlockwise determines whether the ship is rotating anticlockwise or not
@@ -211,7 +306,7 @@ public class Ship extends ServerObject
 	{
 		has_shot = true;
 		//parent.println(ship_name + " has fired a shot");
-		shot = new Shot(parent, points[0].x, points[0].y, angle);
+		shot = new Shot(parent, points[0].x, points[0].y, angle, tick_rate);
 	}
 	
 	/**
@@ -243,6 +338,58 @@ public class Ship extends ServerObject
 		return result;
 	}
 
+	/**
+	 * Get the number of Shots that have hit the Ship, which it remembers so none hits it twice
+	 * @return the number of Shots
+	 */
+	public int getHitCount()
+	{
+		return been_shot_with_list.size();
+	}
+	
+	/**
+	 * Get the id of one of the Shots that have hit the Ship
+	 * @param index which one, from 0 to <code>getHitCount()</code>
+	 * @return the id of the Shot
+	 */
+	public int getHitShot(int index)
+	{
+		return been_shot_with_list.get(index);
+	}
+	
+	/**
+	 * Put the Ship back the way it was when a SlowTickCapture was taken, so the frame can be run
+	 * again. Its position, name and shield color come through the constructor, the Shots that
+	 * had hit it through <code>restoreHit()</code> afterwards
+	 * @param dx x displacement
+	 * @param dy y displacement
+	 * @param angle angle in degrees
+	 * @param shield_strength shield strength
+	 * @param input the keys the client was pressing
+	 * @param shot the Ship's Shot, or null if it didn't have one
+	 */
+	void restore(float dx, float dy, int angle, int shield_strength, int input, Shot shot)
+	{
+		displacement.set(dx, dy, 0);
+		this.angle = angle;
+		this.shield_strength = (byte) shield_strength;
+		this.input = input;
+		this.shot = shot;
+		has_shot = (shot != null);
+		been_shot_with_list.clear();
+		updatePoints();
+	}
+	
+	/**
+	 * Remember that a Shot had hit the Ship when a SlowTickCapture was taken, without taking
+	 * anything off the shield, as <code>restore()</code> already put that back
+	 * @param shot_id id of the Shot
+	 */
+	void restoreHit(int shot_id)
+	{
+		been_shot_with_list.add(shot_id);
+	}
+
 	/**
 	 * Get the radius of the Ship, is hard-coded to 25 which works for a size of 10
 	 * @see ServerObject#getEffectiveRadius()
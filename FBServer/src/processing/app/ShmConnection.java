@@ -0,0 +1,254 @@
+package processing.app;
+
+import java.io.File;
+
+/**
+ * ShmConnection is a <code>Connection</code> to a client running on the same machine, over a
+ * <code>SharedRing</code> in a memory-mapped file rather than a socket. It's meant for load
+ * testing with lots of bots: there's no kernel networking and no thread per client, just a
+ * copy into the ring once a frame and a copy out again when we read.
+ *
+ * <p>Everything queued during a frame goes into the ring with one write at the flush, the same
+ * as TcpConnection in low latency mode. Writes to the ring are all or nothing, so if a client
+ * stops reading and lets its ring fill up we can't just drop what didn't fit without breaking
+ * the framing, so the connection is given up on instead. TCP would have blocked us, which is
+ * worse.</p>
+ *
+ * @author Chris Granville <v2t04 at students.keele.ac.uk>
+ * @version 3.0f (12/05/2010)
+ * @copyright 2009 - 2010 Chris Granville. All Rights Reserved.
+ * @see <a href="http://goo.gl/VOIb">Fireball: Multiplayer Asteroids</a>
+ */
+
+public class ShmConnection implements Connection
+{
+	/**
+	 * Starting size of the outbound buffer
+	 */
+	private static final int INITIAL_BUFFER_SIZE = 1024;
+
+	/**
+	 * The file the ring lives in, deleted when we close
+	 */
+	private File file;
+
+	/**
+	 * The ring shared with the client, or null once we've closed
+	 */
+	private SharedRing ring;
+
+	/**
+	 * Name to use in place of an IP address
+	 */
+	private String name;
+
+	/**
+	 * Bytes queued since the last flush
+	 */
+	private byte[] out_buffer = new byte[INITIAL_BUFFER_SIZE];
+
+	/**
+	 * Number of bytes in <code>out_buffer</code> that are waiting to be written
+	 */
+	private int out_count;
+
+	/**
+	 * Compressor that each flush goes through, or null if we're not compressing. There's not a lot
+	 * of point over shared memory, but a client is free to ask for it
+	 */
+	private CompressionStage compression;
+
+	/**
+	 * The Codec used to talk to this client, once we know which one
+	 */
+	private Codec codec;
+
+	/**
+	 * Counters for this connection
+	 */
+	private ConnectionStats stats;
+
+	/**
+	 * Has the client let its ring fill up, or have we closed it
+	 */
+	private boolean failed;
+
+	/**
+	 * Constructor for ShmConnection. Tells the client we've picked it up
+	 * @param file the file the ring lives in
+	 * @param ring the ring, opened from the server's side
+	 * @param name name to use in place of an IP address
+	 */
+	ShmConnection(File file, SharedRing ring, String name)
+	{
+		this.file = file;
+		this.ring = ring;
+		this.name = name;
+		stats = new ConnectionStats(name);
+		// Finding the ring counts as hearing from the client, so one that dies before it says
+		// hello still times out
+		stats.received(0, System.nanoTime());
+		ring.setState(SharedRing.STATE_OPEN);
+	}
+
+	/**
+	 * @see Connection#ip()
+	 */
+	public String ip()
+	{
+		return name;
+	}
+
+	/**
+	 * @see Connection#active()
+	 */
+	public boolean active()
+	{
+		return !failed && ring.getState() != SharedRing.STATE_CLOSED;
+	}
+
+	/**
+	 * @see Connection#available()
+	 */
+	public int available()
+	{
+		return failed ? 0 : ring.available();
+	}
+
+	/**
+	 * @see Connection#read(byte[])
+	 */
+	public int read(byte[] buffer)
+	{
+		return failed ? 0 : ring.read(buffer, 0, buffer.length);
+	}
+
+	/**
+	 * @see Connection#queue(String)
+	 */
+	public void queue(String message)
+	{
+		int length = message.length();
+		ensureCapacity(length);
+		for(int i = 0; i < length; i++) out_buffer[out_count++] = (byte) message.charAt(i);
+	}
+
+	/**
+	 * @see Connection#queue(byte[], int, int)
+	 */
+	public void queue(byte[] data, int offset, int length)
+	{
+		ensureCapacity(length);
+		System.arraycopy(data, offset, out_buffer, out_count, length);
+		out_count += length;
+	}
+
+	/**
+	 * Copy the whole outbound buffer into the ring in one go, compressing it first if
+	 * compression is switched on
+	 * @see Connection#flush()
+	 */
+	public int flush()
+	{
+		int written = out_count;
+		if(written == 0 || !active()) return 0;
+		out_count = 0;
+		boolean fitted;
+		if(compression != null)
+		{
+			compression.compress(out_buffer, 0, written);
+			written = compression.getFrameLength();
+			fitted = ring.write(compression.getFrame(), 0, written);
+		}
+		else fitted = ring.write(out_buffer, 0, written);
+		if(!fitted)
+		{
+			// The client has stopped reading, so it's as good as gone
+			close();
+			return 0;
+		}
+		return written;
+	}
+
+	/**
+	 * @see Connection#enableCompression(CompressionStage)
+	 */
+	public void enableCompression(CompressionStage stage)
+	{
+		flush();
+		compression = stage;
+	}
+
+	/**
+	 * @see Connection#getCompression()
+	 */
+	public CompressionStage getCompression()
+	{
+		return compression;
+	}
+
+	/**
+	 * Counts what's in the ring that the client hasn't read yet as well as what hasn't been flushed
+	 * @see Connection#queued()
+	 */
+	public int queued()
+	{
+		return failed ? out_count : out_count + ring.unread();
+	}
+
+	/**
+	 * @see Connection#getStats()
+	 */
+	public ConnectionStats getStats()
+	{
+		return stats;
+	}
+
+	/**
+	 * @see Connection#getCodec()
+	 */
+	public Codec getCodec()
+	{
+		return codec;
+	}
+
+	/**
+	 * @see Connection#setCodec(Codec)
+	 */
+	public void setCodec(Codec codec)
+	{
+		this.codec = codec;
+	}
+
+	/**
+	 * Tell the client we've gone, get rid of the file and let go of the compressor and our
+	 * mapping. The client still has it mapped, so it can see the state change even after the
+	 * file has been deleted. Java can't unmap a file on demand, so our side goes when the ring
+	 * is collected. Safe to call more than once
+	 * @see Connection#close()
+	 */
+	public void close()
+	{
+		out_count = 0;
+		if(failed) return;
+		failed = true;
+		if(compression != null) compression.end();
+		ring.setState(SharedRing.STATE_CLOSED);
+		ring = null;
+		file.delete();
+	}
+
+	/**
+	 * Make sure there's space in the outbound buffer for <code>length</code> more bytes
+	 * @param length the number of bytes about to be added
+	 */
+	private void ensureCapacity(int length)
+	{
+		if(out_count + length <= out_buffer.length) return;
+		int size = out_buffer.length;
+		while(size < out_count + length) size *= 2;
+		byte[] bigger = new byte[size];
+		System.arraycopy(out_buffer, 0, bigger, 0, out_count);
+		out_buffer = bigger;
+	}
+}
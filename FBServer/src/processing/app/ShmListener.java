@@ -0,0 +1,105 @@
+package processing.app;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+
+/**
+ * ShmListener does for shared memory clients what processing.net's <code>Server</code> does for
+ * TCP ones. A client connects by creating a ring file called <code>celestia-&lt;port&gt;-&lt;anything&gt;</code>
+ * in the shared memory directory (normally /dev/shm), and every so often we look through the
+ * directory for new ones and turn them into ShmConnections.
+ *
+ * <p>Polling from the draw loop rather than having a thread watch the directory keeps everything
+ * on the one thread, like the rest of the server, and a few milliseconds of connection latency
+ * doesn't matter to a bot.</p>
+ *
+ * @author Chris Granville <v2t04 at students.keele.ac.uk>
+ * @version 3.0f (12/05/2010)
+ * @copyright 2009 - 2010 Chris Granville. All Rights Reserved.
+ * @see <a href="http://goo.gl/VOIb">Fireball: Multiplayer Asteroids</a>
+ */
+
+public class ShmListener
+{
+	/**
+	 * Start of the name of every ring file, before the port
+	 */
+	public static final String PREFIX = "celestia-";
+
+	/**
+	 * Directory the ring files are created in
+	 */
+	private File directory;
+
+	/**
+	 * Start of the name of ring files meant for us
+	 */
+	private String prefix;
+
+	/**
+	 * Names of files we've already looked at, so we don't keep trying to open the same ones
+	 */
+	private HashSet<String> seen = new HashSet<String>();
+
+	/**
+	 * Names found on the latest scan, used to forget about files that have gone
+	 */
+	private HashSet<String> present = new HashSet<String>();
+
+	/**
+	 * Constructor for ShmListener
+	 * @param directory directory to look for ring files in
+	 * @param port the port the server is running on, which ring files are named after
+	 */
+	ShmListener(File directory, int port)
+	{
+		this.directory = directory;
+		prefix = PREFIX + port + "-";
+	}
+
+	/**
+	 * Look for any new ring files and open them
+	 * @param accepted list to add the new connections to
+	 * @param errors list to add a message to for each ring file that couldn't be opened, for the
+	 * server to log
+	 * @return the number of new connections
+	 */
+	public int poll(ArrayList<Connection> accepted, ArrayList<String> errors)
+	{
+		String names[] = directory.list();
+		if(names == null) return 0;
+		int count = 0;
+		present.clear();
+		for(int i = 0; i < names.length; i++)
+		{
+			String name = names[i];
+			if(!name.startsWith(prefix)) continue;
+			present.add(name);
+			if(!seen.add(name)) continue;
+
+			File file = new File(directory, name);
+			try
+			{
+				SharedRing ring = SharedRing.open(file);
+				if(ring == null)
+				{
+					// The client hasn't finished setting it up yet, so try again next time
+					seen.remove(name);
+					continue;
+				}
+				// Anything that isn't waiting to be picked up was left behind by something else
+				if(ring.getState() != SharedRing.STATE_OPENING) continue;
+				accepted.add(new ShmConnection(file, ring, "shm:" + name.substring(prefix.length())));
+				count++;
+			}
+			catch (IOException e)
+			{
+				errors.add("Could not open shared memory client " + file + ": " + e);
+			}
+		}
+		seen.retainAll(present);
+		return count;
+	}
+}
@@ -23,6 +23,11 @@ import processing.core.PVector;
 
 public class Shot extends ServerObject {
 	
+	/**
+	 * How long a Shot lasts for, in seconds of game time
+	 */
+	private static final float LIFETIME = 0.8f;
+	
 	/**
 	 * Radius of the shot
 	 */
@@ -64,14 +69,16 @@ public class Shot extends ServerObject {
 	 * @param x starting x position (x position of the parent Ship)
 	 * @param y starting y position (y position of the parent Ship)
 	 * @param angle the angle of the parent Ship
+	 * @param tick_rate how many frames the game runs a second. Not the actual frame rate, which
+	 * drops when the server is struggling and would make Shots live for fewer frames
 	 */
-	Shot(PApplet parent, float x, float y, float angle)
+	Shot(PApplet parent, float x, float y, float angle, float tick_rate)
 	{
 		super(parent, x, y);
 		this.angle = parent.round(angle);
 		this.start_frame = parent.frameCount;
 		force_destruction = false;
-		lifetime = 0.8f * parent.frameRate;
+		lifetime = LIFETIME * tick_rate;
 		velocity = 24;
 		id = (int) parent.random(1, 127);
 		
@@ -148,4 +155,70 @@ public class Shot extends ServerObject {
 	public int getId() {
 		return id;
 	}
+	
+	/**
+	 * Get the frame the Shot was fired on
+	 * @return the frame number
+	 */
+	public int getStartFrame() {
+		return start_frame;
+	}
+	
+	/**
+	 * Get the number of x pixels added to the Shot each frame
+	 * @return the x step
+	 */
+	public float getDx() {
+		return dx;
+	}
+	
+	/**
+	 * Get the number of y pixels added to the Shot each frame
+	 * @return the y step
+	 */
+	public float getDy() {
+		return dy;
+	}
+	
+	/**
+	 * Get the speed of the Shot
+	 * @return the velocity, in pixels a frame
+	 */
+	public float getVelocity() {
+		return velocity;
+	}
+	
+	/**
+	 * Put the Shot back the way it was when a SlowTickCapture was taken, so the frame can be run
+	 * again. The constructor gives it a new id and starts it on the current frame, so those are
+	 * put back here along with everything it worked out from the angle
+	 * @param displacement_x x displacement
+	 * @param displacement_y y displacement
+	 * @param dx x step
+	 * @param dy y step
+	 * @param velocity speed
+	 * @param id unique ID
+	 * @param start_frame the frame it was fired on
+	 * @param lifetime how long it lasts, in frames
+	 * @param destroyed had it been destroyed
+	 */
+	void restore(float displacement_x, float displacement_y, float dx, float dy, float velocity, int id, int start_frame, float lifetime, boolean destroyed)
+	{
+		displacement.set(displacement_x, displacement_y, 0);
+		this.dx = dx;
+		this.dy = dy;
+		this.velocity = velocity;
+		this.id = id;
+		this.start_frame = start_frame;
+		this.lifetime = lifetime;
+		force_destruction = destroyed;
+	}
+	
+	/**
+	 * Get how long the Shot lasts for
+	 * @return the lifetime, in frames
+	 */
+	public float getLifetime() {
+		return lifetime;
+	}
 }
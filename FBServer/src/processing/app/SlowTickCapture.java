@@ -0,0 +1,630 @@
+package processing.app;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import processing.core.PApplet;
+import processing.core.PVector;
+
+/**
+ * SlowTickCapture keeps the last few frames of the world - where every Ship and Shot was and
+ * which keys every client was pressing, as it stood once input had been read - and when a frame
+ * goes over its budget writes them out along with how long each phase of the slow frame took.
+ * Slow frames are rare and can't be made to happen by hand, but with the world and the inputs
+ * that led up to one it can be set up again and run under a profiler. <code>load()</code> reads
+ * a capture back and <code>restore()</code> puts any of its frames back into the server's lists,
+ * which is how FBServer's <code>--replay</code> runs them through the same code again.
+ *
+ * <p>Frames are kept in a ring made up front, so keeping them is copying a few numbers a Ship.
+ * When a frame is slow the ring is copied into a second one and written out on a thread of its
+ * own, so the capture doesn't make the next frame slow as well. Only one capture is written at
+ * a time, no more than one every <code>COOLDOWN</code>, and no more than
+ * <code>MAX_CAPTURES</code> in all, so a server that is slow all the time doesn't fill the disk.</p>
+ *
+ * <p>A capture is a text file, one thing to a line, oldest frame first, with every number
+ * written in full so it can be read back exactly:</p>
+ * <pre>
+ * celestia-capture 2
+ * tick &lt;frame&gt; took_us &lt;us&gt; budget_us &lt;us&gt; width &lt;px&gt; height &lt;px&gt; frame_rate &lt;fps&gt;
+ * phase &lt;name&gt; &lt;us&gt;                  one for each of PhaseTimer.NAMES, 0 if it didn't happen
+ * frame &lt;frame&gt; ships &lt;count&gt; shots &lt;count&gt;
+ * ship &lt;name&gt; &lt;x&gt; &lt;y&gt; &lt;dx&gt; &lt;dy&gt; &lt;angle&gt; &lt;shield&gt; &lt;input&gt; &lt;shot&gt; &lt;shield_color&gt; &lt;hits&gt; &lt;hit_id&gt;...
+ * shot &lt;id&gt; &lt;x&gt; &lt;y&gt; &lt;dx&gt; &lt;dy&gt; &lt;angle&gt; &lt;start_frame&gt; &lt;lifetime&gt; &lt;destroyed&gt; &lt;step_x&gt; &lt;step_y&gt; &lt;velocity&gt; &lt;listed&gt;
+ * </pre>
+ *
+ * <p>A Ship's shot is which of the frame's shots it owns, counting from 0, or -1 if it hasn't
+ * got one, and its hits are the ids of the Shots that have hit it, so none can hit it twice. A
+ * Ship's Shot only goes into the server's list at the next collision check, so a Shot fired
+ * last frame is written with listed 0 and put back only on its Ship; Ships hit by a Shot let go
+ * of theirs, so there can be listed Shots nobody owns as well.</p>
+ *
+ * @author Chris Granville <v2t04 at students.keele.ac.uk>
+ * @version 3.0f (12/05/2010)
+ * @copyright 2009 - 2010 Chris Granville. All Rights Reserved.
+ * @see <a href="http://goo.gl/VOIb">Fireball: Multiplayer Asteroids</a>
+ */
+
+public class SlowTickCapture implements Runnable
+{
+	/**
+	 * Shortest time between captures, in nanoseconds
+	 */
+	private static final long COOLDOWN = 10000000000L;
+
+	/**
+	 * Most captures written while the server is running
+	 */
+	private static final int MAX_CAPTURES = 20;
+
+	/**
+	 * Version of the file format, written on the first line
+	 */
+	private static final int FORMAT_VERSION = 2;
+
+	/**
+	 * Number of whole numbers and decimals kept for each Ship: x, y, dx, dy and shield_color are
+	 * decimals; angle, shield, input, shot and the number of hits are whole numbers
+	 */
+	private static final int SHIP_FLOATS = 5, SHIP_INTS = 5;
+
+	/**
+	 * Number of whole numbers and decimals kept for each Shot: x, y, dx, dy, lifetime, step_x,
+	 * step_y and velocity are decimals; id, angle, start_frame, destroyed and listed are whole numbers
+	 */
+	private static final int SHOT_FLOATS = 8, SHOT_INTS = 5;
+
+	/**
+	 * The world as it was in one frame
+	 */
+	private static class Frame
+	{
+		/**
+		 * Which frame it was, or -1 if this one hasn't been used yet
+		 */
+		private int frame = -1;
+
+		/**
+		 * Number of Ships and Shots
+		 */
+		private int ship_count, shot_count;
+
+		/**
+		 * Each Ship's name
+		 */
+		private String[] names = new String[16];
+
+		/**
+		 * Each Ship's decimals, <code>SHIP_FLOATS</code> at a time
+		 */
+		private float[] ship_floats = new float[16 * SHIP_FLOATS];
+
+		/**
+		 * Each Ship's whole numbers, <code>SHIP_INTS</code> at a time
+		 */
+		private int[] ship_ints = new int[16 * SHIP_INTS];
+
+		/**
+		 * Each Shot's decimals, <code>SHOT_FLOATS</code> at a time
+		 */
+		private float[] shot_floats = new float[16 * SHOT_FLOATS];
+
+		/**
+		 * Each Shot's whole numbers, <code>SHOT_INTS</code> at a time
+		 */
+		private int[] shot_ints = new int[16 * SHOT_INTS];
+
+		/**
+		 * The ids of the Shots that have hit each Ship, one Ship after another
+		 */
+		private int[] hits = new int[64];
+
+		/**
+		 * Number of ids in <code>hits</code>
+		 */
+		private int hit_count;
+
+		/**
+		 * Make sure there's room for this many Ships and Shots
+		 * @param ships number of Ships
+		 * @param shots number of Shots
+		 */
+		private void ensureCapacity(int ships, int shots)
+		{
+			if(names.length < ships)
+			{
+				int size = Math.max(names.length * 2, ships);
+				names = new String[size];
+				ship_floats = new float[size * SHIP_FLOATS];
+				ship_ints = new int[size * SHIP_INTS];
+			}
+			if(shot_floats.length < shots * SHOT_FLOATS)
+			{
+				int size = Math.max(shot_floats.length / SHOT_FLOATS * 2, shots);
+				shot_floats = new float[size * SHOT_FLOATS];
+				shot_ints = new int[size * SHOT_INTS];
+			}
+		}
+
+		/**
+		 * Make sure there's room for this many hits, keeping the ones already there
+		 * @param count number of hits
+		 */
+		private void ensureHits(int count)
+		{
+			if(hits.length >= count) return;
+			int[] bigger = new int[Math.max(hits.length * 2, count)];
+			System.arraycopy(hits, 0, bigger, 0, hit_count);
+			hits = bigger;
+		}
+
+		/**
+		 * Make this a copy of another frame
+		 * @param other the frame to copy
+		 */
+		private void copyFrom(Frame other)
+		{
+			frame = other.frame;
+			ship_count = other.ship_count;
+			shot_count = other.shot_count;
+			hit_count = other.hit_count;
+			ensureCapacity(ship_count, shot_count);
+			ensureHits(hit_count);
+			System.arraycopy(other.hits, 0, hits, 0, hit_count);
+			System.arraycopy(other.names, 0, names, 0, ship_count);
+			System.arraycopy(other.ship_floats, 0, ship_floats, 0, ship_count * SHIP_FLOATS);
+			System.arraycopy(other.ship_ints, 0, ship_ints, 0, ship_count * SHIP_INTS);
+			System.arraycopy(other.shot_floats, 0, shot_floats, 0, shot_count * SHOT_FLOATS);
+			System.arraycopy(other.shot_ints, 0, shot_ints, 0, shot_count * SHOT_INTS);
+		}
+	}
+
+	/**
+	 * Parent PApplet, for the size of the screen and making files
+	 */
+	private PApplet parent;
+
+	/**
+	 * Records writing a capture out, when a trace is being taken
+	 */
+	private TraceRecorder trace;
+
+	/**
+	 * The directory captures are written to, next to the sketch
+	 */
+	private String directory;
+
+	/**
+	 * A frame longer than this gets captured, in nanoseconds
+	 */
+	private long budget;
+
+	/**
+	 * The last few frames. The next goes at <code>next</code>
+	 */
+	private Frame[] frames;
+
+	/**
+	 * Where the next frame goes in <code>frames</code>
+	 */
+	private int next;
+
+	/**
+	 * Copy of the frames being written out, oldest first
+	 */
+	private Frame[] writing;
+
+	/**
+	 * How long each phase of the slow frame took, in nanoseconds, and how long the whole of it took
+	 */
+	private long[] phases = new long[PhaseTimer.NAMES.length];
+
+	/**
+	 * Which frame was slow, and the screen's width and height when it was
+	 */
+	private int slow_frame, width, height;
+
+	/**
+	 * Frames a second the server was managing when it was
+	 */
+	private float frame_rate;
+
+	/**
+	 * Is a capture being written
+	 */
+	private volatile boolean busy;
+
+	/**
+	 * When the last capture was taken, from System.nanoTime()
+	 */
+	private long last_capture;
+
+	/**
+	 * Number of captures taken so far
+	 */
+	private int captures;
+
+	/**
+	 * Constructor for SlowTickCapture
+	 * @param parent the parent PApplet
+	 * @param directory the directory to write captures to, next to the sketch
+	 * @param frames how many frames to keep
+	 * @param budget a frame longer than this gets captured, in milliseconds
+	 * @param trace records writing a capture out, when a trace is being taken
+	 */
+	SlowTickCapture(PApplet parent, String directory, int frames, float budget, TraceRecorder trace)
+	{
+		this.parent = parent;
+		this.trace = trace;
+		this.directory = directory;
+		this.budget = (long) (budget * 1000000);
+		this.frames = new Frame[frames];
+		writing = new Frame[frames];
+		for(int i = 0; i < frames; i++)
+		{
+			this.frames[i] = new Frame();
+			writing[i] = new Frame();
+		}
+		last_capture = System.nanoTime() - COOLDOWN;
+	}
+
+	/**
+	 * Constructor for SlowTickCapture, for one read back from a file by <code>load()</code>
+	 * @param parent the parent PApplet
+	 * @param frames the frames in it, oldest first
+	 */
+	private SlowTickCapture(PApplet parent, Frame[] frames)
+	{
+		this.parent = parent;
+		this.frames = frames;
+	}
+
+	/**
+	 * Read a capture back, to run it again
+	 * @param parent the parent PApplet, for finding the file
+	 * @param file_name the capture, relative to the sketch
+	 * @return the capture
+	 * @throws IOException if it can't be read or isn't a capture we understand
+	 */
+	public static SlowTickCapture load(PApplet parent, String file_name) throws IOException
+	{
+		String[] lines = parent.loadStrings(file_name);
+		if(lines == null || lines.length == 0) throw new IOException("Could not read " + file_name);
+		String[] parts = lines[0].split(" ");
+		if(!parts[0].equals("celestia-capture") || parts.length < 2) throw new IOException(file_name + " isn't a capture");
+		if(!parts[1].equals(Integer.toString(FORMAT_VERSION))) throw new IOException("Capture version " + parts[1] + ", we only understand " + FORMAT_VERSION);
+
+		ArrayList<Frame> frames = new ArrayList<Frame>();
+		long[] phases = new long[PhaseTimer.NAMES.length];
+		int slow_frame = 0, width = 0, height = 0;
+		long budget = 0;
+		float frame_rate = 0;
+		Frame f = null;
+		int ship = 0, shot = 0;
+		int at = 1;
+		try
+		{
+			for(; at < lines.length; at++)
+			{
+				parts = lines[at].split(" ");
+				if(parts[0].equals("tick"))
+				{
+					slow_frame = Integer.parseInt(parts[1]);
+					phases[PhaseTimer.TICK] = Long.parseLong(parts[3]) * 1000;
+					budget = Long.parseLong(parts[5]) * 1000;
+					width = Integer.parseInt(parts[7]);
+					height = Integer.parseInt(parts[9]);
+					frame_rate = Float.parseFloat(parts[11]);
+				}
+				else if(parts[0].equals("phase"))
+				{
+					for(int i = 0; i < PhaseTimer.NAMES.length; i++)
+					{
+						if(PhaseTimer.NAMES[i].equals(parts[1])) phases[i] = Long.parseLong(parts[2]) * 1000;
+					}
+				}
+				else if(parts[0].equals("frame"))
+				{
+					f = new Frame();
+					f.frame = Integer.parseInt(parts[1]);
+					f.ship_count = Integer.parseInt(parts[3]);
+					f.shot_count = Integer.parseInt(parts[5]);
+					f.ensureCapacity(f.ship_count, f.shot_count);
+					frames.add(f);
+					ship = 0;
+					shot = 0;
+				}
+				else if(parts[0].equals("ship"))
+				{
+					if(f == null || ship == f.ship_count) throw new IOException("Line " + (at + 1) + " of " + file_name + " is a Ship the frame doesn't have room for");
+					int floats = ship * SHIP_FLOATS, ints = ship * SHIP_INTS;
+					f.names[ship] = parts[1];
+					f.ship_floats[floats] = Float.parseFloat(parts[2]);
+					f.ship_floats[floats + 1] = Float.parseFloat(parts[3]);
+					f.ship_floats[floats + 2] = Float.parseFloat(parts[4]);
+					f.ship_floats[floats + 3] = Float.parseFloat(parts[5]);
+					f.ship_ints[ints] = Integer.parseInt(parts[6]);
+					f.ship_ints[ints + 1] = Integer.parseInt(parts[7]);
+					f.ship_ints[ints + 2] = Integer.parseInt(parts[8]);
+					f.ship_ints[ints + 3] = Integer.parseInt(parts[9]);
+					f.ship_floats[floats + 4] = Float.parseFloat(parts[10]);
+					int hit_count = Integer.parseInt(parts[11]);
+					f.ship_ints[ints + 4] = hit_count;
+					f.ensureHits(f.hit_count + hit_count);
+					for(int i = 0; i < hit_count; i++) f.hits[f.hit_count++] = Integer.parseInt(parts[12 + i]);
+					ship++;
+				}
+				else if(parts[0].equals("shot"))
+				{
+					if(f == null || shot == f.shot_count) throw new IOException("Line " + (at + 1) + " of " + file_name + " is a Shot the frame doesn't have room for");
+					int floats = shot * SHOT_FLOATS, ints = shot * SHOT_INTS;
+					f.shot_ints[ints] = Integer.parseInt(parts[1]);
+					f.shot_floats[floats] = Float.parseFloat(parts[2]);
+					f.shot_floats[floats + 1] = Float.parseFloat(parts[3]);
+					f.shot_floats[floats + 2] = Float.parseFloat(parts[4]);
+					f.shot_floats[floats + 3] = Float.parseFloat(parts[5]);
+					f.shot_ints[ints + 1] = Integer.parseInt(parts[6]);
+					f.shot_ints[ints + 2] = Integer.parseInt(parts[7]);
+					f.shot_floats[floats + 4] = Float.parseFloat(parts[8]);
+					f.shot_ints[ints + 3] = Integer.parseInt(parts[9]);
+					f.shot_floats[floats + 5] = Float.parseFloat(parts[10]);
+					f.shot_floats[floats + 6] = Float.parseFloat(parts[11]);
+					f.shot_floats[floats + 7] = Float.parseFloat(parts[12]);
+					f.shot_ints[ints + 4] = Integer.parseInt(parts[13]);
+					shot++;
+				}
+			}
+		}
+		catch (NumberFormatException e)
+		{
+			throw new IOException("Line " + (at + 1) + " of " + file_name + " has something that isn't a number: " + e.getMessage());
+		}
+		catch (ArrayIndexOutOfBoundsException e)	// Not as many parts to the line as there should be
+		{
+			throw new IOException("Line " + (at + 1) + " of " + file_name + " is cut short");
+		}
+		if(frames.isEmpty()) throw new IOException(file_name + " hasn't got any frames in it");
+
+		SlowTickCapture capture = new SlowTickCapture(parent, frames.toArray(new Frame[frames.size()]));
+		capture.phases = phases;
+		capture.slow_frame = slow_frame;
+		capture.budget = budget;
+		capture.width = width;
+		capture.height = height;
+		capture.frame_rate = frame_rate;
+		return capture;
+	}
+
+	/**
+	 * Keep this frame's world, once input has been read but before anything has moved
+	 * @param frame which frame it is
+	 * @param ships every Ship
+	 * @param shots every Shot
+	 */
+	public void record(int frame, ArrayList<Ship> ships, ArrayList<Shot> shots)
+	{
+		Frame f = frames[next];
+		next = (next + 1) % frames.length;
+		f.frame = frame;
+		f.ship_count = ships.size();
+		f.hit_count = 0;
+		// Shots fired last frame aren't in the list yet, so there can be one more for every Ship
+		f.ensureCapacity(f.ship_count, shots.size() + f.ship_count);
+		for(int i = 0; i < shots.size(); i++) keepShot(f, i, shots.get(i), true);
+		f.shot_count = shots.size();
+		for(int i = 0; i < f.ship_count; i++)
+		{
+			Ship ship = ships.get(i);
+			f.names[i] = ship.getShipName();
+			int floats = i * SHIP_FLOATS, ints = i * SHIP_INTS;
+			f.ship_floats[floats] = ship.position.x;
+			f.ship_floats[floats + 1] = ship.position.y;
+			f.ship_floats[floats + 2] = ship.displacement.x;
+			f.ship_floats[floats + 3] = ship.displacement.y;
+			f.ship_floats[floats + 4] = ship.getShieldColor();
+			f.ship_ints[ints] = ship.angle;
+			f.ship_ints[ints + 1] = (int) ship.getShieldStrength();
+			f.ship_ints[ints + 2] = ship.getInput();
+			int shot = -1;
+			if(ship.isShooting())
+			{
+				shot = shots.indexOf(ship.getShot());
+				if(shot < 0)
+				{
+					shot = f.shot_count++;
+					keepShot(f, shot, ship.getShot(), false);
+				}
+			}
+			f.ship_ints[ints + 3] = shot;
+			int hit_count = ship.getHitCount();
+			f.ship_ints[ints + 4] = hit_count;
+			f.ensureHits(f.hit_count + hit_count);
+			for(int j = 0; j < hit_count; j++) f.hits[f.hit_count++] = ship.getHitShot(j);
+		}
+	}
+
+	/**
+	 * Keep one Shot in a frame
+	 * @param f the frame
+	 * @param index where it goes in the frame's Shots
+	 * @param shot the Shot
+	 * @param listed is it in the server's list of Shots, rather than only on its Ship
+	 */
+	private static void keepShot(Frame f, int index, Shot shot, boolean listed)
+	{
+		int floats = index * SHOT_FLOATS, ints = index * SHOT_INTS;
+		f.shot_floats[floats] = shot.position.x;
+		f.shot_floats[floats + 1] = shot.position.y;
+		f.shot_floats[floats + 2] = shot.displacement.x;
+		f.shot_floats[floats + 3] = shot.displacement.y;
+		f.shot_floats[floats + 4] = shot.getLifetime();
+		f.shot_floats[floats + 5] = shot.getDx();
+		f.shot_floats[floats + 6] = shot.getDy();
+		f.shot_floats[floats + 7] = shot.getVelocity();
+		f.shot_ints[ints] = shot.getId();
+		f.shot_ints[ints + 1] = shot.angle;
+		f.shot_ints[ints + 2] = shot.getStartFrame();
+		f.shot_ints[ints + 3] = shot.force_destruction ? 1 : 0;
+		f.shot_ints[ints + 4] = listed ? 1 : 0;
+	}
+
+	/**
+	 * Call once a frame has been timed: if it went over the budget, write out a capture of it
+	 * and the frames before it, unless one is already being written or one was taken too recently
+	 * @param frame which frame it was
+	 * @param timer what timed it
+	 * @return the name of the file being written, or null if there isn't one
+	 */
+	public String check(int frame, PhaseTimer timer)
+	{
+		if(timer.getLast(PhaseTimer.TICK) <= budget) return null;
+		long now = System.nanoTime();
+		if(busy || captures >= MAX_CAPTURES || now - last_capture < COOLDOWN) return null;
+		last_capture = now;
+		captures++;
+
+		// Oldest first
+		for(int i = 0; i < frames.length; i++) writing[i].copyFrom(frames[(next + i) % frames.length]);
+		for(int i = 0; i < phases.length; i++) phases[i] = timer.getLast(i);
+		slow_frame = frame;
+		width = parent.width;
+		height = parent.height;
+		frame_rate = parent.frameRate;
+
+		busy = true;
+		Thread thread = new Thread(this, "Celestia slow tick capture");
+		thread.setDaemon(true);
+		thread.start();
+		return getFileName();
+	}
+
+	/**
+	 * Put one of a loaded capture's frames back into the server's lists, the way it was once input
+	 * had been read, ready for collisions to be checked and everything to be moved. Whatever was
+	 * in the lists is thrown away, and each Ship gets a ReplayConnection in place of its client
+	 * @param index which frame, from 0 (the oldest) to <code>getFrameCount()</code>
+	 * @param ship_size scale for the size of the Ships
+	 * @param tick_rate how many frames the game runs a second
+	 * @param ships the server's Ships
+	 * @param shots the server's Shots
+	 * @param clients the server's clients that have a Ship
+	 * @return the frame it was captured on, which frameCount needs to be while it's run so that
+	 * Shots expire when they did
+	 */
+	public int restore(int index, int ship_size, float tick_rate, ArrayList<Ship> ships, ArrayList<Shot> shots, ArrayList<Connection> clients)
+	{
+		Frame f = frames[index];
+		ships.clear();
+		shots.clear();
+		clients.clear();
+		Shot[] made = new Shot[f.shot_count];
+		for(int i = 0; i < f.shot_count; i++)
+		{
+			int floats = i * SHOT_FLOATS, ints = i * SHOT_INTS;
+			made[i] = new Shot(parent, f.shot_floats[floats], f.shot_floats[floats + 1], f.shot_ints[ints + 1], tick_rate);
+			made[i].restore(f.shot_floats[floats + 2], f.shot_floats[floats + 3], f.shot_floats[floats + 5], f.shot_floats[floats + 6],
+					f.shot_floats[floats + 7], f.shot_ints[ints], f.shot_ints[ints + 2], f.shot_floats[floats + 4], f.shot_ints[ints + 3] != 0);
+			if(f.shot_ints[ints + 4] != 0) shots.add(made[i]);
+		}
+		int hit = 0;
+		for(int i = 0; i < f.ship_count; i++)
+		{
+			int floats = i * SHIP_FLOATS, ints = i * SHIP_INTS;
+			Ship ship = new Ship(parent, new PVector(f.ship_floats[floats], f.ship_floats[floats + 1]), ship_size, f.names[i], f.ship_floats[floats + 4], tick_rate);
+			int shot = f.ship_ints[ints + 3];
+			ship.restore(f.ship_floats[floats + 2], f.ship_floats[floats + 3], f.ship_ints[ints], f.ship_ints[ints + 1], f.ship_ints[ints + 2],
+					(shot >= 0 && shot < made.length) ? made[shot] : null);
+			for(int j = 0; j < f.ship_ints[ints + 4]; j++) ship.restoreHit(f.hits[hit++]);
+			ships.add(ship);
+			clients.add(new ReplayConnection(f.names[i]));
+		}
+		return f.frame;
+	}
+
+	/**
+	 * Get the number of frames in a loaded capture
+	 * @return the number of frames
+	 */
+	public int getFrameCount()
+	{
+		return frames.length;
+	}
+
+	/**
+	 * Get which frame was slow in a loaded capture
+	 * @return the frame
+	 */
+	public int getSlowFrame()
+	{
+		return slow_frame;
+	}
+
+	/**
+	 * Get how long the slow frame took when it was captured
+	 * @return the time, in nanoseconds
+	 */
+	public long getSlowTime()
+	{
+		return phases[PhaseTimer.TICK];
+	}
+
+	/**
+	 * Get the name of the file the current capture goes in
+	 * @return the file name, relative to the sketch
+	 */
+	private String getFileName()
+	{
+		return directory + "/slowtick-" + slow_frame + ".txt";
+	}
+
+	/**
+	 * Write the capture out
+	 * @see java.lang.Runnable#run()
+	 */
+	public void run()
+	{
+		trace.begin("write", "capture");
+		try
+		{
+			PrintWriter out = parent.createWriter(getFileName());
+			out.println("celestia-capture " + FORMAT_VERSION);
+			out.println("tick " + slow_frame + " took_us " + phases[PhaseTimer.TICK] / 1000 + " budget_us " + budget / 1000 +
+					" width " + width + " height " + height + " frame_rate " + frame_rate);
+			for(int i = 0; i < phases.length; i++)
+			{
+				if(i != PhaseTimer.TICK) out.println("phase " + PhaseTimer.NAMES[i] + " " + phases[i] / 1000);
+			}
+			for(int i = 0; i < writing.length; i++)
+			{
+				Frame f = writing[i];
+				if(f.frame < 0) continue;
+				out.println("frame " + f.frame + " ships " + f.ship_count + " shots " + f.shot_count);
+				int hit = 0;
+				for(int j = 0; j < f.ship_count; j++)
+				{
+					int floats = j * SHIP_FLOATS, ints = j * SHIP_INTS;
+					StringBuilder line = new StringBuilder(128);
+					line.append("ship ").append(f.names[j]).append(' ').append(f.ship_floats[floats]).append(' ').append(f.ship_floats[floats + 1]).append(' ');
+					line.append(f.ship_floats[floats + 2]).append(' ').append(f.ship_floats[floats + 3]).append(' ').append(f.ship_ints[ints]).append(' ');
+					line.append(f.ship_ints[ints + 1]).append(' ').append(f.ship_ints[ints + 2]).append(' ').append(f.ship_ints[ints + 3]).append(' ');
+					line.append(f.ship_floats[floats + 4]).append(' ').append(f.ship_ints[ints + 4]);
+					for(int k = 0; k < f.ship_ints[ints + 4]; k++) line.append(' ').append(f.hits[hit++]);
+					out.println(line);
+				}
+				for(int j = 0; j < f.shot_count; j++)
+				{
+					int floats = j * SHOT_FLOATS, ints = j * SHOT_INTS;
+					out.println("shot " + f.shot_ints[ints] + " " + f.shot_floats[floats] + " " + f.shot_floats[floats + 1] + " " +
+							f.shot_floats[floats + 2] + " " + f.shot_floats[floats + 3] + " " + f.shot_ints[ints + 1] + " " +
+							f.shot_ints[ints + 2] + " " + f.shot_floats[floats + 4] + " " + f.shot_ints[ints + 3] + " " +
+							f.shot_floats[floats + 5] + " " + f.shot_floats[floats + 6] + " " + f.shot_floats[floats + 7] + " " + f.shot_ints[ints + 4]);
+				}
+			}
+			out.close();
+		}
+		finally
+		{
+			trace.end();
+			busy = false;
+		}
+	}
+}
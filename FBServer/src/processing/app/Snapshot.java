@@ -0,0 +1,256 @@
+package processing.app;
+
+import java.util.ArrayList;
+import processing.core.PVector;
+
+/**
+ * Snapshot is the position of every Ship and Shot at the end of a frame, which is what gets
+ * sent to every client. It can be encoded as text (for old clients, and for framed clients
+ * that didn't ask for binary) or as binary, and each encoding is only done once per frame
+ * however many clients want it, and only if at least one of them does.
+ *
+ * @author Chris Granville <v2t04 at students.keele.ac.uk>
+ * @version 3.0f (12/05/2010)
+ * @copyright 2009 - 2010 Chris Granville. All Rights Reserved.
+ * @see <a href="http://goo.gl/VOIb">Fireball: Multiplayer Asteroids</a>
+ */
+
+public class Snapshot
+{
+	/**
+	 * The Ships in this snapshot
+	 */
+	private ArrayList<Ship> ships;
+
+	/**
+	 * The Shots in this snapshot
+	 */
+	private ArrayList<Shot> shots;
+
+	/**
+	 * What happened during the frame
+	 */
+	private EventList events;
+
+	/**
+	 * Sequence number of this snapshot. Wraps around at 65536
+	 */
+	private int sequence;
+
+	/**
+	 * The text encoding, or null if nobody has asked for it yet this frame
+	 */
+	private String text;
+
+	/**
+	 * The binary encodings, without velocities and with them
+	 */
+	private byte[][] binary = { new byte[256], new byte[256] };
+
+	/**
+	 * Length of each binary encoding, or -1 if nobody has asked for it yet this frame
+	 */
+	private int[] binary_length = { -1, -1 };
+
+	/**
+	 * How many frames the server runs a second, to turn displacements into velocities
+	 */
+	private float tick_rate;
+
+	/**
+	 * Constructor for Snapshot
+	 * @param tick_rate how many frames the server runs a second
+	 */
+	Snapshot(float tick_rate)
+	{
+		this.tick_rate = tick_rate;
+	}
+
+	/**
+	 * Point the snapshot at this frame's Ships, Shots and events, throwing away last frame's encodings
+	 * @param ships the Ships
+	 * @param shots the Shots
+	 * @param events what happened during the frame
+	 */
+	public void update(ArrayList<Ship> ships, ArrayList<Shot> shots, EventList events)
+	{
+		this.ships = ships;
+		this.shots = shots;
+		this.events = events;
+		events.resolve(ships);
+		sequence = (sequence + 1) & 0xffff;
+		text = null;
+		binary_length[0] = -1;
+		binary_length[1] = -1;
+	}
+
+	/**
+	 * Get the sequence number of this snapshot
+	 * @return the sequence number, from 0 to 65535
+	 */
+	public int getSequence()
+	{
+		return sequence;
+	}
+
+	/**
+	 * Find a Ship in this snapshot
+	 * @param ship the Ship to look for, or null
+	 * @return its index in the snapshot, or -1 if it isn't in it
+	 */
+	public int indexOf(Ship ship)
+	{
+		return (ship == null) ? -1 : ships.indexOf(ship);
+	}
+
+	/**
+	 * Get what happened during the frame, for the clients that want to know
+	 * @return the events
+	 */
+	public EventList getEvents()
+	{
+		return events;
+	}
+
+	/**
+	 * Get the snapshot in the original text format. The ships first, separated by semicolons,
+	 * then a double slash, then the shots (or "false" if there aren't any). For full details of
+	 * the protocol, see the documentation.
+	 * @return the snapshot as text
+	 */
+	public String getText()
+	{
+		if(text != null) return text;
+		SnapshotEncodeEvent event = new SnapshotEncodeEvent();
+		event.begin();
+		StringBuilder transmission = new StringBuilder(32 * (ships.size() + shots.size()) + 8);
+		for(int i = 0; i < ships.size(); i++)
+		{
+			Ship s = ships.get(i);
+			transmission.append(s.getXPosition()).append(',').append(s.getYPosition()).append(',').append(s.getAngle()).append(',');
+			transmission.append(s.getShieldColor()).append(',').append(s.getShieldStrength());
+			if(i != ships.size() - 1) transmission.append(';');
+		}
+
+		// Add the delimiter...
+		transmission.append("//");
+
+		// And now the shots, if we have any
+		if(shots.size() == 0) transmission.append("false");
+		else
+		{
+			for(int i = 0; i < shots.size(); i++)
+			{
+				Shot s = shots.get(i);
+				transmission.append(s.getXPosition()).append(',').append(s.getYPosition());
+				if(i != shots.size() - 1) transmission.append(';');
+			}
+		}
+		text = transmission.toString();
+		event.end();
+		if(event.shouldCommit())
+		{
+			event.format = "text";
+			event.sequence = sequence;
+			event.ships = ships.size();
+			event.shots = shots.size();
+			event.bytes = text.length();
+			event.commit();
+		}
+		return text;
+	}
+
+	/**
+	 * Get the snapshot in binary, as described by <code>Protocol.FRAME_SNAPSHOT_BINARY</code>.
+	 * Angles are sent from 0 to 359 as the Ships themselves don't keep them in range.
+	 * @param velocities should every Ship and Shot carry its velocity (<code>Protocol.CAP_VELOCITY</code>)
+	 * @return byte array whose first <code>getBinaryLength()</code> bytes are the snapshot
+	 */
+	public byte[] getBinary(boolean velocities)
+	{
+		int format = velocities ? 1 : 0;
+		if(binary_length[format] >= 0) return binary[format];
+		SnapshotEncodeEvent event = new SnapshotEncodeEvent();
+		event.begin();
+		int ship_count = Math.min(ships.size(), 255);
+		int shot_count = Math.min(shots.size(), 255);
+		int extra = velocities ? 4 : 0;
+		int needed = 4 + ship_count * (8 + extra) + shot_count * (4 + extra);
+		if(binary[format].length < needed) binary[format] = new byte[needed * 2];
+		byte[] out = binary[format];
+
+		int position = 0;
+		position = putShort(out, position, sequence);
+		out[position++] = (byte) ship_count;
+		for(int i = 0; i < ship_count; i++)
+		{
+			Ship s = ships.get(i);
+			position = putShort(out, position, s.getXPosition());
+			position = putShort(out, position, s.getYPosition());
+			position = putShort(out, position, ((s.getAngle() % 360) + 360) % 360);
+			out[position++] = (byte) s.getShieldColor();
+			out[position++] = (byte) s.getShieldStrength();
+			if(velocities) position = putVelocity(out, position, s);
+		}
+		out[position++] = (byte) shot_count;
+		for(int i = 0; i < shot_count; i++)
+		{
+			Shot s = shots.get(i);
+			position = putShort(out, position, s.getXPosition());
+			position = putShort(out, position, s.getYPosition());
+			if(velocities) position = putVelocity(out, position, s);
+		}
+		binary_length[format] = position;
+		event.end();
+		if(event.shouldCommit())
+		{
+			event.format = velocities ? "binary+velocity" : "binary";
+			event.sequence = sequence;
+			event.ships = ship_count;
+			event.shots = shot_count;
+			event.bytes = position;
+			event.commit();
+		}
+		return out;
+	}
+
+	/**
+	 * Get the length of a binary encoding
+	 * @param velocities whether it's the encoding with velocities
+	 * @return number of bytes of <code>getBinary()</code> that are the snapshot
+	 */
+	public int getBinaryLength(boolean velocities)
+	{
+		int format = velocities ? 1 : 0;
+		if(binary_length[format] < 0) getBinary(velocities);
+		return binary_length[format];
+	}
+
+	/**
+	 * Write the velocity of an object, in whole pixels a second, into a binary encoding
+	 * @param out the encoding
+	 * @param position where to write it
+	 * @param object the Ship or Shot
+	 * @return the position after it
+	 */
+	private int putVelocity(byte[] out, int position, ServerObject object)
+	{
+		PVector displacement = object.getDisplacement();
+		position = putShort(out, position, Math.round(displacement.x * tick_rate));
+		return putShort(out, position, Math.round(displacement.y * tick_rate));
+	}
+
+	/**
+	 * Write two bytes, big end first, into a binary encoding
+	 * @param out the encoding
+	 * @param position where to write them
+	 * @param value the value to write
+	 * @return the position after them
+	 */
+	private int putShort(byte[] out, int position, int value)
+	{
+		out[position] = (byte) (value >> 8);
+		out[position + 1] = (byte) value;
+		return position + 2;
+	}
+}
@@ -0,0 +1,56 @@
+package processing.app;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * SnapshotEncodeEvent is a Java Flight Recorder event covering the encoding of a Snapshot into
+ * one of its formats. Each format is only encoded once a frame however many clients get it, so
+ * there's at most one of these per format per frame.
+ *
+ * @author Chris Granville <v2t04 at students.keele.ac.uk>
+ * @version 3.0f (12/05/2010)
+ * @copyright 2009 - 2010 Chris Granville. All Rights Reserved.
+ * @see <a href="http://goo.gl/VOIb">Fireball: Multiplayer Asteroids</a>
+ */
+
+@Name("celestia.SnapshotEncode")
+@Label("Snapshot Encode")
+@Category({ "Celestia", "Server", "Network" })
+@Description("Encoding the positions of everything to send to clients")
+class SnapshotEncodeEvent extends jdk.jfr.Event
+{
+	/**
+	 * Which format: "text", "binary" or "binary+velocity"
+	 */
+	@Label("Format")
+	String format;
+
+	/**
+	 * The snapshot's sequence number
+	 */
+	@Label("Sequence")
+	int sequence;
+
+	/**
+	 * Number of Ships in it
+	 */
+	@Label("Ships")
+	int ships;
+
+	/**
+	 * Number of Shots in it
+	 */
+	@Label("Shots")
+	int shots;
+
+	/**
+	 * Size of the encoding
+	 */
+	@Label("Size")
+	@DataAmount
+	int bytes;
+}
@@ -0,0 +1,277 @@
+package processing.app;
+
+import processing.net.Client;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.net.Socket;
+
+/**
+ * TcpConnection is a <code>Connection</code> on top of a processing.net <code>Client</code>.
+ * processing.net writes every message straight onto the socket as soon as it is given it,
+ * and leaves Nagle's algorithm switched on, so a handful of small writes a frame can end up
+ * sat in the kernel waiting for a delayed ACK for tens of milliseconds.
+ *
+ * <p>In low latency mode we switch on TCP_NODELAY and coalesce everything queued during
+ * the frame into a single buffer, which is written with one call (and so one syscall) when
+ * the frame is flushed. Without it, every <code>queue()</code> is written immediately,
+ * which is exactly how things behaved before.</p>
+ *
+ * @author Chris Granville <v2t04 at students.keele.ac.uk>
+ * @version 3.0f (12/05/2010)
+ * @copyright 2009 - 2010 Chris Granville. All Rights Reserved.
+ * @see <a href="http://goo.gl/VOIb">Fireball: Multiplayer Asteroids</a>
+ */
+
+public class TcpConnection implements Connection
+{
+	/**
+	 * Starting size of the outbound buffer. Comfortably fits a full snapshot with every ship and shot
+	 */
+	private static final int INITIAL_BUFFER_SIZE = 1024;
+
+	/**
+	 * The processing.net Client that this connection wraps
+	 */
+	private Client client;
+
+	/**
+	 * Should writes be coalesced and TCP_NODELAY set
+	 */
+	private boolean low_latency;
+
+	/**
+	 * Bytes queued since the last flush
+	 */
+	private byte[] out_buffer = new byte[INITIAL_BUFFER_SIZE];
+
+	/**
+	 * Number of bytes in <code>out_buffer</code> that are waiting to be written
+	 */
+	private int out_count;
+
+	/**
+	 * Compressor that each flush goes through, or null if we're not compressing
+	 */
+	private CompressionStage compression;
+	
+	/**
+	 * The Codec used to talk to this client, once we know which one
+	 */
+	private Codec codec;
+	
+	/**
+	 * Counters for this connection
+	 */
+	private ConnectionStats stats;
+	
+	/**
+	 * Has writing failed at some point. If so, the connection is no use to anyone any more
+	 */
+	private boolean failed;
+
+	/**
+	 * Has close() been called, so there's nothing left to let go of
+	 */
+	private boolean closed;
+
+	/**
+	 * Constructor for TcpConnection
+	 * @param client the processing.net Client handed to us by serverEvent()
+	 * @param low_latency whether to set TCP_NODELAY and coalesce writes into one flush per frame
+	 */
+	TcpConnection(Client client, boolean low_latency)
+	{
+		this.client = client;
+		this.low_latency = low_latency;
+		stats = new ConnectionStats(client.ip());
+		if(low_latency) setNoDelay(client);
+	}
+
+	/**
+	 * processing.net doesn't let us get at the Socket, and it creates the Client itself when
+	 * someone connects, so we have to go and dig it out to switch Nagle off.
+	 * @param client the Client whose socket we want to change
+	 */
+	private static void setNoDelay(Client client)
+	{
+		try
+		{
+			Field field = Client.class.getDeclaredField("socket");
+			field.setAccessible(true);
+			Socket socket = (Socket) field.get(client);
+			if(socket != null) socket.setTcpNoDelay(true);
+		}
+		catch (Exception e)	// Not the end of the world, we just don't get the lower latency
+		{
+			System.err.println("Could not set TCP_NODELAY for " + client.ip() + ": " + e);
+		}
+	}
+
+	/**
+	 * @see Connection#ip()
+	 */
+	public String ip()
+	{
+		return client.ip();
+	}
+
+	/**
+	 * @see Connection#active()
+	 */
+	public boolean active()
+	{
+		return !failed && client.active();
+	}
+
+	/**
+	 * @see Connection#available()
+	 */
+	public int available()
+	{
+		return client.available();
+	}
+
+	/**
+	 * @see Connection#read(byte[])
+	 */
+	public int read(byte[] buffer)
+	{
+		return client.readBytes(buffer);
+	}
+
+	/**
+	 * The protocol is plain ASCII, so copy the characters straight into the buffer instead
+	 * of going through getBytes() and making a new array every time
+	 * @see Connection#queue(String)
+	 */
+	public void queue(String message)
+	{
+		int length = message.length();
+		ensureCapacity(length);
+		for(int i = 0; i < length; i++) out_buffer[out_count++] = (byte) message.charAt(i);
+		if(!low_latency) flush();
+	}
+
+	/**
+	 * @see Connection#queue(byte[], int, int)
+	 */
+	public void queue(byte[] data, int offset, int length)
+	{
+		ensureCapacity(length);
+		System.arraycopy(data, offset, out_buffer, out_count, length);
+		out_count += length;
+		if(!low_latency) flush();
+	}
+
+	/**
+	 * Write the whole outbound buffer in one go, compressing it into a single frame first if
+	 * compression is switched on
+	 * @see Connection#flush()
+	 */
+	public int flush()
+	{
+		int written = out_count;
+		if(written == 0 || failed) return 0;
+		out_count = 0;
+		try
+		{
+			OutputStream output = client.output;
+			if(compression != null)
+			{
+				compression.compress(out_buffer, 0, written);
+				written = compression.getFrameLength();
+				output.write(compression.getFrame(), 0, written);
+			}
+			else output.write(out_buffer, 0, written);
+			output.flush();
+		}
+		catch (IOException e)
+		{
+			// Same as processing.net: if we can't write to it, the client's gone
+			failed = true;
+			close();
+			return 0;
+		}
+		return written;
+	}
+
+	/**
+	 * @see Connection#enableCompression(CompressionStage)
+	 */
+	public void enableCompression(CompressionStage stage)
+	{
+		flush();
+		compression = stage;
+	}
+	
+	/**
+	 * @see Connection#getCompression()
+	 */
+	public CompressionStage getCompression()
+	{
+		return compression;
+	}
+	
+	/**
+	 * We can't see into the socket's buffers, so this is only what hasn't been flushed yet
+	 * @see Connection#queued()
+	 */
+	public int queued()
+	{
+		return out_count;
+	}
+	
+	/**
+	 * @see Connection#getStats()
+	 */
+	public ConnectionStats getStats()
+	{
+		return stats;
+	}
+	
+	/**
+	 * @see Connection#getCodec()
+	 */
+	public Codec getCodec()
+	{
+		return codec;
+	}
+	
+	/**
+	 * @see Connection#setCodec(Codec)
+	 */
+	public void setCodec(Codec codec)
+	{
+		this.codec = codec;
+	}
+	
+	/**
+	 * Drop anything that hasn't been sent, stop the underlying Client and let go of the
+	 * compressor's native memory. Safe to call more than once
+	 * @see Connection#close()
+	 */
+	public void close()
+	{
+		out_count = 0;
+		if(closed) return;
+		closed = true;
+		if(compression != null) compression.end();
+		client.stop();
+	}
+
+	/**
+	 * Make sure there's space in the outbound buffer for <code>length</code> more bytes,
+	 * doubling it if there isn't. It will settle at the size of the largest frame
+	 * @param length the number of bytes about to be added
+	 */
+	private void ensureCapacity(int length)
+	{
+		if(out_count + length <= out_buffer.length) return;
+		int size = out_buffer.length;
+		while(size < out_count + length) size *= 2;
+		byte[] bigger = new byte[size];
+		System.arraycopy(out_buffer, 0, bigger, 0, out_count);
+		out_buffer = bigger;
+	}
+}
@@ -0,0 +1,58 @@
+package processing.app;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * TickEvent is a Java Flight Recorder event covering a whole server frame, from the start of
+ * draw() to the end, with how busy the game was. Record a session with
+ * <code>-XX:StartFlightRecording</code> and slow frames can be lined up against garbage
+ * collections, safepoints and I/O on the same timeline.
+ *
+ * <p>Like all the JFR events here, it costs next to nothing when nothing is recording it: the
+ * fields are only filled in if <code>shouldCommit()</code> says it's wanted.</p>
+ *
+ * @author Chris Granville <v2t04 at students.keele.ac.uk>
+ * @version 3.0f (12/05/2010)
+ * @copyright 2009 - 2010 Chris Granville. All Rights Reserved.
+ * @see <a href="http://goo.gl/VOIb">Fireball: Multiplayer Asteroids</a>
+ */
+
+@Name("celestia.Tick")
+@Label("Tick")
+@Category({ "Celestia", "Server" })
+@Description("One server frame")
+class TickEvent extends jdk.jfr.Event
+{
+	/**
+	 * Which frame it was
+	 */
+	@Label("Frame")
+	int frame;
+
+	/**
+	 * Number of Ships in the game
+	 */
+	@Label("Ships")
+	int ships;
+
+	/**
+	 * Number of Shots in the game
+	 */
+	@Label("Shots")
+	int shots;
+
+	/**
+	 * Number of connections, with or without a Ship
+	 */
+	@Label("Connections")
+	int connections;
+
+	/**
+	 * Number of events (shots fired, hits, Ships destroyed) sent to clients
+	 */
+	@Label("Game Events")
+	int game_events;
+}
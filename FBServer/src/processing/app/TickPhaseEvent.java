@@ -0,0 +1,35 @@
+package processing.app;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * TickPhaseEvent is a Java Flight Recorder event covering one of the phases PhaseTimer times,
+ * so a slow TickEvent can be broken down into the part of the frame that was slow.
+ *
+ * @author Chris Granville <v2t04 at students.keele.ac.uk>
+ * @version 3.0f (12/05/2010)
+ * @copyright 2009 - 2010 Chris Granville. All Rights Reserved.
+ * @see <a href="http://goo.gl/VOIb">Fireball: Multiplayer Asteroids</a>
+ */
+
+@Name("celestia.TickPhase")
+@Label("Tick Phase")
+@Category({ "Celestia", "Server" })
+@Description("One part of a server frame, such as collisions or flushing to clients")
+class TickPhaseEvent extends jdk.jfr.Event
+{
+	/**
+	 * Which phase, one of <code>PhaseTimer.NAMES</code>
+	 */
+	@Label("Phase")
+	String phase;
+
+	/**
+	 * Which frame it was part of
+	 */
+	@Label("Frame")
+	int frame;
+}
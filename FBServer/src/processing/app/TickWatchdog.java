@@ -0,0 +1,196 @@
+package processing.app;
+
+/**
+ * TickWatchdog notices when the server can't keep up and sheds load a step at a time, rather than
+ * leaving Processing to quietly lower the frame rate, which slows the game down for everyone.
+ * Each level does everything the one before it did and a bit more:
+ *
+ * <ol start="0">
+ * <li><code>NORMAL</code> - nothing is held back</li>
+ * <li><code>REDUCE_SNAPSHOTS</code> - every client's snapshot rate is capped</li>
+ * <li><code>NO_DRAWING</code> - the world isn't drawn on the server's window</li>
+ * <li><code>REFUSE_JOINS</code> - new clients are turned away</li>
+ * </ol>
+ *
+ * <p>Frames are looked at a window (a second's worth) at a time. A window where too many frames
+ * went over the budget, or where the game loop was busy for longer than the window lasted, takes
+ * the server down a level; it takes several quiet windows in a row to come back up one, so that
+ * getting some time back by shedding load doesn't immediately undo itself. Only one step is
+ * taken a window either way.</p>
+ *
+ * <p>Only the game loop calls <code>frame()</code>, but the level is read by MetricsServer on
+ * its own thread, so it's volatile.</p>
+ *
+ * @author Chris Granville <v2t04 at students.keele.ac.uk>
+ * @version 3.0f (12/05/2010)
+ * @copyright 2009 - 2010 Chris Granville. All Rights Reserved.
+ * @see <a href="http://goo.gl/VOIb">Fireball: Multiplayer Asteroids</a>
+ */
+
+public class TickWatchdog
+{
+	/**
+	 * Level: keeping up, nothing is held back
+	 */
+	public static final int NORMAL = 0;
+
+	/**
+	 * Level: snapshot rates are capped
+	 */
+	public static final int REDUCE_SNAPSHOTS = 1;
+
+	/**
+	 * Level: the world isn't drawn either
+	 */
+	public static final int NO_DRAWING = 2;
+
+	/**
+	 * Level: new clients are turned away as well
+	 */
+	public static final int REFUSE_JOINS = 3;
+
+	/**
+	 * Names of the levels, for the screen and the log
+	 */
+	public static final String[] NAMES = { "normal", "reduced snapshots", "no drawing", "refusing joins" };
+
+	/**
+	 * A window where at least this fraction of frames went over the budget goes down a level
+	 */
+	private static final float DEGRADE_FRACTION = 0.2f;
+
+	/**
+	 * A window is quiet if no frame went over the budget and the game loop was busy for less
+	 * than this fraction of it
+	 */
+	private static final float RECOVER_LOAD = 0.6f;
+
+	/**
+	 * Number of quiet windows in a row it takes to go back up a level
+	 */
+	private static final int RECOVER_WINDOWS = 5;
+
+	/**
+	 * A frame longer than this has gone over the budget, in nanoseconds
+	 */
+	private long budget;
+
+	/**
+	 * Number of frames in a window
+	 */
+	private int window;
+
+	/**
+	 * The lowest level we're allowed to go down to
+	 */
+	private int max_level;
+
+	/**
+	 * The current level
+	 */
+	private volatile int level = NORMAL;
+
+	/**
+	 * Frames so far this window, and how many of them went over the budget
+	 */
+	private int frames, overruns;
+
+	/**
+	 * Time the game loop has been busy so far this window, in nanoseconds
+	 */
+	private long busy;
+
+	/**
+	 * Number of quiet windows in a row
+	 */
+	private int quiet;
+
+	/**
+	 * Number of times each level has been gone down to and come back up to
+	 */
+	private long[] degraded = new long[NAMES.length], recovered = new long[NAMES.length];
+
+	/**
+	 * Constructor for TickWatchdog
+	 * @param budget longest a frame should take, in milliseconds, usually 1000 / the tick rate
+	 * @param window number of frames to look at at a time, usually the tick rate
+	 * @param max_level the lowest level to go down to, from <code>NORMAL</code> (never do anything)
+	 * to <code>REFUSE_JOINS</code>
+	 */
+	TickWatchdog(float budget, int window, int max_level)
+	{
+		this.budget = (long) (budget * 1000000);
+		this.window = window;
+		this.max_level = Math.max(NORMAL, Math.min(max_level, REFUSE_JOINS));
+	}
+
+	/**
+	 * Count a finished frame, and change level if it finishes a window that calls for it
+	 * @param nanos how long the frame took, in nanoseconds
+	 * @return a boolean indicating whether the level changed
+	 */
+	public boolean frame(long nanos)
+	{
+		frames++;
+		busy += nanos;
+		if(nanos > budget) overruns++;
+		if(frames < window) return false;
+
+		boolean changed = false;
+		if(overruns >= DEGRADE_FRACTION * frames || busy > budget * frames)
+		{
+			quiet = 0;
+			if(level < max_level)
+			{
+				level++;
+				degraded[level]++;
+				changed = true;
+			}
+		}
+		else if(overruns == 0 && busy < RECOVER_LOAD * budget * frames)
+		{
+			if(++quiet >= RECOVER_WINDOWS && level > NORMAL)
+			{
+				level--;
+				recovered[level]++;
+				quiet = 0;
+				changed = true;
+			}
+		}
+		else quiet = 0;
+
+		frames = 0;
+		overruns = 0;
+		busy = 0;
+		return changed;
+	}
+
+	/**
+	 * Get the current level
+	 * @return the level, from <code>NORMAL</code> to <code>REFUSE_JOINS</code>
+	 */
+	public int getLevel()
+	{
+		return level;
+	}
+
+	/**
+	 * Get the number of times the server has gone down to a level
+	 * @param level the level
+	 * @return the number of times
+	 */
+	public long getDegraded(int level)
+	{
+		return degraded[level];
+	}
+
+	/**
+	 * Get the number of times the server has come back up to a level
+	 * @param level the level
+	 * @return the number of times
+	 */
+	public long getRecovered(int level)
+	{
+		return recovered[level];
+	}
+}
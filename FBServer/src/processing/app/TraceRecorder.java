@@ -0,0 +1,394 @@
+package processing.app;
+
+import java.io.PrintWriter;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.CopyOnWriteArrayList;
+import processing.core.PApplet;
+
+/**
+ * TraceRecorder records what every thread was doing, span by span, for a few seconds at a time
+ * and writes it out in the Chrome trace event format, which chrome://tracing and Perfetto
+ * (ui.perfetto.dev) can open. The histograms say how long each phase of a frame takes on
+ * average; a trace shows each frame one after another, and what the logger, the metrics server
+ * and the garbage collector were up to at the time, so a stall can be seen for what it is.
+ *
+ * <p>Each thread has a buffer of its own, made the first time it records anything and kept for
+ * every trace after, so recording a span is a few array stores with no locking and nothing
+ * made. Spans are kept as start and end times together (a "complete" event in the format) once
+ * they've finished, so a trace never has a beginning without an end. A full buffer drops the
+ * rest of its thread's spans, and the trace says how many went.</p>
+ *
+ * <p>Nothing is recorded outside a trace apart from checking a volatile. Once the time is up
+ * the game loop notices in <code>check()</code> and the trace is written out on a thread of its
+ * own, to <code>trace-&lt;date&gt;.json</code> in the directory it was given.</p>
+ *
+ * @author Chris Granville <v2t04 at students.keele.ac.uk>
+ * @version 3.0f (12/05/2010)
+ * @copyright 2009 - 2010 Chris Granville. All Rights Reserved.
+ * @see <a href="http://goo.gl/VOIb">Fireball: Multiplayer Asteroids</a>
+ */
+
+public class TraceRecorder implements Runnable
+{
+	/**
+	 * How deeply a thread's spans can be nested
+	 */
+	private static final int MAX_DEPTH = 16;
+
+	/**
+	 * How long to give threads to finish the span they were recording when the time ran out
+	 * before their buffers are read, in milliseconds
+	 */
+	private static final long SETTLE = 50;
+
+	/**
+	 * One thread's spans
+	 */
+	private static class Buffer
+	{
+		/**
+		 * The thread's name, for labelling its track
+		 */
+		private String thread_name;
+
+		/**
+		 * The thread's id
+		 */
+		private long thread_id;
+
+		/**
+		 * Which trace the spans belong to. A buffer from an old trace is emptied before it's used
+		 */
+		private int session;
+
+		/**
+		 * Number of spans recorded. Written after the span, so whoever reads it sees the whole span
+		 */
+		private volatile int count;
+
+		/**
+		 * Number of spans that didn't fit
+		 */
+		private int dropped;
+
+		/**
+		 * Each span's name and category
+		 */
+		private String[] names, categories;
+
+		/**
+		 * Each span's start and end, from System.nanoTime()
+		 */
+		private long[] starts, ends;
+
+		/**
+		 * The frame each span was in, or -1 if it wasn't part of one
+		 */
+		private int[] frames;
+
+		/**
+		 * Spans begun but not ended yet, innermost last
+		 */
+		private String[] open_names = new String[MAX_DEPTH], open_categories = new String[MAX_DEPTH];
+
+		/**
+		 * When each of those began
+		 */
+		private long[] open_starts = new long[MAX_DEPTH];
+
+		/**
+		 * Number of spans begun but not ended yet
+		 */
+		private int depth;
+
+		/**
+		 * Constructor for Buffer
+		 * @param capacity the most spans it can hold
+		 */
+		Buffer(int capacity)
+		{
+			thread_name = Thread.currentThread().getName();
+			thread_id = Thread.currentThread().getId();
+			names = new String[capacity];
+			categories = new String[capacity];
+			starts = new long[capacity];
+			ends = new long[capacity];
+			frames = new int[capacity];
+		}
+	}
+
+	/**
+	 * Parent PApplet, for making files
+	 */
+	private PApplet parent;
+
+	/**
+	 * The directory traces are written to, next to the sketch
+	 */
+	private String directory;
+
+	/**
+	 * The most spans each thread can record in one trace
+	 */
+	private int capacity;
+
+	/**
+	 * Each thread's buffer
+	 */
+	private ThreadLocal<Buffer> local = new ThreadLocal<Buffer>();
+
+	/**
+	 * Every thread's buffer, for writing them out
+	 */
+	private CopyOnWriteArrayList<Buffer> buffers = new CopyOnWriteArrayList<Buffer>();
+
+	/**
+	 * Is a trace being recorded
+	 */
+	private volatile boolean recording;
+
+	/**
+	 * Is a trace being written out
+	 */
+	private volatile boolean busy;
+
+	/**
+	 * Which trace this is, counting from 1
+	 */
+	private volatile int session;
+
+	/**
+	 * When the trace started and when it stops, from System.nanoTime()
+	 */
+	private long started, until;
+
+	/**
+	 * The name of the file the trace goes in
+	 */
+	private String file_name;
+
+	/**
+	 * Constructor for TraceRecorder. Nothing is recorded until <code>start()</code>
+	 * @param parent the parent PApplet
+	 * @param directory the directory to write traces to, next to the sketch
+	 * @param capacity the most spans each thread can record in one trace
+	 */
+	TraceRecorder(PApplet parent, String directory, int capacity)
+	{
+		this.parent = parent;
+		this.directory = directory;
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Start recording a trace, unless one is already being recorded or written out
+	 * @param seconds how long to record for
+	 * @return a boolean indicating whether it started
+	 */
+	public synchronized boolean start(float seconds)
+	{
+		if(recording || busy) return false;
+		started = System.nanoTime();
+		until = started + (long) (seconds * 1000000000L);
+		file_name = directory + "/trace-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()) + ".json";
+		session++;
+		recording = true;
+		return true;
+	}
+
+	/**
+	 * Find out whether a trace is being recorded, to save working out a span that won't be kept
+	 * @return a boolean indicating whether it is
+	 */
+	public boolean isRecording()
+	{
+		return recording;
+	}
+
+	/**
+	 * Call once a frame: if the trace's time is up, stop recording and write it out
+	 * @return the name of the file being written, or null if there isn't one
+	 */
+	public synchronized String check()
+	{
+		if(!recording || System.nanoTime() < until) return null;
+		recording = false;
+		busy = true;
+		Thread thread = new Thread(this, "Celestia trace writer");
+		thread.setDaemon(true);
+		thread.start();
+		return file_name;
+	}
+
+	/**
+	 * Start a span on this thread. Spans on the same thread have to end in the reverse of the
+	 * order they began
+	 * @param name what's being done. Should be a constant
+	 * @param category what it's part of, such as "tick" or "network". Should be a constant
+	 */
+	public void begin(String name, String category)
+	{
+		if(!recording) return;
+		Buffer buffer = buffer();
+		// Anything nested deeper than we can keep is still counted, so the ends match up
+		if(buffer.depth < MAX_DEPTH)
+		{
+			buffer.open_names[buffer.depth] = name;
+			buffer.open_categories[buffer.depth] = category;
+			buffer.open_starts[buffer.depth] = System.nanoTime();
+		}
+		buffer.depth++;
+	}
+
+	/**
+	 * End the span most recently begun on this thread
+	 */
+	public void end()
+	{
+		if(!recording) return;
+		Buffer buffer = buffer();
+		if(buffer.depth == 0) return;	// It began before the trace did
+		buffer.depth--;
+		if(buffer.depth < MAX_DEPTH) add(buffer, buffer.open_names[buffer.depth], buffer.open_categories[buffer.depth], buffer.open_starts[buffer.depth], System.nanoTime(), -1);
+	}
+
+	/**
+	 * Record a span that has already finished, on this thread's track
+	 * @param name what was done. Should be a constant
+	 * @param category what it was part of. Should be a constant
+	 * @param start when it started, from System.nanoTime()
+	 * @param end when it ended, from System.nanoTime()
+	 * @param frame the frame it was in, or -1
+	 */
+	public void complete(String name, String category, long start, long end, int frame)
+	{
+		if(!recording) return;
+		add(buffer(), name, category, start, end, frame);
+	}
+
+	/**
+	 * Get this thread's buffer, making it if this is the first time, and emptying it if it's
+	 * left over from an old trace
+	 * @return the buffer
+	 */
+	private Buffer buffer()
+	{
+		Buffer buffer = local.get();
+		if(buffer == null)
+		{
+			buffer = new Buffer(capacity);
+			local.set(buffer);
+			buffers.add(buffer);
+		}
+		if(buffer.session != session)
+		{
+			buffer.count = 0;
+			buffer.dropped = 0;
+			buffer.depth = 0;
+			buffer.session = session;
+		}
+		return buffer;
+	}
+
+	/**
+	 * Add a finished span to a buffer
+	 * @param buffer the thread's buffer
+	 * @param name what was done
+	 * @param category what it was part of
+	 * @param start when it started, from System.nanoTime()
+	 * @param end when it ended, from System.nanoTime()
+	 * @param frame the frame it was in, or -1
+	 */
+	private void add(Buffer buffer, String name, String category, long start, long end, int frame)
+	{
+		int count = buffer.count;
+		if(count == capacity)
+		{
+			buffer.dropped++;
+			return;
+		}
+		buffer.names[count] = name;
+		buffer.categories[count] = category;
+		buffer.starts[count] = start;
+		buffer.ends[count] = end;
+		buffer.frames[count] = frame;
+		buffer.count = count + 1;
+	}
+
+	/**
+	 * Write the trace out
+	 * @see java.lang.Runnable#run()
+	 */
+	public void run()
+	{
+		try
+		{
+			Thread.sleep(SETTLE);
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		try
+		{
+			PrintWriter out = parent.createWriter(file_name);
+			out.println("{\"traceEvents\":[");
+			out.print("{\"name\":\"process_name\",\"ph\":\"M\",\"pid\":1,\"tid\":0,\"args\":{\"name\":\"Celestia Server\"}}");
+			int spans = 0, dropped = 0;
+			for(Buffer buffer : buffers)
+			{
+				if(buffer.session != session) continue;
+				int count = buffer.count;
+				out.print(",\n{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":" + buffer.thread_id + ",\"args\":{\"name\":\"" + escape(buffer.thread_name) + "\"}}");
+				for(int i = 0; i < count; i++)
+				{
+					long start = Math.max(buffer.starts[i], started);
+					out.print(",\n{\"name\":\"" + buffer.names[i] + "\",\"cat\":\"" + buffer.categories[i] + "\",\"ph\":\"X\",\"pid\":1,\"tid\":" + buffer.thread_id +
+							",\"ts\":" + micros(start - started) + ",\"dur\":" + micros(buffer.ends[i] - start));
+					if(buffer.frames[i] >= 0) out.print(",\"args\":{\"frame\":" + buffer.frames[i] + "}");
+					out.print("}");
+				}
+				spans += count;
+				dropped += buffer.dropped;
+			}
+			out.println("\n],");
+			out.println("\"displayTimeUnit\":\"ms\",");
+			out.println("\"otherData\":{\"spans\":" + spans + ",\"dropped\":" + dropped + ",\"seconds\":" + micros(until - started) / 1000000 + "}");
+			out.println("}");
+			out.close();
+		}
+		finally
+		{
+			busy = false;
+		}
+	}
+
+	/**
+	 * Write a time in microseconds, to the nearest nanosecond
+	 * @param nanos the time, in nanoseconds
+	 * @return the time in microseconds
+	 */
+	private static double micros(long nanos)
+	{
+		return nanos / 1000.0;
+	}
+
+	/**
+	 * Make a string safe to put between quotes in JSON
+	 * @param text the string
+	 * @return the string with quotes, backslashes and control characters escaped
+	 */
+	private static String escape(String text)
+	{
+		StringBuilder result = new StringBuilder(text.length());
+		for(int i = 0; i < text.length(); i++)
+		{
+			char c = text.charAt(i);
+			if(c == '"' || c == '\\') result.append('\\').append(c);
+			else if(c < ' ') result.append(String.format("\\u%04x", (int) c));
+			else result.append(c);
+		}
+		return result.toString();
+	}
+}
@@ -0,0 +1,87 @@
+package processing.app;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Inflater;
+
+/**
+ * CompressionStageTest checks that a flush too big to compress into one block is split into
+ * blocks whose lengths fit their two byte headers, and that inflating them one after another,
+ * as the client does, gives back what went in. There's no test framework in the build, so
+ * this is run by hand: <code>java -cp core.jar:net.jar:bin processing.app.CompressionStageTest</code>
+ *
+ * @author Chris Granville <v2t04 at students.keele.ac.uk>
+ * @version 3.0f (12/05/2010)
+ * @copyright 2009 - 2010 Chris Granville. All Rights Reserved.
+ * @see <a href="http://goo.gl/VOIb">Fireball: Multiplayer Asteroids</a>
+ */
+
+public class CompressionStageTest
+{
+	public static void main(String args[]) throws Exception
+	{
+		CompressionStage stage = new CompressionStage(6);
+		Inflater inflater = new Inflater(true);
+		inflater.setDictionary(Protocol.DICTIONARY);
+
+		// Random bytes don't compress, so this is bound to come out bigger than one block
+		byte[] big = new byte[3 * Protocol.MAX_FRAME_SIZE];
+		new Random(1).nextBytes(big);
+		stage.compress(big, 0, big.length);
+		check(stage.getFrameLength() > Protocol.MAX_FRAME_SIZE + Protocol.COMPRESSED_HEADER_SIZE, "big flush needs more than one block");
+		check(Arrays.equals(inflate(stage, inflater, big.length), big), "big flush comes back the same");
+
+		// And the stream carries on as normal afterwards
+		byte[] small = "0,150.0,100,-20,30,40".getBytes();
+		stage.compress(small, 0, small.length);
+		check(stage.getFrameLength() <= Protocol.MAX_FRAME_SIZE + Protocol.COMPRESSED_HEADER_SIZE, "small flush fits one block");
+		check(Arrays.equals(inflate(stage, inflater, small.length), small), "small flush comes back the same");
+
+		stage.end();
+		inflater.end();
+		System.out.println("CompressionStageTest passed");
+	}
+
+	/**
+	 * Inflate the last frame a CompressionStage made, block by block, checking each block's length
+	 * @param stage the stage that made the frame
+	 * @param inflater the client's end of the stream
+	 * @param expected how many bytes should come out
+	 * @return what came out
+	 */
+	private static byte[] inflate(CompressionStage stage, Inflater inflater, int expected) throws Exception
+	{
+		byte[] frame = stage.getFrame();
+		byte[] output = new byte[expected + 1];
+		int output_length = 0;
+		int position = 0;
+		while(position < stage.getFrameLength())
+		{
+			int block_length = ((frame[position] & 0xff) << 8) | (frame[position + 1] & 0xff);
+			position += Protocol.COMPRESSED_HEADER_SIZE;
+			check(position + block_length <= stage.getFrameLength(), "block fits in the frame");
+			inflater.setInput(frame, position, block_length);
+			int produced;
+			do
+			{
+				produced = inflater.inflate(output, output_length, output.length - output_length);
+				output_length += produced;
+			}
+			while(produced > 0);
+			position += block_length;
+		}
+		return Arrays.copyOf(output, output_length);
+	}
+
+	/**
+	 * Stop with a message if something isn't what it should be
+	 * @param ok whether the check passed
+	 * @param what what was being checked
+	 */
+	private static void check(boolean ok, String what)
+	{
+		if(ok) return;
+		System.err.println("CompressionStageTest failed: " + what);
+		System.exit(1);
+	}
+}
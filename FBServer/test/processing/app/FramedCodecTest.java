@@ -0,0 +1,74 @@
+package processing.app;
+
+/**
+ * FramedCodecTest checks that a client which sends a frame header bigger than any client frame
+ * can be gets its connection closed, rather than the server sitting there waiting for the rest
+ * of it. There's no test framework in the build, so this is run by hand:
+ * <code>java -cp core.jar:net.jar:bin processing.app.FramedCodecTest</code>
+ *
+ * @author Chris Granville <v2t04 at students.keele.ac.uk>
+ * @version 3.0f (12/05/2010)
+ * @copyright 2009 - 2010 Chris Granville. All Rights Reserved.
+ * @see <a href="http://goo.gl/VOIb">Fireball: Multiplayer Asteroids</a>
+ */
+
+public class FramedCodecTest
+{
+	/**
+	 * A connection with nobody on the other end that remembers whether it's been closed
+	 */
+	private static class ClosingConnection extends ReplayConnection
+	{
+		/**
+		 * Has close() been called
+		 */
+		boolean closed;
+
+		ClosingConnection()
+		{
+			super("test");
+		}
+
+		public void close()
+		{
+			closed = true;
+		}
+	}
+
+	public static void main(String args[])
+	{
+		ClosingConnection connection = new ClosingConnection();
+		FramedCodec codec = new FramedCodec(Protocol.CAP_BINARY, 0, new RateController(10, 30, 30));
+
+		byte[] hello = (Protocol.HELLO + " " + Protocol.VERSION + " " + Protocol.CAP_BINARY + "\n").getBytes();
+		check(codec.receive(connection, null, hello, 0, hello.length) == null, "hello accepted");
+		check(!connection.closed, "connection open after hello");
+
+		// A perfectly good input frame first, so we know frames are getting through
+		byte[] input = { (byte) Protocol.FRAME_INPUT, 0, 3, 0, 0, 1 };
+		check(codec.receive(connection, null, input, 0, input.length) == null, "input frame accepted");
+		check(!connection.closed, "connection open after input frame");
+
+		// Then a header promising more than any client would ever send, and none of the payload
+		int length = Protocol.MAX_CLIENT_FRAME + 1;
+		byte[] header = { (byte) Protocol.FRAME_INPUT, (byte) (length >> 8), (byte) length };
+		check(codec.receive(connection, null, header, 0, header.length) != null, "oversized frame reported");
+		check(connection.closed, "connection closed after oversized frame");
+
+		// And nothing after that gets looked at
+		check(codec.receive(connection, null, input, 0, input.length) == null, "input ignored once closed");
+		System.out.println("FramedCodecTest passed");
+	}
+
+	/**
+	 * Stop with a message if something isn't what it should be
+	 * @param ok whether the check passed
+	 * @param what what was being checked
+	 */
+	private static void check(boolean ok, String what)
+	{
+		if(ok) return;
+		System.err.println("FramedCodecTest failed: " + what);
+		System.exit(1);
+	}
+}